@@ -57,6 +57,22 @@ JNIEXPORT jdouble JNICALL Java_se_hb_jcp_bindings_libsvm_SparseDoubleMatrix1D_na
 JNIEXPORT void JNICALL Java_se_hb_jcp_bindings_libsvm_SparseDoubleMatrix1D_native_1vector_1set
   (JNIEnv *, jclass, jlong, jint, jdouble);
 
+/*
+ * Class:     se_hb_jcp_bindings_libsvm_SparseDoubleMatrix1D
+ * Method:    native_vector_nnz
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_se_hb_jcp_bindings_libsvm_SparseDoubleMatrix1D_native_1vector_1nnz
+  (JNIEnv *, jclass, jlong);
+
+/*
+ * Class:     se_hb_jcp_bindings_libsvm_SparseDoubleMatrix1D
+ * Method:    native_vector_get_nodes
+ * Signature: (J[I[D)V
+ */
+JNIEXPORT void JNICALL Java_se_hb_jcp_bindings_libsvm_SparseDoubleMatrix1D_native_1vector_1get_1nodes
+  (JNIEnv *, jclass, jlong, jintArray, jdoubleArray);
+
 #ifdef __cplusplus
 }
 #endif
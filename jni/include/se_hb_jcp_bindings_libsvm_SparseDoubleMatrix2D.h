@@ -17,6 +17,14 @@ extern "C" {
 JNIEXPORT jlong JNICALL Java_se_hb_jcp_bindings_libsvm_SparseDoubleMatrix2D_native_1matrix_1create
   (JNIEnv *, jclass, jint, jint);
 
+/*
+ * Class:     se_hb_jcp_bindings_libsvm_SparseDoubleMatrix2D
+ * Method:    native_matrix_create_concatenated
+ * Signature: (JIJI)J
+ */
+JNIEXPORT jlong JNICALL Java_se_hb_jcp_bindings_libsvm_SparseDoubleMatrix2D_native_1matrix_1create_1concatenated
+  (JNIEnv *, jclass, jlong, jint, jlong, jint);
+
 /*
  * Class:     se_hb_jcp_bindings_libsvm_SparseDoubleMatrix2D
  * Method:    native_matrix_free
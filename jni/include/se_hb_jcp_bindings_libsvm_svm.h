@@ -121,6 +121,14 @@ JNIEXPORT jdouble JNICALL Java_se_hb_jcp_bindings_libsvm_svm_native_1svm_1predic
 JNIEXPORT jdouble JNICALL Java_se_hb_jcp_bindings_libsvm_svm_native_1svm_1predict_1probability_1fast
   (JNIEnv *, jclass, jlong, jlong, jdoubleArray);
 
+/*
+ * Class:     se_hb_jcp_bindings_libsvm_svm
+ * Method:    native_svm_predict_probability_matrix
+ * Signature: (JJII[D)V
+ */
+JNIEXPORT void JNICALL Java_se_hb_jcp_bindings_libsvm_svm_native_1svm_1predict_1probability_1matrix
+  (JNIEnv *, jclass, jlong, jlong, jint, jint, jdoubleArray);
+
 /*
  * Class:     se_hb_jcp_bindings_libsvm_svm
  * Method:    native_svm_save_model
@@ -500,6 +500,45 @@ Java_se_hb_jcp_bindings_libsvm_svm_native_1svm_1predict_1probability_1fast
     return result;
 }
 
+/*
+ * Class:     se_hb_jcp_bindings_libsvm_svm
+ * Method:    native_svm_predict_probability_matrix
+ * Signature: (JJII[D)V
+ */
+JNIEXPORT void JNICALL
+Java_se_hb_jcp_bindings_libsvm_svm_native_1svm_1predict_1probability_1matrix
+    (JNIEnv*      env,
+     jclass       jsvm,
+     jlong        jmodel_ptr,
+     jlong        jmatrix_ptr,
+     jint         first,
+     jint         last,
+     jdoubleArray jprob_estimates)
+{
+    struct svm_model* model = (struct svm_model*)jmodel_ptr;
+    struct svm_node** m = (struct svm_node**)jmatrix_ptr;
+    int nr_class = svm_get_nr_class(model);
+    jdouble* jprob_estimates_elems =
+        env->GetDoubleArrayElements(jprob_estimates, NULL);
+    if (env->ExceptionOccurred()) {
+        std::cerr
+            << "Java_se_hb_jcp_bindings_libsvm_svm_native_1svm_1predict_1probability_1matrix():"
+            << " Java exception at argument conversion."
+            << std::endl;
+        return;
+    }
+    // One JNI transition and one array pinning for the whole block of rows.
+    for (int i = first; i < last; i++) {
+        svm_predict_probability(model,
+                                m[i],
+                                jprob_estimates_elems + (i - first)*nr_class);
+    }
+
+    env->ReleaseDoubleArrayElements(jprob_estimates,
+                                    jprob_estimates_elems,
+                                    0);
+}
+
 /*
  * Class:     se_hb_jcp_bindings_libsvm_svm
  * Method:    native_svm_check_parameter
@@ -932,6 +971,52 @@ Java_se_hb_jcp_bindings_libsvm_SparseDoubleMatrix1D_native_1vector_1set
     instance_rc.dec(old);
 }
 
+/*
+ * Class:     se_hb_jcp_bindings_libsvm_SparseDoubleMatrix1D
+ * Method:    native_vector_nnz
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL
+Java_se_hb_jcp_bindings_libsvm_SparseDoubleMatrix1D_native_1vector_1nnz
+    (JNIEnv* env,
+     jclass  jSDM1D,
+     jlong   jptr)
+{
+    struct svm_node** vptr = (struct svm_node**)jptr;
+    int i = 0;
+    while ((*vptr)[i].index != -1) {
+        i++;
+    }
+    return i;
+}
+
+/*
+ * Class:     se_hb_jcp_bindings_libsvm_SparseDoubleMatrix1D
+ * Method:    native_vector_get_nodes
+ * Signature: (J[I[D)V
+ */
+JNIEXPORT void JNICALL
+Java_se_hb_jcp_bindings_libsvm_SparseDoubleMatrix1D_native_1vector_1get_1nodes
+    (JNIEnv*      env,
+     jclass       jSDM1D,
+     jlong        jptr,
+     jintArray    jindices,
+     jdoubleArray jvalues)
+{
+    struct svm_node** vptr = (struct svm_node**)jptr;
+    jint*    indices = env->GetIntArrayElements(jindices, NULL);
+    jdouble* values = env->GetDoubleArrayElements(jvalues, NULL);
+    int length = env->GetArrayLength(jvalues);
+
+    for (int i = 0; i < length && (*vptr)[i].index != -1; i++) {
+        indices[i] = (*vptr)[i].index;
+        values[i] = (*vptr)[i].value;
+    }
+
+    env->ReleaseDoubleArrayElements(jvalues, values, 0);
+    env->ReleaseIntArrayElements(jindices, indices, 0);
+}
+
 /*
  * Class:     se_hb_jcp_bindings_libsvm_SparseDoubleMatrix2D
  * Method:    native_matrix_create
@@ -961,6 +1046,42 @@ Java_se_hb_jcp_bindings_libsvm_SparseDoubleMatrix2D_native_1matrix_1create
     return (jlong)m;
 }
 
+/*
+ * Class:     se_hb_jcp_bindings_libsvm_SparseDoubleMatrix2D
+ * Method:    native_matrix_create_concatenated
+ * Signature: (JIJI)J
+ */
+JNIEXPORT jlong JNICALL
+Java_se_hb_jcp_bindings_libsvm_SparseDoubleMatrix2D_native_1matrix_1create_1concatenated
+    (JNIEnv* env,
+     jclass  jSDM2D,
+     jlong   jptr1,
+     jint    rows1,
+     jlong   jptr2,
+     jint    rows2)
+{
+    struct svm_node** m1 = (struct svm_node**)jptr1;
+    struct svm_node** m2 = (struct svm_node**)jptr2;
+    struct svm_node** m =
+        (struct svm_node**)std::malloc((rows1 + rows2) *
+                                       sizeof(struct svm_node*));
+    // Share the rows. The RC keeps them alive until this matrix is freed.
+    for (int i = 0; i < rows1; i++) {
+        m[i] = m1[i];
+        instance_rc.inc(m[i]);
+    }
+    for (int i = 0; i < rows2; i++) {
+        m[rows1 + i] = m2[i];
+        instance_rc.inc(m[rows1 + i]);
+    }
+#ifdef DEBUG
+    std::cerr << "Java_se_hb_jcp_bindings_libsvm_SparseDoubleMatrix2D_native_1matrix_1create_1concatenated(): "
+              << "Created " << (rows1 + rows2) << " row matrix at "
+              << (jlong)m << "." << std::endl;
+#endif
+    return (jlong)m;
+}
+
 /*
  * Class:     se_hb_jcp_bindings_libsvm_SparseDoubleMatrix2D
  * Method:    native_matrix_free
@@ -118,6 +118,24 @@ public class NN4jClassifier extends ClassifierBase implements IClassProbabilityC
         return output.getDouble(0) >= output.getDouble(1) ? -1.0 : 1.0;
     }
 
+    @Override
+    public void predict(DoubleMatrix2D x, int first, int last, double[] probabilityEstimates) {
+        if (x.columns() != _model.layerInputSize(0)) {
+            throw new IllegalArgumentException("se.hb.jcp.bindings.NN4jClassifier: The size of the instance input (" + x.columns() + ") doesn't match the size of the neural network input (" + _model.layerInputSize(0) + ")");
+        }
+        // Evaluate the whole block of rows in one network call.
+        double[][] rows = new double[last - first][];
+        for (int i = first; i < last; i++) {
+            rows[i - first] = x.viewRow(i).toArray();
+        }
+        INDArray output = _model.output(Nd4j.create(rows));
+
+        for (int i = 0; i < last - first; i++) {
+            probabilityEstimates[2*i]     = output.getDouble(i, 0);
+            probabilityEstimates[2*i + 1] = output.getDouble(i, 1);
+        }
+    }
+
     public double findBestThreshold(DataSet validationData) {
         double bestThreshold = 0.0;
         double bestF1Score = 0.0;
@@ -102,6 +102,21 @@ public class NN4jRegressor
         return output.getDouble(0);
     }
 
+    @Override
+    public void predict(DoubleMatrix2D x, int first, int last,
+                        double[] predictions)
+    {
+        // Evaluate the whole block of rows in one network call.
+        double[][] rows = new double[last - first][];
+        for (int i = first; i < last; i++) {
+            rows[i - first] = x.viewRow(i).toArray();
+        }
+        INDArray output = _model.output(Nd4j.create(rows));
+        for (int i = 0; i < last - first; i++) {
+            predictions[i] = output.getDouble(i, 0);
+        }
+    }
+
     @Override
     public DoubleMatrix1D nativeStorageTemplate()
     {
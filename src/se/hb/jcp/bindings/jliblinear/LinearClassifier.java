@@ -57,22 +57,19 @@ public class LinearClassifier
     {
         Parameter parameters = readParameters();
 
-        SparseDoubleMatrix2D tmp_x;
-        if (x instanceof SparseDoubleMatrix2D) {
-            tmp_x = (SparseDoubleMatrix2D)x;
-            // FIXME: Look at each row so that the matrix is properly updated.
-            for (int r = 0; r < tmp_x.rows(); ++r) {
-                tmp_x.viewRow(r).cardinality();
-            }
-        } else {
-            tmp_x = new SparseDoubleMatrix2D(x.rows(), x.columns());
+        // Share the row data with x if possible.
+        Feature[][] rows = SparseDoubleMatrix2D.getRowNodes(x);
+        if (rows == null) {
+            SparseDoubleMatrix2D tmp_x =
+                new SparseDoubleMatrix2D(x.rows(), x.columns());
             tmp_x.assign(x);
+            rows = tmp_x._rows;
         }
         Problem problem = new Problem();
         problem.bias = 0.0;
         problem.l = y.length;
-        problem.n = tmp_x.columns();
-        problem.x = tmp_x._rows;
+        problem.n = x.columns();
+        problem.x = rows;
         problem.y = y;
 
         _model = Linear.train(problem, parameters);
@@ -135,6 +132,41 @@ public class LinearClassifier
         return prediction;
     }
 
+    public void predict(DoubleMatrix2D x, int first, int last,
+                        double[] probabilityEstimates)
+    {
+        int k = _model.getNrClass();
+        double[] probability = new double[k];
+        SparseDoubleMatrix2D tmp_x = null;
+        if (x instanceof SparseDoubleMatrix2D) {
+            // Use the row node arrays directly to avoid creating row views.
+            tmp_x = (SparseDoubleMatrix2D)x;
+        }
+        for (int i = first; i < last; i++) {
+            Feature[] nodes;
+            if (tmp_x != null) {
+                nodes = tmp_x.getRowNodes(i);
+            } else {
+                DoubleMatrix1D instance = x.viewRow(i);
+                if (instance instanceof SparseDoubleMatrix1D) {
+                    nodes = ((SparseDoubleMatrix1D)instance)._nodes;
+                } else {
+                    SparseDoubleMatrix1D tmp_instance =
+                        new SparseDoubleMatrix1D(x.columns());
+                    tmp_instance.assign(instance);
+                    nodes = tmp_instance._nodes;
+                }
+            }
+            Linear.predictProbability(_model, nodes, probability);
+            // See predict(DoubleMatrix1D, double[]) for the label order.
+            int offset = (i - first)*k;
+            for (int c = 0; c < k; c++) {
+                probabilityEstimates[offset + c] =
+                    probability[_switchProbabilities ? k - 1 - c : c];
+            }
+        }
+    }
+
     /**
      * Returns the signed distance between the separating hyperplane and the
      * instance.
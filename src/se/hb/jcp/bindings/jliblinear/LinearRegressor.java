@@ -53,21 +53,19 @@ public class LinearRegressor
     {
         Parameter parameters = readParameters();
 
-        SparseDoubleMatrix2D tmp_x;
-        if (x instanceof SparseDoubleMatrix2D) {
-            tmp_x = (SparseDoubleMatrix2D)x;
-            for (int r = 0; r < tmp_x.rows(); ++r) {
-                tmp_x.viewRow(r).cardinality();
-            }
-        } else {
-            tmp_x = new SparseDoubleMatrix2D(x.rows(), x.columns());
+        // Share the row data with x if possible.
+        Feature[][] rows = SparseDoubleMatrix2D.getRowNodes(x);
+        if (rows == null) {
+            SparseDoubleMatrix2D tmp_x =
+                new SparseDoubleMatrix2D(x.rows(), x.columns());
             tmp_x.assign(x);
+            rows = tmp_x._rows;
         }
         Problem problem = new Problem();
         problem.bias = 0.0;
         problem.l = y.length;
-        problem.n = tmp_x.columns();
-        problem.x = tmp_x._rows;
+        problem.n = x.columns();
+        problem.x = rows;
         problem.y = y;
 
         _model = Linear.train(problem, parameters);
@@ -93,6 +91,33 @@ public class LinearRegressor
         return Linear.predict(_model, tmp_instance._nodes);
     }
 
+    public void predict(DoubleMatrix2D x, int first, int last,
+                        double[] predictions)
+    {
+        SparseDoubleMatrix2D tmp_x = null;
+        if (x instanceof SparseDoubleMatrix2D) {
+            // Use the row node arrays directly to avoid creating row views.
+            tmp_x = (SparseDoubleMatrix2D)x;
+        }
+        for (int i = first; i < last; i++) {
+            Feature[] nodes;
+            if (tmp_x != null) {
+                nodes = tmp_x.getRowNodes(i);
+            } else {
+                DoubleMatrix1D instance = x.viewRow(i);
+                if (instance instanceof SparseDoubleMatrix1D) {
+                    nodes = ((SparseDoubleMatrix1D)instance)._nodes;
+                } else {
+                    SparseDoubleMatrix1D tmp_instance =
+                        new SparseDoubleMatrix1D(x.columns());
+                    tmp_instance.assign(instance);
+                    nodes = tmp_instance._nodes;
+                }
+            }
+            predictions[i - first] = Linear.predict(_model, nodes);
+        }
+    }
+
     public DoubleMatrix1D nativeStorageTemplate()
     {
         return _storageTemplate;
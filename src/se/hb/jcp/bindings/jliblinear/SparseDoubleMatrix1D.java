@@ -136,6 +136,26 @@ public class SparseDoubleMatrix1D extends cern.colt.matrix.DoubleMatrix1D
         }
     }
 
+    /**
+     * Fills the coordinates and values of cells having non-zero values
+     * into the specified lists. Only the stored cells are visited.
+     *
+     * @param indexList  the list to be filled with indexes, can have any size.
+     * @param valueList  the list to be filled with values, can have any size.
+     */
+    public void getNonZeros(IntArrayList indexList, DoubleArrayList valueList)
+    {
+        indexList.clear();
+        valueList.clear();
+        for (int i = 0; i < _nodes.length; i++) {
+            double value = _nodes[i].getValue();
+            if (value != 0.0) {
+                indexList.add(_nodes[i].getIndex() - 1);
+                valueList.add(value);
+            }
+        }
+    }
+
     /**
      * Construct and returns a new empty matrix <i>of the same dynamic
      * type</i> as the receiver, having the specified size.
@@ -171,20 +171,17 @@ public class SVMClassifier
 
     protected void internalFit(DoubleMatrix2D x, double[] y)
     {
-        SparseDoubleMatrix2D tmp_x;
-        if (x instanceof SparseDoubleMatrix2D) {
-            tmp_x = (SparseDoubleMatrix2D)x;
-            // FIXME: Look at each row so that the matrix is properly updated.
-            for (int r = 0; r < tmp_x.rows(); ++r) {
-                tmp_x.viewRow(r).cardinality();
-            }
-        } else {
-            tmp_x = new SparseDoubleMatrix2D(x.rows(), x.columns());
+        // Share the row data with x if possible.
+        svm_node[][] rows = SparseDoubleMatrix2D.getRowNodes(x);
+        if (rows == null) {
+            SparseDoubleMatrix2D tmp_x =
+                new SparseDoubleMatrix2D(x.rows(), x.columns());
             tmp_x.assign(x);
+            rows = tmp_x._rows;
         }
         svm_problem problem = new svm_problem();
         problem.l = y.length;
-        problem.x = tmp_x._rows;
+        problem.x = rows;
         problem.y = y;
 
         _model = svm.svm_train(problem, _parameters);
@@ -250,6 +247,41 @@ public class SVMClassifier
         return prediction;
     }
 
+    public void predict(DoubleMatrix2D x, int first, int last,
+                        double[] probabilityEstimates)
+    {
+        int k = _model.nr_class;
+        double[] probability = new double[k];
+        SparseDoubleMatrix2D tmp_x = null;
+        if (x instanceof SparseDoubleMatrix2D) {
+            // Use the row node arrays directly to avoid creating row views.
+            tmp_x = (SparseDoubleMatrix2D)x;
+        }
+        for (int i = first; i < last; i++) {
+            svm_node[] nodes;
+            if (tmp_x != null) {
+                nodes = tmp_x.getRowNodes(i);
+            } else {
+                DoubleMatrix1D instance = x.viewRow(i);
+                if (instance instanceof SparseDoubleMatrix1D) {
+                    nodes = ((SparseDoubleMatrix1D)instance)._nodes;
+                } else {
+                    SparseDoubleMatrix1D tmp_instance =
+                        new SparseDoubleMatrix1D(x.columns());
+                    tmp_instance.assign(instance);
+                    nodes = tmp_instance._nodes;
+                }
+            }
+            svm.svm_predict_probability(_model, nodes, probability);
+            // See predict(DoubleMatrix1D, double[]) for the label order.
+            int offset = (i - first)*k;
+            for (int c = 0; c < k; c++) {
+                probabilityEstimates[offset + c] =
+                    probability[_switchProbabilities ? k - 1 - c : c];
+            }
+        }
+    }
+
     /**
      * Returns the signed distance between the separating hyperplane and the
      * instance.
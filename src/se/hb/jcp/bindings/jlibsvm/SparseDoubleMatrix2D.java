@@ -20,6 +20,9 @@ package se.hb.jcp.bindings.jlibsvm;
 import cern.colt.matrix.DoubleMatrix1D;
 import cern.colt.matrix.DoubleMatrix2D;
 
+import se.hb.jcp.util.ExtendedDoubleMatrix2D;
+import se.hb.jcp.util.RowSelectionDoubleMatrix2D;
+
 import libsvm.svm_node;
 
 /**
@@ -196,6 +199,68 @@ public class SparseDoubleMatrix2D extends cern.colt.matrix.DoubleMatrix2D
         return _rowViews[row];
     }
 
+    /**
+     * Returns the svm_node array of one row without creating a row view.
+     * The array is shared with this matrix and must not be modified.
+     *
+     * @param row  the row.
+     * @return the svm_node array of the row.
+     */
+    svm_node[] getRowNodes(int row)
+    {
+        // A row view may hold a more recent array than _rows.
+        if (_rowViews[row] != null) {
+            return _rowViews[row]._nodes;
+        }
+        return _rows[row];
+    }
+
+    /**
+     * Returns the svm_node arrays of the rows of x without copying the row
+     * data, if x is a matrix of this type or an ExtendedDoubleMatrix2D or
+     * RowSelectionDoubleMatrix2D built from such matrices.
+     * The arrays are shared with x and must not be modified.
+     *
+     * @param x  the matrix.
+     * @return an array of the svm_node arrays of the rows of x; or null if x is not of a supported type.
+     */
+    static svm_node[][] getRowNodes(DoubleMatrix2D x)
+    {
+        if (x instanceof SparseDoubleMatrix2D) {
+            SparseDoubleMatrix2D m = (SparseDoubleMatrix2D)x;
+            svm_node[][] rows = new svm_node[m.rows()][];
+            for (int r = 0; r < rows.length; r++) {
+                rows[r] = m.getRowNodes(r);
+            }
+            return rows;
+        } else if (x instanceof ExtendedDoubleMatrix2D) {
+            ExtendedDoubleMatrix2D m = (ExtendedDoubleMatrix2D)x;
+            svm_node[][] base = getRowNodes(m.getBase());
+            svm_node[][] extension = getRowNodes(m.getExtension());
+            if (base == null || extension == null) {
+                return null;
+            }
+            svm_node[][] rows = new svm_node[base.length + extension.length][];
+            System.arraycopy(base, 0, rows, 0, base.length);
+            System.arraycopy(extension, 0, rows, base.length,
+                             extension.length);
+            return rows;
+        } else if (x instanceof RowSelectionDoubleMatrix2D) {
+            RowSelectionDoubleMatrix2D m = (RowSelectionDoubleMatrix2D)x;
+            svm_node[][] base = getRowNodes(m.getBase());
+            if (base == null) {
+                return null;
+            }
+            svm_node[][] rows = new svm_node[m.rows()][];
+            for (int r = 0; r < rows.length; r++) {
+                rows[r] = base[m.getBaseRow(r)];
+            }
+            return rows;
+        } else {
+            return null;
+        }
+    }
+
     /**
      * Replaces one row of the matrix.
      *
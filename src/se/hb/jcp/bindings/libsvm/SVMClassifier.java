@@ -144,10 +144,9 @@ public class SVMClassifier
 
     protected void internalFit(DoubleMatrix2D x, double[] y)
     {
-        SparseDoubleMatrix2D tmp_x;
-        if (x instanceof se.hb.jcp.bindings.libsvm.SparseDoubleMatrix2D) {
-            tmp_x = (SparseDoubleMatrix2D)x;
-        } else {
+        // Share the row data with x if possible.
+        SparseDoubleMatrix2D tmp_x = SparseDoubleMatrix2D.shareRows(x);
+        if (tmp_x == null) {
             tmp_x = new SparseDoubleMatrix2D(x.rows(), x.columns());
             tmp_x.assign(x);
         }
@@ -205,6 +204,37 @@ public class SVMClassifier
         return prediction;
     }
 
+    public void predict(DoubleMatrix2D x, int first, int last,
+                        double[] probabilityEstimates)
+    {
+        SparseDoubleMatrix2D tmp_x = SparseDoubleMatrix2D.shareRows(x);
+        if (tmp_x == null) {
+            tmp_x = new SparseDoubleMatrix2D(last - first, x.columns());
+            for (int r = 0; r < last - first; r++) {
+                tmp_x.viewRow(r).assign(x.viewRow(first + r));
+            }
+            predict(tmp_x, 0, last - first, probabilityEstimates);
+            return;
+        }
+        svm.svm_predict_probability(_model, tmp_x,
+                                    first, last,
+                                    probabilityEstimates);
+        // libsvm seems to use the opposite order of labels, so reverse
+        // each row of probability estimates before returning them.
+        int k = svm.svm_get_nr_class(_model);
+        for (int offset = 0;
+             offset < (last - first)*k;
+             offset += k) {
+            int i = offset;
+            int j = offset + k - 1;
+            for (; i < j; i++, j--) {
+                double tmp = probabilityEstimates[i];
+                probabilityEstimates[i] = probabilityEstimates[j];
+                probabilityEstimates[j] = tmp;
+            }
+        }
+    }
+
     /**
      * Returns the signed distance between the separating hyperplane and the
      * instance.
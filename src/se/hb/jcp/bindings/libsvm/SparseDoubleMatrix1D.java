@@ -151,6 +151,30 @@ public class SparseDoubleMatrix1D extends cern.colt.matrix.DoubleMatrix1D
         }
 }
 
+    /**
+     * Fills the coordinates and values of cells having non-zero values
+     * into the specified lists. Only the stored cells are visited, in one
+     * native call.
+     *
+     * @param indexList  the list to be filled with indexes, can have any size.
+     * @param valueList  the list to be filled with values, can have any size.
+     */
+    public void getNonZeros(IntArrayList indexList, DoubleArrayList valueList)
+    {
+        int nnz = native_vector_nnz(Cptr);
+        int[] indices = new int[nnz];
+        double[] values = new double[nnz];
+        native_vector_get_nodes(Cptr, indices, values);
+        indexList.clear();
+        valueList.clear();
+        for (int i = 0; i < nnz; i++) {
+            if (values[i] != 0.0) {
+                indexList.add(indices[i]);
+                valueList.add(values[i]);
+            }
+        }
+    }
+
     /**
      * Construct and returns a new empty matrix <i>of the same dynamic
      * type</i> as the receiver, having the specified size.
@@ -269,6 +293,10 @@ public class SparseDoubleMatrix1D extends cern.colt.matrix.DoubleMatrix1D
     private static native void native_vector_set(long   ptr,
                                                  int    column,
                                                  double value);
+    private static native int native_vector_nnz(long ptr);
+    private static native void native_vector_get_nodes(long     ptr,
+                                                       int[]    columns,
+                                                       double[] values);
 
     static {
         // FIXME: It would have been better not to repeat this here and
@@ -23,6 +23,8 @@ import cern.colt.matrix.DoubleMatrix2D;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 
+import se.hb.jcp.util.ExtendedDoubleMatrix2D;
+
 /**
  * Class for sparse 2-d matrices holding <tt>double</tt> elements in
  * the sparse format expected by the C library libsvm. See the
@@ -60,6 +62,46 @@ public class SparseDoubleMatrix2D extends cern.colt.matrix.DoubleMatrix2D
         Cptr = native_matrix_create(rows, columns);
     }
 
+    /**
+     * Constructs a matrix with the rows of first followed by the rows of
+     * second. The row data is shared with the two matrices, not copied.
+     *
+     * @param first   the matrix whose rows come first.
+     * @param second  the matrix whose rows come last.
+     */
+    SparseDoubleMatrix2D(SparseDoubleMatrix2D first,
+                         SparseDoubleMatrix2D second)
+    {
+        setUp(first.rows() + second.rows(), first.columns());
+        Cptr = native_matrix_create_concatenated(first.Cptr, first.rows(),
+                                                 second.Cptr, second.rows());
+    }
+
+    /**
+     * Returns x as a matrix of this type sharing the row data with x,
+     * if x is a matrix of this type or an ExtendedDoubleMatrix2D built
+     * from such matrices.
+     *
+     * @param x  the matrix.
+     * @return a <tt>SparseDoubleMatrix2D</tt> sharing the rows of x; or null if x is not of a supported type.
+     */
+    static SparseDoubleMatrix2D shareRows(DoubleMatrix2D x)
+    {
+        if (x instanceof SparseDoubleMatrix2D) {
+            return (SparseDoubleMatrix2D)x;
+        } else if (x instanceof ExtendedDoubleMatrix2D) {
+            ExtendedDoubleMatrix2D m = (ExtendedDoubleMatrix2D)x;
+            SparseDoubleMatrix2D base = shareRows(m.getBase());
+            SparseDoubleMatrix2D extension = shareRows(m.getExtension());
+            if (base == null || extension == null) {
+                return null;
+            }
+            return new SparseDoubleMatrix2D(base, extension);
+        } else {
+            return null;
+        }
+    }
+
     /**
      * Construct and returns a new empty matrix <i>of the same dynamic type</i>
      * as the receiver, having the specified number of rows and columns.
@@ -277,6 +319,8 @@ public class SparseDoubleMatrix2D extends cern.colt.matrix.DoubleMatrix2D
 
     // Internal native functions.
     private static native long native_matrix_create(int rows, int columns);
+    private static native long native_matrix_create_concatenated
+        (long ptr1, int rows1, long ptr2, int rows2);
     private static native void native_matrix_free(long ptr, int rows);
     private static native double native_matrix_get(long ptr,
                                                    int row, int column);
@@ -118,6 +118,20 @@ public class svm
                                                    prob_estimates);
     }
 
+    public static void svm_predict_probability(svm_model model,
+                                               SparseDoubleMatrix2D x,
+                                               int first, int last,
+                                               double[] prob_estimates)
+    {
+        if (DEBUG) {
+            System.err.println("svm_predict_probability(): matrix path.");
+        }
+        native_svm_predict_probability_matrix(model.Cptr,
+                                              x.Cptr,
+                                              first, last,
+                                              prob_estimates);
+    }
+
     public static void svm_save_model(String model_file_name,
                                       svm_model model) throws IOException
     {
@@ -221,6 +235,12 @@ public class svm
         (long model_ptr,
          long x_ptr,
          double[] prob_estimates);
+    private static native void native_svm_predict_probability_matrix
+        (long model_ptr,
+         long x_ptr,
+         int first,
+         int last,
+         double[] prob_estimates);
     private static native int native_svm_save_model(String file_name,
                                                     long   model_ptr);
     private static native long native_svm_load_model(String file_name);
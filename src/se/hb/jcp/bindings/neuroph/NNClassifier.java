@@ -119,6 +119,16 @@ public class NNClassifier extends ClassifierBase implements IClassProbabilityCla
         return (probability >= 0.5) ? 1.0 : -1.0;
     }
 
+    public void predict(DoubleMatrix2D x, int first, int last, double[] probabilityEstimates) {
+        for (int i = first; i < last; i++) {
+            _network.setInput(x.viewRow(i).toArray());
+            _network.calculate();
+            double probability = _network.getOutput()[0];
+            probabilityEstimates[2*(i - first)]     = 1 - probability;
+            probabilityEstimates[2*(i - first) + 1] = probability;
+        }
+    }
+
     @Override
     public DoubleMatrix1D nativeStorageTemplate() {
         return _storageTemplate;
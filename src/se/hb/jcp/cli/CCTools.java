@@ -112,9 +112,8 @@ public class CCTools
                            significanceLevel + ".");
 
         // Evaluation on the test set.
-        // FIXME? Each ConformalClassification will keep its predictor
-        //        alive. This might be a problem for TCC (but not seen so far).
-        ConformalClassification[] predictions = cc.predict(testSet.x);
+        // The predictions are kept as one flat block of p-values.
+        PredictionBatch predictions = new PredictionBatch(cc, testSet.x);
         long t3 = System.currentTimeMillis();
 
         int noPredictions = testSet.y.length;
@@ -132,11 +131,11 @@ public class CCTools
             new AggregatedObservedMeasures();
 
         // FIXME: Parallelize the computation of the performance measures.
-        for (int i = 0; i < predictions.length; i++){
+        for (int i = 0; i < predictions.size(); i++){
             int classIndex = classSet.headSet(testSet.y[i]).size();
             int predictionSize = 0;
             for (int c = 0; c < classes.length; c++) {
-                double pValue = predictions[i].getPValues().get(c);
+                double pValue = predictions.getPValue(i, c);
                 if (pValuesOutput != null) {
                     pValuesOutput.write("" + pValue + " ");
                 }
@@ -150,12 +149,12 @@ public class CCTools
             }
             if (jsonOutput != null) {
                 if (debug) {
-                    IOTools.writeAsJSON(predictions[i],
+                    IOTools.writeAsJSON(predictions, i,
                                         testSet.x.viewRow(i),
                                         testSet.y[i],
                                         jsonOutput);
                 } else {
-                    IOTools.writeAsJSON(predictions[i], jsonOutput);
+                    IOTools.writeAsJSON(predictions, i, jsonOutput);
                 }
             }
             if (pValuesOutput != null) {
@@ -169,15 +168,14 @@ public class CCTools
             predictionsForClass[classIndex]++;
             predictionsForClassAtSize[classIndex][predictionSize]++;
 
-            if (predictions[i].getPValues().get(classIndex) >=
-                significanceLevel) {
+            if (predictions.getPValue(i, classIndex) >= significanceLevel) {
                 correct++;
                 correctAtSize[predictionSize]++;
                 correctForClass[classIndex]++;
                 correctForClassAtSize[classIndex][predictionSize]++;
             }
-            priorMeasures.add(predictions[i]);
-            observedMeasures.add(predictions[i], testSet.y[i]);
+            priorMeasures.add(predictions, i);
+            observedMeasures.add(predictions, i, testSet.y[i]);
         }
         long t4 = System.currentTimeMillis();
 
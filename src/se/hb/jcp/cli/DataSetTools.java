@@ -122,7 +122,7 @@ public class DataSetTools
     {
         FileInputStream file;
         file = new FileInputStream(filename);
-        DataSet dataSet = new libsvmReader().read(file, template);
+        DataSet dataSet = new libsvmParallelReader().read(file, template);
         file.close();
 
         System.err.println("Loaded the dataset " + filename + " (" +
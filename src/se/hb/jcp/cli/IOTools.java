@@ -26,6 +26,7 @@ import org.json.JSONTokener;
 import org.json.JSONWriter;
 
 import se.hb.jcp.cp.ConformalClassification;
+import se.hb.jcp.cp.IConformalClassifications;
 
 /**
  * Utility functions for reading/writing data to/from JSON.
@@ -116,9 +117,7 @@ public class IOTools
     public static void writeAsJSON(ConformalClassification prediction,
                                    JSONWriter              resultWriter)
     {
-        resultWriter.object();
-        writeConformalClassificationAsJSON(prediction, resultWriter);
-        resultWriter.endObject();
+        writeAsJSON(prediction, 0, resultWriter);
     }
 
     /**
@@ -144,22 +143,61 @@ public class IOTools
                                    DoubleMatrix1D          instance,
                                    double                  target,
                                    JSONWriter              resultWriter)
+    {
+        writeAsJSON(prediction, 0, instance, target, resultWriter);
+    }
+
+    /**
+     * Write one of several conformal classifications, e.g. in a
+     * <tt>PredictionBatch</tt>, as JSON to a JSON writer. The format is
+     * the same as for a <tt>ConformalClassification</tt>.
+     *
+     * @param predictions   the predictions.
+     * @param row           the index of the prediction to write.
+     * @param resultWriter  the JSON writer.
+     */
+    public static void writeAsJSON(IConformalClassifications predictions,
+                                   int                       row,
+                                   JSONWriter                resultWriter)
+    {
+        resultWriter.object();
+        writePredictionAsJSON(predictions, row, resultWriter);
+        resultWriter.endObject();
+    }
+
+    /**
+     * Write one of several conformal classifications, e.g. in a
+     * <tt>PredictionBatch</tt>, including internal state as JSON to a
+     * JSON writer. The format is the same as for a
+     * <tt>ConformalClassification</tt>.
+     *
+     * @param predictions   the predictions.
+     * @param row           the index of the prediction to write.
+     * @param instance      the instance.
+     * @param target        the instance target/label.
+     * @param resultWriter  the JSON writer.
+     */
+    public static void writeAsJSON(IConformalClassifications predictions,
+                                   int                       row,
+                                   DoubleMatrix1D            instance,
+                                   double                    target,
+                                   JSONWriter                resultWriter)
     {
         resultWriter.object();
         // Write the basic conformal classification.
-        writeConformalClassificationAsJSON(prediction, resultWriter);
+        writePredictionAsJSON(predictions, row, resultWriter);
         // Write extra information.
         resultWriter.key("true-label");
         resultWriter.value("" + target);
         // FIXME: The NC-function is not callable for TCC.
-        if (prediction.getSource() instanceof
+        if (predictions.getSource() instanceof
             se.hb.jcp.cp.InductiveConformalClassifier) {
             resultWriter.key("nc-scores");
             resultWriter.object();
-            for (double label : prediction.getSource()
+            for (double label : predictions.getSource()
                                     .getNonconformityFunction().getLabels()) {
                 resultWriter.key("" + label);
-                resultWriter.value(prediction.getSource().getNonconformityFunction()
+                resultWriter.value(predictions.getSource().getNonconformityFunction()
                                        .calculateNonConformityScore(instance,
                                                                     label));
             }
@@ -188,35 +226,40 @@ public class IOTools
         jsonWriter.endObject();
     }
 
-    private static void writeConformalClassificationAsJSON
-                            (ConformalClassification prediction,
-                             JSONWriter              resultWriter)
+    private static void writePredictionAsJSON
+                            (IConformalClassifications predictions,
+                             int                       row,
+                             JSONWriter                resultWriter)
     {
         // Write the p-values hash.
+        Double[] labels = predictions.getSource().getLabels();
         resultWriter.key("p-values");
         resultWriter.object();
-        for (int i = 0; i < prediction.getPValues().size(); i++) {
-            resultWriter.key("" + prediction.getSource().getLabels()[i]);
-            resultWriter.value(prediction.getPValues().get(i));
+        for (int c = 0; c < predictions.getClassCount(); c++) {
+            resultWriter.key("" + labels[c]);
+            resultWriter.value(predictions.getPValue(row, c));
         }
         resultWriter.endObject();
         // Write the point-prediction hash.
         resultWriter.key("point-prediction");
         resultWriter.object();
         resultWriter.key("label");
-        double label = prediction.getLabelPointPrediction();
+        double label = predictions.getLabelPointPrediction(row);
         if (label != Double.NaN) {
             // Only show the label if it is unique.
             resultWriter.value("" + label);
         }
         resultWriter.key("confidence");
-        resultWriter.value(prediction.getPointPredictionConfidence());
+        resultWriter.value(predictions.getPointPredictionConfidence(row));
         resultWriter.key("credibility");
-        resultWriter.value(prediction.getPointPredictionCredibility());
+        resultWriter.value(predictions.getPointPredictionCredibility(row));
         resultWriter.endObject();
         // Write the multi-probabilistic point prediction hash if available.
-        if (prediction instanceof
-            se.hb.jcp.cp.ConformalMultiProbabilisticClassification) {
+        if (predictions.getSource() instanceof
+            se.hb.jcp.cp.ConformalMultiProbabilisticClassifier) {
+            se.hb.jcp.cp.ConformalMultiProbabilisticClassifier source =
+                (se.hb.jcp.cp.ConformalMultiProbabilisticClassifier)
+                    predictions.getSource();
             resultWriter.key("multi-probabilistic-prediction");
             resultWriter.object();
             resultWriter.key("label");
@@ -225,11 +268,11 @@ public class IOTools
                 resultWriter.value("" + label);
             }
             resultWriter.key("probability-lower");
-            resultWriter.value(((se.hb.jcp.cp.ConformalMultiProbabilisticClassification)prediction)
-                                   .getPointPredictionLowerBoundProbability());
+            resultWriter.value(source.getPointPredictionLowerBoundProbability
+                                   (predictions, row));
             resultWriter.key("probability-upper");
-            resultWriter.value(((se.hb.jcp.cp.ConformalMultiProbabilisticClassification)prediction)
-                                   .getPointPredictionUpperBoundProbability());
+            resultWriter.value(source.getPointPredictionUpperBoundProbability
+                                   (predictions, row));
             resultWriter.endObject();
         }
     }
@@ -159,6 +159,19 @@ public class RTools {
         System.out.println("Efficiency  Average Interval Width: " + averageIntervalWidth);
         System.out.println("Efficiency  Median Interval Width: " + medianIntervalWidth);
         System.out.println("Evaluation Duration " + (double) (t3 - t2) / 1000.0 + " sec.");
+
+        // The coverage should be at least the confidence level. Warn if it
+        // is more than three standard deviations below.
+        double coverageTolerance =
+            3.0 * Math.sqrt(confidenceLevel * (1.0 - confidenceLevel) /
+                            noPredictions);
+        if (coverage < confidenceLevel - coverageTolerance) {
+            System.err.println
+                ("Warning: " +
+                 "The coverage, " + coverage + ", " +
+                 "is significantly below the confidence level, " +
+                 confidenceLevel + ".");
+        }
     }
 
     private static double calculateMedian(double[] arr)
@@ -16,10 +16,14 @@
 //
 package se.hb.jcp.cli;
 
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.lang.reflect.Method;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
@@ -27,15 +31,18 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 
 import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.DenseDoubleMatrix1D;
 import org.json.JSONTokener;
 import org.json.JSONWriter;
 
-import se.hb.jcp.cp.ConformalClassification;
 import se.hb.jcp.cp.IConformalClassifier;
 import se.hb.jcp.cp.InductiveConformalRegressor;
 import se.hb.jcp.cp.IConformalRegressor;
+import se.hb.jcp.cp.PredictionBatch;
 import se.hb.jcp.cp.measures.AggregatedPriorMeasures;
 import se.hb.jcp.util.FIFOParallelExecutor;
+import se.hb.jcp.util.MicroBatchingFIFOExecutor;
 
 /**
  * Command line filter for making predictions for JSON formatted instances
@@ -50,12 +57,11 @@ public class jcp_predict_filter
     ExecutorService _executor;
     String _modelFileName;
     BufferedWriter _pValuesOutputFile;
+    int _batchSize = 1;
+    boolean _useVirtualThreads = false;
 
     public jcp_predict_filter()
     {
-        if (PARALLEL) {
-            _executor = Executors.newCachedThreadPool();
-        }
     }
 
     public void run(String[] args)
@@ -63,6 +69,14 @@ public class jcp_predict_filter
     {
         processArguments(args);
 
+        if (PARALLEL) {
+            if (_useVirtualThreads) {
+                _executor = newVirtualThreadPerTaskExecutor();
+            } else {
+                _executor = Executors.newCachedThreadPool();
+            }
+        }
+
         if (isRegression()) {
             doRegression();
         } else {
@@ -98,6 +112,32 @@ public class jcp_predict_filter
                         printUsage();
                         System.exit(-1);
                     }
+                } else if (args[i].equals("-vt")) {
+                    _useVirtualThreads = true;
+                } else if (args[i].equals("-b")) {
+                    if (++i < args.length) {
+                        boolean ok = false;
+                        try {
+                            _batchSize = Integer.parseInt(args[i]);
+                            ok = _batchSize >= 1;
+                        } catch (NumberFormatException e) {
+                            // Handled below.
+                        }
+                        if (!ok) {
+                            System.err.println
+                                ("Error: Illegal batch size '" + args[i] +
+                                 "' given to -b.");
+                            System.err.println();
+                            printUsage();
+                            System.exit(-1);
+                        }
+                    } else {
+                        System.err.println
+                            ("Error: No batch size given to -b.");
+                        System.err.println();
+                        printUsage();
+                        System.exit(-1);
+                    }
                 } else {
                     // The last unknown argument should be the dataset file.
                     _modelFileName = args[i];
@@ -122,13 +162,61 @@ public class jcp_predict_filter
             ("  -h                Print this message and exit.");
         System.out.println
             ("  -sp <file>        Save the predicted p-values in <file>.");
+        System.out.println
+            ("  -b <size>         Predict the instances in micro-batches " +
+             "of up to <size>");
+        System.out.println
+            ("                    instances (default 1, i.e. one " +
+             "instance at a time).");
+        System.out.println
+            ("  -vt               Run the prediction tasks in virtual " +
+             "threads (requires Java 21).");
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor()
+    {
+        // Looked up at runtime as the source level predates virtual threads.
+        try {
+            Method factory =
+                Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println
+                ("Error: Virtual threads are not supported by this Java " +
+                 "runtime (" + System.getProperty("java.version") + ").");
+            System.exit(-1);
+            return null;
+        }
+    }
+
+    /**
+     * Skips whitespace that is already buffered in the input and returns
+     * whether more input is available without blocking.
+     */
+    private static boolean isInputReady(BufferedReader input)
+        throws IOException
+    {
+        while (input.ready()) {
+            input.mark(1);
+            int c = input.read();
+            if (c < 0) {
+                return false;
+            }
+            if (!Character.isWhitespace(c)) {
+                input.reset();
+                return true;
+            }
+        }
+        return false;
     }
 
     private void doClassification()
         throws IOException
     {
         IConformalClassifier cc = CCTools.loadModel(_modelFileName);
-        JSONTokener instanceReader = new JSONTokener(System.in);
+        BufferedReader input =
+            new BufferedReader(new InputStreamReader(System.in, "utf-8"));
+        JSONTokener instanceReader = new JSONTokener(input);
         OutputStreamWriter osw     = new OutputStreamWriter(System.out);
         JSONWriter  resultWriter   = new JSONWriter(osw);
         AggregatedPriorMeasures measures = new AggregatedPriorMeasures();
@@ -137,26 +225,81 @@ public class jcp_predict_filter
         try {
             if (!PARALLEL) {
                 DoubleMatrix1D instance = allocateInstance(cc);
+                // The prediction and its p-values are reused for all
+                // instances.
+                DoubleMatrix1D pValues =
+                    new DenseDoubleMatrix1D(cc.getLabels().length);
+                PredictionBatch prediction =
+                    new PredictionBatch(cc, new double[pValues.size()], 0);
                 while (!instanceReader.end()) {
                     if (IOTools.readInstanceFromJSON(instanceReader,
                                                      instance)) {
                         // Do the prediction.
-                        ConformalClassification prediction =
-                            cc.predict(instance);
+                        cc.predictPValues(instance, pValues);
+                        pValues.toArray(prediction.getPValues());
+                        prediction.update(1);
                         // Write the result.
-                        writePrediction(prediction, resultWriter,
+                        writePrediction(prediction, 0, resultWriter,
                                         _pValuesOutputFile);
                         osw.flush();
-                        measures.add(prediction);
+                        measures.add(prediction, 0);
                     }
                 }
+            } else if (_batchSize > 1) {
+                MicroBatchingFIFOExecutor<DoubleMatrix1D, PredictionBatch>
+                    queue = new MicroBatchingFIFOExecutor<>
+                                (_batchSize,
+                                 new BatchPredictor(cc),
+                                 _executor);
+
+                // Kick-off the consumer.
+                BatchResultPrinterCallable printer =
+                    new BatchResultPrinterCallable(queue,
+                                                   osw,
+                                                   resultWriter,
+                                                   _pValuesOutputFile,
+                                                   measures);
+                Future<Integer> consumer = _executor.submit(printer);
+
+                try {
+                    // Read instances from stdin and put them in the
+                    // executor queue.
+                    // Stop reading if the consumer has failed.
+                    while (!instanceReader.end() && !printer.hasFailed()) {
+                        DoubleMatrix1D instance = allocateInstance(cc);
+                        if (IOTools.readInstanceFromJSON(instanceReader,
+                                                         instance)) {
+                            queue.submit(instance);
+                            // The parser stops at the closing brace, so
+                            // the trailing newline must be skipped too.
+                            if (!isInputReady(input)) {
+                                // Do not hold back a partial batch while
+                                // waiting for more input.
+                                queue.flush();
+                            }
+                        }
+                    }
+                    // Tell the consumer to finish.
+                    queue.finish();
+                    // Wait for the consumer to finish.
+                    int count = consumer.get();
+                    System.err.println("jcp_predict_filter: Finishing after " +
+                                       "classifying " + count + " instances.");
+                } catch (InterruptedException e) {
+                    // FIXME: What to do?
+                    System.err.println("jcp_predict_filter: " + e);
+                } catch (ExecutionException e) {
+                    // FIXME: What to do?
+                    System.err.println("jcp_predict_filter: " + e);
+                }
             } else {
-                final FIFOParallelExecutor<ConformalClassification> queue =
+                final FIFOParallelExecutor<DoubleMatrix1D> queue =
                     new FIFOParallelExecutor<>(_executor);
 
                 // Kick-off the consumer.
                 Future<Integer> consumer =
-                    _executor.submit(new ResultPrinterCallable(queue,
+                    _executor.submit(new ResultPrinterCallable(cc,
+                                                               queue,
                                                                osw,
                                                                resultWriter,
                                                                _pValuesOutputFile,
@@ -177,8 +320,8 @@ public class jcp_predict_filter
                 }
                 try {
                     // Tell the consumer to finish via a null object.
-                    queue.submit(new Callable<ConformalClassification>() {
-                            public ConformalClassification call()
+                    queue.submit(new Callable<DoubleMatrix1D>() {
+                            public DoubleMatrix1D call()
                             {
                                 return null;
                             }
@@ -279,16 +422,16 @@ public class jcp_predict_filter
         return instance;
     }
 
-    private static void writePrediction(ConformalClassification prediction,
-                                        JSONWriter              jsonWriter,
-                                        BufferedWriter          pValuesWriter)
+    private static void writePrediction(PredictionBatch prediction,
+                                        int             row,
+                                        JSONWriter      jsonWriter,
+                                        BufferedWriter  pValuesWriter)
         throws IOException
     {
-        IOTools.writeAsJSON(prediction, jsonWriter);
+        IOTools.writeAsJSON(prediction, row, jsonWriter);
         if (pValuesWriter != null) {
-            DoubleMatrix1D pValues = prediction.getPValues();
-            for (int c = 0; c < pValues.size(); c++) {
-                pValuesWriter.write("" + pValues.get(c) + " ");
+            for (int c = 0; c < prediction.getClassCount(); c++) {
+                pValuesWriter.write("" + prediction.getPValue(row, c) + " ");
             }
             pValuesWriter.newLine();
         }
@@ -311,7 +454,7 @@ public class jcp_predict_filter
     }
 
     private static class PredictionCallable
-        implements Callable<ConformalClassification>
+        implements Callable<DoubleMatrix1D>
     {
         IConformalClassifier _cc;
         private final DoubleMatrix1D _instance;
@@ -324,27 +467,30 @@ public class jcp_predict_filter
         }
 
         @Override
-        public ConformalClassification call()
+        public DoubleMatrix1D call()
         {
-            return _cc.predict(_instance);
+            return _cc.predictPValues(_instance);
         }
     }
 
     private static class ResultPrinterCallable implements Callable<Integer>
     {
-        private final FIFOParallelExecutor<ConformalClassification> _queue;
+        private final IConformalClassifier _cc;
+        private final FIFOParallelExecutor<DoubleMatrix1D> _queue;
         private final OutputStreamWriter _osw;
         private final JSONWriter _jsonWriter;
         private final BufferedWriter _pValuesOutputFile;
         private final AggregatedPriorMeasures _measures;
 
         public ResultPrinterCallable
-                   (FIFOParallelExecutor<ConformalClassification> queue,
+                   (IConformalClassifier cc,
+                    FIFOParallelExecutor<DoubleMatrix1D> queue,
                     OutputStreamWriter osw,
                     JSONWriter jsonWriter,
                     BufferedWriter pValuesOutputFile,
                     AggregatedPriorMeasures measures)
         {
+            _cc = cc;
             _queue = queue;
             _osw = osw;
             _jsonWriter = jsonWriter;
@@ -358,14 +504,21 @@ public class jcp_predict_filter
             int count = 0;
 
             try {
-                ConformalClassification prediction;
+                // The prediction is reused for all instances.
+                PredictionBatch prediction =
+                    new PredictionBatch(_cc,
+                                        new double[_cc.getLabels().length],
+                                        0);
+                DoubleMatrix1D pValues;
                 // While there is a next prediction.
-                while ((prediction = _queue.take()) != null) {
+                while ((pValues = _queue.take()) != null) {
+                    pValues.toArray(prediction.getPValues());
+                    prediction.update(1);
                     // Write the result.
-                    writePrediction(prediction, _jsonWriter,
+                    writePrediction(prediction, 0, _jsonWriter,
                                     _pValuesOutputFile);
                     _osw.flush();
-                    _measures.add(prediction);
+                    _measures.add(prediction, 0);
                     count++;
                 }
             } catch (InterruptedException e) {
@@ -382,6 +535,106 @@ public class jcp_predict_filter
         }
     }
 
+    private static class BatchPredictor
+        implements MicroBatchingFIFOExecutor.IBatchProcessor<DoubleMatrix1D,
+                                                             PredictionBatch>
+    {
+        private final IConformalClassifier _cc;
+
+        public BatchPredictor(IConformalClassifier cc)
+        {
+            _cc = cc;
+        }
+
+        @Override
+        public PredictionBatch process(List<DoubleMatrix1D> instances)
+        {
+            // Predict the whole batch with one matrix-level prediction.
+            DoubleMatrix2D x =
+                _cc.nativeStorageTemplate().like2D(instances.size(),
+                                                   _cc.getAttributeCount());
+            for (int i = 0; i < instances.size(); i++) {
+                x.viewRow(i).assign(instances.get(i));
+            }
+            return new PredictionBatch(_cc, x);
+        }
+    }
+
+    private static class BatchResultPrinterCallable
+        implements Callable<Integer>
+    {
+        private final MicroBatchingFIFOExecutor<DoubleMatrix1D,
+                                                PredictionBatch> _queue;
+        private final OutputStreamWriter _osw;
+        private final JSONWriter _jsonWriter;
+        private final BufferedWriter _pValuesOutputFile;
+        private final AggregatedPriorMeasures _measures;
+        private volatile boolean _failed = false;
+
+        public BatchResultPrinterCallable
+                   (MicroBatchingFIFOExecutor<DoubleMatrix1D,
+                                              PredictionBatch> queue,
+                    OutputStreamWriter osw,
+                    JSONWriter jsonWriter,
+                    BufferedWriter pValuesOutputFile,
+                    AggregatedPriorMeasures measures)
+        {
+            _queue = queue;
+            _osw = osw;
+            _jsonWriter = jsonWriter;
+            _measures = measures;
+            _pValuesOutputFile = pValuesOutputFile;
+        }
+
+        /**
+         * Returns whether writing the results has failed. The producer
+         * should then stop submitting instances and call finish().
+         *
+         * @return <tt>true</tt> if writing the results has failed.
+         */
+        public boolean hasFailed()
+        {
+            return _failed;
+        }
+
+        @Override
+        public Integer call()
+            throws Exception
+        {
+            int count = 0;
+
+            try {
+                PredictionBatch batch;
+                // While there is a next batch of predictions.
+                while ((batch = _queue.take()) != null) {
+                    for (int row = 0; row < batch.size(); row++) {
+                        // Write the result.
+                        writePrediction(batch, row, _jsonWriter,
+                                        _pValuesOutputFile);
+                        _measures.add(batch, row);
+                        count++;
+                    }
+                    _osw.flush();
+                }
+            } catch (ExecutionException | IOException e) {
+                _failed = true;
+                // Keep draining the queue until the end marker so that the
+                // producer is never blocked on a full queue.
+                while (true) {
+                    try {
+                        if (_queue.take() == null) {
+                            break;
+                        }
+                    } catch (ExecutionException ignored) {
+                        // Already failed.
+                    }
+                }
+                throw e;
+            }
+            return count;
+        }
+    }
+
     public static void main(String[] args)
         throws IOException
     {
@@ -61,6 +61,7 @@ public class jcp_train
     private boolean _useTCC = false;
     private boolean _useCP = true;
     private boolean _useMPC = false;
+    private int     _foldCount = 0;
     private boolean _validate = false;
     private double  _significanceLevel = 0.10;
     private double  _validationFraction = 0.5;
@@ -86,9 +87,9 @@ public class jcp_train
                 trainICR(_dataSetFileName);
             }
         } else {
-            if (_useCP && _useTCC) {
+            if (_useCP && (_useTCC || _foldCount > 0)) {
                 // Supports train and save and/or test.
-                trainTCC(_dataSetFileName);
+                trainTCCOrCCC(_dataSetFileName);
             } else if (_useCP) {
                 // Supports train, calibrate and save and/or test.
                 if (_calibrationSetFileName != null) {
@@ -256,6 +257,34 @@ public class jcp_train
                     _useMPC = true;
                 } else if (args[i].equals("-nocp")) {
                     _useCP = false;
+                } else if (args[i].equals("-k")) {
+                    if (++i < args.length) {
+                        boolean ok = false;
+                        try {
+                            int k = Integer.parseInt(args[i]);
+                            if (2 <= k) {
+                                _foldCount = k;
+                                ok = true;
+                            }
+                        } catch (Exception e) {
+                            // Handled below as ok is false.
+                        }
+                        if (!ok) {
+                            System.err.println
+                                ("Error: Illegal number of folds '" +
+                                 args[i] +
+                                 "' given to -k.");
+                            System.err.println();
+                            printUsage();
+                            System.exit(-1);
+                        }
+                    } else {
+                        System.err.println
+                            ("Error: No number of folds given to -k.");
+                        System.err.println();
+                        printUsage();
+                        System.exit(-1);
+                    }
                 } else if (args[i].equals("-vf")) {
                     if (++i < args.length) {
                         boolean ok = false;
@@ -333,6 +362,14 @@ public class jcp_train
             printUsage();
             System.exit(-1);
         }
+        if (_foldCount > 0 && _calibrationSetFileName != null) {
+            System.err.println
+                ("Error: Cross-conformal classification (-k) does not use " +
+                 "a separate calibration set.");
+            System.err.println();
+            printUsage();
+            System.exit(-1);
+        }
         if (_isRegression) {
             _regressor =
                 RegressorFactory.getInstance().createRegressor(regressorType,
@@ -426,6 +463,14 @@ public class jcp_train
         System.out.println
             ("  -mpc              Use the multi-probabilistic extension to " +
              "conformal classification. Needs an extra calibration set.");
+        System.out.println
+            ("  -k <folds>        Use cross-conformal classification with " +
+             "<folds> folds (at least 2).");
+        System.out.println
+            ("                    All the training set is used for both " +
+             "training and calibration and");
+        System.out.println
+            ("                    -cf is ignored unless -mpc is given.");
         System.out.println
             ("  -nocp             Use classification without " +
              "conformal prediction.");
@@ -566,7 +611,7 @@ public class jcp_train
         }
     }
 
-    private void trainTCC(String dataSetFileName)
+    private void trainTCCOrCCC(String dataSetFileName)
         throws IOException
     {
         long t1 = System.currentTimeMillis();
@@ -589,22 +634,28 @@ public class jcp_train
         long t3 = System.currentTimeMillis();
         System.out.println("Duration " + (double)(t3 - t2)/1000.0 + " sec.");
 
-        System.out.println("TCC training set " + _training.x.rows() +
-                           " instances.");
+        System.out.println((_useTCC ? "TCC" : "CCC") + " training set " +
+                           _training.x.rows() + " instances.");
         if (_useMPC) {
             System.out.println("MPC calibration set " + _calibration.x.rows() +
                                " instances.");
         }
 
-        IConformalClassifier tcc =
-            new TransductiveConformalClassifier
-                    (ClassificationNonconformityFunctionFactory.getInstance().
-                         createNonconformityFunction(_ncFunctionType,
-                                                     classes,
-                                                     _classifier),
-                     classes, _useLCCC);
-
-        ((TransductiveConformalClassifier)tcc).fit(_training.x, _training.y);
+        IClassificationNonconformityFunction nc =
+            ClassificationNonconformityFunctionFactory.getInstance().
+                createNonconformityFunction(_ncFunctionType,
+                                            classes,
+                                            _classifier);
+        IConformalClassifier tcc;
+        if (_useTCC) {
+            tcc = new TransductiveConformalClassifier(nc, classes, _useLCCC);
+            ((TransductiveConformalClassifier)tcc).fit(_training.x,
+                                                       _training.y);
+        } else {
+            tcc = new CrossConformalClassifier(nc, classes, _foldCount,
+                                               _useLCCC);
+            ((CrossConformalClassifier)tcc).fit(_training.x, _training.y);
+        }
         if (_useMPC) {
             tcc = new se.hb.jcp.cp.ConformalMultiProbabilisticClassifier(tcc);
             ((ConformalMultiProbabilisticClassifier)tcc)
@@ -0,0 +1,603 @@
+// JCP - Java Conformal Prediction framework
+// Copyright (C) 2024  Anders Gidenstam
+//
+// This library is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+package se.hb.jcp.cp;
+
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A sorted multiset of calibration non-conformity scores that supports
+ * adding and removing scores and rank queries.
+ *
+ * The scores are kept in a sequence of sorted runs of at most B = 256
+ * scores with a Fenwick tree over the run sizes. A rank query locates the
+ * run by binary search and sums the sizes of the runs before it in the
+ * tree, which takes O(log n) time. An insertion or a removal shifts the
+ * scores of one run and updates the tree in O(log n + B) time.
+ *
+ * A run that becomes full is split in two and a run that becomes small is
+ * merged with a neighbour. This moves the runs after it and rebuilds
+ * their entries in the tree, which takes time linear in the number of
+ * runs after it, i.e. O(n / B). A run is only split after B / 2
+ * insertions into it and there are never more merges than splits and
+ * initial runs, so this adds amortized O(n / B^2) time per change.
+ *
+ * The sorted scores as one array, see toArray(), take O(n) time to make
+ * after a change. Batch p-value queries only make it when the batch is
+ * large enough for a merge walk over all the scores to be cheaper than a
+ * rank query per score.
+ *
+ * Optionally, the scores can be limited to a sliding window of the most
+ * recently added ones. Then each addition beyond the window size evicts
+ * the oldest score and the memory use is bounded by the window size.
+ *
+ * Any number of readers may query the scores concurrently with a writer
+ * adding scores.
+ *
+ * @author anders.gidenstam(at)hb.se
+ */
+public class CalibrationScores
+    implements ICalibrationScores
+{
+    private static final int RUN_CAPACITY = 256;
+
+    private transient double[][] _runs;
+    private transient int[] _runSizes;
+    private transient int _runCount;
+    // Fenwick tree over the run sizes, indexed from 1.
+    private transient int[] _tree;
+    private transient int _size;
+    // The sorted scores as one array, kept until the next change.
+    private transient volatile double[] _sorted;
+    private transient ReentrantReadWriteLock _lock;
+    // The scores in the order they were added, as a ring buffer, when
+    // limited to a sliding window.
+    private transient double[] _window;
+    private transient int _windowStart;
+
+    /**
+     * Creates an empty set of calibration scores.
+     */
+    public CalibrationScores()
+    {
+        this(new double[0]);
+    }
+
+    /**
+     * Creates a set of calibration scores with the supplied scores.
+     *
+     * @param sortedScores    the scores in ascending order.
+     */
+    public CalibrationScores(double[] sortedScores)
+    {
+        _lock = new ReentrantReadWriteLock();
+        build(sortedScores.clone());
+    }
+
+    /**
+     * Creates a set of calibration scores limited to a sliding window of
+     * the most recently added scores.
+     *
+     * @param windowSize    the maximum number of scores.
+     * @param scores        the initial scores in the order they were observed; only the last windowSize are kept.
+     */
+    public CalibrationScores(int windowSize, double[] scores)
+    {
+        _lock = new ReentrantReadWriteLock();
+        buildWindow(windowSize, scores);
+    }
+
+    /**
+     * Returns the maximum number of scores kept.
+     *
+     * @return the window size or 0 if the number of scores is unbounded.
+     */
+    public int getWindowSize()
+    {
+        return _window != null ? _window.length : 0;
+    }
+
+    /**
+     * Returns the number of scores.
+     *
+     * @return the number of scores.
+     */
+    @Override
+    public int size()
+    {
+        _lock.readLock().lock();
+        try {
+            return _size;
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a score.
+     *
+     * @param score    the score.
+     */
+    @Override
+    public void add(double score)
+    {
+        _lock.writeLock().lock();
+        try {
+            if (_window != null) {
+                int position = (_windowStart + _size) % _window.length;
+                if (_size == _window.length) {
+                    // Evict the oldest score.
+                    removeScore(_window[_windowStart]);
+                    _windowStart = (_windowStart + 1) % _window.length;
+                }
+                _window[position] = score;
+            }
+            insertScore(score);
+            _sorted = null;
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes one occurrence of a score. Not supported when the scores are
+     * limited to a sliding window.
+     *
+     * @param score    the score.
+     * @return true if the score was present; false otherwise.
+     */
+    public boolean remove(double score)
+    {
+        if (_window != null) {
+            throw new UnsupportedOperationException
+                          ("Scores cannot be removed from a sliding window.");
+        }
+        _lock.writeLock().lock();
+        try {
+            boolean removed = removeScore(score);
+            if (removed) {
+                _sorted = null;
+            }
+            return removed;
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the score with the given rank, i.e. the score at that index
+     * in the sorted scores.
+     *
+     * @param rank    the rank in [0, size()).
+     * @return the score.
+     */
+    @Override
+    public double get(int rank)
+    {
+        _lock.readLock().lock();
+        try {
+            if (rank < 0 || rank >= _size) {
+                throw new IndexOutOfBoundsException
+                              ("Rank " + rank + " is out of range.");
+            }
+            return getQuick(rank);
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Computes the p-value of a non-conformity score with respect to these
+     * calibration scores. The result is the same as that of
+     * Util.calculatePValue() on the sorted scores.
+     *
+     * @param ncScore    the non-conformity score.
+     * @return the p-value.
+     */
+    @Override
+    public double calculatePValue(double ncScore)
+    {
+        int n;
+        int lessCount;
+        int lessOrEqualCount;
+        _lock.readLock().lock();
+        try {
+            n = _size;
+            lessCount = countLess(ncScore, false);
+            lessOrEqualCount = countLess(ncScore, true);
+        } finally {
+            _lock.readLock().unlock();
+        }
+        return Util.calculatePValue(n, lessCount,
+                                    lessOrEqualCount - lessCount);
+    }
+
+    /**
+     * Computes the p-values for a batch of non-conformity scores, with
+     * one merge pass over the sorted scores for large batches and with a
+     * rank query per score otherwise. The results are the same as those of
+     * Util.calculatePValues() on the sorted scores.
+     *
+     * @param ncScores  the non-conformity scores.
+     * @param offset    the index of the first score.
+     * @param stride    the distance between consecutive scores.
+     * @param count     the number of scores.
+     * @param pValues   a <tt>double[]</tt> array to store the p-values.
+     */
+    @Override
+    public void calculatePValues(double[] ncScores,
+                                 int offset, int stride, int count,
+                                 double[] pValues)
+    {
+        double[] sorted = _sorted;
+        if (sorted == null) {
+            _lock.readLock().lock();
+            try {
+                int n = _size;
+                if ((long)count * (32 - Integer.numberOfLeadingZeros(n)) < n) {
+                    // Rank queries are cheaper than flattening the runs.
+                    for (int j = 0; j < count; j++) {
+                        int i = offset + j*stride;
+                        int lessCount = countLess(ncScores[i], false);
+                        int lessOrEqualCount = countLess(ncScores[i], true);
+                        pValues[i] =
+                            Util.calculatePValue(n, lessCount,
+                                                 lessOrEqualCount - lessCount);
+                    }
+                    return;
+                }
+            } finally {
+                _lock.readLock().unlock();
+            }
+            sorted = toArray();
+        }
+        Util.calculatePValues(ncScores, offset, stride, count,
+                              sorted, pValues);
+    }
+
+    /**
+     * Computes the critical non-conformity score for a significance level.
+     * The result is the same as that of Util.calculateCriticalScore() on the
+     * sorted scores.
+     *
+     * @param significanceLevel  the significance level.
+     * @return the critical score; positive infinity if every score passes or NaN if no score passes.
+     */
+    @Override
+    public double calculateCriticalScore(double significanceLevel)
+    {
+        _lock.readLock().lock();
+        try {
+            int j = Util.calculateCriticalRank(_size, significanceLevel);
+            if (j < 0) {
+                return Double.NaN;
+            } else if (j >= _size) {
+                return Double.POSITIVE_INFINITY;
+            } else {
+                return getQuick(j);
+            }
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the scores as a sorted array. The array is shared until the
+     * next change and must not be modified.
+     *
+     * @return the scores in ascending order.
+     */
+    public double[] toArray()
+    {
+        double[] sorted = _sorted;
+        if (sorted == null) {
+            _lock.readLock().lock();
+            try {
+                sorted = _sorted;
+                if (sorted == null) {
+                    sorted = new double[_size];
+                    int offset = 0;
+                    for (int r = 0; r < _runCount; r++) {
+                        System.arraycopy(_runs[r], 0,
+                                         sorted, offset, _runSizes[r]);
+                        offset += _runSizes[r];
+                    }
+                    // Writers are excluded while the read lock is held, so
+                    // the array cannot be stale when published.
+                    _sorted = sorted;
+                }
+            } finally {
+                _lock.readLock().unlock();
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * Returns the number of scores less than (or equal to) key.
+     * The caller must hold the lock.
+     */
+    private int countLess(double key, boolean orEqual)
+    {
+        int r = findRun(key, orEqual);
+        if (r == _runCount) {
+            return _size;
+        }
+        int count = 0;
+        for (int i = r; i > 0; i -= i & -i) {
+            count += _tree[i];
+        }
+        if (orEqual) {
+            return count + Util.upperBound(_runs[r], 0, _runSizes[r], key);
+        } else {
+            return count + Util.lowerBound(_runs[r], 0, _runSizes[r], key);
+        }
+    }
+
+    /**
+     * Inserts a score. The caller must hold the write lock.
+     */
+    private void insertScore(double score)
+    {
+        // Insert after any equal scores in the first run that ends with
+        // a greater score, or last in the last run.
+        int r = findRun(score, true);
+        if (r == _runCount) {
+            r = _runCount - 1;
+        }
+        int position = Util.upperBound(_runs[r], 0, _runSizes[r], score);
+        System.arraycopy(_runs[r], position,
+                         _runs[r], position + 1,
+                         _runSizes[r] - position);
+        _runs[r][position] = score;
+        _runSizes[r]++;
+        _size++;
+        if (_runSizes[r] == RUN_CAPACITY) {
+            splitRun(r);
+        } else {
+            updateTree(r, 1);
+        }
+    }
+
+    /**
+     * Removes one occurrence of a score. The caller must hold the write
+     * lock.
+     */
+    private boolean removeScore(double score)
+    {
+        int r = findRun(score, false);
+        if (r == _runCount) {
+            return false;
+        }
+        int position = Util.lowerBound(_runs[r], 0, _runSizes[r], score);
+        if (Double.compare(_runs[r][position], score) != 0) {
+            return false;
+        }
+        System.arraycopy(_runs[r], position + 1,
+                         _runs[r], position,
+                         _runSizes[r] - position - 1);
+        _runSizes[r]--;
+        _size--;
+        if (_runSizes[r] < RUN_CAPACITY / 4 && _runCount > 1) {
+            mergeRun(r);
+        } else {
+            updateTree(r, -1);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the score with the given rank. The caller must hold the lock.
+     */
+    private double getQuick(int rank)
+    {
+        int r = 0;
+        for (int step = Integer.highestOneBit(_runCount);
+             step > 0;
+             step >>= 1) {
+            if (r + step <= _runCount && _tree[r + step] <= rank) {
+                r += step;
+                rank -= _tree[r];
+            }
+        }
+        return _runs[r][rank];
+    }
+
+    /**
+     * Returns the index of the first run that ends with a score not less
+     * than (or greater than) key, or the number of runs if there is none.
+     * The caller must hold the lock.
+     */
+    private int findRun(double key, boolean strict)
+    {
+        int first = 0;
+        int last = _runCount;
+        while (first < last) {
+            int middle = (first + last) >>> 1;
+            int size = _runSizes[middle];
+            int cmp = size == 0 ? -1 :
+                Double.compare(_runs[middle][size - 1], key);
+            if (cmp < 0 || (strict && cmp == 0)) {
+                first = middle + 1;
+            } else {
+                last = middle;
+            }
+        }
+        return first;
+    }
+
+    private void splitRun(int r)
+    {
+        if (_runCount == _runs.length) {
+            _runs = Arrays.copyOf(_runs, 2*_runCount);
+            _runSizes = Arrays.copyOf(_runSizes, 2*_runCount);
+            _tree = Arrays.copyOf(_tree, 2*_runCount + 1);
+        }
+        System.arraycopy(_runs, r + 1, _runs, r + 2, _runCount - r - 1);
+        System.arraycopy(_runSizes, r + 1, _runSizes, r + 2, _runCount - r - 1);
+        int half = _runSizes[r] / 2;
+        _runs[r + 1] = new double[RUN_CAPACITY];
+        System.arraycopy(_runs[r], half, _runs[r + 1], 0, _runSizes[r] - half);
+        _runSizes[r + 1] = _runSizes[r] - half;
+        _runSizes[r] = half;
+        _runCount++;
+        rebuildTree(r);
+    }
+
+    /**
+     * Merges the small run r, which has just lost a score, with a
+     * neighbour if the result fits in half a run, so that the number of
+     * runs stays proportional to the number of scores. An empty run is
+     * always dropped.
+     */
+    private void mergeRun(int r)
+    {
+        int left = (r + 1 < _runCount) ? r : r - 1;
+        int right = left + 1;
+        if (_runSizes[left] + _runSizes[right] <= RUN_CAPACITY / 2) {
+            System.arraycopy(_runs[right], 0,
+                             _runs[left], _runSizes[left], _runSizes[right]);
+            _runSizes[left] += _runSizes[right];
+            deleteRun(right);
+            rebuildTree(left);
+        } else if (_runSizes[r] == 0) {
+            deleteRun(r);
+            rebuildTree(r);
+        } else {
+            updateTree(r, -1);
+        }
+    }
+
+    private void deleteRun(int r)
+    {
+        System.arraycopy(_runs, r + 1, _runs, r, _runCount - r - 1);
+        System.arraycopy(_runSizes, r + 1, _runSizes, r, _runCount - r - 1);
+        _runCount--;
+        _runs[_runCount] = null;
+        _runSizes[_runCount] = 0;
+    }
+
+    private void updateTree(int r, int delta)
+    {
+        for (int i = r + 1; i <= _runCount; i += i & -i) {
+            _tree[i] += delta;
+        }
+    }
+
+    private void buildWindow(int windowSize, double[] scores)
+    {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException
+                          ("The window size must be positive.");
+        }
+        int count = Math.min(windowSize, scores.length);
+        _window = new double[windowSize];
+        _windowStart = 0;
+        System.arraycopy(scores, scores.length - count, _window, 0, count);
+        double[] sortedScores = Arrays.copyOf(_window, count);
+        Arrays.sort(sortedScores);
+        build(sortedScores);
+    }
+
+    private void build(double[] sortedScores)
+    {
+        // Fill the runs half way to leave room for additions.
+        int fill = RUN_CAPACITY / 2;
+        _size = sortedScores.length;
+        _runCount = Math.max(1, (_size + fill - 1) / fill);
+        _runs = new double[_runCount][];
+        _runSizes = new int[_runCount];
+        for (int r = 0; r < _runCount; r++) {
+            int offset = r*fill;
+            _runs[r] = new double[RUN_CAPACITY];
+            _runSizes[r] = Math.max(0, Math.min(fill, _size - offset));
+            System.arraycopy(sortedScores, offset, _runs[r], 0, _runSizes[r]);
+        }
+        buildTree();
+        _sorted = sortedScores;
+    }
+
+    private void buildTree()
+    {
+        _tree = new int[_runs.length + 1];
+        rebuildTree(0);
+    }
+
+    /**
+     * Rebuilds the tree entries of the runs from run r on, e.g. after runs
+     * have been inserted or removed at r. The entries of the runs before r
+     * only cover runs before r and are kept.
+     */
+    private void rebuildTree(int r)
+    {
+        for (int i = r + 1; i <= _runCount; i++) {
+            _tree[i] = _runSizes[i - 1];
+        }
+        // The kept entries that are children of rebuilt ones are those
+        // that sum up the runs before r.
+        for (int i = r; i > 0; i -= i & -i) {
+            int parent = i + (i & -i);
+            if (parent <= _runCount) {
+                _tree[parent] += _tree[i];
+            }
+        }
+        for (int i = r + 1; i <= _runCount; i++) {
+            int parent = i + (i & -i);
+            if (parent <= _runCount) {
+                _tree[parent] += _tree[i];
+            }
+        }
+    }
+
+    private void writeObject(ObjectOutputStream oos)
+        throws java.io.IOException
+    {
+        _lock.readLock().lock();
+        try {
+            if (_window == null) {
+                oos.writeObject(0);
+                oos.writeObject(toArray());
+            } else {
+                // Keep the order of the window.
+                double[] scores = new double[_size];
+                for (int i = 0; i < _size; i++) {
+                    scores[i] = _window[(_windowStart + i) % _window.length];
+                }
+                oos.writeObject(_window.length);
+                oos.writeObject(scores);
+            }
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    private void readObject(ObjectInputStream ois)
+        throws ClassNotFoundException, java.io.IOException
+    {
+        _lock = new ReentrantReadWriteLock();
+        int windowSize = (int)ois.readObject();
+        double[] scores = (double[])ois.readObject();
+        if (windowSize == 0) {
+            build(scores);
+        } else {
+            buildWindow(windowSize, scores);
+        }
+    }
+}
@@ -22,13 +22,15 @@ import java.util.TreeSet;
 import cern.colt.matrix.DoubleMatrix1D;
 
 /**
- * Represents a prediction made by a conformal classifier.
+ * Represents a prediction made by a conformal classifier. As an
+ * <tt>IConformalClassifications</tt> it has a single row, 0.
  * See [V. Vovk, A. Gammerman and G. Shafer, "Algorithmic Learning in a Random
  * World", Springer, 2005] for the definitions used here.
  *
  * @author anders.gidenstam(at)hb.se
  */
 public class ConformalClassification
+    implements IConformalClassifications
 {
     private final IConformalClassifier _source;
     private final DoubleMatrix1D _pValues;
@@ -94,24 +96,24 @@ public class ConformalClassification
      */
     public int getClassPointPrediction()
     {
-        // FIXME: Would it be better to just return the maximum p-value class or
-        //        -1 if it is not unique?
-        double targetSignificanceLevel = (1.0 - getPointPredictionConfidence());
-        // Floating point inaccuracy makes it likely that more than one class
-        // may be included at the prescribed significance level.
-        // To avoid this do a binary search from above towards the limit.
-        double significanceLevel = 2.0 * targetSignificanceLevel +
-                                   Float.MIN_NORMAL;
-        while (significanceLevel > targetSignificanceLevel) {
-            for (int i = 0; i < _pValues.size(); i++) {
-                if (_pValues.get(i) > significanceLevel) {
-                    return i;
-                }
+        // The maximum p-value class is the point prediction if it is unique.
+        // Note: A search over decreasing significance levels towards the
+        //       second largest p-value never terminated when all p-values
+        //       were zero.
+        double largestPValue = 0.0;
+        double secondLargestPValue = 0.0;
+        int largestClass = -1;
+        for (int i = 0; i < _pValues.size(); i++) {
+            double pValue = _pValues.get(i);
+            if (pValue > largestPValue) {
+                secondLargestPValue = largestPValue;
+                largestPValue = pValue;
+                largestClass = i;
+            } else if (pValue > secondLargestPValue) {
+                secondLargestPValue = pValue;
             }
-            significanceLevel -=
-                0.5*(significanceLevel - targetSignificanceLevel);
         }
-        return -1;
+        return (largestPValue > secondLargestPValue) ? largestClass : -1;
     }
 
     /**
@@ -169,6 +171,92 @@ public class ConformalClassification
         return largestPValue;
     }
 
+    @Override
+    public int size()
+    {
+        return 1;
+    }
+
+    @Override
+    public int getClassCount()
+    {
+        return _pValues.size();
+    }
+
+    @Override
+    public double getPValue(int row, int c)
+    {
+        checkRow(row);
+        return _pValues.get(c);
+    }
+
+    @Override
+    public int getClassIndex(double label)
+    {
+        Double[] labels = _source.getLabels();
+        for (int c = 0; c < labels.length; c++) {
+            if (labels[c] == label) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean isInClassSet(int row, int c, double significanceLevel)
+    {
+        // Same inclusion rule as getClassSet().
+        return 0 <= c && getPValue(row, c) > significanceLevel;
+    }
+
+    @Override
+    public boolean isInLabelSet(int row, double label,
+                                double significanceLevel)
+    {
+        return isInClassSet(row, getClassIndex(label), significanceLevel);
+    }
+
+    @Override
+    public int getClassSetSize(int row, double significanceLevel)
+    {
+        checkRow(row);
+        int size = 0;
+        for (int i = 0; i < _pValues.size(); i++) {
+            if (_pValues.get(i) > significanceLevel) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public int getClassPointPrediction(int row)
+    {
+        checkRow(row);
+        return getClassPointPrediction();
+    }
+
+    @Override
+    public double getLabelPointPrediction(int row)
+    {
+        checkRow(row);
+        return getLabelPointPrediction();
+    }
+
+    @Override
+    public double getPointPredictionConfidence(int row)
+    {
+        checkRow(row);
+        return getPointPredictionConfidence();
+    }
+
+    @Override
+    public double getPointPredictionCredibility(int row)
+    {
+        checkRow(row);
+        return getPointPredictionCredibility();
+    }
+
     /**
      * Returns the conformal classifier that made this prediction.
      *
@@ -178,4 +266,12 @@ public class ConformalClassification
     {
         return _source;
     }
+
+    private static void checkRow(int row)
+    {
+        if (row != 0) {
+            throw new IndexOutOfBoundsException
+                          ("A conformal classification has only row 0.");
+        }
+    }
 }
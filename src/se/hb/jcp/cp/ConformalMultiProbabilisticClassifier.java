@@ -19,11 +19,8 @@ package se.hb.jcp.cp;
 import cern.colt.matrix.DoubleMatrix1D;
 import cern.colt.matrix.DoubleMatrix2D;
 
-import java.util.SortedSet;
-import java.util.TreeSet;
-
 import se.hb.jcp.nc.IClassificationNonconformityFunction;
-import se.hb.jcp.util.RealIndexedMatrix2D;
+import se.hb.jcp.util.ParallelizedAction;
 
 /**
  * Represents a multi-probabilistic conformal classifier with bivariate isotonic regression.
@@ -34,16 +31,28 @@ import se.hb.jcp.util.RealIndexedMatrix2D;
  *       implementation here is partially done by educated guesses. Updated
  *       proofs of the desired properties remain to be done.
  *
+ * The calibration is a dense grid over the quantized confidence (rows) and
+ * credibility (columns) of the point predictions. Each cell holds the
+ * fraction of correct point predictions among the calibration instances in
+ * it, made isotonic in both the rows and the columns.
+ *
  * @author anders.gidenstam(at)hb.se
  */
 public class ConformalMultiProbabilisticClassifier
     implements IConformalClassifier, java.io.Serializable
 {
-    private static final boolean PARALLEL = false;
+    private static final boolean PARALLEL = true;
     private static final double RESOLUTION = 5;
+    // The number of buckets along each axis; 1.0 has its own bucket.
+    private static final int GRID_SIZE = (int)RESOLUTION + 1;
+    private static final int MAX_ISOTONIC_ITERATIONS = 1000;
+    private static final double ISOTONIC_TOLERANCE = 1e-12;
 
     private final IConformalClassifier _classifier;
-    private RealIndexedMatrix2D<Double> _calibration;
+    // The lower and upper probability for each (confidence, credibility)
+    // bucket, row by row. NaN where there is no calibration data to use.
+    private double[] _lower;
+    private double[] _upper;
 
     /**
      * Creates a multi-probabilistic conformal classifier with
@@ -69,38 +78,32 @@ public class ConformalMultiProbabilisticClassifier
      */
     public void calibrate(DoubleMatrix2D xcal, double[] ycal)
     {
-        int n = xcal.rows();
         ConformalClassification[] calibrationScores = _classifier.predict(xcal);
-        RealIndexedMatrix2D<Double> X = new RealIndexedMatrix2D<Double>();
-        RealIndexedMatrix2D<Double> W = new RealIndexedMatrix2D<Double>();
-
-        int i = 0;
-        for (ConformalClassification c : calibrationScores) {
-//            System.err.println("(conf, cred) = (" +
-//                               c.getPointPredictionConfidence() + ", " +
-//                               c.getPointPredictionCredibility() + ") y^ = " +
-//                               c.getLabelPointPrediction() + ", y = " +
-//                               ycal[i]);
-            double conf =
-                (int)(c.getPointPredictionConfidence()*RESOLUTION)/RESOLUTION;
-            double cred =
-                (int)(c.getPointPredictionCredibility()*RESOLUTION)/RESOLUTION;
+        double[] correct = new double[GRID_SIZE * GRID_SIZE];
+        double[] weights = new double[GRID_SIZE * GRID_SIZE];
+
+        for (int i = 0; i < calibrationScores.length; i++) {
+            ConformalClassification c = calibrationScores[i];
+            int cell = bucket(c.getPointPredictionConfidence()) * GRID_SIZE +
+                       bucket(c.getPointPredictionCredibility());
             if (c.getLabelPointPrediction() == ycal[i]) {
-                double old = 0;
-                if (X.contains(conf, cred)) {
-                    old = X.get(conf, cred);
-                }
-                X.put(conf, cred, old + 1);
+                correct[cell]++;
             }
-            double old = 0;
-            if (W.contains(conf, cred)) {
-                old = W.get(conf, cred);
+            weights[cell]++;
+        }
+        double[] calibration = makeBivariateIsotonicArray(correct, weights);
+        double[] lower = new double[GRID_SIZE * GRID_SIZE];
+        double[] upper = new double[GRID_SIZE * GRID_SIZE];
+        for (int row = 0; row < GRID_SIZE; row++) {
+            for (int column = 0; column < GRID_SIZE; column++) {
+                lower[row * GRID_SIZE + column] =
+                    lookupLower(calibration, row, column);
+                upper[row * GRID_SIZE + column] =
+                    lookupUpper(calibration, row, column);
             }
-            W.put(conf, cred, old + 1);
-            i++;
         }
-        _calibration = makeBivariateIsotonicArray(X, W);
-        System.err.println(_calibration);
+        _lower = lower;
+        _upper = upper;
     }
 
     /**
@@ -122,7 +125,12 @@ public class ConformalMultiProbabilisticClassifier
                 predictions[i] = predict(instance);
             }
         } else {
-            // FIXME!
+            // The underlying classifier predicts the whole batch and the
+            // calibration lookups are then made in parallel.
+            ConformalClassification[] classifications = _classifier.predict(x);
+            PredictAction all =
+                new PredictAction(classifications, predictions, 0, n);
+            all.start();
         }
         return predictions;
     }
@@ -136,14 +144,18 @@ public class ConformalMultiProbabilisticClassifier
     @Override
     public ConformalMultiProbabilisticClassification predict(DoubleMatrix1D x)
     {
-        ConformalClassification y = _classifier.predict(x);
-        // FIXME: Is the below correct?
-        Double pLower = _calibration.getLower(y.getPointPredictionConfidence(),
-                                              y.getPointPredictionCredibility());
-        Double pUpper = _calibration.getUpper(y.getPointPredictionConfidence(),
-                                              y.getPointPredictionCredibility());
+        return predict(_classifier.predict(x));
+    }
+
+    private ConformalMultiProbabilisticClassification
+        predict(ConformalClassification y)
+    {
+        int cell = cell(y.getPointPredictionConfidence(),
+                        y.getPointPredictionCredibility());
+        double pLower = _lower[cell];
+        double pUpper = _upper[cell];
 
-        if (pLower == null || pUpper == null || pLower > pUpper) {
+        if (Double.isNaN(pLower) || Double.isNaN(pUpper) || pLower > pUpper) {
             System.err.print(" Prediction: y^ = " + y.getLabelPointPrediction() +
                              ", p = (" + pLower + ", " + pUpper + ")");
             System.err.print(" BAD ");
@@ -151,8 +163,44 @@ public class ConformalMultiProbabilisticClassifier
         }
         return new ConformalMultiProbabilisticClassification(this,
                                                              y.getPValues(),
-                                                             pLower != null ? pLower : 0.0,
-                                                             pUpper != null ? pUpper : 1.0);
+                                                             !Double.isNaN(pLower) ? pLower : 0.0,
+                                                             !Double.isNaN(pUpper) ? pUpper : 1.0);
+    }
+
+    /**
+     * Returns the lower end of the probabilistic interval for the
+     * class/label point prediction of one of several predictions made by
+     * this classifier.
+     *
+     * @param predictions   the predictions.
+     * @param row           the row of the prediction.
+     * @return the lower end of the probabilistic interval for the class/label point prediction.
+     */
+    public double getPointPredictionLowerBoundProbability
+                      (IConformalClassifications predictions, int row)
+    {
+        double pLower =
+            _lower[cell(predictions.getPointPredictionConfidence(row),
+                        predictions.getPointPredictionCredibility(row))];
+        return !Double.isNaN(pLower) ? pLower : 0.0;
+    }
+
+    /**
+     * Returns the upper end of the probabilistic interval for the
+     * class/label point prediction of one of several predictions made by
+     * this classifier.
+     *
+     * @param predictions   the predictions.
+     * @param row           the row of the prediction.
+     * @return the upper end of the probabilistic interval for the class/label point prediction.
+     */
+    public double getPointPredictionUpperBoundProbability
+                      (IConformalClassifications predictions, int row)
+    {
+        double pUpper =
+            _upper[cell(predictions.getPointPredictionConfidence(row),
+                        predictions.getPointPredictionCredibility(row))];
+        return !Double.isNaN(pUpper) ? pUpper : 1.0;
     }
 
     @Override
@@ -161,6 +209,12 @@ public class ConformalMultiProbabilisticClassifier
         return _classifier.predictPValues(x);
     }
 
+    @Override
+    public void predictPValues(DoubleMatrix2D x, double[] pValues)
+    {
+        _classifier.predictPValues(x, pValues);
+    }
+
     @Override
     public DoubleMatrix1D predictPValues(DoubleMatrix1D x)
     {
@@ -197,7 +251,7 @@ public class ConformalMultiProbabilisticClassifier
     @Override
     public boolean isTrained()
     {
-        return _calibration != null;
+        return _lower != null;
     }
 
     @Override
@@ -218,80 +272,219 @@ public class ConformalMultiProbabilisticClassifier
         return getConformalClassifier().nativeStorageTemplate();
     }
 
-    private RealIndexedMatrix2D<Double>
-        makeBivariateIsotonicArray(RealIndexedMatrix2D<Double> X,
-                                   RealIndexedMatrix2D<Double> W)
+    /**
+     * Returns the bucket index of a confidence or credibility value.
+     */
+    private static int cell(double confidence, double credibility)
+    {
+        // FIXME: Is the below correct?
+        return bucket(confidence) * GRID_SIZE + bucket(credibility);
+    }
+
+    private static int bucket(double value)
+    {
+        int index = (int)(value * RESOLUTION);
+        return Math.max(0, Math.min(GRID_SIZE - 1, index));
+    }
+
+    /**
+     * Returns the value of the cell in the last non-empty row at or
+     * before row and, within that row, the last non-empty column at or
+     * before column; or NaN if there is none.
+     */
+    private static double lookupLower(double[] calibration,
+                                      int row, int column)
+    {
+        for (int r = row; r >= 0; r--) {
+            if (!isEmptyRow(calibration, r)) {
+                for (int c = column; c >= 0; c--) {
+                    if (!Double.isNaN(calibration[r * GRID_SIZE + c])) {
+                        return calibration[r * GRID_SIZE + c];
+                    }
+                }
+                return Double.NaN;
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Returns the value of the cell in the first non-empty row after row
+     * (or else the last non-empty row) and, within that row, the first
+     * non-empty column after column (or else the last non-empty column);
+     * or NaN if there is none.
+     */
+    private static double lookupUpper(double[] calibration,
+                                      int row, int column)
     {
-        RealIndexedMatrix2D<Double> result = new RealIndexedMatrix2D<Double>();
-        for (double row : X.getRowIndices()) {
-            for (double column : X.getColumnIndices(row)) {
-                result.put(row, column, X.get(row, column)/W.get(row, column));
+        int r = row + 1;
+        while (r < GRID_SIZE && isEmptyRow(calibration, r)) {
+            r++;
+        }
+        if (r == GRID_SIZE) {
+            r = GRID_SIZE - 1;
+            while (r >= 0 && isEmptyRow(calibration, r)) {
+                r--;
+            }
+            if (r < 0) {
+                return Double.NaN;
             }
         }
-        // FIXME: Ensure the bivariate isotonic property.
-        // See [R. L. Dykstra and T. Robertson, "An Algorithm for Isotonic
-        // Regression for two or more independent variables",
-        // The Annals of Statistics, vol. 10, no. 3, pp. 708--716, 1982.]
-        boolean changed = true;
-        while (changed) {
-            changed = makeIsotonicRows(result) | makeIsotonicColumns(result);
+        for (int c = column + 1; c < GRID_SIZE; c++) {
+            if (!Double.isNaN(calibration[r * GRID_SIZE + c])) {
+                return calibration[r * GRID_SIZE + c];
+            }
         }
+        for (int c = GRID_SIZE - 1; c >= 0; c--) {
+            if (!Double.isNaN(calibration[r * GRID_SIZE + c])) {
+                return calibration[r * GRID_SIZE + c];
+            }
+        }
+        return Double.NaN;
+    }
 
-        return result;
+    private static boolean isEmptyRow(double[] calibration, int row)
+    {
+        for (int c = 0; c < GRID_SIZE; c++) {
+            if (!Double.isNaN(calibration[row * GRID_SIZE + c])) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    private boolean makeIsotonicRows(RealIndexedMatrix2D<Double> result)
+    /**
+     * Computes the weighted least squares fit to the fractions
+     * correct/weights that is non-decreasing along each row and each
+     * column, over the cells with calibration data. Empty cells are NaN.
+     * See [R. L. Dykstra and T. Robertson, "An Algorithm for Isotonic
+     * Regression for two or more independent variables",
+     * The Annals of Statistics, vol. 10, no. 3, pp. 708--716, 1982.]
+     * The fit alternates pool adjacent violators passes over the rows and
+     * the columns with Dykstra's correction terms, which makes it converge
+     * to the bivariate isotonic regression.
+     */
+    private static double[] makeBivariateIsotonicArray(double[] correct,
+                                                       double[] weights)
     {
-        boolean changed = false;
-        for (double row : result.getRowIndices()) {
-            Double[] column = result.getColumnIndices(row).toArray(new Double[0]);
-            for (int i = 0; i < column.length-1; i++) {
-                int j = i;
-                while (j >= 0 &&
-                       result.get(row, column[j]) > result.get(row, column[j+1])) {
-                    double sum = 0;
-                    for (int k = j; k < i+1; k++) {
-                        sum += result.get(row, column[k]);
-                    }
-                    double avg = sum/(i+2 - j);
-                    for (int k = j; k < i+1; k++) {
-                        result.put(row, column[k], avg);
-                        changed = true;
-                    }
-                    j--;
+        int cells = GRID_SIZE * GRID_SIZE;
+        // x is the current fit, y its projection onto the row-isotonic
+        // arrays and z the projection of that onto the column-isotonic
+        // arrays.
+        double[] x = new double[cells];
+        for (int i = 0; i < cells; i++) {
+            x[i] = weights[i] > 0 ? correct[i] / weights[i] : Double.NaN;
+        }
+        double[] y = new double[cells];
+        double[] z = new double[cells];
+        double[] rowCorrection    = new double[cells];
+        double[] columnCorrection = new double[cells];
+        for (int iteration = 0;
+             iteration < MAX_ISOTONIC_ITERATIONS;
+             iteration++) {
+            for (int i = 0; i < cells; i++) {
+                y[i] = x[i] + rowCorrection[i];
+            }
+            for (int row = 0; row < GRID_SIZE; row++) {
+                poolAdjacentViolators(y, weights, row * GRID_SIZE, 1);
+            }
+            for (int i = 0; i < cells; i++) {
+                rowCorrection[i] += x[i] - y[i];
+                z[i] = y[i] + columnCorrection[i];
+            }
+            for (int column = 0; column < GRID_SIZE; column++) {
+                poolAdjacentViolators(z, weights, column, GRID_SIZE);
+            }
+            double change = 0.0;
+            for (int i = 0; i < cells; i++) {
+                if (weights[i] > 0) {
+                    columnCorrection[i] += y[i] - z[i];
+                    change = Math.max(change, Math.abs(z[i] - x[i]));
                 }
             }
+            double[] tmp = x;
+            x = z;
+            z = tmp;
+            if (change < ISOTONIC_TOLERANCE) {
+                break;
+            }
         }
-        return changed;
+        return x;
     }
 
-    private boolean makeIsotonicColumns(RealIndexedMatrix2D<Double> result)
+    /**
+     * Replaces the values at offset + i*stride, i in [0, GRID_SIZE), by
+     * their weighted isotonic (non-decreasing) regression. Cells with zero
+     * weight are skipped.
+     */
+    private static void poolAdjacentViolators(double[] values,
+                                              double[] weights,
+                                              int offset, int stride)
     {
-        boolean changed = false;
-        Double[] allRows = result.getRowIndices().toArray(new Double[0]);
-        SortedSet<Double> allColumns = new TreeSet<Double>();
-        for (double row : allRows) {
-            allColumns.addAll(result.getColumnIndices(row));
+        // Each block is a value, a weight and the index of its last cell.
+        double[] blockValues  = new double[GRID_SIZE];
+        double[] blockWeights = new double[GRID_SIZE];
+        int[]    blockEnds    = new int[GRID_SIZE];
+        int blocks = 0;
+        for (int i = 0; i < GRID_SIZE; i++) {
+            int cell = offset + i*stride;
+            if (weights[cell] <= 0) {
+                continue;
+            }
+            blockValues[blocks]  = values[cell];
+            blockWeights[blocks] = weights[cell];
+            blockEnds[blocks]    = i;
+            blocks++;
+            while (blocks > 1 &&
+                   blockValues[blocks - 2] > blockValues[blocks - 1]) {
+                double weight = blockWeights[blocks - 2] + blockWeights[blocks - 1];
+                blockValues[blocks - 2] =
+                    (blockValues[blocks - 2] * blockWeights[blocks - 2] +
+                     blockValues[blocks - 1] * blockWeights[blocks - 1]) /
+                    weight;
+                blockWeights[blocks - 2] = weight;
+                blockEnds[blocks - 2] = blockEnds[blocks - 1];
+                blocks--;
+            }
         }
-        for (double column : allColumns) {
-            for (int i = 0; i < allRows.length-1; i++) {
-                int j = i;
-                while (j >= 0 &&
-                       result.getOrDefault(allRows[j], column, 0.0) >
-                       result.getOrDefault(allRows[j+1], column, 0.0)) {
-                    double sum = 0;
-                    for (int k = j; k < i+1; k++) {
-                        sum += result.getOrDefault(allRows[k], column, 0.0);
-                    }
-                    double avg = sum/(i+2 - j);
-                    for (int k = j; k < i+1; k++) {
-                        result.put(allRows[k], column, avg);
-                        changed = true;
-                    }
-                    j--;
-                }
+        int b = 0;
+        for (int i = 0; i < GRID_SIZE && b < blocks; i++) {
+            int cell = offset + i*stride;
+            if (weights[cell] > 0) {
+                values[cell] = blockValues[b];
             }
+            if (i == blockEnds[b]) {
+                b++;
+            }
+        }
+    }
+
+    class PredictAction extends ParallelizedAction
+    {
+        ConformalClassification[] _classifications;
+        ConformalMultiProbabilisticClassification[] _predictions;
+
+        public PredictAction
+            (ConformalClassification[] classifications,
+             ConformalMultiProbabilisticClassification[] predictions,
+             int first, int last)
+        {
+            super(first, last);
+            _classifications = classifications;
+            _predictions = predictions;
+        }
+
+        @Override
+        protected void compute(int i)
+        {
+            _predictions[i] = predict(_classifications[i]);
+        }
+
+        @Override
+        protected ParallelizedAction createSubtask(int first, int last)
+        {
+            return new PredictAction(_classifications, _predictions,
+                                     first, last);
         }
-        return changed;
     }
 }
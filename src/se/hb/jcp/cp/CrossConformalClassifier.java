@@ -0,0 +1,539 @@
+// JCP - Java Conformal Prediction framework
+// Copyright (C) 2024  Anders Gidenstam
+//
+// This library is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+package se.hb.jcp.cp;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.DenseDoubleMatrix1D;
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import java.util.Date;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import se.hb.jcp.nc.IClassificationNonconformityFunction;
+import se.hb.jcp.util.ParallelizedAction;
+import se.hb.jcp.util.RowSelectionDoubleMatrix2D;
+
+/**
+ * Represents an instance of a cross-conformal classification algorithm,
+ * i.e., an ensemble of k inductive conformal classifiers where each is
+ * trained on all but one fold of the data and calibrated on the remaining
+ * fold. The p-value for a label is computed from the ranks of the test
+ * instance's non-conformity scores among the calibration scores of all
+ * folds, [Vovk, Annals of Mathematics and Artificial Intelligence, 2015].
+ *
+ * @author anders.gidenstam(at)hb.se
+ */
+public class CrossConformalClassifier
+    implements IConformalClassifier, java.io.Serializable
+{
+    private static final boolean PARALLEL = true;
+
+    private IClassificationNonconformityFunction _nc;
+    private Double[] _classes;
+    private SortedMap<Double, Integer> _classIndex;
+    private boolean _useLabelConditionalCP;
+    private int _foldCount;
+    private InductiveConformalClassifier[] _folds;
+    // The sorted calibration scores of all folds, one segment per fold,
+    // for each class/label (only one for normal conformal prediction).
+    private transient double[][] _calibrationScores; // [class][]
+    private transient int[][]    _foldOffsets;       // [class][fold + 1]
+
+    /**
+      * Creates a cross-conformal classifier using the supplied
+      * information.
+      *
+      * @param nc         the untrained non-conformity function to use.
+      * @param targets    the class labels.
+      * @param folds      the number of folds.
+      */
+    public CrossConformalClassifier(IClassificationNonconformityFunction nc,
+                                    double[] targets,
+                                    int      folds)
+    {
+        this(nc, targets, folds, false);
+    }
+
+    /**
+      * Creates a cross-conformal classifier using the supplied
+      * information.
+      *
+      * @param nc                     the untrained non-conformity function to use.
+      * @param targets                the class labels.
+      * @param folds                  the number of folds.
+      * @param useLabelConditionalCP  a boolean indicating whether label conditional conformal prediction should be used.
+      */
+    public CrossConformalClassifier(IClassificationNonconformityFunction nc,
+                                    double[] targets,
+                                    int      folds,
+                                    boolean  useLabelConditionalCP)
+    {
+        if (folds < 2) {
+            throw new IllegalArgumentException
+                          ("A cross-conformal classifier needs at least " +
+                           "two folds.");
+        }
+        _nc = nc;
+        _foldCount = folds;
+        _useLabelConditionalCP = useLabelConditionalCP;
+        _classIndex = new TreeMap<Double, Integer>();
+        for (int c = 0; c < targets.length; c++) {
+            _classIndex.put(targets[c], c);
+        }
+        _classes = _classIndex.keySet().toArray(new Double[0]);
+    }
+
+    /**
+     * Trains and calibrates this conformal classifier using the supplied
+     * data. The data is randomly partitioned into folds and one inductive
+     * conformal classifier per fold is trained on the other folds and
+     * calibrated on the fold. The folds are trained in parallel.
+     *
+     * @param x             the attributes of the instances.
+     * @param y             the targets of the instances.
+     */
+    public void fit(DoubleMatrix2D x, double[] y)
+    {
+        int n = x.rows();
+        if (n < _foldCount) {
+            throw new IllegalArgumentException
+                          ("The data set must contain at least one instance " +
+                           "per fold.");
+        }
+        // Randomly assign the instances to folds of (nearly) equal size.
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Random random = new Random(new Date().getTime());
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        int[] fold = new int[n];
+        for (int i = 0; i < n; i++) {
+            fold[order[i]] = i % _foldCount;
+        }
+
+        _folds = new InductiveConformalClassifier[_foldCount];
+        if (!PARALLEL) {
+            for (int f = 0; f < _foldCount; f++) {
+                _folds[f] = fitFold(f, x, y, fold);
+            }
+        } else {
+            FitFoldsAction all = new FitFoldsAction(x, y, fold, 0, _foldCount);
+            all.start();
+        }
+        combineCalibrationScores();
+    }
+
+    /**
+     * Trains and calibrates the inductive conformal classifier for fold f.
+     */
+    private InductiveConformalClassifier fitFold(int f,
+                                                 DoubleMatrix2D x,
+                                                 double[] y,
+                                                 int[] fold)
+    {
+        int n = x.rows();
+        int calibrationSize = 0;
+        for (int i = 0; i < n; i++) {
+            if (fold[i] == f) {
+                calibrationSize++;
+            }
+        }
+        // The training and calibration sets share the rows of x.
+        int[]    rowsTr  = new int[n - calibrationSize];
+        double[] ytr     = new double[n - calibrationSize];
+        int[]    rowsCal = new int[calibrationSize];
+        double[] ycal    = new double[calibrationSize];
+        int rtr  = 0;
+        int rcal = 0;
+        for (int i = 0; i < n; i++) {
+            if (fold[i] == f) {
+                rowsCal[rcal] = i;
+                ycal[rcal++] = y[i];
+            } else {
+                rowsTr[rtr] = i;
+                ytr[rtr++] = y[i];
+            }
+        }
+        DoubleMatrix2D xtr  = new RowSelectionDoubleMatrix2D(x, rowsTr);
+        DoubleMatrix2D xcal = new RowSelectionDoubleMatrix2D(x, rowsCal);
+
+        double[] targets = new double[_classes.length];
+        for (int c = 0; c < _classes.length; c++) {
+            targets[c] = _classes[c];
+        }
+        // Each fold needs its own instance of the non-conformity function.
+        InductiveConformalClassifier icc =
+            new InductiveConformalClassifier(_nc.fitNew(xtr, ytr),
+                                             targets,
+                                             _useLabelConditionalCP);
+        icc.calibrate(xcal, ycal);
+        return icc;
+    }
+
+    /**
+     * Merges the sorted calibration scores of the folds into one array per
+     * class/label with the segment of each fold kept sorted.
+     */
+    private void combineCalibrationScores()
+    {
+        // The folds always keep exact calibration scores.
+        int conditions = _useLabelConditionalCP ? _classes.length : 1;
+        _calibrationScores = new double[conditions][];
+        _foldOffsets = new int[conditions][_foldCount + 1];
+        for (int c = 0; c < conditions; c++) {
+            for (int f = 0; f < _foldCount; f++) {
+                _foldOffsets[c][f + 1] =
+                    _foldOffsets[c][f] +
+                    _folds[f].getCalibrationScores(c).size();
+            }
+            _calibrationScores[c] = new double[_foldOffsets[c][_foldCount]];
+            for (int f = 0; f < _foldCount; f++) {
+                double[] scores =
+                    ((CalibrationScores)_folds[f].getCalibrationScores(c)).
+                        toArray();
+                System.arraycopy(scores, 0,
+                                 _calibrationScores[c], _foldOffsets[c][f],
+                                 scores.length);
+            }
+        }
+    }
+
+    /**
+     * Makes a prediction for each instance in x.
+     * The method is parallellized over the instances.
+     *
+     * @param x             the instances.
+     * @return an array containing a <tt>ConformalClassification</tt> for each instance.
+     */
+    @Override
+    public ConformalClassification[] predict(DoubleMatrix2D x)
+    {
+        int n = x.rows();
+        ConformalClassification[] predictions = new ConformalClassification[n];
+        DoubleMatrix2D pValues = predictPValues(x);
+        for (int i = 0; i < n; i++) {
+            predictions[i] = new ConformalClassification(this,
+                                                         pValues.viewRow(i));
+        }
+        return predictions;
+    }
+
+    /**
+     * Makes a prediction for the instance x.
+     *
+     * @param x             the instance.
+     * @return a prediction in the form of a <tt>ConformalClassification</tt>.
+     */
+    @Override
+    public ConformalClassification predict(DoubleMatrix1D x)
+    {
+        return new ConformalClassification(this, predictPValues(x));
+    }
+
+    /**
+     * Computes the predicted p-values for each target and instance in x.
+     * The method is parallellized over the instances.
+     *
+     * @param x             the instances.
+     * @return an <tt>DoubleMatrix2D</tt> containing the predicted p-values for each instance.
+     */
+    @Override
+    public DoubleMatrix2D predictPValues(DoubleMatrix2D x)
+    {
+        checkTrained();
+        int n = x.rows();
+        int k = _classes.length;
+        DoubleMatrix2D response = new DenseDoubleMatrix2D(n, k);
+        if (!PARALLEL) {
+            for (int i = 0; i < n; i++) {
+                predictPValues(x.viewRow(i), response.viewRow(i));
+            }
+        } else {
+            // Score all instances and labels in one batch per fold and then
+            // rank the scores against the calibration scores of all folds.
+            double[][] scores = new double[_foldCount][n*k];
+            for (int f = 0; f < _foldCount; f++) {
+                _folds[f].getNonconformityFunction().
+                    calculateNonConformityScores(x, scores[f]);
+            }
+            CalculatePValuesAction all =
+                new CalculatePValuesAction(scores, response, 0, n);
+            all.start();
+        }
+        return response;
+    }
+
+    /**
+     * Computes the predicted p-values for each target and instance in x
+     * into a caller-owned flat array.
+     * The method is parallellized over the instances.
+     *
+     * @param x          the instances.
+     * @param pValues    a <tt>double[]</tt> array of length at least x.rows() * getLabels().length to store the p-values row by row, each row in the order given by getLabels().
+     */
+    @Override
+    public void predictPValues(DoubleMatrix2D x, double[] pValues)
+    {
+        DoubleMatrix2D response = predictPValues(x);
+        int k = _classes.length;
+        for (int i = 0; i < response.rows(); i++) {
+            for (int c = 0; c < k; c++) {
+                pValues[i*k + c] = response.getQuick(i, c);
+            }
+        }
+    }
+
+   /**
+     * Computes the predicted p-values for the instance x.
+     *
+     * @param x    the instance.
+     * @return an <tt>DoubleMatrix1D</tt> containing the predicted p-values.
+     */
+    @Override
+    public DoubleMatrix1D predictPValues(DoubleMatrix1D x)
+    {
+        DoubleMatrix1D response = new DenseDoubleMatrix1D(_classes.length);
+        predictPValues(x, response);
+        return response;
+    }
+
+   /**
+     * Computes the predicted p-values for the instance x.
+     *
+     * @param x          the instance.
+     * @param pValues    an initialized <tt>DoubleMatrix1D</tt> to store the p-values.
+     */
+    @Override
+    public void predictPValues(DoubleMatrix1D x, DoubleMatrix1D pValues)
+    {
+        checkTrained();
+        int k = _classes.length;
+        double[][] scores = new double[_foldCount][k];
+        for (int f = 0; f < _foldCount; f++) {
+            _folds[f].getNonconformityFunction().
+                calculateNonConformityScores(x, scores[f]);
+        }
+        for (int c = 0; c < k; c++) {
+            pValues.set(c, calculatePValue(c, scores, c));
+        }
+    }
+
+    /**
+     * Computes the cross-conformal p-value for the class/label with index
+     * c from the non-conformity scores of the test instance for that label
+     * under each fold. The score under fold f is ranked among the
+     * calibration scores of fold f only.
+     *
+     * @param c        the index of the class/label.
+     * @param scores   the non-conformity scores for each fold.
+     * @param index    the index of the score in the arrays in scores.
+     * @return the p-value.
+     */
+    private double calculatePValue(int c, double[][] scores, int index)
+    {
+        int condition = _useLabelConditionalCP ? c : 0;
+        double[] calibrationScores = _calibrationScores[condition];
+        int[]    offsets           = _foldOffsets[condition];
+        int greater = 0;
+        int equal   = 0;
+        for (int f = 0; f < _foldCount; f++) {
+            double score = scores[f][index];
+            int lt = Util.lowerBound(calibrationScores,
+                                     offsets[f], offsets[f + 1], score);
+            int le = Util.upperBound(calibrationScores,
+                                     lt, offsets[f + 1], score);
+            greater += offsets[f + 1] - le;
+            equal   += le - lt;
+        }
+        int n = calibrationScores.length;
+        return Util.calculatePValue(n, n - greater - equal, equal);
+    }
+
+    private void checkTrained()
+    {
+        if (!isTrained()) {
+            throw new UnsupportedOperationException
+                          ("The cross-conformal classifier must be trained " +
+                           "before predictions can be made.");
+        }
+    }
+
+    /**
+     * Returns the untrained non-conformity function that the folds of this
+     * classifier are trained from.
+     *
+     * @return the non-conformity function.
+     */
+    @Override
+    public IClassificationNonconformityFunction getNonconformityFunction()
+    {
+        return _nc;
+    }
+
+    /**
+     * Returns the number of folds of this classifier.
+     *
+     * @return the number of folds.
+     */
+    public int getFoldCount()
+    {
+        return _foldCount;
+    }
+
+    /**
+     * Returns whether this classifier has been trained and calibrated.
+     *
+     * @return <tt>true</tt> if the classifier has been trained and calibrated or <tt>false</tt> otherwise.
+     */
+    @Override
+    public boolean isTrained()
+    {
+        return _calibrationScores != null;
+    }
+
+    @Override
+    public int getAttributeCount()
+    {
+        if (isTrained()) {
+            return _folds[0].getAttributeCount();
+        } else {
+            return -1;
+        }
+    }
+
+    @Override
+    public Double[] getLabels()
+    {
+        return _classes;
+    }
+
+    @Override
+    public DoubleMatrix1D nativeStorageTemplate()
+    {
+        if (getNonconformityFunction() != null) {
+            return getNonconformityFunction().nativeStorageTemplate();
+        } else {
+            return new cern.colt.matrix.impl.SparseDoubleMatrix1D(0);
+        }
+    }
+
+    private void writeObject(ObjectOutputStream oos)
+        throws java.io.IOException
+    {
+        oos.writeObject(_nc);
+        oos.writeObject(_classes);
+        oos.writeObject(_classIndex);
+        oos.writeObject(_useLabelConditionalCP);
+        oos.writeObject(_foldCount);
+        oos.writeObject(_folds);
+    }
+
+    @SuppressWarnings("unchecked") // There is not much to do if the saved
+                                   // value doesn't match the expected type.
+    private void readObject(ObjectInputStream ois)
+        throws ClassNotFoundException, java.io.IOException
+    {
+        _nc = (IClassificationNonconformityFunction)ois.readObject();
+        _classes = (Double[])ois.readObject();
+        _classIndex = (SortedMap<Double, Integer>)ois.readObject();
+        _useLabelConditionalCP = (boolean)ois.readObject();
+        _foldCount = (int)ois.readObject();
+        _folds = (InductiveConformalClassifier[])ois.readObject();
+        if (_folds != null) {
+            combineCalibrationScores();
+        }
+    }
+
+    class FitFoldsAction extends se.hb.jcp.util.ParallelizedAction
+    {
+        DoubleMatrix2D _x;
+        double[] _y;
+        int[] _fold;
+
+        public FitFoldsAction(DoubleMatrix2D x, double[] y, int[] fold,
+                              int first, int last)
+        {
+            super(first, last);
+            _x = x;
+            _y = y;
+            _fold = fold;
+        }
+
+        @Override
+        protected void compute(int f)
+        {
+            _folds[f] = fitFold(f, _x, _y, _fold);
+        }
+
+        @Override
+        protected boolean isNestedParallelismAllowed()
+        {
+            // With fewer folds than threads the folds alone cannot keep
+            // the task pool busy.
+            return _foldCount < ParallelizedAction.getParallelism();
+        }
+
+        @Override
+        protected ParallelizedAction createSubtask(int first, int last)
+        {
+            return new FitFoldsAction(_x, _y, _fold, first, last);
+        }
+    }
+
+    class CalculatePValuesAction extends se.hb.jcp.util.ParallelizedAction
+    {
+        double[][] _scores;
+        DoubleMatrix2D _response;
+
+        public CalculatePValuesAction(double[][] scores,
+                                      DoubleMatrix2D response,
+                                      int first, int last)
+        {
+            super(first, last);
+            _scores = scores;
+            _response = response;
+        }
+
+        @Override
+        protected void compute(int i)
+        {
+            int k = _classes.length;
+            for (int c = 0; c < k; c++) {
+                _response.setQuick(i, c,
+                                   calculatePValue(c, _scores, i*k + c));
+            }
+        }
+
+        @Override
+        protected ParallelizedAction createSubtask(int first, int last)
+        {
+            return new CalculatePValuesAction(_scores, _response, first, last);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+// JCP - Java Conformal Prediction framework
+// Copyright (C) 2024  Anders Gidenstam
+//
+// This library is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+package se.hb.jcp.cp;
+
+/**
+ * Represents the calibration non-conformity scores of an inductive
+ * conformal predictor.
+ *
+ * Contract for JCP use:
+ * 1. The query methods must be safe to call concurrently with each other
+ *    and with add().
+ */
+public interface ICalibrationScores
+    extends java.io.Serializable
+{
+    /**
+     * Returns the number of scores.
+     *
+     * @return the number of scores.
+     */
+    public int size();
+
+    /**
+     * Adds a score.
+     *
+     * @param score    the score.
+     */
+    public void add(double score);
+
+    /**
+     * Returns the score with the given rank, i.e. the score at that index
+     * in the sorted scores.
+     *
+     * @param rank    the rank in [0, size()).
+     * @return the score.
+     */
+    public double get(int rank);
+
+    /**
+     * Computes the p-value of a non-conformity score with respect to these
+     * calibration scores.
+     *
+     * @param ncScore    the non-conformity score.
+     * @return the p-value.
+     */
+    public double calculatePValue(double ncScore);
+
+    /**
+     * Computes the p-values for a batch of non-conformity scores.
+     * The scores are read from ncScores[offset + j*stride] for j in
+     * [0, count) and the p-values are stored at the same indices in
+     * pValues. ncScores and pValues may be the same array.
+     *
+     * @param ncScores  the non-conformity scores.
+     * @param offset    the index of the first score.
+     * @param stride    the distance between consecutive scores.
+     * @param count     the number of scores.
+     * @param pValues   a <tt>double[]</tt> array to store the p-values.
+     */
+    public void calculatePValues(double[] ncScores,
+                                 int offset, int stride, int count,
+                                 double[] pValues);
+
+    /**
+     * Computes the critical non-conformity score for a significance level.
+     * See Util.calculateCriticalScore().
+     *
+     * @param significanceLevel  the significance level.
+     * @return the critical score; positive infinity if every score passes or NaN if no score passes.
+     */
+    public double calculateCriticalScore(double significanceLevel);
+}
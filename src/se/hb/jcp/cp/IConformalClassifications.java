@@ -0,0 +1,135 @@
+// JCP - Java Conformal Prediction framework
+// Copyright (C) 2024  Anders Gidenstam
+//
+// This library is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+package se.hb.jcp.cp;
+
+/**
+ * Represents a sequence of predictions made by a conformal classifier,
+ * accessed by row. This is the common view of a single
+ * <tt>ConformalClassification</tt>, which has one row, and of a
+ * <tt>PredictionBatch</tt>, so that e.g. the measures only need to be
+ * defined once.
+ *
+ * @author anders.gidenstam(at)hb.se
+ */
+public interface IConformalClassifications
+{
+    /**
+     * Returns the number of predictions.
+     *
+     * @return the number of predictions.
+     */
+    public int size();
+
+    /**
+     * Returns the number of classes/labels, i.e. p-values per prediction.
+     *
+     * @return the number of classes/labels.
+     */
+    public int getClassCount();
+
+    /**
+     * Returns the predicted p-value for a class.
+     *
+     * @param row      the index of the prediction.
+     * @param c        the class number.
+     * @return the p-value.
+     */
+    public double getPValue(int row, int c);
+
+    /**
+     * Returns the class number of a label.
+     *
+     * @param label    the class label.
+     * @return the class number of the label or -1 if it is unknown.
+     */
+    public int getClassIndex(double label);
+
+    /**
+     * Returns whether a class is included in the region prediction at a
+     * selected significance level.
+     *
+     * @param row                the index of the prediction.
+     * @param c                  the class number.
+     * @param significanceLevel  the selected significance level.
+     * @return <tt>true</tt> if the class is included.
+     */
+    public boolean isInClassSet(int row, int c, double significanceLevel);
+
+    /**
+     * Returns whether a label is included in the region prediction at a
+     * selected significance level.
+     *
+     * @param row                the index of the prediction.
+     * @param label              the class label.
+     * @param significanceLevel  the selected significance level.
+     * @return <tt>true</tt> if the label is included.
+     */
+    public boolean isInLabelSet(int row, double label,
+                                double significanceLevel);
+
+    /**
+     * Returns the size of the region prediction at a selected significance
+     * level.
+     *
+     * @param row                the index of the prediction.
+     * @param significanceLevel  the selected significance level.
+     * @return the number of classes/labels in the region prediction.
+     */
+    public int getClassSetSize(int row, double significanceLevel);
+
+    /**
+     * Returns the maximum credibility point prediction class number.
+     *
+     * @param row      the index of the prediction.
+     * @return the maximum credibility class number or -1 if no unique such class/label exists.
+     */
+    public int getClassPointPrediction(int row);
+
+    /**
+     * Returns the maximum credibility point prediction label.
+     *
+     * @param row      the index of the prediction.
+     * @return the maximum credibility class label or NaN if no unique such class/label exists.
+     */
+    public double getLabelPointPrediction(int row);
+
+    /**
+     * Returns the confidence of the class/label point prediction, i.e.
+     * the greatest 1-significance level for which the label set is at
+     * most a single value.
+     *
+     * @param row      the index of the prediction.
+     * @return the confidence of the class/label point prediction.
+     */
+    public double getPointPredictionConfidence(int row);
+
+    /**
+     * Returns the credibility of the class/label point prediction, i.e.
+     * the smallest significance level for which the label set is empty.
+     *
+     * @param row      the index of the prediction.
+     * @return the credibility of the class/label point prediction.
+     */
+    public double getPointPredictionCredibility(int row);
+
+    /**
+     * Returns the conformal classifier that made the predictions.
+     *
+     * @return the conformal classifier that made the predictions.
+     */
+    public IConformalClassifier getSource();
+}
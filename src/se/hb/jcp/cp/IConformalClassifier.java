@@ -59,6 +59,16 @@ public interface IConformalClassifier
      */
     public DoubleMatrix2D predictPValues(DoubleMatrix2D x);
 
+    /**
+     * Computes the predicted p-values for each target and instance in x
+     * into a caller-owned flat array.
+     * The method is parallellized over the instances.
+     *
+     * @param x          the instances.
+     * @param pValues    a <tt>double[]</tt> array of length at least x.rows() * getLabels().length to store the p-values row by row, each row in the order given by getLabels().
+     */
+    public void predictPValues(DoubleMatrix2D x, double[] pValues);
+
     /**
      * Computes the predicted p-values for the instance x.
      *
@@ -30,7 +30,10 @@ import java.util.SortedMap;
 import java.util.TreeMap;
 
 import se.hb.jcp.nc.IClassificationNonconformityFunction;
+import se.hb.jcp.util.CancellationToken;
+import se.hb.jcp.util.IProgressListener;
 import se.hb.jcp.util.ParallelizedAction;
+import se.hb.jcp.util.RowSelectionDoubleMatrix2D;
 
 /**
  * Represents an instance of a specific inductive conformal classification
@@ -40,15 +43,24 @@ public class InductiveConformalClassifier
     implements IConformalClassifier, java.io.Serializable
 {
     private static final boolean PARALLEL = true;
+    // The number of instances scored per batch by the cancellable methods.
+    private static final int BLOCK_SIZE = 256;
 
     private IClassificationNonconformityFunction _nc;
     private Double[] _classes;
     private SortedMap<Double, Integer> _classIndex;
     // For normal conformal prediction.
-    private double[] _calibrationScores;
+    private ICalibrationScores _calibrationScores;
     // For label/class-conditional conformal prediction.
-    private boolean    _useLabelConditionalCP;
-    private double[][] _classCalibrationScores;
+    private boolean             _useLabelConditionalCP;
+    private ICalibrationScores[] _classCalibrationScores;
+    // The maximum number of calibration scores per store or 0 if unbounded.
+    private int                 _calibrationWindowSize;
+    // The rank error of the calibration quantile sketches or 0 if exact.
+    private double              _calibrationSketchRankError;
+    // For region predictions at fixed significance levels.
+    private double[]            _significanceLevels;
+    private volatile double[][] _criticalScores; // [level][class]
 
     /**
       * Creates an inductive conformal classifier using the supplied
@@ -107,64 +119,278 @@ public class InductiveConformalClassifier
      * @param xcal          the attributes of the calibration instances.
      * @param ycal          the targets of the calibration instances.
      */
-    public void calibrate(DoubleMatrix2D xcal, double[] ycal)
+    public synchronized void calibrate(DoubleMatrix2D xcal, double[] ycal)
     {
-        if (getNonconformityFunction() == null ||
-            !getNonconformityFunction().isTrained()) {
-            throw new UnsupportedOperationException
-                          ("The non-conformity function of the conformal " +
-                           "classifier must be trained before the classifier " +
-                           "can be calibrated.");
-        }
+        checkNonconformityFunctionTrained();
+        calibrate(calculateNonConformityScores(xcal, ycal), ycal);
+    }
+
+    /**
+     * Calibrates this conformal classifier using the supplied data or as
+     * much of it as can be scored before the token is cancelled, e.g. by
+     * its deadline. The calibration instances that were not scored in time
+     * are left out of the calibration set.
+     * The classifier's non-conformity function must have been trained first.
+     *
+     * @param xcal          the attributes of the calibration instances.
+     * @param ycal          the targets of the calibration instances.
+     * @param token         the cancellation token.
+     * @param listener      a progress listener or null.
+     * @return the number of calibration instances used.
+     */
+    public synchronized int calibrate(DoubleMatrix2D xcal, double[] ycal,
+                                      CancellationToken token,
+                                      IProgressListener listener)
+    {
+        checkNonconformityFunctionTrained();
         int n = xcal.rows();
-        _calibrationScores = new double[n];
+        double[] scores = new double[n];
+        boolean[] scored = new boolean[n];
+        ScoreBlocksAction all =
+            new ScoreBlocksAction(xcal, ycal, scores, scored, 0, n);
+        all.setCancellationToken(token);
+        all.setProgressListener(listener);
+        all.start();
+        // Keep the scored calibration instances.
+        int m = 0;
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            if (scored[i]) {
+                scores[m] = scores[i];
+                y[m] = ycal[i];
+                m++;
+            }
+        }
+        calibrate(Arrays.copyOf(scores, m), Arrays.copyOf(y, m));
+        return m;
+    }
+
+    private void calibrate(double[] calibrationScores, double[] ycal)
+    {
+        int n = ycal.length;
         if (_useLabelConditionalCP) {
-            _classCalibrationScores = new double[_classes.length][];
+            // Split the scores by class/label.
+            int[] classCount = new int[_classes.length];
+            for (int i = 0; i < n; i++) {
+                classCount[getClassIndex(ycal[i])]++;
+            }
+            double[][] classCalibrationScores = new double[_classes.length][];
             for (int c = 0; c < _classes.length; c++) {
-                _classCalibrationScores[c] = new double[n];
-                Arrays.fill(_classCalibrationScores[c], -Double.MAX_VALUE);
+                classCalibrationScores[c] = new double[classCount[c]];
+                classCount[c] = 0;
             }
-        }
-        if (!PARALLEL) {
             for (int i = 0; i < n; i++) {
-                DoubleMatrix1D instance = xcal.viewRow(i);
-                _calibrationScores[i] =
-                    _nc.calculateNonConformityScore(instance, ycal[i]);
-                if (_useLabelConditionalCP) {
-                    _classCalibrationScores[_classIndex.get(ycal[i])][i] =
-                        _calibrationScores[i];
-                }
+                int c = getClassIndex(ycal[i]);
+                classCalibrationScores[c][classCount[c]++] =
+                    calibrationScores[i];
             }
-        } else {
-            CalculateNCScoresAction all =
-                new CalculateNCScoresAction(xcal, ycal, _calibrationScores,
-                                            _classCalibrationScores,
-                                            0, n);
-            all.start();
-        }
-        Arrays.sort(_calibrationScores);
-        if (_useLabelConditionalCP) {
-            // FIXME: This is ugly.
+            _classCalibrationScores = new ICalibrationScores[_classes.length];
             for (int c = 0; c < _classes.length; c++) {
-                Arrays.sort(_classCalibrationScores[c]);
-                int i = 0;
-                while(i < _classCalibrationScores[c].length &&
-                      _classCalibrationScores[c][i] == -Double.MAX_VALUE) {
-                    i++;
-                }
-                if (i < _classCalibrationScores[c].length) {
-                    _classCalibrationScores[c] =
-                        Arrays.copyOfRange(_classCalibrationScores[c],
-                                           i,
-                                           _classCalibrationScores[c].length);
-                } else {
-                    // There were no examples with this class/label.
-                    _classCalibrationScores[c] = new double[0];
-                }
+                _classCalibrationScores[c] =
+                    newCalibrationScores(classCalibrationScores[c]);
                 System.out.println("Calibration set size for class " + c +
                                    " label " + _classes[c] + " is " +
-                                   _classCalibrationScores[c].length);
+                                   _classCalibrationScores[c].size());
+            }
+        }
+        _calibrationScores = newCalibrationScores(calibrationScores);
+        computeCriticalScores();
+    }
+
+    /**
+     * Limits the calibration set to a sliding window of the most recent
+     * calibration examples, e.g. to follow drifting data. With
+     * label-conditional conformal prediction each class/label has its own
+     * window. Each call to addCalibrationExample() then evicts the oldest
+     * example once the window is full, so the memory use is fixed and the
+     * cost of recalibrating with a new example is logarithmic in the window
+     * size.
+     * The window applies from the next call to calibrate() or, if the
+     * classifier is not calibrated, the first added calibration example.
+     *
+     * @param windowSize    the maximum number of calibration examples; or 0 for no limit.
+     */
+    public synchronized void setCalibrationWindowSize(int windowSize)
+    {
+        if (windowSize < 0) {
+            throw new IllegalArgumentException
+                          ("The window size must not be negative.");
+        }
+        _calibrationWindowSize = windowSize;
+    }
+
+    /**
+     * Returns the maximum number of calibration examples kept.
+     *
+     * @return the window size or 0 if the calibration set is unbounded.
+     */
+    public int getCalibrationWindowSize()
+    {
+        return _calibrationWindowSize;
+    }
+
+    /**
+     * Summarizes the calibration scores with a mergeable quantile sketch
+     * instead of keeping them all, e.g. for calibration sets too large to
+     * keep in memory or to save with the model. The sketch uses memory
+     * independent of the number of calibration examples but the p-values
+     * are only approximate: the rank of a score among the calibration scores
+     * is off by at most about rankError times their number, with high
+     * probability. The sketch is built from shards in parallel.
+     * The setting applies from the next call to calibrate() or, if the
+     * classifier is not calibrated, the first added calibration example.
+     * It cannot be combined with a calibration window.
+     *
+     * @param rankError    the approximate bound on the normalized rank error, in (0, 1); or 0 to keep all calibration scores.
+     */
+    public synchronized void setCalibrationSketchRankError(double rankError)
+    {
+        if (rankError != 0.0 && !(rankError > 0.0 && rankError < 1.0)) {
+            throw new IllegalArgumentException
+                          ("The rank error must be 0 or in (0, 1).");
+        }
+        _calibrationSketchRankError = rankError;
+    }
+
+    /**
+     * Returns the rank error bound of the calibration quantile sketch.
+     *
+     * @return the rank error bound or 0 if all calibration scores are kept.
+     */
+    public double getCalibrationSketchRankError()
+    {
+        return _calibrationSketchRankError;
+    }
+
+    /**
+     * Adds an example to the calibration set of this conformal classifier.
+     * The example's non-conformity score is inserted into the sorted
+     * calibration scores in logarithmic time, so newly labelled examples
+     * can be added without recalibrating. Predictions may be made
+     * concurrently with additions. If a calibration window has been set
+     * the oldest calibration example is evicted once the window is full.
+     * The classifier's non-conformity function must have been trained first.
+     *
+     * @param x          the attributes of the calibration instance.
+     * @param y          the target of the calibration instance.
+     */
+    public synchronized void addCalibrationExample(DoubleMatrix1D x, double y)
+    {
+        checkNonconformityFunctionTrained();
+        int c = getClassIndex(y);
+        ensureCalibrationScores();
+        double score = _nc.calculateNonConformityScore(x, y);
+        addCalibrationScore(c, score);
+        computeCriticalScores();
+    }
+
+    /**
+     * Adds examples to the calibration set of this conformal classifier.
+     * The non-conformity scores are computed in parallel and then inserted
+     * into the sorted calibration scores.
+     * The classifier's non-conformity function must have been trained first.
+     *
+     * @param xcal          the attributes of the calibration instances.
+     * @param ycal          the targets of the calibration instances.
+     */
+    public synchronized void addCalibrationExamples(DoubleMatrix2D xcal,
+                                                    double[] ycal)
+    {
+        checkNonconformityFunctionTrained();
+        int[] classIndices = new int[ycal.length];
+        for (int i = 0; i < ycal.length; i++) {
+            classIndices[i] = getClassIndex(ycal[i]);
+        }
+        ensureCalibrationScores();
+        double[] scores = calculateNonConformityScores(xcal, ycal);
+        for (int i = 0; i < scores.length; i++) {
+            addCalibrationScore(classIndices[i], scores[i]);
+        }
+        computeCriticalScores();
+    }
+
+    private void addCalibrationScore(int c, double score)
+    {
+        _calibrationScores.add(score);
+        if (_useLabelConditionalCP) {
+            _classCalibrationScores[c].add(score);
+        }
+    }
+
+    private void ensureCalibrationScores()
+    {
+        if (_calibrationScores == null) {
+            if (_useLabelConditionalCP) {
+                ICalibrationScores[] classCalibrationScores =
+                    new ICalibrationScores[_classes.length];
+                for (int c = 0; c < _classes.length; c++) {
+                    classCalibrationScores[c] =
+                        newCalibrationScores(new double[0]);
+                }
+                _classCalibrationScores = classCalibrationScores;
             }
+            _calibrationScores = newCalibrationScores(new double[0]);
+        }
+    }
+
+    /**
+     * Creates a calibration score store for the current window size.
+     *
+     * @param scores    the calibration scores in the order they were observed; sorted in place if the store is unbounded.
+     */
+    private ICalibrationScores newCalibrationScores(double[] scores)
+    {
+        if (_calibrationSketchRankError > 0.0) {
+            if (_calibrationWindowSize > 0) {
+                throw new UnsupportedOperationException
+                              ("A calibration window cannot be combined " +
+                               "with a calibration quantile sketch.");
+            }
+            return QuantileSketchCalibrationScores.
+                fromScores(_calibrationSketchRankError, scores);
+        } else if (_calibrationWindowSize > 0) {
+            return new CalibrationScores(_calibrationWindowSize, scores);
+        } else {
+            Arrays.sort(scores);
+            return new CalibrationScores(scores);
+        }
+    }
+
+    private double[] calculateNonConformityScores(DoubleMatrix2D x,
+                                                  double[] y)
+    {
+        int n = x.rows();
+        double[] scores = new double[n];
+        if (!PARALLEL) {
+            for (int i = 0; i < n; i++) {
+                DoubleMatrix1D instance = x.viewRow(i);
+                scores[i] = _nc.calculateNonConformityScore(instance, y[i]);
+            }
+        } else {
+            _nc.calculateNonConformityScores(x, y, scores);
+        }
+        return scores;
+    }
+
+    private int getClassIndex(double y)
+    {
+        Integer c = _classIndex.get(y);
+        if (c == null) {
+            throw new IllegalArgumentException
+                          ("The label " + y + " is not one of the class " +
+                           "labels of the conformal classifier.");
+        }
+        return c;
+    }
+
+    private void checkNonconformityFunctionTrained()
+    {
+        if (getNonconformityFunction() == null ||
+            !getNonconformityFunction().isTrained()) {
+            throw new UnsupportedOperationException
+                          ("The non-conformity function of the conformal " +
+                           "classifier must be trained before the classifier " +
+                           "can be calibrated.");
         }
     }
 
@@ -180,15 +406,41 @@ public class InductiveConformalClassifier
     {
         int n = x.rows();
         ConformalClassification[] predictions = new ConformalClassification[n];
-        if (!PARALLEL) {
-            for (int i = 0; i < n; i++) {
-                DoubleMatrix1D instance = x.viewRow(i);
-                predictions[i] = predict(instance);
+        DoubleMatrix2D pValues = predictPValues(x);
+        for (int i = 0; i < n; i++) {
+            predictions[i] = new ConformalClassification(this,
+                                                         pValues.viewRow(i));
+        }
+        return predictions;
+    }
+
+    /**
+     * Makes a prediction for each instance in x that can be completed
+     * before the token is cancelled, e.g. by its deadline.
+     * The method is parallellized over the instances.
+     *
+     * @param x             the instances.
+     * @param token         the cancellation token.
+     * @param listener      a progress listener or null.
+     * @return an array containing a <tt>ConformalClassification</tt> for each instance or null for the instances that were not predicted.
+     */
+    public ConformalClassification[] predict(DoubleMatrix2D x,
+                                             CancellationToken token,
+                                             IProgressListener listener)
+    {
+        int n = x.rows();
+        int k = _classes.length;
+        double[] pValues = new double[n*k];
+        predictPValues(x, pValues, token, listener);
+        ConformalClassification[] predictions = new ConformalClassification[n];
+        for (int i = 0; i < n; i++) {
+            if (!Double.isNaN(pValues[i*k])) {
+                DoubleMatrix1D prediction = new DenseDoubleMatrix1D(k);
+                for (int c = 0; c < k; c++) {
+                    prediction.setQuick(c, pValues[i*k + c]);
+                }
+                predictions[i] = new ConformalClassification(this, prediction);
             }
-        } else {
-            ClassifyAction all =
-                new ClassifyAction(x, predictions, 0, n);
-            all.start();
         }
         return predictions;
     }
@@ -216,19 +468,74 @@ public class InductiveConformalClassifier
     public DoubleMatrix2D predictPValues(DoubleMatrix2D x)
     {
         int n = x.rows();
-        DoubleMatrix2D response = new DenseDoubleMatrix2D(n, _classes.length);
+        int k = _classes.length;
+        double[] pValues = new double[n*k];
+        predictPValues(x, pValues);
+        DoubleMatrix2D response = new DenseDoubleMatrix2D(n, k);
+        for (int i = 0; i < n; i++) {
+            for (int c = 0; c < k; c++) {
+                response.setQuick(i, c, pValues[i*k + c]);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Computes the predicted p-values for each target and instance in x
+     * into a caller-owned flat array.
+     * The method is parallellized over the instances.
+     *
+     * @param x          the instances.
+     * @param pValues    a <tt>double[]</tt> array of length at least x.rows() * getLabels().length to store the p-values row by row, each row in the order given by getLabels().
+     */
+    @Override
+    public void predictPValues(DoubleMatrix2D x, double[] pValues)
+    {
+        int n = x.rows();
+        int k = _classes.length;
         if (!PARALLEL) {
+            double[] ncScores = new double[k];
             for (int i = 0; i < n; i++) {
-                DoubleMatrix1D instance = x.viewRow(i);
-                DoubleMatrix1D pValues  = response.viewRow(i);
-                predictPValues(instance, pValues);
+                _nc.calculateNonConformityScores(x.viewRow(i), ncScores);
+                for (int c = 0; c < k; c++) {
+                    pValues[i*k + c] = calculatePValue(c, ncScores[c]);
+                }
             }
         } else {
-            ClassifyPValuesAction all =
-                new ClassifyPValuesAction(x, response, 0, n);
+            // Score all instances and labels in one batch and then compute
+            // the p-values in place, block by block.
+            _nc.calculateNonConformityScores(x, pValues);
+            CalculatePValuesAction all =
+                new CalculatePValuesAction(pValues, 0, n);
             all.start();
         }
-        return response;
+    }
+
+    /**
+     * Computes the predicted p-values for each target and instance in x
+     * that can be completed before the token is cancelled, e.g. by its
+     * deadline. The p-values of the instances that were not predicted are
+     * NaN.
+     * The method is parallellized over the instances.
+     *
+     * @param x          the instances.
+     * @param pValues    a <tt>double[]</tt> array of length at least x.rows() * getLabels().length to store the p-values row by row, each row in the order given by getLabels().
+     * @param token      the cancellation token.
+     * @param listener   a progress listener or null.
+     * @return the number of instances predicted.
+     */
+    public int predictPValues(DoubleMatrix2D x, double[] pValues,
+                              CancellationToken token,
+                              IProgressListener listener)
+    {
+        int n = x.rows();
+        Arrays.fill(pValues, 0, n*_classes.length, Double.NaN);
+        ScoreBlocksAction all =
+            new ScoreBlocksAction(x, null, pValues, null, 0, n);
+        all.setCancellationToken(token);
+        all.setProgressListener(listener);
+        all.start();
+        return all.getCompletedCount();
     }
 
    /**
@@ -254,19 +561,40 @@ public class InductiveConformalClassifier
     @Override
     public void predictPValues(DoubleMatrix1D x, DoubleMatrix1D pValues)
     {
+        // The underlying model only has to predict once per instance.
+        double[] ncScores = new double[_classes.length];
+        _nc.calculateNonConformityScores(x, ncScores);
         for (int i = 0; i < _classes.length; i++) {
-            // TODO: The underlying model should really only have to predict
-            //       once per instance.
-            double ncScore = _nc.calculateNonConformityScore(x, _classes[i]);
-            double pValue;
-            if (_useLabelConditionalCP) {
-                pValue = Util.calculatePValue(ncScore,
-                                              _classCalibrationScores[i]);
-            } else {
-                pValue = Util.calculatePValue(ncScore,
-                                              _calibrationScores);
-            }
-            pValues.set(i, pValue);
+            pValues.set(i, calculatePValue(i, ncScores[i]));
+        }
+    }
+
+    /**
+     * Computes the p-value of a non-conformity score for the class/label
+     * with index c.
+     *
+     * @param c        the index of the class/label.
+     * @param ncScore  the non-conformity score.
+     * @return the p-value.
+     */
+    private double calculatePValue(int c, double ncScore)
+    {
+        return getCalibrationScores(c).calculatePValue(ncScore);
+    }
+
+    /**
+     * Returns the sorted calibration scores used for the class/label with
+     * index c.
+     *
+     * @param c        the index of the class/label.
+     * @return the sorted calibration scores.
+     */
+    ICalibrationScores getCalibrationScores(int c)
+    {
+        if (_useLabelConditionalCP) {
+            return _classCalibrationScores[c];
+        } else {
+            return _calibrationScores;
         }
     }
 
@@ -289,6 +617,117 @@ public class InductiveConformalClassifier
         _nc = nc;
         _calibrationScores = null;
         _classCalibrationScores = null;
+        _criticalScores = null;
+    }
+
+    /**
+     * Sets the significance levels for which region predictions can be
+     * made with predictRegion() and predictRegions(). The critical
+     * non-conformity scores for these levels are computed at calibration
+     * time, so a region prediction needs only one comparison per label.
+     *
+     * @param significanceLevels  the significance levels.
+     */
+    public void setSignificanceLevels(double[] significanceLevels)
+    {
+        if (_classes.length > Long.SIZE) {
+            throw new UnsupportedOperationException
+                          ("Region predictions are limited to " + Long.SIZE +
+                           " classes.");
+        }
+        _significanceLevels = significanceLevels.clone();
+        computeCriticalScores();
+    }
+
+    /**
+     * Returns the significance levels set for region predictions.
+     *
+     * @return the significance levels or null if none have been set.
+     */
+    public double[] getSignificanceLevels()
+    {
+        return _significanceLevels;
+    }
+
+    /**
+     * Makes a region prediction for the instance x at one of the
+     * significance levels given to setSignificanceLevels().
+     * The region is the same as the label set of the corresponding
+     * unsmoothed p-values.
+     *
+     * @param x        the instance.
+     * @param level    the index of the significance level.
+     * @return a bit mask with bit c set if the class with index c is in the predicted region.
+     */
+    public long predictRegion(DoubleMatrix1D x, int level)
+    {
+        double[] criticalScores = getCriticalScores(level);
+        double[] ncScores = new double[_classes.length];
+        _nc.calculateNonConformityScores(x, ncScores);
+        return toRegion(ncScores, 0, criticalScores);
+    }
+
+    /**
+     * Makes a region prediction for each instance in x at one of the
+     * significance levels given to setSignificanceLevels().
+     *
+     * @param x        the instances.
+     * @param level    the index of the significance level.
+     * @return an array with a bit mask for each instance with bit c set if the class with index c is in the predicted region.
+     */
+    public long[] predictRegions(DoubleMatrix2D x, int level)
+    {
+        double[] criticalScores = getCriticalScores(level);
+        int n = x.rows();
+        int k = _classes.length;
+        double[] ncScores = new double[n*k];
+        _nc.calculateNonConformityScores(x, ncScores);
+        long[] regions = new long[n];
+        for (int i = 0; i < n; i++) {
+            regions[i] = toRegion(ncScores, i*k, criticalScores);
+        }
+        return regions;
+    }
+
+    private long toRegion(double[] ncScores, int offset,
+                          double[] criticalScores)
+    {
+        long region = 0;
+        for (int c = 0; c < criticalScores.length; c++) {
+            if (ncScores[offset + c] <= criticalScores[c]) {
+                region |= 1L << c;
+            }
+        }
+        return region;
+    }
+
+    private double[] getCriticalScores(int level)
+    {
+        if (_criticalScores == null) {
+            throw new UnsupportedOperationException
+                          ("The conformal classifier must have significance " +
+                           "levels set and be calibrated before region " +
+                           "predictions can be made.");
+        }
+        return _criticalScores[level];
+    }
+
+    private void computeCriticalScores()
+    {
+        if (_significanceLevels == null || _calibrationScores == null) {
+            _criticalScores = null;
+            return;
+        }
+        double[][] criticalScores = new double[_significanceLevels.length][];
+        for (int l = 0; l < _significanceLevels.length; l++) {
+            criticalScores[l] = new double[_classes.length];
+            for (int c = 0; c < _classes.length; c++) {
+                criticalScores[l][c] =
+                    getCalibrationScores(c).
+                        calculateCriticalScore(_significanceLevels[l]);
+            }
+        }
+        _criticalScores = criticalScores;
     }
 
     /**
@@ -337,6 +776,9 @@ public class InductiveConformalClassifier
         oos.writeObject(_calibrationScores);
         oos.writeObject(_useLabelConditionalCP);
         oos.writeObject(_classCalibrationScores);
+        oos.writeObject(_significanceLevels);
+        oos.writeObject(_calibrationWindowSize);
+        oos.writeObject(_calibrationSketchRankError);
     }
 
     @SuppressWarnings("unchecked") // There is not much to do if the saved
@@ -347,110 +789,117 @@ public class InductiveConformalClassifier
         _nc = (IClassificationNonconformityFunction)ois.readObject();
         _classes = (Double[])ois.readObject();
         _classIndex = (SortedMap<Double, Integer>)ois.readObject();
-        _calibrationScores = (double[])ois.readObject();
+        _calibrationScores = (ICalibrationScores)ois.readObject();
         _useLabelConditionalCP = (boolean)ois.readObject();
-        _classCalibrationScores = (double[][])ois.readObject();
+        _classCalibrationScores = (ICalibrationScores[])ois.readObject();
+        _significanceLevels = (double[])ois.readObject();
+        _calibrationWindowSize = (int)ois.readObject();
+        _calibrationSketchRankError = (double)ois.readObject();
+        computeCriticalScores();
     }
 
-    class ClassifyPValuesAction extends se.hb.jcp.util.ParallelizedAction
+    class CalculatePValuesAction extends se.hb.jcp.util.ParallelizedAction
     {
-        DoubleMatrix2D _x;
-        DoubleMatrix2D _response;
+        double[] _scores;
 
-        public ClassifyPValuesAction(DoubleMatrix2D x,
-                                     DoubleMatrix2D response,
-                                     int first, int last)
+        public CalculatePValuesAction(double[] scores,
+                                      int first, int last)
         {
             super(first, last);
-            _x = x;
-            _response = response;
+            _scores = scores;
         }
 
         @Override
         protected void compute(int i)
         {
-            DoubleMatrix1D instance = _x.viewRow(i);
-            DoubleMatrix1D pValues  = _response.viewRow(i);
-            predictPValues(instance, pValues);
+            compute(i, i + 1);
         }
 
         @Override
-        protected ParallelizedAction createSubtask(int first, int last)
-        {
-            return new ClassifyPValuesAction(_x, _response,
-                                             first, last);
-        }
-    }
-
-    class ClassifyAction extends se.hb.jcp.util.ParallelizedAction
-    {
-        DoubleMatrix2D _x;
-        ConformalClassification[] _response;
-
-        public ClassifyAction(DoubleMatrix2D x,
-                              ConformalClassification[] response,
-                              int first, int last)
+        protected void compute(int first, int last)
         {
-            super(first, last);
-            _x = x;
-            _response = response;
-        }
-
-        @Override
-        protected void compute(int i)
-        {
-            DoubleMatrix1D instance = _x.viewRow(i);
-            _response[i] =
-                new ConformalClassification(InductiveConformalClassifier.this,
-                                            predictPValues(instance));
+            // Replaces the non-conformity scores for the instances
+            // [first, last) with p-values, one batch per label.
+            int k = _classes.length;
+            for (int c = 0; c < k; c++) {
+                getCalibrationScores(c).
+                    calculatePValues(_scores, first*k + c, k, last - first,
+                                     _scores);
+            }
         }
 
         @Override
         protected ParallelizedAction createSubtask(int first, int last)
         {
-            return new ClassifyAction(_x, _response,
-                                      first, last);
+            return new CalculatePValuesAction(_scores, first, last);
         }
     }
 
-    class CalculateNCScoresAction extends se.hb.jcp.util.ParallelizedAction
+    /**
+     * Scores the instances in blocks of BLOCK_SIZE rows and checks for
+     * cancellation between the blocks. With targets the non-conformity
+     * scores of the instances are computed, otherwise their p-values.
+     */
+    class ScoreBlocksAction extends se.hb.jcp.util.ParallelizedAction
     {
         DoubleMatrix2D _x;
         double[] _y;
-        double[] _nonConformityScores;
-        double[][] _classNonConformityScores;
-
-        public CalculateNCScoresAction(DoubleMatrix2D x,
-                                       double[]       y,
-                                       double[]       nonConformityScores,
-                                       double[][]     classNonConformityScores,
-                                       int first, int last)
+        double[] _result;
+        boolean[] _done;
+
+        public ScoreBlocksAction(DoubleMatrix2D x,
+                                 double[] y,
+                                 double[] result,
+                                 boolean[] done,
+                                 int first, int last)
         {
             super(first, last);
             _x = x;
             _y = y;
-            _nonConformityScores = nonConformityScores;
-            _classNonConformityScores = classNonConformityScores;
+            _result = result;
+            _done = done;
         }
 
         @Override
         protected void compute(int i)
         {
-            DoubleMatrix1D instance = _x.viewRow(i);
-            _nonConformityScores[i] =
-                _nc.calculateNonConformityScore(instance, _y[i]);
-            if (_classNonConformityScores != null) {
-                _classNonConformityScores[_classIndex.get(_y[i])][i] =
-                    _nonConformityScores[i];
+            compute(i, i + 1);
+        }
+
+        @Override
+        protected void compute(int first, int last)
+        {
+            int k = _classes.length;
+            for (int b = first; b < last; b += BLOCK_SIZE) {
+                if (isStopRequested()) {
+                    stoppedAt(b);
+                    return;
+                }
+                int e = Math.min(last, b + BLOCK_SIZE);
+                // The block shares the rows of _x.
+                DoubleMatrix2D block = new RowSelectionDoubleMatrix2D(_x, b, e);
+                if (_y != null) {
+                    double[] scores = new double[e - b];
+                    _nc.calculateNonConformityScores
+                        (block, Arrays.copyOfRange(_y, b, e), scores);
+                    System.arraycopy(scores, 0, _result, b, e - b);
+                    Arrays.fill(_done, b, e, true);
+                } else {
+                    double[] pValues = new double[(e - b)*k];
+                    _nc.calculateNonConformityScores(block, pValues);
+                    for (int c = 0; c < k; c++) {
+                        getCalibrationScores(c).
+                            calculatePValues(pValues, c, k, e - b, pValues);
+                    }
+                    System.arraycopy(pValues, 0, _result, b*k, (e - b)*k);
+                }
             }
         }
 
         @Override
         protected ParallelizedAction createSubtask(int first, int last)
         {
-            return new CalculateNCScoresAction(_x, _y, _nonConformityScores,
-                                               _classNonConformityScores,
-                                               first, last);
+            return new ScoreBlocksAction(_x, _y, _result, _done, first, last);
         }
     }
 }
@@ -39,7 +39,14 @@ public class InductiveConformalRegressor
     private static final boolean PARALLEL = true;
 
     private IRegressionNonconformityFunction _nc;
-    private double[] _calibrationScores;
+    private ICalibrationScores _calibrationScores;
+    // The maximum number of calibration scores or 0 if unbounded.
+    private int _calibrationWindowSize;
+    // The rank error of the calibration quantile sketch or 0 if exact.
+    private double _calibrationSketchRankError;
+    // For region predictions at fixed significance levels.
+    private double[] _significanceLevels;
+    private volatile double[] _criticalScores;
 
     public InductiveConformalRegressor(IRegressionNonconformityFunction nc)
     {
@@ -53,29 +60,160 @@ public class InductiveConformalRegressor
         calibrate(xcal, ycal);
     }
 
-    public void calibrate(DoubleMatrix2D xcal, double[] ycal)
+    public synchronized void calibrate(DoubleMatrix2D xcal, double[] ycal)
     {
-        if (getNonconformityFunction() == null || !getNonconformityFunction().isTrained()) {
-            throw new UnsupportedOperationException
-                ("The non-conformity function must be trained before calibration.");
+        checkNonconformityFunctionTrained();
+        double[] calibrationScores = calculateNonConformityScores(xcal, ycal);
+        _calibrationScores = newCalibrationScores(calibrationScores);
+        computeCriticalScores();
+        if (false) {
+            for (int i = 0; i < _calibrationScores.size(); i ++) {
+                System.out.println("  CALI " + _calibrationScores.get(i));
+            }
+        }
+    }
+
+    /**
+     * Adds an example to the calibration set of this conformal regressor
+     * without recalibrating. If a calibration window has been set the
+     * oldest calibration example is evicted once the window is full.
+     * Predictions may be made concurrently with additions.
+     *
+     * @param x          the attributes of the calibration instance.
+     * @param y          the target of the calibration instance.
+     */
+    public synchronized void addCalibrationExample(DoubleMatrix1D x, double y)
+    {
+        checkNonconformityFunctionTrained();
+        ensureCalibrationScores();
+        _calibrationScores.add(_nc.calculateNonConformityScore(x, y));
+        computeCriticalScores();
+    }
+
+    /**
+     * Adds examples to the calibration set of this conformal regressor
+     * without recalibrating. The non-conformity scores are computed in
+     * parallel.
+     *
+     * @param xcal          the attributes of the calibration instances.
+     * @param ycal          the targets of the calibration instances.
+     */
+    public synchronized void addCalibrationExamples(DoubleMatrix2D xcal,
+                                                    double[] ycal)
+    {
+        checkNonconformityFunctionTrained();
+        ensureCalibrationScores();
+        double[] scores = calculateNonConformityScores(xcal, ycal);
+        for (int i = 0; i < scores.length; i++) {
+            _calibrationScores.add(scores[i]);
         }
-        int n = xcal.rows();
-        _calibrationScores = new double[n];
+        computeCriticalScores();
+    }
+
+    /**
+     * Limits the calibration set to a sliding window of the most recent
+     * calibration examples, e.g. to follow drifting data. Each call to
+     * addCalibrationExample() then evicts the oldest example once the
+     * window is full.
+     * The window applies from the next call to calibrate() or, if the
+     * regressor is not calibrated, the first added calibration example.
+     *
+     * @param windowSize    the maximum number of calibration examples; or 0 for no limit.
+     */
+    public synchronized void setCalibrationWindowSize(int windowSize)
+    {
+        if (windowSize < 0) {
+            throw new IllegalArgumentException
+                ("The window size must not be negative.");
+        }
+        _calibrationWindowSize = windowSize;
+    }
+
+    /**
+     * Returns the maximum number of calibration examples kept.
+     *
+     * @return the window size or 0 if the calibration set is unbounded.
+     */
+    public int getCalibrationWindowSize()
+    {
+        return _calibrationWindowSize;
+    }
+
+    /**
+     * Summarizes the calibration scores with a mergeable quantile sketch
+     * instead of keeping them all. The critical scores are then only
+     * approximate: their rank among the calibration scores is off by at
+     * most about rankError times their number, with high probability.
+     * The setting applies from the next call to calibrate() or, if the
+     * regressor is not calibrated, the first added calibration example.
+     * It cannot be combined with a calibration window.
+     *
+     * @param rankError    the approximate bound on the normalized rank error, in (0, 1); or 0 to keep all calibration scores.
+     */
+    public synchronized void setCalibrationSketchRankError(double rankError)
+    {
+        if (rankError != 0.0 && !(rankError > 0.0 && rankError < 1.0)) {
+            throw new IllegalArgumentException
+                ("The rank error must be 0 or in (0, 1).");
+        }
+        _calibrationSketchRankError = rankError;
+    }
+
+    /**
+     * Returns the rank error bound of the calibration quantile sketch.
+     *
+     * @return the rank error bound or 0 if all calibration scores are kept.
+     */
+    public double getCalibrationSketchRankError()
+    {
+        return _calibrationSketchRankError;
+    }
 
+    private void ensureCalibrationScores()
+    {
+        if (_calibrationScores == null) {
+            _calibrationScores = newCalibrationScores(new double[0]);
+        }
+    }
+
+    private ICalibrationScores newCalibrationScores(double[] scores)
+    {
+        if (_calibrationSketchRankError > 0.0) {
+            if (_calibrationWindowSize > 0) {
+                throw new UnsupportedOperationException
+                    ("A calibration window cannot be combined with a calibration quantile sketch.");
+            }
+            return QuantileSketchCalibrationScores.
+                fromScores(_calibrationSketchRankError, scores);
+        } else if (_calibrationWindowSize > 0) {
+            return new CalibrationScores(_calibrationWindowSize, scores);
+        } else {
+            Arrays.sort(scores);
+            return new CalibrationScores(scores);
+        }
+    }
+
+    private double[] calculateNonConformityScores(DoubleMatrix2D x,
+                                                  double[] y)
+    {
+        int n = x.rows();
+        double[] scores = new double[n];
         if (!PARALLEL) {
             for (int i = 0; i < n; i++) {
-                DoubleMatrix1D instance = xcal.viewRow(i);
-                _calibrationScores[i] = _nc.calculateNonConformityScore(instance, ycal[i]);
+                DoubleMatrix1D instance = x.viewRow(i);
+                scores[i] = _nc.calculateNonConformityScore(instance, y[i]);
             }
         } else {
-            CalculateNCScoresAction all = new CalculateNCScoresAction(xcal, ycal, _calibrationScores, 0, n);
-            all.start();
+            _nc.calculateNonConformityScores(x, y, scores);
         }
-        Arrays.sort(_calibrationScores);
-        if (false) {
-            for (int i = 0; i < _calibrationScores.length; i ++) {
-                System.out.println("  CALI " + _calibrationScores[i]);
-            }
+        return scores;
+    }
+
+    private void checkNonconformityFunctionTrained()
+    {
+        if (getNonconformityFunction() == null || !getNonconformityFunction().isTrained()) {
+            throw new UnsupportedOperationException
+                ("The non-conformity function must be trained before calibration.");
         }
     }
 
@@ -83,39 +221,192 @@ public class InductiveConformalRegressor
                           /*out*/ double[] bounds)
     {
         // Always the same epsilon...
-        int idx = (int) Math.ceil((1 - confidence) * (_calibrationScores.length + 1));
-        double epsilon = _calibrationScores[Math.min(idx, _calibrationScores.length - 1)];
-        double prediction = _nc.predict(x);
-        bounds[0] = prediction - epsilon;
-        bounds[1] = prediction + epsilon;
-        return prediction;
+        double epsilon = getCriticalScore(1 - confidence);
+        return _nc.predictInterval(x, epsilon, bounds);
     }
 
     public double[] predictIntervals(DoubleMatrix1D x, double confidence)
     {
         //double ncScore = _nc.calculateNonConformityScore(x, _nc.predict(x));
         //always the same epsilon... 
-        int idx = (int) Math.ceil((1 - confidence) * (_calibrationScores.length + 1));
-        double epsilon = _calibrationScores[Math.min(idx, _calibrationScores.length - 1)];
-        double prediction = _nc.predict(x);
-        return new double[] { prediction - epsilon, prediction + epsilon };
+        return predictInterval(x, getCriticalScore(1 - confidence));
     }
 
     public double[][] predictIntervals(DoubleMatrix2D x, double confidence)
+    {
+        return predictIntervalsWithEpsilon(x, getCriticalScore(1 - confidence));
+    }
+
+    /**
+     * Computes the prediction intervals for each instance in x at several
+     * confidence levels. The underlying regressor predicts each instance
+     * once and the critical scores are looked up once per call.
+     * The intervals of an instance are nested, i.e. the interval at a
+     * higher confidence level contains those at lower levels.
+     * The method is parallellized over the instances.
+     *
+     * @param x                  the instances.
+     * @param confidenceLevels   the confidence levels.
+     * @param intervals          a <tt>double[]</tt> array of length at least x.rows() * confidenceLevels.length * 2 to store the intervals. The interval for instance i at confidence level l is stored as {lower, upper} at index (i * confidenceLevels.length + l) * 2.
+     */
+    public void predictIntervals(DoubleMatrix2D x,
+                                 double[] confidenceLevels,
+                                 double[] intervals)
+    {
+        int n = x.rows();
+        if (intervals.length < (long)n * confidenceLevels.length * 2) {
+            throw new IllegalArgumentException
+                ("The interval buffer is too small.");
+        }
+        double[] epsilons = new double[confidenceLevels.length];
+        for (int l = 0; l < confidenceLevels.length; l++) {
+            epsilons[l] = getCriticalScore(1 - confidenceLevels[l]);
+        }
+        // The intervals are nested if the critical scores do not decrease
+        // with the confidence level.
+        assert isNested(confidenceLevels, epsilons);
+        PredictMultiIntervalsAction all =
+            new PredictMultiIntervalsAction(x, epsilons, intervals, 0, n);
+        if (!PARALLEL) {
+            all.compute(0, n);
+        } else {
+            all.start();
+        }
+    }
+
+    /**
+     * Sets the significance levels for which region predictions can be
+     * made with predictRegion() and predictRegions(). The critical
+     * non-conformity scores for these levels are computed at calibration
+     * time. The region at a significance level is the prediction interval
+     * at the confidence level 1 - significance level.
+     *
+     * @param significanceLevels  the significance levels.
+     */
+    public void setSignificanceLevels(double[] significanceLevels)
+    {
+        for (double significanceLevel : significanceLevels) {
+            if (!(0.0 <= significanceLevel && significanceLevel <= 1.0)) {
+                throw new IllegalArgumentException
+                    ("The significance levels must be in [0, 1].");
+            }
+        }
+        _significanceLevels = significanceLevels.clone();
+        computeCriticalScores();
+    }
+
+    /**
+     * Returns the significance levels set for region predictions.
+     *
+     * @return the significance levels or null if none have been set.
+     */
+    public double[] getSignificanceLevels()
+    {
+        return _significanceLevels;
+    }
+
+    /**
+     * Makes a region prediction for the instance x at one of the
+     * significance levels given to setSignificanceLevels().
+     *
+     * @param x        the instance.
+     * @param level    the index of the significance level.
+     * @return the predicted interval as {lower, upper}.
+     */
+    public double[] predictRegion(DoubleMatrix1D x, int level)
+    {
+        return predictInterval(x, getCriticalScoreForLevel(level));
+    }
+
+    /**
+     * Makes a region prediction for each instance in x at one of the
+     * significance levels given to setSignificanceLevels().
+     *
+     * @param x        the instances.
+     * @param level    the index of the significance level.
+     * @return the predicted interval as {lower, upper} for each instance.
+     */
+    public double[][] predictRegions(DoubleMatrix2D x, int level)
+    {
+        return predictIntervalsWithEpsilon(x, getCriticalScoreForLevel(level));
+    }
+
+    private double[][] predictIntervalsWithEpsilon(DoubleMatrix2D x,
+                                                   double epsilon)
     {
         int n = x.rows();
         double[][] intervals = new double[n][2];
         if (!PARALLEL) {
             for (int i = 0; i < n; i++) {
-                intervals[i] = predictIntervals(x.viewRow(i), confidence);
+                intervals[i] = predictInterval(x.viewRow(i), epsilon);
             }
         } else {
-            PredictIntervalsAction all = new PredictIntervalsAction(x, intervals, confidence, 0, n);
+            PredictIntervalsAction all = new PredictIntervalsAction(x, intervals, epsilon, 0, n);
             all.start();
         }
         return intervals;
     }
 
+    private double[] predictInterval(DoubleMatrix1D x, double epsilon)
+    {
+        double[] bounds = new double[2];
+        _nc.predictInterval(x, epsilon, bounds);
+        return bounds;
+    }
+
+    /**
+     * Returns the critical non-conformity score for a significance level,
+     * i.e. the (1 - significance level) quantile of the calibration scores
+     * in the sense of Util.calculateCriticalScore().
+     *
+     * @param significanceLevel  the significance level.
+     * @return the critical score; positive infinity if every score passes or NaN if no score passes.
+     */
+    private double getCriticalScore(double significanceLevel)
+    {
+        return _calibrationScores.calculateCriticalScore(significanceLevel);
+    }
+
+    private static boolean isNested(double[] confidenceLevels,
+                                    double[] criticalScores)
+    {
+        for (int l = 0; l < confidenceLevels.length; l++) {
+            for (int m = 0; m < confidenceLevels.length; m++) {
+                if (confidenceLevels[l] < confidenceLevels[m] &&
+                    criticalScores[l] > criticalScores[m]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private double getCriticalScoreForLevel(int level)
+    {
+        if (_criticalScores == null) {
+            throw new UnsupportedOperationException
+                ("The conformal regressor must have significance levels set and be calibrated before region predictions can be made.");
+        }
+        return _criticalScores[level];
+    }
+
+    private void computeCriticalScores()
+    {
+        if (_significanceLevels == null || _calibrationScores == null) {
+            _criticalScores = null;
+            return;
+        }
+        double[] criticalScores = new double[_significanceLevels.length];
+        for (int l = 0; l < _significanceLevels.length; l++) {
+            // The same rank as for the p-values, see
+            // Util.calculateCriticalRank().
+            criticalScores[l] =
+                _calibrationScores.calculateCriticalScore
+                    (_significanceLevels[l]);
+        }
+        _criticalScores = criticalScores;
+    }
+
     @Override
     public boolean isTrained()
     {
@@ -147,61 +438,65 @@ public class InductiveConformalRegressor
         return _nc;
     }
 
-    class PredictIntervalsAction extends ParallelizedAction
+    class PredictMultiIntervalsAction extends ParallelizedAction
     {
         DoubleMatrix2D _x;
-        double[][] _intervals;
-        double _confidence;
+        double[] _epsilons;
+        double[] _intervals;
 
-        public PredictIntervalsAction(DoubleMatrix2D x, double[][] intervals, double confidence, int first, int last)
+        public PredictMultiIntervalsAction(DoubleMatrix2D x, double[] epsilons, double[] intervals, int first, int last)
         {
             super(first, last);
             _x = x;
+            _epsilons = epsilons;
             _intervals = intervals;
-            _confidence = confidence;
         }
 
         @Override
         protected void compute(int i)
         {
-            _intervals[i] = predictIntervals(_x.viewRow(i), _confidence);
+            compute(i, i + 1);
+        }
+
+        @Override
+        protected void compute(int first, int last)
+        {
+            // One batch prediction for the whole sub-interval.
+            _nc.predictIntervals(_x, first, last, _epsilons,
+                                 _intervals, first * _epsilons.length * 2);
         }
 
         @Override
         protected ParallelizedAction createSubtask(int first, int last)
         {
-            return new PredictIntervalsAction(_x, _intervals, _confidence, first, last);
+            return new PredictMultiIntervalsAction(_x, _epsilons, _intervals, first, last);
         }
     }
 
-    class CalculateNCScoresAction extends ParallelizedAction
+    class PredictIntervalsAction extends ParallelizedAction
     {
         DoubleMatrix2D _x;
-        double[] _y;
-        double[] _nonConformityScores;
+        double[][] _intervals;
+        double _epsilon;
 
-        public CalculateNCScoresAction(DoubleMatrix2D x, double[] y,
-                                       double[] nonConformityScores,
-                                       int first, int last)
+        public PredictIntervalsAction(DoubleMatrix2D x, double[][] intervals, double epsilon, int first, int last)
         {
             super(first, last);
             _x = x;
-            _y = y;
-            _nonConformityScores = nonConformityScores;
+            _intervals = intervals;
+            _epsilon = epsilon;
         }
 
         @Override
         protected void compute(int i)
         {
-            DoubleMatrix1D instance = _x.viewRow(i);
-            _nonConformityScores[i] = _nc.calculateNonConformityScore(instance, _y[i]);
+            _intervals[i] = predictInterval(_x.viewRow(i), _epsilon);
         }
 
         @Override
         protected ParallelizedAction createSubtask(int first, int last)
         {
-            return new CalculateNCScoresAction(_x, _y, _nonConformityScores, first, last);
+            return new PredictIntervalsAction(_x, _intervals, _epsilon, first, last);
         }
     }
-
 }
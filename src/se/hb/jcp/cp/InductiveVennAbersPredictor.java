@@ -0,0 +1,517 @@
+// JCP - Java Conformal Prediction framework
+// Copyright (C) 2024  Anders Gidenstam
+//
+// This library is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+package se.hb.jcp.cp;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+
+import java.util.Arrays;
+
+import se.hb.jcp.ml.IClassifierInformation;
+import se.hb.jcp.nc.IClassificationNonconformityFunction;
+
+/**
+ * Represents an inductive Venn-ABERS predictor for binary classification.
+ * See [V. Vovk, I. Petej and V. Fedorova, "Large-scale probabilistic
+ * predictors with and without guarantee of validity", NIPS 2015].
+ *
+ * The scoring function is the difference between the non-conformity scores
+ * of the first and the second class/label, so a large score means that the
+ * second class/label is the more conforming. At calibration the isotonic
+ * regressions for a test object with either class/label are precomputed for
+ * every position among the sorted calibration scores with the stack-based
+ * algorithms of the paper, in O(n log n) time in total. A prediction is
+ * then one batched scoring of the instance and two binary searches.
+ *
+ * @author anders.gidenstam(at)hb.se
+ */
+public class InductiveVennAbersPredictor
+    implements IClassifierInformation, java.io.Serializable
+{
+    private IClassificationNonconformityFunction _nc;
+    // The distinct calibration scores in increasing order.
+    private double[] _scores;
+    // _f0[i] and _f1[i] are the isotonic regression values for a test
+    // object with the first and second class/label, respectively, whose
+    // score equals the i:th distinct calibration score (counting from 1).
+    // _f0[0] = 0 and _f1[k+1] = 1 cover scores outside the calibration
+    // scores.
+    private double[] _f0;
+    private double[] _f1;
+
+    /**
+     * Creates an inductive Venn-ABERS predictor using the supplied
+     * non-conformity function, which must be for a binary classification
+     * problem.
+     *
+     * @param nc     the non-conformity function to use.
+     */
+    public InductiveVennAbersPredictor(IClassificationNonconformityFunction nc)
+    {
+        _nc = nc;
+    }
+
+    /**
+     * Trains and calibrates this Venn-ABERS predictor using the supplied data.
+     *
+     * @param xtr           the attributes of the training instances.
+     * @param ytr           the targets of the training instances.
+     * @param xcal          the attributes of the calibration instances.
+     * @param ycal          the targets of the calibration instances.
+     */
+    public void fit(DoubleMatrix2D xtr, double[] ytr,
+                    DoubleMatrix2D xcal, double[] ycal)
+    {
+        _nc.fit(xtr, ytr);
+        calibrate(xcal, ycal);
+    }
+
+    /**
+     * Calibrates this Venn-ABERS predictor using the supplied data.
+     * The non-conformity function must have been trained first.
+     *
+     * @param xcal          the attributes of the calibration instances.
+     * @param ycal          the targets of the calibration instances.
+     */
+    public void calibrate(DoubleMatrix2D xcal, double[] ycal)
+    {
+        if (_nc == null || !_nc.isTrained()) {
+            throw new UnsupportedOperationException
+                          ("The non-conformity function of the Venn-ABERS " +
+                           "predictor must be trained before the predictor " +
+                           "can be calibrated.");
+        }
+        Double[] labels = _nc.getLabels();
+        if (labels.length != 2) {
+            throw new UnsupportedOperationException
+                          ("Venn-ABERS prediction requires a binary " +
+                           "classification problem.");
+        }
+        int n = xcal.rows();
+        if (n == 0) {
+            throw new IllegalArgumentException
+                          ("The calibration set must not be empty.");
+        }
+        double[] scores = calculateScores(xcal);
+
+        // Sort the scores of all instances and, separately, of those with
+        // the second class/label.
+        int positiveCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (ycal[i] == labels[1]) {
+                positiveCount++;
+            } else if (ycal[i] != labels[0]) {
+                throw new IllegalArgumentException
+                              ("Unknown class/label " + ycal[i] + ".");
+            }
+        }
+        double[] positiveScores = new double[positiveCount];
+        for (int i = 0, j = 0; i < n; i++) {
+            if (ycal[i] == labels[1]) {
+                positiveScores[j++] = scores[i];
+            }
+        }
+        Arrays.sort(scores);
+        Arrays.sort(positiveScores);
+
+        // Merge ties into k distinct scores with their cumulative weight
+        // and cumulative number of instances with the second class/label.
+        double[] distinct = new double[n];
+        double[] cumulativeWeights = new double[n];
+        double[] cumulativePositives = new double[n];
+        int k = 0;
+        int p = 0;
+        for (int i = 0; i < n; ) {
+            double score = scores[i];
+            int j = i;
+            while (j < n && Double.compare(scores[j], score) == 0) {
+                j++;
+            }
+            while (p < positiveCount &&
+                   Double.compare(positiveScores[p], score) == 0) {
+                p++;
+            }
+            distinct[k] = score;
+            cumulativeWeights[k] = j;
+            cumulativePositives[k] = p;
+            k++;
+            i = j;
+        }
+
+        double[] f0 = new double[k + 1];
+        double[] f1 = new double[k + 2];
+        computeF1(k, cumulativeWeights, cumulativePositives, f1);
+        computeF0(k, cumulativeWeights, cumulativePositives, f0);
+        f0[0] = 0.0;
+        f1[k + 1] = 1.0;
+        _f0 = f0;
+        _f1 = f1;
+        _scores = Arrays.copyOf(distinct, k);
+    }
+
+    /**
+     * Makes a prediction for the instance x.
+     *
+     * @param x             the instance.
+     * @return a prediction in the form of a <tt>VennAbersPrediction</tt>.
+     */
+    public VennAbersPrediction predict(DoubleMatrix1D x)
+    {
+        checkCalibrated();
+        double[] ncScores = new double[2];
+        _nc.calculateNonConformityScores(x, ncScores);
+        double[] interval = new double[2];
+        lookup(ncScores[0] - ncScores[1], interval, 0);
+        return new VennAbersPrediction(this, interval[0], interval[1]);
+    }
+
+    /**
+     * Makes a prediction for each instance in x.
+     *
+     * @param x             the instances.
+     * @return an array containing a <tt>VennAbersPrediction</tt> for each instance.
+     */
+    public VennAbersPrediction[] predict(DoubleMatrix2D x)
+    {
+        int n = x.rows();
+        double[] intervals = new double[2*n];
+        predictProbabilityIntervals(x, intervals);
+        VennAbersPrediction[] predictions = new VennAbersPrediction[n];
+        for (int i = 0; i < n; i++) {
+            predictions[i] =
+                new VennAbersPrediction(this,
+                                        intervals[2*i], intervals[2*i + 1]);
+        }
+        return predictions;
+    }
+
+    /**
+     * Computes the probability interval [p0, p1] for the second class/label
+     * for each instance in x. The instances are scored with one batched
+     * call to the non-conformity function.
+     *
+     * @param x             the instances.
+     * @param intervals     a <tt>double[]</tt> array of length at least 2 * x.rows() to store the interval of instance i as {p0, p1} at index 2 * i.
+     */
+    public void predictProbabilityIntervals(DoubleMatrix2D x,
+                                            double[] intervals)
+    {
+        checkCalibrated();
+        int n = x.rows();
+        double[] scores = calculateScores(x);
+        for (int i = 0; i < n; i++) {
+            lookup(scores[i], intervals, 2*i);
+        }
+    }
+
+    /**
+     * Merges a Venn-ABERS probability interval [p0, p1] into the single
+     * probability p1 / (1 - p0 + p1).
+     *
+     * @param p0     the lower probability.
+     * @param p1     the upper probability.
+     * @return the merged probability.
+     */
+    public static double mergeProbabilities(double p0, double p1)
+    {
+        return p1 / (1.0 - p0 + p1);
+    }
+
+    /**
+     * Returns the non-conformity function used for scoring.
+     *
+     * @return the non-conformity function.
+     */
+    public IClassificationNonconformityFunction getNonconformityFunction()
+    {
+        return _nc;
+    }
+
+    /**
+     * Returns whether this Venn-ABERS predictor has been trained and
+     * calibrated.
+     *
+     * @return <tt>true</tt> if the predictor has been trained and calibrated or <tt>false</tt> otherwise.
+     */
+    @Override
+    public boolean isTrained()
+    {
+        return _scores != null;
+    }
+
+    @Override
+    public int getAttributeCount()
+    {
+        return _nc.getAttributeCount();
+    }
+
+    @Override
+    public Double[] getLabels()
+    {
+        return _nc.getLabels();
+    }
+
+    @Override
+    public DoubleMatrix1D nativeStorageTemplate()
+    {
+        return _nc.nativeStorageTemplate();
+    }
+
+    private void checkCalibrated()
+    {
+        if (!isTrained()) {
+            throw new UnsupportedOperationException
+                          ("The Venn-ABERS predictor must be calibrated " +
+                           "before predictions can be made.");
+        }
+    }
+
+    /**
+     * Computes the score of each instance in x with one batched call to
+     * the non-conformity function.
+     */
+    private double[] calculateScores(DoubleMatrix2D x)
+    {
+        int n = x.rows();
+        double[] ncScores = new double[2*n];
+        _nc.calculateNonConformityScores(x, ncScores);
+        double[] scores = new double[n];
+        for (int i = 0; i < n; i++) {
+            scores[i] = ncScores[2*i] - ncScores[2*i + 1];
+        }
+        return scores;
+    }
+
+    /**
+     * Stores {p0, p1} for a test score at intervals[offset].
+     * A test score between two distinct calibration scores gets the same
+     * isotonic regression value with the first class/label as if it were
+     * equal to the lower of them and with the second class/label as if
+     * it were equal to the higher of them.
+     */
+    private void lookup(double score, double[] intervals, int offset)
+    {
+        int k = _scores.length;
+        int i0 = Util.upperBound(_scores, 0, k, score);
+        int i1 = Util.lowerBound(_scores, 0, k, score) + 1;
+        intervals[offset]     = _f0[i0];
+        intervals[offset + 1] = _f1[i1];
+    }
+
+    /**
+     * Computes f1[1..k] from the cumulative sum diagram P_0 = (0, 0),
+     * P_i = (cumulativeWeights[i-1], cumulativePositives[i-1]) and the
+     * extra point P_-1 = (-1, -1); Algorithms 1 and 2 in the paper.
+     */
+    private static void computeF1(int k,
+                                  double[] cumulativeWeights,
+                                  double[] cumulativePositives,
+                                  double[] f1)
+    {
+        // Point P_i is stored at index i + 1.
+        double[] px = new double[k + 2];
+        double[] py = new double[k + 2];
+        px[0] = -1.0;
+        py[0] = -1.0;
+        for (int i = 1; i <= k; i++) {
+            px[i + 1] = cumulativeWeights[i - 1];
+            py[i + 1] = cumulativePositives[i - 1];
+        }
+
+        // The greatest convex minorant of P_-1, ..., P_k.
+        PointStack hull = new PointStack(k + 2);
+        hull.push(px[0], py[0]);
+        hull.push(px[1], py[1]);
+        for (int i = 2; i <= k + 1; i++) {
+            while (hull.size() > 1 &&
+                   nonLeftTurn(hull.x(1), hull.y(1), hull.x(0), hull.y(0),
+                               px[i], py[i])) {
+                hull.pop();
+            }
+            hull.push(px[i], py[i]);
+        }
+
+        // Sweep from left to right over the reversed hull.
+        PointStack s = hull.reversed();
+        for (int i = 1; i <= k; i++) {
+            f1[i] = slope(s.x(0), s.y(0), s.x(1), s.y(1));
+            // P_{i-1} = P_{i-2} + P_i - P_{i-1}.
+            px[i] = px[i - 1] + px[i + 1] - px[i];
+            py[i] = py[i - 1] + py[i + 1] - py[i];
+            if (notBelow(px[i], py[i], s.x(0), s.y(0), s.x(1), s.y(1))) {
+                continue;
+            }
+            s.pop();
+            while (s.size() > 1 &&
+                   nonLeftTurn(px[i], py[i], s.x(0), s.y(0),
+                               s.x(1), s.y(1))) {
+                s.pop();
+            }
+            s.push(px[i], py[i]);
+        }
+    }
+
+    /**
+     * Computes f0[1..k] from the cumulative sum diagram P_0 = (0, 0),
+     * P_i = (cumulativeWeights[i-1], cumulativePositives[i-1]) and the
+     * extra point P_k+1 = P_k + (1, 0); Algorithms 3 and 4 in the paper.
+     */
+    private static void computeF0(int k,
+                                  double[] cumulativeWeights,
+                                  double[] cumulativePositives,
+                                  double[] f0)
+    {
+        // Point P_i is stored at index i.
+        double[] px = new double[k + 2];
+        double[] py = new double[k + 2];
+        for (int i = 1; i <= k; i++) {
+            px[i] = cumulativeWeights[i - 1];
+            py[i] = cumulativePositives[i - 1];
+        }
+        px[k + 1] = px[k] + 1.0;
+        py[k + 1] = py[k];
+
+        // The least concave majorant, seen from the right, of P_0, ..., P_k+1.
+        PointStack hull = new PointStack(k + 2);
+        hull.push(px[k + 1], py[k + 1]);
+        hull.push(px[k], py[k]);
+        for (int i = k - 1; i >= 0; i--) {
+            while (hull.size() > 1 &&
+                   nonRightTurn(hull.x(1), hull.y(1), hull.x(0), hull.y(0),
+                                px[i], py[i])) {
+                hull.pop();
+            }
+            hull.push(px[i], py[i]);
+        }
+
+        // Sweep from right to left over the reversed hull.
+        PointStack s = hull.reversed();
+        for (int i = k; i >= 1; i--) {
+            f0[i] = slope(s.x(0), s.y(0), s.x(1), s.y(1));
+            // P_i = P_{i-1} + P_{i+1} - P_i.
+            px[i] = px[i - 1] + px[i + 1] - px[i];
+            py[i] = py[i - 1] + py[i + 1] - py[i];
+            if (notBelow(px[i], py[i], s.x(0), s.y(0), s.x(1), s.y(1))) {
+                continue;
+            }
+            s.pop();
+            while (s.size() > 1 &&
+                   nonRightTurn(px[i], py[i], s.x(0), s.y(0),
+                                s.x(1), s.y(1))) {
+                s.pop();
+            }
+            s.push(px[i], py[i]);
+        }
+    }
+
+    /**
+     * Returns whether a -> b -> c is not a strict left turn.
+     */
+    private static boolean nonLeftTurn(double ax, double ay,
+                                       double bx, double by,
+                                       double cx, double cy)
+    {
+        return cross(ax, ay, bx, by, cx, cy) <= 0.0;
+    }
+
+    /**
+     * Returns whether a -> b -> c is not a strict right turn.
+     */
+    private static boolean nonRightTurn(double ax, double ay,
+                                        double bx, double by,
+                                        double cx, double cy)
+    {
+        return cross(ax, ay, bx, by, cx, cy) >= 0.0;
+    }
+
+    private static double cross(double ax, double ay,
+                                double bx, double by,
+                                double cx, double cy)
+    {
+        return (bx - ax) * (cy - by) - (by - ay) * (cx - bx);
+    }
+
+    private static double slope(double ax, double ay, double bx, double by)
+    {
+        return (by - ay) / (bx - ax);
+    }
+
+    /**
+     * Returns whether the point t is not below the line through a and b.
+     */
+    private static boolean notBelow(double tx, double ty,
+                                    double ax, double ay,
+                                    double bx, double by)
+    {
+        return ty >= ay + slope(ax, ay, bx, by) * (tx - ax);
+    }
+
+    /**
+     * A stack of points in the plane.
+     */
+    private static class PointStack
+    {
+        private final double[] _x;
+        private final double[] _y;
+        private int _size;
+
+        PointStack(int capacity)
+        {
+            _x = new double[capacity];
+            _y = new double[capacity];
+        }
+
+        int size()
+        {
+            return _size;
+        }
+
+        void push(double x, double y)
+        {
+            _x[_size] = x;
+            _y[_size] = y;
+            _size++;
+        }
+
+        void pop()
+        {
+            _size--;
+        }
+
+        /**
+         * Returns the x coordinate of the point depth steps below the top.
+         */
+        double x(int depth)
+        {
+            return _x[_size - 1 - depth];
+        }
+
+        double y(int depth)
+        {
+            return _y[_size - 1 - depth];
+        }
+
+        PointStack reversed()
+        {
+            PointStack result = new PointStack(_x.length);
+            for (int i = _size - 1; i >= 0; i--) {
+                result.push(_x[i], _y[i]);
+            }
+            return result;
+        }
+    }
+}
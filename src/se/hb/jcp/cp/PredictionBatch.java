@@ -0,0 +1,305 @@
+// JCP - Java Conformal Prediction framework
+// Copyright (C) 2024  Anders Gidenstam
+//
+// This library is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+package se.hb.jcp.cp;
+
+import cern.colt.matrix.DoubleMatrix2D;
+
+/**
+ * Represents a batch of predictions made by a conformal classifier as a
+ * flat, row by row, block of p-values. It provides the same queries as
+ * <tt>ConformalClassification</tt> by row index without creating an object
+ * per prediction. The confidence, credibility and point prediction of each
+ * row are computed once, when the batch is (re)filled.
+ *
+ * The p-value block may be owned by the caller and the batch can be reused
+ * for new predictions, see update() and predict().
+ * See [V. Vovk, A. Gammerman and G. Shafer, "Algorithmic Learning in a Random
+ * World", Springer, 2005] for the definitions used here.
+ *
+ * @author anders.gidenstam(at)hb.se
+ */
+public class PredictionBatch
+    implements IConformalClassifications
+{
+    private final IConformalClassifier _source;
+    private final double[] _labels;
+    private double[] _pValues;
+    private int _size;
+    // Per row summaries.
+    private double[] _largest;
+    private double[] _secondLargest;
+    private int[] _pointPrediction;
+
+    /**
+     * Creates a batch of predictions over a caller-owned block of p-values.
+     *
+     * @param source    the conformal classifier that made the predictions.
+     * @param pValues   the p-values row by row, each row in the order given by source.getLabels().
+     * @param size      the number of predictions/rows in the batch.
+     */
+    public PredictionBatch(IConformalClassifier source,
+                           double[] pValues,
+                           int size)
+    {
+        _source = source;
+        Double[] labels = source.getLabels();
+        _labels = new double[labels.length];
+        for (int c = 0; c < labels.length; c++) {
+            _labels[c] = labels[c];
+        }
+        _pValues = pValues;
+        update(size);
+    }
+
+    /**
+     * Makes a prediction for each instance in x and stores them in a new
+     * batch.
+     *
+     * @param source    the conformal classifier.
+     * @param x         the instances.
+     */
+    public PredictionBatch(IConformalClassifier source,
+                           DoubleMatrix2D x)
+    {
+        this(source, new double[x.rows() * source.getLabels().length], 0);
+        predict(x);
+    }
+
+    /**
+     * Replaces the predictions in this batch with predictions for the
+     * instances in x. The p-value block is reused if it is large enough.
+     *
+     * @param x         the instances.
+     */
+    public void predict(DoubleMatrix2D x)
+    {
+        int n = x.rows();
+        if (_pValues.length < n * _labels.length) {
+            _pValues = new double[n * _labels.length];
+        }
+        _source.predictPValues(x, _pValues);
+        update(n);
+    }
+
+    /**
+     * Recomputes the per prediction summaries after the p-value block has
+     * been (re)filled by the caller.
+     *
+     * @param size      the number of predictions/rows now in the batch.
+     */
+    public void update(int size)
+    {
+        int k = _labels.length;
+        if (size * k > _pValues.length) {
+            throw new IllegalArgumentException
+                          ("The p-value block is too small for " + size +
+                           " predictions.");
+        }
+        if (_largest == null || _largest.length < size) {
+            _largest = new double[size];
+            _secondLargest = new double[size];
+            _pointPrediction = new int[size];
+        }
+        _size = size;
+        for (int i = 0; i < size; i++) {
+            double largest = 0.0;
+            double secondLargest = 0.0;
+            int largestClass = -1;
+            for (int c = i*k; c < (i+1)*k; c++) {
+                double p = _pValues[c];
+                if (p > largest) {
+                    secondLargest = largest;
+                    largest = p;
+                    largestClass = c - i*k;
+                } else if (p > secondLargest) {
+                    secondLargest = p;
+                }
+            }
+            _largest[i] = largest;
+            _secondLargest[i] = secondLargest;
+            // Only a unique maximum p-value gives a point prediction.
+            _pointPrediction[i] = (largest > secondLargest) ? largestClass : -1;
+        }
+    }
+
+    /**
+     * Returns the number of predictions in this batch.
+     *
+     * @return the number of predictions.
+     */
+    public int size()
+    {
+        return _size;
+    }
+
+    /**
+     * Returns the number of classes/labels, i.e. p-values per prediction.
+     *
+     * @return the number of classes/labels.
+     */
+    public int getClassCount()
+    {
+        return _labels.length;
+    }
+
+    /**
+     * Returns the p-value block. The p-values of prediction i are stored in
+     * [i*getClassCount(), (i+1)*getClassCount()).
+     *
+     * @return the p-value block.
+     */
+    public double[] getPValues()
+    {
+        return _pValues;
+    }
+
+    /**
+     * Returns the predicted p-value for a class.
+     *
+     * @param row      the index of the prediction.
+     * @param c        the class number.
+     * @return the p-value.
+     */
+    public double getPValue(int row, int c)
+    {
+        return _pValues[row * _labels.length + c];
+    }
+
+    /**
+     * Returns the class number of a label.
+     *
+     * @param label    the class label.
+     * @return the class number of the label or -1 if it is unknown.
+     */
+    public int getClassIndex(double label)
+    {
+        for (int c = 0; c < _labels.length; c++) {
+            if (_labels[c] == label) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns whether a class is included in the region prediction at a
+     * selected significance level.
+     *
+     * @param row                the index of the prediction.
+     * @param c                  the class number.
+     * @param significanceLevel  the selected significance level.
+     * @return <tt>true</tt> if the class is included.
+     */
+    public boolean isInClassSet(int row, int c, double significanceLevel)
+    {
+        // Same inclusion rule as ConformalClassification.getClassSet().
+        return 0 <= c && getPValue(row, c) > significanceLevel;
+    }
+
+    /**
+     * Returns whether a label is included in the region prediction at a
+     * selected significance level.
+     *
+     * @param row                the index of the prediction.
+     * @param label              the class label.
+     * @param significanceLevel  the selected significance level.
+     * @return <tt>true</tt> if the label is included.
+     */
+    public boolean isInLabelSet(int row, double label,
+                                double significanceLevel)
+    {
+        return isInClassSet(row, getClassIndex(label), significanceLevel);
+    }
+
+    /**
+     * Returns the size of the region prediction at a selected significance
+     * level.
+     *
+     * @param row                the index of the prediction.
+     * @param significanceLevel  the selected significance level.
+     * @return the number of classes/labels in the region prediction.
+     */
+    public int getClassSetSize(int row, double significanceLevel)
+    {
+        int k = _labels.length;
+        int size = 0;
+        for (int c = row*k; c < (row+1)*k; c++) {
+            if (_pValues[c] > significanceLevel) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the maximum credibility point prediction class number.
+     *
+     * @param row      the index of the prediction.
+     * @return the maximum credibility class number or -1 if no unique such class/label exists.
+     */
+    public int getClassPointPrediction(int row)
+    {
+        return _pointPrediction[row];
+    }
+
+    /**
+     * Returns the maximum credibility point prediction label.
+     *
+     * @param row      the index of the prediction.
+     * @return the maximum credibility class label or NaN if no unique such class/label exists.
+     */
+    public double getLabelPointPrediction(int row)
+    {
+        int predictedClass = _pointPrediction[row];
+        return (predictedClass >= 0) ? _labels[predictedClass] : Double.NaN;
+    }
+
+    /**
+     * Returns the confidence of the class/label point prediction, i.e.
+     * the greatest 1-significance level for which the label set is at
+     * most a single value.
+     *
+     * @param row      the index of the prediction.
+     * @return the confidence of the class/label point prediction.
+     */
+    public double getPointPredictionConfidence(int row)
+    {
+        return 1.0 - _secondLargest[row];
+    }
+
+    /**
+     * Returns the credibility of the class/label point prediction, i.e.
+     * the smallest significance level for which the label set is empty.
+     *
+     * @param row      the index of the prediction.
+     * @return the credibility of the class/label point prediction.
+     */
+    public double getPointPredictionCredibility(int row)
+    {
+        return _largest[row];
+    }
+
+    /**
+     * Returns the conformal classifier that made the predictions.
+     *
+     * @return the conformal classifier that made the predictions.
+     */
+    public IConformalClassifier getSource()
+    {
+        return _source;
+    }
+}
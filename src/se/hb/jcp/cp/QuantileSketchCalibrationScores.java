@@ -0,0 +1,405 @@
+// JCP - Java Conformal Prediction framework
+// Copyright (C) 2024  Anders Gidenstam
+//
+// This library is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+package se.hb.jcp.cp;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import se.hb.jcp.util.ParallelizedAction;
+
+/**
+ * Calibration non-conformity scores summarized by a mergeable quantile
+ * sketch in the style of [Karnin, Lang and Liberty, FOCS 2016] (KLL).
+ * The memory use and serialized size depend only on the rank error bound,
+ * not on the number of scores, at the price of approximate ranks: the
+ * rank of a score, and hence its p-value, is off by at most
+ * rankError * size() with high probability, also after merges. As long as
+ * fewer than 5/rankError scores have been added the sketch is exact.
+ *
+ * The sketch is a stack of compactors. Level h holds scores of weight 2^h
+ * and, when full, is sorted and every other score, from a random offset,
+ * is promoted to level h + 1. Two sketches with the same rank error bound
+ * can be merged, e.g. to summarize shards of a calibration set in
+ * parallel.
+ *
+ * @author anders.gidenstam(at)hb.se
+ */
+public class QuantileSketchCalibrationScores
+    implements ICalibrationScores
+{
+    // The level capacity in units of 1/rankError. With factors up to 4 the
+    // maximum rank error exceeded rankError on some random data sets of
+    // 200k-500k scores at rankError 0.01. With 5 it stayed below 0.8
+    // rankError on 250 such sets, both when adding scores one by one and
+    // when merging shards.
+    private static final double RANK_ERROR_FACTOR = 5.0;
+    private static final int    MIN_LEVEL_CAPACITY = 8;
+    // The capacity ratio between consecutive levels.
+    private static final double LEVEL_CAPACITY_RATIO = 2.0/3.0;
+
+    private double     _rankError;
+    private int        _k;
+    private long       _n;
+    private double[][] _levels;
+    private int[]      _levelSizes;
+    private int        _levelCount;
+    // Sorted scores with cumulative weights, kept until the next change.
+    private transient volatile View _view;
+
+    /**
+     * Creates an empty sketch.
+     *
+     * @param rankError    the approximate bound on the normalized rank error, in (0, 1).
+     */
+    public QuantileSketchCalibrationScores(double rankError)
+    {
+        if (!(rankError > 0.0 && rankError < 1.0)) {
+            throw new IllegalArgumentException
+                          ("The rank error must be in (0, 1).");
+        }
+        _rankError = rankError;
+        _k = Math.max(MIN_LEVEL_CAPACITY,
+                      (int)Math.ceil(RANK_ERROR_FACTOR / rankError));
+        _levels = new double[1][];
+        _levels[0] = new double[_k];
+        _levelSizes = new int[1];
+        _levelCount = 1;
+    }
+
+    /**
+     * Creates a sketch of the supplied scores. The scores are split into
+     * shards that are sketched in parallel and then merged.
+     *
+     * @param rankError    the approximate bound on the normalized rank error, in (0, 1).
+     * @param scores       the scores.
+     * @return the sketch.
+     */
+    public static QuantileSketchCalibrationScores
+        fromScores(double rankError, double[] scores)
+    {
+        int shards = Math.max(1, Math.min(ParallelizedAction.getParallelism(),
+                                          scores.length / (16*1024)));
+        QuantileSketchCalibrationScores[] sketches =
+            new QuantileSketchCalibrationScores[shards];
+        SketchShardsAction all =
+            new SketchShardsAction(rankError, scores, sketches, 0, shards);
+        all.start();
+        for (int i = 1; i < shards; i++) {
+            sketches[0].merge(sketches[i]);
+        }
+        return sketches[0];
+    }
+
+    /**
+     * Returns the approximate bound on the normalized rank error.
+     *
+     * @return the rank error bound.
+     */
+    public double getRankError()
+    {
+        return _rankError;
+    }
+
+    @Override
+    public synchronized int size()
+    {
+        return (int)_n;
+    }
+
+    @Override
+    public synchronized void add(double score)
+    {
+        append(0, score);
+        _n++;
+        compress();
+        _view = null;
+    }
+
+    /**
+     * Merges another sketch into this one. The other sketch is not
+     * modified.
+     *
+     * @param other    a sketch with the same rank error bound.
+     */
+    public void merge(QuantileSketchCalibrationScores other)
+    {
+        if (other == this) {
+            throw new IllegalArgumentException
+                          ("A sketch cannot be merged with itself.");
+        }
+        double[][] levels;
+        int[]      levelSizes;
+        long       n;
+        synchronized (other) {
+            if (other._k != _k) {
+                throw new IllegalArgumentException
+                              ("Only sketches with the same rank error " +
+                               "bound can be merged.");
+            }
+            levels = new double[other._levelCount][];
+            levelSizes = Arrays.copyOf(other._levelSizes, other._levelCount);
+            for (int h = 0; h < other._levelCount; h++) {
+                levels[h] = Arrays.copyOf(other._levels[h], levelSizes[h]);
+            }
+            n = other._n;
+        }
+        synchronized (this) {
+            for (int h = 0; h < levels.length; h++) {
+                for (int i = 0; i < levelSizes[h]; i++) {
+                    append(h, levels[h][i]);
+                }
+            }
+            _n += n;
+            compress();
+            _view = null;
+        }
+    }
+
+    @Override
+    public double get(int rank)
+    {
+        View view = getView();
+        if (rank < 0 || rank >= view._n) {
+            throw new IndexOutOfBoundsException
+                          ("Rank " + rank + " is out of range.");
+        }
+        return view._scores[view.indexOfRank(rank)];
+    }
+
+    @Override
+    public double calculatePValue(double ncScore)
+    {
+        View view = getView();
+        long less = view.weightBefore(Util.lowerBound(view._scores, 0,
+                                                      view._scores.length,
+                                                      ncScore));
+        long lessOrEqual = view.weightBefore(Util.upperBound(view._scores, 0,
+                                                             view._scores.length,
+                                                             ncScore));
+        return Util.calculatePValue((int)view._n, (int)less,
+                                    (int)(lessOrEqual - less));
+    }
+
+    @Override
+    public void calculatePValues(double[] ncScores,
+                                 int offset, int stride, int count,
+                                 double[] pValues)
+    {
+        for (int j = 0; j < count; j++) {
+            int i = offset + j*stride;
+            pValues[i] = calculatePValue(ncScores[i]);
+        }
+    }
+
+    @Override
+    public double calculateCriticalScore(double significanceLevel)
+    {
+        View view = getView();
+        int n = (int)view._n;
+        int j = Util.calculateCriticalRank(n, significanceLevel);
+        if (j < 0) {
+            return Double.NaN;
+        } else if (j >= n) {
+            return Double.POSITIVE_INFINITY;
+        } else {
+            return view._scores[view.indexOfRank(j)];
+        }
+    }
+
+    private View getView()
+    {
+        View view = _view;
+        if (view == null) {
+            synchronized (this) {
+                view = _view;
+                if (view == null) {
+                    view = new View();
+                    _view = view;
+                }
+            }
+        }
+        return view;
+    }
+
+    private void append(int h, double score)
+    {
+        while (h >= _levelCount) {
+            if (_levelCount == _levels.length) {
+                _levels = Arrays.copyOf(_levels, 2*_levelCount);
+                _levelSizes = Arrays.copyOf(_levelSizes, 2*_levelCount);
+            }
+            _levels[_levelCount] = new double[MIN_LEVEL_CAPACITY];
+            _levelCount++;
+        }
+        if (_levelSizes[h] == _levels[h].length) {
+            _levels[h] = Arrays.copyOf(_levels[h], 2*_levels[h].length);
+        }
+        _levels[h][_levelSizes[h]++] = score;
+    }
+
+    private int levelCapacity(int h)
+    {
+        double capacity =
+            _k * Math.pow(LEVEL_CAPACITY_RATIO, _levelCount - 1 - h);
+        return Math.max(MIN_LEVEL_CAPACITY, (int)Math.ceil(capacity));
+    }
+
+    /**
+     * Compacts the lowest full level until every level is within its
+     * capacity.
+     */
+    private void compress()
+    {
+        for (int h = 0; h < _levelCount; h++) {
+            if (_levelSizes[h] >= levelCapacity(h)) {
+                compact(h);
+                // The capacities depend on the number of levels.
+                h = -1;
+            }
+        }
+    }
+
+    private void compact(int h)
+    {
+        double[] level = _levels[h];
+        int size = _levelSizes[h];
+        Arrays.sort(level, 0, size);
+        // With an odd number of scores the largest one stays.
+        int pairs = size / 2;
+        int offset = ThreadLocalRandom.current().nextInt(2);
+        for (int i = 0; i < pairs; i++) {
+            append(h + 1, level[2*i + offset]);
+        }
+        if (size % 2 == 1) {
+            level[0] = level[size - 1];
+            _levelSizes[h] = 1;
+        } else {
+            _levelSizes[h] = 0;
+        }
+    }
+
+    /**
+     * An immutable sorted summary of the sketch.
+     */
+    private class View
+    {
+        final double[] _scores;
+        final long[]   _cumulativeWeights; // Including the score.
+        final long     _n;
+
+        // Must be called with the sketch locked.
+        View()
+        {
+            // Merge the sorted levels one at a time.
+            double[] scores  = new double[0];
+            long[]   weights = new long[0];
+            for (int h = 0; h < _levelCount; h++) {
+                double[] level = Arrays.copyOf(_levels[h], _levelSizes[h]);
+                Arrays.sort(level);
+                double[] mergedScores  = new double[scores.length + level.length];
+                long[]   mergedWeights = new long[mergedScores.length];
+                int a = 0;
+                int b = 0;
+                for (int i = 0; i < mergedScores.length; i++) {
+                    if (b == level.length ||
+                        (a < scores.length &&
+                         Double.compare(scores[a], level[b]) <= 0)) {
+                        mergedScores[i]  = scores[a];
+                        mergedWeights[i] = weights[a++];
+                    } else {
+                        mergedScores[i]  = level[b++];
+                        mergedWeights[i] = 1L << h;
+                    }
+                }
+                scores  = mergedScores;
+                weights = mergedWeights;
+            }
+            for (int i = 1; i < weights.length; i++) {
+                weights[i] += weights[i - 1];
+            }
+            _scores = scores;
+            _cumulativeWeights = weights;
+            _n = QuantileSketchCalibrationScores.this._n;
+        }
+
+        /**
+         * Returns the total weight of the scores before index i.
+         */
+        long weightBefore(int i)
+        {
+            return i > 0 ? _cumulativeWeights[i - 1] : 0;
+        }
+
+        /**
+         * Returns the index of the score with the given rank, i.e. the
+         * first score whose cumulative weight exceeds the rank.
+         */
+        int indexOfRank(long rank)
+        {
+            int first = 0;
+            int last = _cumulativeWeights.length - 1;
+            while (first < last) {
+                int middle = (first + last) >>> 1;
+                if (_cumulativeWeights[middle] <= rank) {
+                    first = middle + 1;
+                } else {
+                    last = middle;
+                }
+            }
+            return first;
+        }
+    }
+
+    static class SketchShardsAction extends ParallelizedAction
+    {
+        double _rankError;
+        double[] _scores;
+        QuantileSketchCalibrationScores[] _sketches;
+
+        public SketchShardsAction(double rankError,
+                                  double[] scores,
+                                  QuantileSketchCalibrationScores[] sketches,
+                                  int first, int last)
+        {
+            super(first, last);
+            _rankError = rankError;
+            _scores = scores;
+            _sketches = sketches;
+        }
+
+        @Override
+        protected void compute(int i)
+        {
+            int shards = _sketches.length;
+            int first = (int)((long)_scores.length * i / shards);
+            int last  = (int)((long)_scores.length * (i + 1) / shards);
+            QuantileSketchCalibrationScores sketch =
+                new QuantileSketchCalibrationScores(_rankError);
+            for (int j = first; j < last; j++) {
+                sketch.add(_scores[j]);
+            }
+            _sketches[i] = sketch;
+        }
+
+        @Override
+        protected ParallelizedAction createSubtask(int first, int last)
+        {
+            return new SketchShardsAction(_rankError, _scores, _sketches,
+                                          first, last);
+        }
+    }
+}
@@ -28,14 +28,27 @@ import java.util.Arrays;
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
 
+import se.hb.jcp.io.CompressedSparseRowEncoding;
 import se.hb.jcp.nc.IClassificationNonconformityFunction;
+import se.hb.jcp.nc.IIncrementalClassificationNonconformityFunction;
+import se.hb.jcp.util.CancellationToken;
+import se.hb.jcp.util.ExtendedDoubleMatrix2D;
+import se.hb.jcp.util.IProgressListener;
 import se.hb.jcp.util.ParallelizedAction;
 
 public class TransductiveConformalClassifier
     implements IConformalClassifier, java.io.Serializable
 {
     private static final boolean PARALLEL = true;
+    // The levels at which transductive predictions can be parallelized:
+    // over the test instances; over the test instances and labels; or over
+    // the test instances and labels with parallel rescoring of the
+    // (n+1)-sized training set within each.
+    private static final int SPLIT_INSTANCES = 0;
+    private static final int SPLIT_LABELS    = 1;
+    private static final int SPLIT_RESCORING = 2;
 
     private IClassificationNonconformityFunction _nc;
     private Double[] _classes;
@@ -44,6 +57,19 @@ public class TransductiveConformalClassifier
 
     private DoubleMatrix2D _xtr;   
     private double[] _ytr;
+    private boolean _saveTrainingSetAsFloat;
+
+    // Pool of local (n+1)-sized training sets for reuse between predictions.
+    // It holds at most one set per worker thread plus one for the caller.
+    private transient ArrayBlockingQueue<LocalTrainingSet> _trainingSetPool =
+        createTrainingSetPool();
+    // For incremental non-conformity functions: the non-conformity function
+    // trained on the training set, the training set's scores and the same
+    // scores sorted, per label for label conditional CP.
+    private transient IIncrementalClassificationNonconformityFunction
+        _incrementalNc;
+    private transient double[] _incrementalNcScores;
+    private transient double[][] _incrementalSortedNcScores;
 
     /**
       * Creates a transductive conformal classifier using the supplied
@@ -90,13 +116,20 @@ public class TransductiveConformalClassifier
      */
     public void fit(DoubleMatrix2D xtr, double[] ytr)
     {
-        _xtr = xtr;
-        _ytr = ytr;
+        synchronized (this) {
+            _xtr = xtr;
+            _ytr = ytr;
+            _incrementalNc = null;
+            _incrementalNcScores = null;
+            _incrementalSortedNcScores = null;
+        }
+        _trainingSetPool.clear();
     }
 
     /**
      * Makes a prediction for each instance in x.
-     * The method is parallellized over the instances.
+     * The method is parallellized over the instances and, for small batches,
+     * over the labels and the rescoring of the training set too.
      *
      * @param x             the instances.
      * @return an array containing a <tt>ConformalClassification</tt> for each instance.
@@ -108,21 +141,72 @@ public class TransductiveConformalClassifier
         ConformalClassification[] predictions = new ConformalClassification[n];
 
         if (!PARALLEL) {
-            // Create a local copy of the training set with one free slot
+            // Get a local copy of the training set with one free slot
             // for the instance to be predicted.
-            SimpleImmutableEntry<DoubleMatrix2D, double[]> mytr =
-                 createLocalTrainingSet();
-            DoubleMatrix2D myXtr = mytr.getKey();
-            double[] myYtr = mytr.getValue();
+            LocalTrainingSet mytr = acquireLocalTrainingSet();
 
             for (int i = 0; i < n; i++) {
                 DoubleMatrix1D instance = x.viewRow(i);
-                predictions[i] = predict(instance, myXtr, myYtr);
+                predictions[i] = predict(instance, mytr);
             }
-        } else {
+            releaseLocalTrainingSet(mytr);
+        } else if (selectParallelization(n) == SPLIT_INSTANCES) {
             ClassifyAllAction all =
                 new ClassifyAllAction(x, predictions, 0, n);
             all.start();
+        } else {
+            DoubleMatrix2D pValues = predictPValues(x);
+            for (int i = 0; i < n; i++) {
+                predictions[i] =
+                    new ConformalClassification(this, pValues.viewRow(i));
+            }
+        }
+        return predictions;
+    }
+
+    /**
+     * Makes a prediction for each instance in x that can be completed
+     * before the token is cancelled, e.g. by its deadline.
+     * The method is parallellized over the instances and, for small batches,
+     * over the labels and the rescoring of the training set too. The
+     * progress is reported in instances or, for small batches, in
+     * (instance, label) pairs.
+     *
+     * @param x             the instances.
+     * @param token         the cancellation token.
+     * @param listener      a progress listener or null.
+     * @return an array containing a <tt>ConformalClassification</tt> for each instance or null for the instances that were not predicted.
+     */
+    public ConformalClassification[] predict(DoubleMatrix2D x,
+                                             CancellationToken token,
+                                             IProgressListener listener)
+    {
+        int n = x.rows();
+        DoubleMatrix2D pValues = new DenseDoubleMatrix2D(n, _classes.length);
+        pValues.assign(Double.NaN);
+        int split = selectParallelization(n);
+        ParallelizedAction all;
+        if (split == SPLIT_INSTANCES) {
+            all = new ClassifyPValuesAction(x, pValues, 0, n);
+        } else {
+            all = new ClassifyLabelsAction(x, pValues,
+                                           split == SPLIT_RESCORING,
+                                           0, n * _classes.length);
+        }
+        all.setCancellationToken(token);
+        all.setProgressListener(listener);
+        all.start();
+
+        ConformalClassification[] predictions = new ConformalClassification[n];
+        for (int i = 0; i < n; i++) {
+            boolean complete = true;
+            for (int c = 0; c < _classes.length; c++) {
+                complete &= !Double.isNaN(pValues.getQuick(i, c));
+            }
+            if (complete) {
+                predictions[i] =
+                    new ConformalClassification(this, pValues.viewRow(i));
+            }
         }
         return predictions;
     }
@@ -144,21 +228,21 @@ public class TransductiveConformalClassifier
      * the training set.
      *
      * @param x             the instance.
-     * @param xtr           an initialized <tt>DoubleMatrix2D</tt> containing the training instances and, last, one free slot.
-     * @param ytr           an initialized <tt>double[]</tt> array containing the training instances and, last, one free slot.
+     * @param mytr          a local training set from acquireLocalTrainingSet().
      * @return a prediction in the form of a <tt>ConformalClassification</tt>.
      */
     private ConformalClassification predict(DoubleMatrix1D x,
-                                            DoubleMatrix2D xtr, double[] ytr)
+                                            LocalTrainingSet mytr)
     {
         DoubleMatrix1D pValues = new DenseDoubleMatrix1D(_classes.length);
-        predictPValues(x, pValues, xtr, ytr);
+        predictPValues(x, pValues, mytr);
         return new ConformalClassification(this, pValues);
     }
 
     /**
      * Computes the predicted p-values for each target and instance in x.
-     * The method is parallellized over the instances.
+     * The method is parallellized over the instances and, for small batches,
+     * over the labels and the rescoring of the training set too.
      *
      * @param x             the instances.
      * @return an <tt>DoubleMatrix2D</tt> containing the predicted p-values for each instance.
@@ -169,26 +253,53 @@ public class TransductiveConformalClassifier
         int n = x.rows();
         DoubleMatrix2D response = new DenseDoubleMatrix2D(n, _classes.length);
         if (!PARALLEL) {
-            // Create a local copy of the training set with one free slot
+            // Get a local copy of the training set with one free slot
             // for the instance to be predicted.
-            SimpleImmutableEntry<DoubleMatrix2D, double[]> mytr =
-                 createLocalTrainingSet();
-            DoubleMatrix2D myXtr = mytr.getKey();
-            double[] myYtr = mytr.getValue();
+            LocalTrainingSet mytr = acquireLocalTrainingSet();
 
             for (int i = 0; i < n; i++) {
                 DoubleMatrix1D instance = x.viewRow(i);
                 DoubleMatrix1D pValues  = response.viewRow(i);
-                predictPValues(instance, pValues, myXtr, myYtr);
+                predictPValues(instance, pValues, mytr);
             }
+            releaseLocalTrainingSet(mytr);
         } else {
-            ClassifyPValuesAction all =
-                new ClassifyPValuesAction(x, response, 0, n);
-            all.start();
+            int split = selectParallelization(n);
+            if (split == SPLIT_INSTANCES) {
+                ClassifyPValuesAction all =
+                    new ClassifyPValuesAction(x, response, 0, n);
+                all.start();
+            } else {
+                ClassifyLabelsAction all =
+                    new ClassifyLabelsAction(x, response,
+                                             split == SPLIT_RESCORING,
+                                             0, n * _classes.length);
+                all.start();
+            }
         }
         return response;
     }
 
+    /**
+     * Computes the predicted p-values for each target and instance in x
+     * into a caller-owned flat array.
+     * The method is parallellized over the instances.
+     *
+     * @param x          the instances.
+     * @param pValues    a <tt>double[]</tt> array of length at least x.rows() * getLabels().length to store the p-values row by row, each row in the order given by getLabels().
+     */
+    @Override
+    public void predictPValues(DoubleMatrix2D x, double[] pValues)
+    {
+        DoubleMatrix2D response = predictPValues(x);
+        int k = _classes.length;
+        for (int i = 0; i < response.rows(); i++) {
+            for (int c = 0; c < k; c++) {
+                pValues[i*k + c] = response.getQuick(i, c);
+            }
+        }
+    }
+
     /**
      * Computes the predicted p-values for the instance x.
      *
@@ -212,19 +323,21 @@ public class TransductiveConformalClassifier
     @Override
     public void predictPValues(DoubleMatrix1D x, DoubleMatrix1D pValues)
     {
-        // FIXME: This creates a whole new (n+1)-sized copy of the training
-        //        set which is rather inefficient for a single prediction.
-        // FIXME: Add special handling for nonconformity functions that
-        //        can be trained incrementally, i.e. without retraining from
-        //        the whole (n+1)-sized training set.
-
-        // Create a local copy of the training set with one free slot
-        // for the instance to be predicted.
-        SimpleImmutableEntry<DoubleMatrix2D, double[]> mytr =
-            createLocalTrainingSet();
-        DoubleMatrix2D myXtr = mytr.getKey();
-        double[] myYtr = mytr.getValue();
-        predictPValues(x, pValues, myXtr, myYtr);
+        if (PARALLEL) {
+            DoubleMatrix2D instance = x.like2D(1, x.size());
+            instance.viewRow(0).assign(x);
+            pValues.assign(predictPValues(instance).viewRow(0));
+            return;
+        }
+        // Get a local copy of the training set with one free slot
+        // for the instance to be predicted. The copy is reused by later
+        // predictions.
+        LocalTrainingSet mytr = acquireLocalTrainingSet();
+        try {
+            predictPValues(x, pValues, mytr);
+        } finally {
+            releaseLocalTrainingSet(mytr);
+        }
     }
 
     /**
@@ -233,30 +346,81 @@ public class TransductiveConformalClassifier
      *
      * @param x        the instance.
      * @param pValues  an initialized <tt>DoubleMatrix1D</tt> to store the p-values.
-     * @param xtr      an initialized <tt>DoubleMatrix2D</tt> containing the training instances and, last, one free slot.
-     * @param ytr      an initialized <tt>double[]</tt> array containing the training instances and, last, one free slot.
+     * @param mytr     a local training set from acquireLocalTrainingSet().
      */
     private void predictPValues(DoubleMatrix1D x,
                                 DoubleMatrix1D pValues,
-                                DoubleMatrix2D xtr, double[] ytr)
+                                LocalTrainingSet mytr)
     {
-        // FIXME: Parallelize over targets and/or calc_nc too?
         // Set up the training set for this prediction.
-        int last = xtr.rows() - 1;
-        xtr.viewRow(last).assign(x);
+        mytr._x.viewRow(mytr._x.rows() - 1).assign(x);
         for (int i = 0; i < _classes.length; i++) {
-            // Set up the target for this prediction.
-            ytr[last] = _classes[i];
+            pValues.set(i, predictPValue(i, mytr));
+        }
+    }
+
+    /**
+     * Computes the predicted p-value for one label for the instance in the
+     * free slot of a local training set.
+     *
+     * @param label    the index of the label.
+     * @param mytr     a local training set from acquireLocalTrainingSet() with the instance in its free slot.
+     * @return the p-value.
+     */
+    private double predictPValue(int label, LocalTrainingSet mytr)
+    {
+        // Set up the target for this prediction.
+        DoubleMatrix2D xtr = mytr._x;
+        double[] ytr = mytr._y;
+        ytr[xtr.rows() - 1] = _classes[label];
+
+        if (mytr._nc != null) {
+            return predictIncrementalPValue(label, mytr);
+        }
+
+        // Compute the nonconformity scores and predict.
+        double[] nc = calculateNonConformityScores(xtr, ytr);
+        SimpleImmutableEntry<Double, double[]> ncScores =
+            calculateNonConformityScore(nc, ytr, _useLabelConditionalCP);
+        return Util.calculatePValue(ncScores.getKey(), ncScores.getValue());
+    }
 
-            // Create a nonconformity function instance and predict.
-            SimpleImmutableEntry<Double, double[]> ncScores =
-                calculateNonConformityScore(xtr, ytr, _useLabelConditionalCP);
-            double pValue  = Util.calculatePValue(ncScores.getKey(),
-                                                  ncScores.getValue());
-            pValues.set(i, pValue);
+    /**
+     * Selects the level at which to parallelize the prediction of a batch
+     * of instances. Large batches are split over the instances only, so
+     * that the rescoring of the training set for each of them runs
+     * sequentially. Batches with fewer instances than threads are split
+     * over the labels too and, if that still leaves threads idle, the
+     * rescoring within each label is also allowed to run in parallel.
+     *
+     * @param n    the number of instances.
+     * @return one of SPLIT_INSTANCES, SPLIT_LABELS or SPLIT_RESCORING.
+     */
+    private int selectParallelization(int n)
+    {
+        int threads = ParallelizedAction.getParallelism();
+        if (n >= threads) {
+            return SPLIT_INSTANCES;
+        } else if (n * _classes.length >= threads) {
+            return SPLIT_LABELS;
+        } else {
+            return SPLIT_RESCORING;
         }
     }
 
+    /**
+     * Sets whether the attribute values of the training set should be
+     * saved in single precision when this classifier is serialized. This
+     * reduces the size of saved models at the cost of precision.
+     * The default is false.
+     *
+     * @param asFloat    a boolean indicating whether to save the training set values as <tt>float</tt>s.
+     */
+    public void setSaveTrainingSetAsFloat(boolean asFloat)
+    {
+        _saveTrainingSetAsFloat = asFloat;
+    }
+
     @Override
     public IClassificationNonconformityFunction getNonconformityFunction()
     {
@@ -272,7 +436,13 @@ public class TransductiveConformalClassifier
      */
     public void setNonconformityFunction(IClassificationNonconformityFunction nc)
     {
-        _nc = nc;
+        synchronized (this) {
+            _nc = nc;
+            _incrementalNc = null;
+            _incrementalNcScores = null;
+            _incrementalSortedNcScores = null;
+        }
+        _trainingSetPool.clear();
     }
 
     @Override
@@ -308,25 +478,120 @@ public class TransductiveConformalClassifier
     }
 
     /**
-     * Computes the non-conformity score of the last instance in xtr and ytr
-     * using the rest of xtr and ytr as the calibration set.
+     * Computes the non-conformity scores of all instances in xtr and ytr
+     * by fitting a new non-conformity function to them.
      *
      * @param xtr      an <tt>DoubleMatrix2D</tt> containing the training instances and, last, the test instance.
      * @param ytr      an <tt>double[]</tt> array containing the training instances and, last, the assumed label of the test instance.
-     * @param useLabelConditionalCP a <tt>boolean</tt> indicating whether label conditional conformal classification should be used.
-     * @return a pair of the test instance's nonconformity score and an <tt>double[]</tt> array containing the sorted nonconformity scores of the calibration set.
+     * @return an <tt>double[]</tt> array containing the nonconformity scores.
      */
-    private SimpleImmutableEntry<Double, double[]>
-        calculateNonConformityScore(DoubleMatrix2D xtr,
-                                    double[]       ytr,
-                                    boolean        useLabelConditionalCP)
+    private double[] calculateNonConformityScores(DoubleMatrix2D xtr,
+                                                  double[]       ytr)
     {
         // Create a nonconformity function instance and compute the
         // nonconformity scores for the instance and the calibration set.
         IClassificationNonconformityFunction ncf =
             _nc.fitNew(xtr, ytr);
 
-        double[] nc = ncf.calc_nc(xtr, ytr);
+        return ncf.calc_nc(xtr, ytr);
+    }
+
+    /**
+     * Computes the predicted p-value for one label for the instance in the
+     * free slot of a local training set with an incremental non-conformity
+     * function. The test instance is added to the local copy of the trained
+     * non-conformity function and only the training scores that changed are
+     * updated. The test score is counted against the presorted training
+     * scores by binary search, corrected for the changed scores.
+     *
+     * @param label    the index of the label.
+     * @param mytr     a local training set with an incremental non-conformity function, the test instance in its free slot and the label set.
+     * @return the p-value.
+     */
+    private double predictIncrementalPValue(int label, LocalTrainingSet mytr)
+    {
+        int last = mytr._x.rows() - 1;
+        DoubleMatrix1D xtest = mytr._x.viewRow(last);
+        double ytest = mytr._y[last];
+        double[] ytr = mytr._y;
+        double[] nc = mytr._ncScores;
+        double[] trainingNc = mytr._trainingNcScores;
+        int[] changed = mytr._changed;
+
+        int count;
+        mytr._nc.addExample(xtest, ytest);
+        try {
+            count = mytr._nc.updateNonConformityScores(mytr._x, ytr,
+                                                       nc, changed);
+        } finally {
+            mytr._nc.removeExample(xtest, ytest);
+        }
+        double ncScore = nc[last];
+
+        int size;
+        int lessCount = 0;
+        int equalCount = 0;
+        if (count < 0) {
+            // All scores may have changed: count them all and restore the
+            // training scores.
+            size = 0;
+            for (int i = 0; i < last; i++) {
+                if (!_useLabelConditionalCP || ytr[i] == ytest) {
+                    size++;
+                    int cmp = Double.compare(nc[i], ncScore);
+                    if (cmp < 0) {
+                        lessCount++;
+                    } else if (cmp == 0) {
+                        equalCount++;
+                    }
+                }
+            }
+            System.arraycopy(trainingNc, 0, nc, 0, last);
+        } else {
+            // Count against the sorted training scores and move the changed
+            // scores from their old to their new values.
+            double[] sorted =
+                mytr._sortedNcScores[_useLabelConditionalCP ? label : 0];
+            size = sorted.length;
+            lessCount = Util.lowerBound(sorted, 0, size, ncScore);
+            equalCount = Util.upperBound(sorted, lessCount, size, ncScore) -
+                         lessCount;
+            for (int k = 0; k < count; k++) {
+                int i = changed[k];
+                if (!_useLabelConditionalCP || ytr[i] == ytest) {
+                    int cmp = Double.compare(trainingNc[i], ncScore);
+                    if (cmp < 0) {
+                        lessCount--;
+                    } else if (cmp == 0) {
+                        equalCount--;
+                    }
+                    cmp = Double.compare(nc[i], ncScore);
+                    if (cmp < 0) {
+                        lessCount++;
+                    } else if (cmp == 0) {
+                        equalCount++;
+                    }
+                }
+                nc[i] = trainingNc[i];
+            }
+        }
+        return Util.calculatePValue(size, lessCount, equalCount);
+    }
+
+    /**
+     * Computes the non-conformity score of the last instance in ytr
+     * using the rest of the instances as the calibration set.
+     *
+     * @param nc       an <tt>double[]</tt> array containing the non-conformity scores of the training instances and, last, the test instance.
+     * @param ytr      an <tt>double[]</tt> array containing the training instances and, last, the assumed label of the test instance.
+     * @param useLabelConditionalCP a <tt>boolean</tt> indicating whether label conditional conformal classification should be used.
+     * @return a pair of the test instance's nonconformity score and an <tt>double[]</tt> array containing the sorted nonconformity scores of the calibration set.
+     */
+    private SimpleImmutableEntry<Double, double[]>
+        calculateNonConformityScore(double[] nc,
+                                    double[] ytr,
+                                    boolean  useLabelConditionalCP)
+    {
         double ncScore = nc[nc.length - 1];
         double[] ncCalibrationScores;
         if (useLabelConditionalCP) {
@@ -348,27 +613,141 @@ public class TransductiveConformalClassifier
     }
 
     /**
-     * Creates a local (n+1)-sized copy of the training set.
+     * Creates a local (n+1)-sized copy of the training set. The copy shares
+     * the training instances with the training set. If the non-conformity
+     * function is incremental the copy also gets its own copy of the
+     * non-conformity function trained on the training set.
      *
-     * @return a pair containing a <tt>DoubleMatrix2D</tt> containing the training instances and, last, a single slot for the test instance; and a <tt>double[]</tt> array containing the labels of the training set and, last, a single slot for the test instance.
+     * @return a new local training set.
      */
-    private
-        SimpleImmutableEntry<DoubleMatrix2D, double[]> createLocalTrainingSet()
+    private synchronized LocalTrainingSet createLocalTrainingSet()
     {
         // Create a local copy of the training set with one free slot
         // for the instance to be predicted.
+        // The training instances are shared, not copied.
         int n = _xtr.rows();
-        DoubleMatrix2D myXtr = _xtr.like(n + 1, _xtr.columns());
-        double[] myYtr = new double[n + 1];
-        // FIXME: This way to copy the data is probably very inefficient.
-        //        Most of the underlying data-structures are row-oriented
-        //        and this should be used to share the row data.
-        // FIXED for: libsvm.
-        for (int r = 0; r < n; r++) {
-            myXtr.viewRow(r).assign(_xtr.viewRow(r));
-            myYtr[r] = _ytr[r];
+        LocalTrainingSet mytr = new LocalTrainingSet();
+        mytr._x = new ExtendedDoubleMatrix2D(_xtr, 1);
+        mytr._y = Arrays.copyOf(_ytr, n + 1);
+        mytr._source = _nc;
+        if (_nc instanceof IIncrementalClassificationNonconformityFunction) {
+            if (_incrementalNc == null) {
+                // Train the non-conformity function once on the training set.
+                _incrementalNc =
+                    (IIncrementalClassificationNonconformityFunction)
+                        _nc.fitNew(_xtr, _ytr);
+                _incrementalNcScores = new double[n];
+                _incrementalNc.calculateNonConformityScores
+                    (_xtr, _ytr, _incrementalNcScores);
+                _incrementalSortedNcScores =
+                    sortNonConformityScores(_incrementalNcScores, _ytr);
+            }
+            mytr._nc = _incrementalNc.copy();
+            mytr._trainingNcScores = _incrementalNcScores;
+            mytr._sortedNcScores = _incrementalSortedNcScores;
+            mytr._ncScores = Arrays.copyOf(_incrementalNcScores, n + 1);
+            mytr._changed = new int[n];
+        }
+        return mytr;
+    }
+
+    /**
+     * Sorts the non-conformity scores of the training set, per label if
+     * label conditional CP is used.
+     *
+     * @param nc       the non-conformity scores of the training instances.
+     * @param ytr      the labels of the training instances.
+     * @return the sorted scores of all instances or, for label conditional CP, an array of the sorted scores for each label in _classes.
+     */
+    private double[][] sortNonConformityScores(double[] nc, double[] ytr)
+    {
+        double[][] sorted;
+        if (_useLabelConditionalCP) {
+            sorted = new double[_classes.length][];
+            int[] counts = new int[_classes.length];
+            for (int i = 0; i < ytr.length; i++) {
+                counts[Arrays.binarySearch(_classes, ytr[i])]++;
+            }
+            for (int c = 0; c < _classes.length; c++) {
+                sorted[c] = new double[counts[c]];
+                counts[c] = 0;
+            }
+            for (int i = 0; i < ytr.length; i++) {
+                int c = Arrays.binarySearch(_classes, ytr[i]);
+                sorted[c][counts[c]++] = nc[i];
+            }
+        } else {
+            sorted = new double[][] { Arrays.copyOf(nc, nc.length) };
+        }
+        for (double[] scores : sorted) {
+            Arrays.sort(scores);
+        }
+        return sorted;
+    }
+
+    /**
+     * Gets a local (n+1)-sized copy of the training set from the pool or
+     * creates a new one if the pool is empty. The copy must be returned
+     * with releaseLocalTrainingSet() when it is no longer used.
+     *
+     * @return a local training set as from createLocalTrainingSet().
+     */
+    private LocalTrainingSet acquireLocalTrainingSet()
+    {
+        LocalTrainingSet mytr = _trainingSetPool.poll();
+        if (mytr == null || !isLocalTrainingSetCurrent(mytr)) {
+            mytr = createLocalTrainingSet();
+        }
+        return mytr;
+    }
+
+    /**
+     * Returns a local training set to the pool. The set is dropped if the
+     * pool is full or the training set has been replaced since it was
+     * created.
+     *
+     * @param mytr  a local training set from acquireLocalTrainingSet().
+     */
+    private void releaseLocalTrainingSet(LocalTrainingSet mytr)
+    {
+        if (isLocalTrainingSetCurrent(mytr)) {
+            _trainingSetPool.offer(mytr);
         }
-        return new SimpleImmutableEntry<DoubleMatrix2D, double[]>(myXtr, myYtr);
+    }
+
+    private synchronized boolean isLocalTrainingSetCurrent
+        (LocalTrainingSet mytr)
+    {
+        return mytr._x.getBase() == _xtr && mytr._source == _nc;
+    }
+
+    private static ArrayBlockingQueue<LocalTrainingSet> createTrainingSetPool()
+    {
+        return new ArrayBlockingQueue<LocalTrainingSet>
+                       (Runtime.getRuntime().availableProcessors() + 1);
+    }
+
+    /**
+     * A local (n+1)-sized copy of the training set with one free slot for
+     * the test instance, for use by one thread at a time.
+     */
+    private static class LocalTrainingSet
+    {
+        // The training instances and labels followed by the test slot.
+        ExtendedDoubleMatrix2D _x;
+        double[] _y;
+        // The non-conformity function this set was created for.
+        IClassificationNonconformityFunction _source;
+        // For incremental non-conformity functions: a private copy of the
+        // trained non-conformity function, the (shared) scores of the
+        // training set, unsorted and sorted, a buffer for the (n+1) scores,
+        // which holds the training scores between predictions, and a buffer
+        // for the indices of the changed scores.
+        IIncrementalClassificationNonconformityFunction _nc;
+        double[] _trainingNcScores;
+        double[][] _sortedNcScores;
+        double[] _ncScores;
+        int[] _changed;
     }
 
     private void writeObject(ObjectOutputStream oos)
@@ -383,21 +762,13 @@ public class TransductiveConformalClassifier
         oos.writeObject(_classIndex);
         oos.writeObject(_useLabelConditionalCP);
         // Save the training set in a space efficient representation.
-        // FIXME: What representation is space efficient?
-        //        Colt SparseDoubleMatrix2D isn't.
         // FIXME: The training set is currently always loaded back into the
         //        classifier's preferred representation.
-        DoubleMatrix2D tmp_xtr;
-        if (_xtr instanceof se.hb.jcp.bindings.jlibsvm.SparseDoubleMatrix2D) {
-            tmp_xtr = _xtr;
-        } else {
-            tmp_xtr =
-                new se.hb.jcp.bindings.jlibsvm.SparseDoubleMatrix2D
-                        (_xtr.rows(),
-                         _xtr.columns());
-            tmp_xtr.assign(_xtr);
+        oos.writeBoolean(_xtr != null);
+        if (_xtr != null) {
+            CompressedSparseRowEncoding.write(oos, _xtr,
+                                              _saveTrainingSetAsFloat);
         }
-        oos.writeObject(tmp_xtr);
         oos.writeObject(_ytr);
     }
 
@@ -410,23 +781,27 @@ public class TransductiveConformalClassifier
         _classes = (Double[])ois.readObject();
         _classIndex = (SortedMap<Double, Integer>)ois.readObject();
         _useLabelConditionalCP = (boolean)ois.readObject();
-        DoubleMatrix2D tmp_xtr =
-            (DoubleMatrix2D)ois.readObject();
-        if(_nc != null && _nc.getClassifier() != null) {
-            _xtr = _nc.getClassifier().nativeStorageTemplate().
-                       like2D(tmp_xtr.rows(), tmp_xtr.columns());
-            _xtr.assign(tmp_xtr);
+        // Decode the training set straight into the classifier's
+        // preferred representation.
+        DoubleMatrix1D template;
+        if (_nc != null && _nc.getClassifier() != null) {
+            template = _nc.getClassifier().nativeStorageTemplate();
+        } else {
+            template = new se.hb.jcp.bindings.jlibsvm.SparseDoubleMatrix1D(0);
+        }
+        if (ois.readBoolean()) {
+            _xtr = CompressedSparseRowEncoding.read(ois, template);
         } else {
-            _xtr = tmp_xtr;
+            _xtr = null;
         }
         _ytr = (double[])ois.readObject();
+        _trainingSetPool = createTrainingSetPool();
     }
 
     abstract class ClassifyAction extends se.hb.jcp.util.ParallelizedAction
     {
         protected DoubleMatrix2D _x;
-        protected DoubleMatrix2D _myXtr;
-        protected double[]       _myYtr;
+        protected LocalTrainingSet _myTr;
 
         public ClassifyAction(DoubleMatrix2D x,
                               int first, int last)
@@ -439,21 +814,18 @@ public class TransductiveConformalClassifier
         protected void initialize(int first, int last)
         {
             super.initialize(first, last);
-            // Create a local copy of the training set with one free slot
+            // Get a local copy of the training set with one free slot
             // for the instance to be predicted.
-            SimpleImmutableEntry<DoubleMatrix2D, double[]> mytr =
-                 createLocalTrainingSet();
-            _myXtr = mytr.getKey();
-            _myYtr = mytr.getValue();
+            _myTr = acquireLocalTrainingSet();
         }
 
         @Override
         protected void finalize(int first, int last)
         {
             super.finalize(first, last);
-            // Allow faster reclamation.
-            _myXtr = null;
-            _myYtr = null;
+            // Hand the training set over to the next task.
+            releaseLocalTrainingSet(_myTr);
+            _myTr = null;
         }
     }
 
@@ -473,7 +845,7 @@ public class TransductiveConformalClassifier
         protected void compute(int i)
         {
             DoubleMatrix1D instance = _x.viewRow(i);
-            _response[i] = predict(instance, _myXtr, _myYtr);
+            _response[i] = predict(instance, _myTr);
         }
 
         @Override
@@ -500,7 +872,7 @@ public class TransductiveConformalClassifier
         {
             DoubleMatrix1D instance = _x.viewRow(i);
             DoubleMatrix1D pValues  = _response.viewRow(i);
-            predictPValues(instance, pValues, _myXtr, _myYtr);
+            predictPValues(instance, pValues, _myTr);
         }
 
         @Override
@@ -510,4 +882,58 @@ public class TransductiveConformalClassifier
                                              first, last);
         }
     }
+
+    class ClassifyLabelsAction extends ClassifyAction
+    {
+        DoubleMatrix2D _response;
+        boolean _nestedParallelism;
+        int _lastInstance;
+
+        /**
+         * Creates an action over the (instance, label) pairs of x with the
+         * pair index i * getLabels().length + label.
+         */
+        public ClassifyLabelsAction(DoubleMatrix2D x,
+                                    DoubleMatrix2D response,
+                                    boolean nestedParallelism,
+                                    int first, int last)
+        {
+            super(x, first, last);
+            _response = response;
+            _nestedParallelism = nestedParallelism;
+        }
+
+        @Override
+        protected void initialize(int first, int last)
+        {
+            super.initialize(first, last);
+            _lastInstance = -1;
+        }
+
+        @Override
+        protected void compute(int i)
+        {
+            int instance = i / _classes.length;
+            int label    = i % _classes.length;
+            if (instance != _lastInstance) {
+                _myTr._x.viewRow(_myTr._x.rows() - 1).
+                    assign(_x.viewRow(instance));
+                _lastInstance = instance;
+            }
+            _response.setQuick(instance, label, predictPValue(label, _myTr));
+        }
+
+        @Override
+        protected boolean isNestedParallelismAllowed()
+        {
+            return _nestedParallelism;
+        }
+
+        @Override
+        protected ParallelizedAction createSubtask(int first, int last)
+        {
+            return new ClassifyLabelsAction(_x, _response, _nestedParallelism,
+                                            first, last);
+        }
+    }
 }
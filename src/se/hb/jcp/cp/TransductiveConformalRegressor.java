@@ -1,5 +1,6 @@
 // JCP - Java Conformal Prediction framework
 // Copyright (C) 2014  Henrik Linusson
+// Copyright (C) 2024  Anders Gidenstam
 //
 // This library is free software: you can redistribute it and/or modify
 // it under the terms of the GNU Lesser General Public License as published
@@ -16,8 +17,702 @@
 //
 package se.hb.jcp.cp;
 
+import cern.colt.list.DoubleArrayList;
+import cern.colt.list.IntArrayList;
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.DenseDoubleMatrix2D;
+import cern.colt.matrix.impl.SparseDoubleMatrix1D;
+import cern.colt.matrix.linalg.Algebra;
+
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+import se.hb.jcp.io.CompressedSparseRowEncoding;
 import se.hb.jcp.nc.IRegressionNonconformityFunction;
+import se.hb.jcp.util.ExtendedDoubleMatrix2D;
+import se.hb.jcp.util.ParallelizedAction;
+
+/**
+ * Transductive conformal regressor.
+ *
+ * By default the exact ridge regression confidence machine
+ * [Vovk et al., Algorithmic Learning in a Random World, 2005] is used.
+ * There the non-conformity score of each example is the absolute residual
+ * of a ridge regression model trained on the training set and the test
+ * instance, which is a linear function of the test instance's assumed
+ * label. The prediction region is then found by sorting the endpoints of
+ * the label intervals where each training example is at least as
+ * non-conforming as the test instance, in O(n log n) time per prediction.
+ * The ridge regression model includes an intercept and uses dense
+ * (attributes+1)x(attributes+1) matrices, so it is intended for data sets
+ * with a moderate number of attributes.
+ *
+ * Alternatively, an arbitrary regression non-conformity function can be
+ * used by computing p-values over a grid of candidate labels. This requires
+ * fitting a new non-conformity function for each grid point and test
+ * instance and is parallelized over the grid points.
+ *
+ * The prediction intervals are the smallest intervals containing the
+ * prediction regions.
+ */
+public class TransductiveConformalRegressor
+    implements IConformalRegressor, java.io.Serializable
+{
+    private static final boolean PARALLEL = true;
 
-public class TransductiveConformalRegressor {
     private IRegressionNonconformityFunction _nc;
+    private double _ridge;
+    private int _gridSize;
+
+    private DoubleMatrix2D _xtr;
+    private double[] _ytr;
+
+    // For the exact ridge regression confidence machine: the training
+    // instances with an intercept attribute last, the inverse of the
+    // regularized Gram matrix, the ridge regression weights and the fitted
+    // values of the training instances.
+    private transient int[][]    _rowIndices;
+    private transient double[][] _rowValues;
+    private transient double[][] _inverseGram;
+    private transient double[]   _weights;
+    private transient double[]   _fitted;
+    // For the grid fallback: the candidate labels in ascending order.
+    private transient double[]   _grid;
+
+    /**
+     * Creates a transductive conformal regressor using the exact ridge
+     * regression confidence machine.
+     *
+     * @param ridge    the ridge (L2 regularization) parameter. Must be positive.
+     */
+    public TransductiveConformalRegressor(double ridge)
+    {
+        if (!(ridge > 0)) {
+            throw new IllegalArgumentException
+                          ("The ridge parameter must be positive.");
+        }
+        _ridge = ridge;
+    }
+
+    /**
+     * Creates a transductive conformal regressor using the supplied
+     * non-conformity function evaluated over a grid of candidate labels.
+     * The grid spans the range of the training labels extended by half its
+     * width in each direction.
+     *
+     * @param nc          the untrained non-conformity function to use.
+     * @param gridSize    the number of candidate labels. At least 2.
+     */
+    public TransductiveConformalRegressor(IRegressionNonconformityFunction nc,
+                                          int gridSize)
+    {
+        if (gridSize < 2) {
+            throw new IllegalArgumentException
+                          ("The grid must have at least 2 points.");
+        }
+        _nc = nc;
+        _gridSize = gridSize;
+    }
+
+    /**
+     * Trains this conformal regressor using the supplied data. A
+     * transductive conformal regressor has no separate calibration set so
+     * the training and calibration sets are used together.
+     *
+     * @param xtr           the attributes of the training instances.
+     * @param ytr           the targets of the training instances.
+     * @param xcal          the attributes of the calibration instances; or null.
+     * @param ycal          the targets of the calibration instances; or null.
+     */
+    @Override
+    public void fit(DoubleMatrix2D xtr, double[] ytr,
+                    DoubleMatrix2D xcal, double[] ycal)
+    {
+        if (xcal == null || xcal.rows() == 0) {
+            fit(xtr, ytr);
+        } else {
+            // The instances are shared, not copied.
+            double[] y = Arrays.copyOf(ytr, ytr.length + ycal.length);
+            System.arraycopy(ycal, 0, y, ytr.length, ycal.length);
+            fit(new ExtendedDoubleMatrix2D(xtr, xcal), y);
+        }
+    }
+
+    /**
+     * Trains this conformal regressor using the supplied data.
+     *
+     * @param xtr           the attributes of the training instances.
+     * @param ytr           the targets of the training instances.
+     */
+    public void fit(DoubleMatrix2D xtr, double[] ytr)
+    {
+        _xtr = xtr;
+        _ytr = ytr;
+        initialize();
+    }
+
+    /**
+     * Makes a prediction for the instance x.
+     *
+     * @param x             the instance.
+     * @param confidence    the confidence level.
+     * @param bounds        a <tt>double[]</tt> array of length 2 to store the lower and upper bound of the prediction interval.
+     * @return the point prediction.
+     */
+    @Override
+    public double predict(DoubleMatrix1D x, double confidence,
+                          /*out*/ double[] bounds)
+    {
+        double[] interval = predictIntervals(x, confidence);
+        bounds[0] = interval[0];
+        bounds[1] = interval[1];
+        if (_nc != null) {
+            return _nc.predict(x);
+        } else {
+            int[] xi = new int[_inverseGram.length];
+            double[] xv = new double[_inverseGram.length];
+            int m = getNonZeros(x, xi, xv);
+            return dot(xi, xv, m, _weights);
+        }
+    }
+
+    /**
+     * Computes the prediction interval for the instance x.
+     *
+     * @param x             the instance.
+     * @param confidence    the confidence level.
+     * @return the predicted interval as {lower, upper}; or {NaN, NaN} if the prediction region is empty.
+     */
+    @Override
+    public double[] predictIntervals(DoubleMatrix1D x, double confidence)
+    {
+        if (_nc != null) {
+            return predictIntervalGrid(x, 1 - confidence);
+        } else {
+            return predictIntervalRidgeRegression(x, 1 - confidence);
+        }
+    }
+
+    /**
+     * Computes the prediction interval for each instance in x.
+     * The method is parallellized over the instances.
+     *
+     * @param x             the instances.
+     * @param confidence    the confidence level.
+     * @return the predicted interval as {lower, upper} for each instance.
+     */
+    @Override
+    public double[][] predictIntervals(DoubleMatrix2D x, double confidence)
+    {
+        int n = x.rows();
+        double[][] intervals = new double[n][];
+        if (!PARALLEL) {
+            for (int i = 0; i < n; i++) {
+                intervals[i] = predictIntervals(x.viewRow(i), confidence);
+            }
+        } else {
+            PredictIntervalsAction all =
+                new PredictIntervalsAction(x, intervals, confidence, 0, n);
+            all.start();
+        }
+        return intervals;
+    }
+
+    @Override
+    public boolean isTrained()
+    {
+        return _xtr != null;
+    }
+
+    @Override
+    public int getAttributeCount()
+    {
+        if (_xtr != null) {
+            return _xtr.columns();
+        } else {
+            return -1;
+        }
+    }
+
+    @Override
+    public DoubleMatrix1D nativeStorageTemplate()
+    {
+        if (_nc != null) {
+            return _nc.nativeStorageTemplate();
+        } else {
+            return new SparseDoubleMatrix1D(0);
+        }
+    }
+
+    /**
+     * Returns the non-conformity function used by the grid fallback.
+     *
+     * @return the non-conformity function; or null if the exact ridge regression confidence machine is used.
+     */
+    public IRegressionNonconformityFunction getNonconformityFunction()
+    {
+        return _nc;
+    }
+
+    private void initialize()
+    {
+        if (_nc != null) {
+            // The non-conformity function trained on the training set is
+            // used for point predictions.
+            _nc.fit(_xtr, _ytr);
+        }
+        initializeTransientState();
+    }
+
+    /**
+     * Builds the state derived from the training set that is not saved,
+     * i.e. the ridge regression caches or the grid. The non-conformity
+     * function, if any, must already be trained.
+     */
+    private void initializeTransientState()
+    {
+        if (_nc != null) {
+            initializeGrid();
+        } else {
+            initializeRidgeRegression();
+        }
+    }
+
+    private void initializeRidgeRegression()
+    {
+        int n = _xtr.rows();
+        int p = _xtr.columns() + 1;
+        _rowIndices = new int[n][];
+        _rowValues = new double[n][];
+        double[][] gram = new double[p][p];
+        double[] xty = new double[p];
+        IntArrayList indexList = new IntArrayList();
+        DoubleArrayList valueList = new DoubleArrayList();
+        for (int r = 0; r < n; r++) {
+            _xtr.viewRow(r).getNonZeros(indexList, valueList);
+            int m = indexList.size();
+            int[] indices = new int[m + 1];
+            double[] values = new double[m + 1];
+            for (int k = 0; k < m; k++) {
+                indices[k] = indexList.getQuick(k);
+                values[k]  = valueList.getQuick(k);
+            }
+            // The intercept attribute.
+            indices[m] = p - 1;
+            values[m]  = 1.0;
+            for (int k = 0; k <= m; k++) {
+                xty[indices[k]] += values[k] * _ytr[r];
+                for (int l = 0; l <= m; l++) {
+                    gram[indices[k]][indices[l]] += values[k] * values[l];
+                }
+            }
+            _rowIndices[r] = indices;
+            _rowValues[r] = values;
+        }
+        for (int k = 0; k < p; k++) {
+            gram[k][k] += _ridge;
+        }
+        _inverseGram =
+            Algebra.DEFAULT.inverse(new DenseDoubleMatrix2D(gram)).toArray();
+        _weights = new double[p];
+        for (int k = 0; k < p; k++) {
+            double sum = 0.0;
+            for (int l = 0; l < p; l++) {
+                sum += _inverseGram[k][l] * xty[l];
+            }
+            _weights[k] = sum;
+        }
+        _fitted = new double[n];
+        for (int r = 0; r < n; r++) {
+            _fitted[r] = dot(_rowIndices[r], _rowValues[r], _weights);
+        }
+    }
+
+    private void initializeGrid()
+    {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double y : _ytr) {
+            min = Math.min(min, y);
+            max = Math.max(max, y);
+        }
+        double width = max - min;
+        if (!(width > 0)) {
+            width = 1.0;
+        }
+        double start = min - width / 2;
+        double step = 2 * width / (_gridSize - 1);
+        _grid = new double[_gridSize];
+        for (int j = 0; j < _gridSize; j++) {
+            _grid[j] = start + j * step;
+        }
+    }
+
+    /**
+     * Computes the prediction interval for the instance x with the exact
+     * ridge regression confidence machine.
+     *
+     * @param x               the instance.
+     * @param significance    the significance level.
+     * @return the predicted interval as {lower, upper}.
+     */
+    private double[] predictIntervalRidgeRegression(DoubleMatrix1D x,
+                                                    double significance)
+    {
+        int n = _fitted.length;
+        int p = _inverseGram.length;
+        int[] xi = new int[p];
+        double[] xv = new double[p];
+        int m = getNonZeros(x, xi, xv);
+
+        // With M = X'X + aI for the training set and the test instance and
+        // K the inverse of the training set's M, the Sherman-Morrison
+        // formula gives M^-1 x = K x / (1 + x'K x). The residuals for the
+        // assumed label y of the test instance are then A + B y.
+        double[] mx = new double[p];
+        for (int k = 0; k < p; k++) {
+            double sum = 0.0;
+            for (int l = 0; l < m; l++) {
+                sum += _inverseGram[k][xi[l]] * xv[l];
+            }
+            mx[k] = sum;
+        }
+        double s = dot(xi, xv, m, mx);
+        for (int k = 0; k < p; k++) {
+            mx[k] /= 1 + s;
+        }
+        double xw = dot(xi, xv, m, _weights);
+
+        double[] a = new double[n];
+        double[] b = new double[n];
+        for (int r = 0; r < n; r++) {
+            double rm = dot(_rowIndices[r], _rowValues[r], mx);
+            a[r] = _ytr[r] - (_fitted[r] - rm * xw);
+            b[r] = -rm;
+        }
+        double aTest = -xw / (1 + s);
+        double bTest = 1 / (1 + s);
+        return computeRegion(a, b, aTest, bTest, significance);
+    }
+
+    /**
+     * Computes the smallest interval containing the labels y for which the
+     * p-value (N(y) + 1)/(n + 1) exceeds the significance level, where N(y)
+     * is the number of training examples i with
+     * |a[i] + b[i] y| &gt;= |aTest + bTest y|.
+     *
+     * @param a               the constant parts of the training residuals.
+     * @param b               the label coefficients of the training residuals.
+     * @param aTest           the constant part of the test residual.
+     * @param bTest           the label coefficient of the test residual. Must be positive.
+     * @param significance    the significance level.
+     * @return the interval as {lower, upper}; or {NaN, NaN} if the region is empty.
+     */
+    static double[] computeRegion(double[] a, double[] b,
+                                  double aTest, double bTest,
+                                  double significance)
+    {
+        final double inf = Double.POSITIVE_INFINITY;
+        int n = a.length;
+        // The set of labels where example i is at least as non-conforming
+        // as the test instance is an interval, a ray, the complement of an
+        // interval or everything. Collect it as at most two closed intervals.
+        double[] starts = new double[2 * n];
+        double[] ends = new double[2 * n];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            double ai = a[i];
+            double bi = b[i];
+            if (bi < 0) {
+                ai = -ai;
+                bi = -bi;
+            }
+            if (bi == bTest) {
+                double y = -(ai + aTest) / (2 * bTest);
+                if (ai > aTest) {
+                    starts[count] = y;
+                    ends[count++] = inf;
+                } else if (ai < aTest) {
+                    starts[count] = -inf;
+                    ends[count++] = y;
+                } else {
+                    starts[count] = -inf;
+                    ends[count++] = inf;
+                }
+            } else {
+                double u = -(ai - aTest) / (bi - bTest);
+                double v = -(ai + aTest) / (bi + bTest);
+                double lo = Math.min(u, v);
+                double hi = Math.max(u, v);
+                if (bi < bTest) {
+                    starts[count] = lo;
+                    ends[count++] = hi;
+                } else {
+                    starts[count] = -inf;
+                    ends[count++] = lo;
+                    starts[count] = hi;
+                    ends[count++] = inf;
+                }
+            }
+        }
+        Arrays.sort(starts, 0, count);
+        Arrays.sort(ends, 0, count);
+
+        // y is in the region iff N(y) > threshold.
+        double threshold = significance * (n + 1) - 1;
+        double lower = Double.NaN;
+        double upper = Double.NaN;
+        // Sweep over the distinct finite endpoints in ascending order while
+        // counting the starts <= y, the ends < y and the ends <= y.
+        int s = 0;
+        while (s < count && starts[s] == -inf) {
+            s++;
+        }
+        int eLt = 0;
+        int eLe = 0;
+        if (s > threshold) {
+            // The gap before the first endpoint.
+            lower = -inf;
+            upper = -inf;
+        }
+        while (true) {
+            double y = inf;
+            if (s < count) {
+                y = starts[s];
+            }
+            if (eLe < count) {
+                y = Math.min(y, ends[eLe]);
+            }
+            if (y == inf) {
+                break;
+            }
+            while (s < count && starts[s] <= y) {
+                s++;
+            }
+            while (eLe < count && ends[eLe] <= y) {
+                eLe++;
+            }
+            // The point y.
+            if (s - eLt > threshold) {
+                if (Double.isNaN(lower)) {
+                    lower = y;
+                }
+                upper = y;
+            }
+            // The gap after y.
+            if (s - eLe > threshold) {
+                if (Double.isNaN(lower)) {
+                    lower = y;
+                }
+                upper = inf;
+            }
+            eLt = eLe;
+        }
+        return new double[] { lower, upper };
+    }
+
+    /**
+     * Computes the prediction interval for the instance x with the
+     * non-conformity function over the grid of candidate labels.
+     *
+     * @param x               the instance.
+     * @param significance    the significance level.
+     * @return the predicted interval as {lower, upper}.
+     */
+    private double[] predictIntervalGrid(DoubleMatrix1D x,
+                                         double significance)
+    {
+        double[] pValues = new double[_grid.length];
+        if (!PARALLEL) {
+            GridPValuesAction all =
+                new GridPValuesAction(x, pValues, 0, _grid.length);
+            all.initialize(0, _grid.length);
+            for (int j = 0; j < _grid.length; j++) {
+                all.compute(j);
+            }
+        } else {
+            GridPValuesAction all =
+                new GridPValuesAction(x, pValues, 0, _grid.length);
+            all.start();
+        }
+        double lower = Double.NaN;
+        double upper = Double.NaN;
+        for (int j = 0; j < _grid.length; j++) {
+            if (pValues[j] > significance) {
+                if (Double.isNaN(lower)) {
+                    lower = (j == 0) ? Double.NEGATIVE_INFINITY : _grid[j];
+                }
+                upper = (j == _grid.length - 1) ? Double.POSITIVE_INFINITY
+                                                : _grid[j];
+            }
+        }
+        return new double[] { lower, upper };
+    }
+
+    /**
+     * Stores the non-zero attributes of x followed by the intercept
+     * attribute in indices and values.
+     *
+     * @return the number of stored attributes.
+     */
+    private static int getNonZeros(DoubleMatrix1D x,
+                                   int[] indices, double[] values)
+    {
+        IntArrayList indexList = new IntArrayList();
+        DoubleArrayList valueList = new DoubleArrayList();
+        x.getNonZeros(indexList, valueList);
+        int m = 0;
+        for (int k = 0; k < indexList.size(); k++) {
+            // Attributes beyond the training set's are ignored.
+            if (indexList.getQuick(k) < indices.length - 1) {
+                indices[m] = indexList.getQuick(k);
+                values[m++] = valueList.getQuick(k);
+            }
+        }
+        indices[m] = indices.length - 1;
+        values[m++] = 1.0;
+        return m;
+    }
+
+    private static double dot(int[] indices, double[] values, int m,
+                              double[] w)
+    {
+        double sum = 0.0;
+        for (int k = 0; k < m; k++) {
+            sum += values[k] * w[indices[k]];
+        }
+        return sum;
+    }
+
+    private static double dot(int[] indices, double[] values, double[] w)
+    {
+        return dot(indices, values, indices.length, w);
+    }
+
+    private void writeObject(ObjectOutputStream oos)
+        throws java.io.IOException
+    {
+        oos.writeObject(_nc);
+        oos.writeDouble(_ridge);
+        oos.writeInt(_gridSize);
+        // Save the training set in a space efficient representation.
+        oos.writeBoolean(_xtr != null);
+        if (_xtr != null) {
+            CompressedSparseRowEncoding.write(oos, _xtr, false);
+        }
+        oos.writeObject(_ytr);
+    }
+
+    private void readObject(ObjectInputStream ois)
+        throws ClassNotFoundException, java.io.IOException
+    {
+        _nc = (IRegressionNonconformityFunction)ois.readObject();
+        _ridge = ois.readDouble();
+        _gridSize = ois.readInt();
+        if (ois.readBoolean()) {
+            DoubleMatrix1D template = null;
+            if (_nc != null) {
+                template = _nc.nativeStorageTemplate();
+            }
+            _xtr = CompressedSparseRowEncoding.read(ois, template);
+        } else {
+            _xtr = null;
+        }
+        _ytr = (double[])ois.readObject();
+        if (_xtr != null) {
+            // The saved non-conformity function is already trained.
+            initializeTransientState();
+        }
+    }
+
+    class PredictIntervalsAction extends ParallelizedAction
+    {
+        DoubleMatrix2D _x;
+        double[][] _intervals;
+        double _confidence;
+
+        public PredictIntervalsAction(DoubleMatrix2D x,
+                                      double[][] intervals,
+                                      double confidence,
+                                      int first, int last)
+        {
+            super(first, last);
+            _x = x;
+            _intervals = intervals;
+            _confidence = confidence;
+        }
+
+        @Override
+        protected void compute(int i)
+        {
+            _intervals[i] = predictIntervals(_x.viewRow(i), _confidence);
+        }
+
+        @Override
+        protected ParallelizedAction createSubtask(int first, int last)
+        {
+            return new PredictIntervalsAction(_x, _intervals, _confidence,
+                                              first, last);
+        }
+    }
+
+    class GridPValuesAction extends ParallelizedAction
+    {
+        DoubleMatrix1D _x;
+        double[] _pValues;
+        DoubleMatrix2D _myXtr;
+        double[] _myYtr;
+        double[] _ncScores;
+
+        public GridPValuesAction(DoubleMatrix1D x,
+                                 double[] pValues,
+                                 int first, int last)
+        {
+            super(first, last);
+            _x = x;
+            _pValues = pValues;
+        }
+
+        @Override
+        protected void initialize(int first, int last)
+        {
+            // Set up a local (n+1)-sized training set with the test
+            // instance last. The training instances are shared, not copied.
+            int n = _xtr.rows();
+            _myXtr = new ExtendedDoubleMatrix2D(_xtr, 1);
+            _myXtr.viewRow(n).assign(_x);
+            _myYtr = Arrays.copyOf(_ytr, n + 1);
+            _ncScores = new double[n + 1];
+        }
+
+        @Override
+        protected void compute(int j)
+        {
+            int n = _ytr.length;
+            _myYtr[n] = _grid[j];
+            IRegressionNonconformityFunction nc =
+                _nc.fitNew(_myXtr, _myYtr);
+            nc.calculateNonConformityScores(_myXtr, _myYtr, _ncScores);
+            double[] calibrationScores = Arrays.copyOf(_ncScores, n);
+            Arrays.sort(calibrationScores);
+            _pValues[j] = Util.calculatePValue(_ncScores[n],
+                                               calibrationScores);
+        }
+
+        @Override
+        protected void finalize(int first, int last)
+        {
+            _myXtr = null;
+            _myYtr = null;
+            _ncScores = null;
+        }
+
+        @Override
+        protected ParallelizedAction createSubtask(int first, int last)
+        {
+            return new GridPValuesAction(_x, _pValues, first, last);
+        }
+    }
 }
@@ -23,6 +23,9 @@ import java.util.concurrent.ThreadLocalRandom;
 public class Util
 {
     private static final boolean USE_SMOOTHING = true;
+    // The smallest number of calibration scores for which a sorted walk
+    // can beat binary searches, which are cache resident below this size.
+    private static final int MIN_WALK_CALIBRATION_SIZE = 1 << 20;
 
     public static double calculatePValue(double nc_pred, double[] nc_cal)
     {
@@ -63,4 +66,248 @@ public class Util
         }
         return p_value;
     }
+
+    /**
+     * Computes the critical non-conformity score for a significance level,
+     * i.e. the largest score t such that a score s has an unsmoothed p-value
+     * greater than the significance level exactly when s &lt;= t.
+     * Smoothing only lowers the p-value of scores tied with calibration
+     * scores, so the resulting region can be larger, never smaller, than the
+     * smoothed one.
+     *
+     * @param nc_cal             the sorted calibration scores.
+     * @param significanceLevel  the significance level.
+     * @return the critical score; positive infinity if every score passes or NaN if no score passes.
+     */
+    public static double calculateCriticalScore(double[] nc_cal,
+                                                double significanceLevel)
+    {
+        int n = nc_cal.length;
+        int j = calculateCriticalRank(n, significanceLevel);
+        if (j < 0) {
+            return Double.NaN;
+        } else if (j >= n) {
+            return Double.POSITIVE_INFINITY;
+        } else {
+            // At most j calibration scores are less than s iff s <= nc_cal[j].
+            return nc_cal[j];
+        }
+    }
+
+    /**
+     * Computes the rank of the critical non-conformity score for a
+     * significance level among n sorted calibration scores, i.e. the
+     * largest number j of calibration scores less than a score s for which
+     * the unsmoothed p-value of s is greater than the significance level.
+     *
+     * @param n                  the number of calibration scores.
+     * @param significanceLevel  the significance level.
+     * @return the rank of the critical score; -1 if no score passes or n if every score passes.
+     */
+    public static int calculateCriticalRank(int n, double significanceLevel)
+    {
+        // The unsmoothed p-value is (n - lt + 1)/(n + 1), where lt is the
+        // number of calibration scores less than s. Find the largest lt
+        // that passes using the same arithmetic as calculatePValue().
+        int j = (int)Math.ceil((n + 1)*(1.0 - significanceLevel)) - 1;
+        j = Math.max(-1, Math.min(j, n));
+        while (j < n && (n - (j + 1) + 1) / (n + 1.0) > significanceLevel) {
+            j++;
+        }
+        while (j >= 0 && !((n - j + 1) / (n + 1.0) > significanceLevel)) {
+            j--;
+        }
+        return j;
+    }
+
+    /**
+     * Computes the p-value of a non-conformity score from the number of
+     * calibration scores less than and equal to it. The result is the same
+     * as that of calculatePValue(), with a fresh smoothing theta per call.
+     *
+     * @param n           the number of calibration scores.
+     * @param lessCount   the number of calibration scores less than the score.
+     * @param equalCount  the number of calibration scores equal to the score.
+     * @return the p-value.
+     */
+    public static double calculatePValue(int n, int lessCount, int equalCount)
+    {
+        if (equalCount == 0 || !USE_SMOOTHING) {
+            return (n - lessCount + 1) / (n + 1.0);
+        } else {
+            // Smoothed p-value according to [Vovk, ALRW WP#5, 2012].
+            double theta = ThreadLocalRandom.current().nextDouble(1.0);
+            return ((n - lessCount - equalCount) + theta * (equalCount + 1))
+                   / (n + 1.0);
+        }
+    }
+
+    /**
+     * Computes the p-values for a batch of non-conformity scores against the
+     * same sorted calibration scores. The scores are sorted and walked
+     * against nc_cal in one merge pass. Each step of the walk is a galloping
+     * (exponential) search from the previous position, so a batch of k
+     * scores costs O(k log(n/k)) comparisons, which is never more than a
+     * binary search per score nor a linear walk over nc_cal. Sorting only
+     * pays off for large batches against calibration scores too many to
+     * stay in the cache; other batches are searched one score at a time.
+     * The results are the same as calling calculatePValue() for each score.
+     *
+     * The scores are read from nc_pred[offset + j*stride] for j in
+     * [0, count) and the p-values are stored at the same indices in
+     * p_values. nc_pred and p_values may be the same array.
+     *
+     * @param nc_pred   the non-conformity scores.
+     * @param offset    the index of the first score.
+     * @param stride    the distance between consecutive scores.
+     * @param count     the number of scores.
+     * @param nc_cal    the sorted calibration scores.
+     * @param p_values  a <tt>double[]</tt> array to store the p-values.
+     */
+    public static void calculatePValues(double[] nc_pred,
+                                        int offset, int stride, int count,
+                                        double[] nc_cal,
+                                        double[] p_values)
+    {
+        if (count == 0) {
+            return;
+        }
+        int n = nc_cal.length;
+        if (n < MIN_WALK_CALIBRATION_SIZE ||
+            (long)count * (32 - Integer.numberOfLeadingZeros(n)) < n) {
+            // Binary searches are cheaper than sorting the batch.
+            for (int j = 0; j < count; j++) {
+                int i = offset + j*stride;
+                double key = nc_pred[i];
+                int lt = lowerBound(nc_cal, 0, n, key);
+                int eq = gallopUpperBound(nc_cal, lt, n, key) - lt;
+                p_values[i] = calculatePValue(n, lt, eq);
+            }
+            return;
+        }
+        double[] keys  = new double[count];
+        int[]    order = new int[count];
+        for (int j = 0; j < count; j++) {
+            keys[j]  = nc_pred[offset + j*stride];
+            order[j] = j;
+        }
+        sortIndices(keys, order, new int[count], 0, count);
+
+        int lt = 0;
+        int eq = -1;
+        double previous = Double.NaN;
+        for (int j = 0; j < count; j++) {
+            double key = keys[order[j]];
+            if (eq < 0 || Double.compare(key, previous) != 0) {
+                // lt is the number of calibration scores less than key and
+                // eq is the number of calibration scores equal to key.
+                lt = gallopLowerBound(nc_cal, lt, n, key);
+                eq = gallopUpperBound(nc_cal, lt, n, key) - lt;
+                previous = key;
+            }
+            // Each tied score gets its own theta.
+            p_values[offset + order[j]*stride] = calculatePValue(n, lt, eq);
+        }
+    }
+
+    /**
+     * Returns the index of the first element in a[first, last) that is not
+     * less than key, or last if there is none. The search gallops from
+     * first, so it is cheap if the result is close to first.
+     */
+    static int gallopLowerBound(double[] a, int first, int last,
+                                double key)
+    {
+        // Find a bracket [first, first + step) that contains the result.
+        int step = 1;
+        while (first + step < last &&
+               Double.compare(a[first + step - 1], key) < 0) {
+            first += step;
+            step <<= 1;
+        }
+        return lowerBound(a, first, Math.min(first + step, last), key);
+    }
+
+    /**
+     * Returns the index of the first element in a[first, last) that is
+     * greater than key, or last if there is none. The search gallops from
+     * first, so it is cheap if the result is close to first.
+     */
+    static int gallopUpperBound(double[] a, int first, int last,
+                                double key)
+    {
+        int step = 1;
+        while (first + step < last &&
+               Double.compare(a[first + step - 1], key) <= 0) {
+            first += step;
+            step <<= 1;
+        }
+        return upperBound(a, first, Math.min(first + step, last), key);
+    }
+
+    /**
+     * Returns the index of the first element in a[first, last) that is not
+     * less than key, or last if there is none.
+     */
+    static int lowerBound(double[] a, int first, int last,
+                          double key)
+    {
+        while (first < last) {
+            int middle = (first + last) >>> 1;
+            if (Double.compare(a[middle], key) < 0) {
+                first = middle + 1;
+            } else {
+                last = middle;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Returns the index of the first element in a[first, last) that is
+     * greater than key, or last if there is none.
+     */
+    static int upperBound(double[] a, int first, int last,
+                          double key)
+    {
+        while (first < last) {
+            int middle = (first + last) >>> 1;
+            if (Double.compare(a[middle], key) <= 0) {
+                first = middle + 1;
+            } else {
+                last = middle;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Sorts order[first, last) so that keys[order[i]] is ascending
+     * (stable merge sort using the ordering of Double.compare()).
+     */
+    private static void sortIndices(double[] keys, int[] order, int[] tmp,
+                                    int first, int last)
+    {
+        if (last - first < 2) {
+            return;
+        }
+        int middle = (first + last) >>> 1;
+        sortIndices(keys, order, tmp, first, middle);
+        sortIndices(keys, order, tmp, middle, last);
+        if (Double.compare(keys[order[middle - 1]], keys[order[middle]]) <= 0) {
+            // Already in order.
+            return;
+        }
+        System.arraycopy(order, first, tmp, first, last - first);
+        int i = first;
+        int j = middle;
+        for (int k = first; k < last; k++) {
+            if (j >= last ||
+                (i < middle && Double.compare(keys[tmp[i]], keys[tmp[j]]) <= 0)) {
+                order[k] = tmp[i++];
+            } else {
+                order[k] = tmp[j++];
+            }
+        }
+    }
 }
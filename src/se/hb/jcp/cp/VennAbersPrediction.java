@@ -0,0 +1,86 @@
+// JCP - Java Conformal Prediction framework
+// Copyright (C) 2024  Anders Gidenstam
+//
+// This library is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+package se.hb.jcp.cp;
+
+/**
+ * Represents a prediction made by a Venn-ABERS predictor for a binary
+ * classification problem. The probabilities are those of the second
+ * class/label in the order given by the predictor's getLabels().
+ *
+ * @author anders.gidenstam(at)hb.se
+ */
+public class VennAbersPrediction
+{
+    private final InductiveVennAbersPredictor _source;
+    private final double _lower;
+    private final double _upper;
+
+    public VennAbersPrediction(InductiveVennAbersPredictor source,
+                               double lower,
+                               double upper)
+    {
+        _source = source;
+        _lower = lower;
+        _upper = upper;
+    }
+
+    /**
+     * Returns the lower end, p0, of the probability interval for the second
+     * class/label.
+     *
+     * @return the lower probability.
+     */
+    public double getLowerProbability()
+    {
+        return _lower;
+    }
+
+    /**
+     * Returns the upper end, p1, of the probability interval for the second
+     * class/label.
+     *
+     * @return the upper probability.
+     */
+    public double getUpperProbability()
+    {
+        return _upper;
+    }
+
+    /**
+     * Returns the probability for the second class/label obtained by
+     * merging the interval [p0, p1] into p1 / (1 - p0 + p1), which is
+     * optimal for log-loss.
+     *
+     * @return the merged probability.
+     */
+    public double getProbability()
+    {
+        return InductiveVennAbersPredictor.mergeProbabilities(_lower, _upper);
+    }
+
+    /**
+     * Returns the class/label point prediction, i.e. the class/label with
+     * the largest merged probability.
+     *
+     * @return the predicted class/label.
+     */
+    public double getLabelPointPrediction()
+    {
+        Double[] labels = _source.getLabels();
+        return getProbability() > 0.5 ? labels[1] : labels[0];
+    }
+}
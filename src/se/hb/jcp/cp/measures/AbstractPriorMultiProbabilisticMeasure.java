@@ -18,6 +18,8 @@ package se.hb.jcp.cp.measures;
 
 import se.hb.jcp.cp.ConformalClassification;
 import se.hb.jcp.cp.ConformalMultiProbabilisticClassification;
+import se.hb.jcp.cp.ConformalMultiProbabilisticClassifier;
+import se.hb.jcp.cp.IConformalClassifications;
 
 /**
  * The prior measure depends only on the prediction made.
@@ -32,13 +34,37 @@ public abstract class AbstractPriorMultiProbabilisticMeasure
     implements IPriorMultiProbabilisticMeasure
 {
     @Override
-    public abstract double compute(ConformalMultiProbabilisticClassification prediction);
+    public double compute(ConformalMultiProbabilisticClassification prediction)
+    {
+        return compute(prediction, 0);
+    }
 
     @Override
     public double compute(ConformalClassification prediction)
     {
-        if (prediction instanceof ConformalMultiProbabilisticClassification) {
-            return compute((ConformalMultiProbabilisticClassification)prediction);
+        return compute(prediction, 0);
+    }
+
+    /**
+     * Compute the measure for one of several predictions made by a
+     * conformal multi-probabilistic classifier.
+     * @param source       the conformal multi-probabilistic classifier.
+     * @param predictions  the predictions.
+     * @param row          the index of the prediction in the batch.
+     * @return             the measure for the selected prediction.
+     */
+    protected abstract double compute(ConformalMultiProbabilisticClassifier source,
+                                      IConformalClassifications predictions,
+                                      int row);
+
+    @Override
+    public double compute(IConformalClassifications predictions, int row)
+    {
+        if (predictions.getSource() instanceof
+            ConformalMultiProbabilisticClassifier) {
+            return compute((ConformalMultiProbabilisticClassifier)
+                               predictions.getSource(),
+                           predictions, row);
         } else {
             return Double.NaN;
         }
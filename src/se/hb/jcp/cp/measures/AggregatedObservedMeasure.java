@@ -17,6 +17,7 @@
 package se.hb.jcp.cp.measures;
 
 import se.hb.jcp.cp.ConformalClassification;
+import se.hb.jcp.cp.IConformalClassifications;
 
 /**
  * Maintains a running average of an observed measure.
@@ -51,6 +52,18 @@ public class AggregatedObservedMeasure
         _sum += _measure.compute(prediction, trueLabel);
     }
 
+    /**
+     * Adds a prediction in a batch of predictions to the aggregated measure.
+     * @param predictions  the predictions.
+     * @param row          the index of the prediction in the batch.
+     * @param trueLabel    the true label of the instance.
+     */
+    public void add(IConformalClassifications predictions, int row, double trueLabel)
+    {
+        _n++;
+        _sum += _measure.compute(predictions, row, trueLabel);
+    }
+
     /**
      * Gets the current number of observations of the measure.
      * @return the current number of observations.
@@ -17,6 +17,7 @@
 package se.hb.jcp.cp.measures;
 
 import se.hb.jcp.cp.ConformalClassification;
+import se.hb.jcp.cp.IConformalClassifications;
 
 /**
  * Maintains running averages for a set of observed measures.
@@ -75,6 +76,19 @@ public class AggregatedObservedMeasures
         }
     }
 
+    /**
+     * Adds a prediction in a batch of predictions to the aggregated measures.
+     * @param predictions  the predictions.
+     * @param row          the index of the prediction in the batch.
+     * @param trueLabel    the true label of the instance.
+     */
+    public void add(IConformalClassifications predictions, int row, double trueLabel)
+    {
+        for (AggregatedObservedMeasure m : _measures) {
+            m.add(predictions, row, trueLabel);
+        }
+    }
+
     /**
      * Gets one of the aggregated observed measures in this set.
      * @param i the index (0 to size()-1) of the measure.
@@ -17,6 +17,7 @@
 package se.hb.jcp.cp.measures;
 
 import se.hb.jcp.cp.ConformalClassification;
+import se.hb.jcp.cp.IConformalClassifications;
 
 /**
  * Maintains a running average of a prior measure.
@@ -53,6 +54,18 @@ public class AggregatedPriorMeasure
         _sum += _measure.compute(prediction);
     }
 
+    /**
+     * Adds a prediction in a batch of predictions to the aggregated prior
+     * measure.
+     * @param predictions  the predictions.
+     * @param row          the index of the prediction in the batch.
+     */
+    public void add(IConformalClassifications predictions, int row)
+    {
+        _n++;
+        _sum += _measure.compute(predictions, row);
+    }
+
     /**
      * Gets the current number of observations of the measure.
      * @return the current number of observations.
@@ -17,6 +17,7 @@
 package se.hb.jcp.cp.measures;
 
 import se.hb.jcp.cp.ConformalClassification;
+import se.hb.jcp.cp.IConformalClassifications;
 
 /**
  * Maintains running averages for a set of prior measures.
@@ -80,6 +81,19 @@ public class AggregatedPriorMeasures
         }
     }
 
+    /**
+     * Adds a prediction in a batch of predictions to the aggregated prior
+     * measures.
+     * @param predictions  the predictions.
+     * @param row          the index of the prediction in the batch.
+     */
+    public void add(IConformalClassifications predictions, int row)
+    {
+        for (AggregatedPriorMeasure m : _measures) {
+            m.add(predictions, row);
+        }
+    }
+
     /**
      * Gets one of the aggregated prior measures in this set.
      * @param i the index (0 to size()-1) of the measure.
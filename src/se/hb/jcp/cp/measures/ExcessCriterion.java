@@ -17,6 +17,7 @@
 package se.hb.jcp.cp.measures;
 
 import se.hb.jcp.cp.ConformalClassification;
+import se.hb.jcp.cp.IConformalClassifications;
 
 /**
  * The E/Excess criterion is a prior efficiency measure based on how much the
@@ -47,9 +48,21 @@ public class ExcessCriterion
      */
     @Override
     public double compute(ConformalClassification prediction)
+    {
+        return compute(prediction, 0);
+    }
+
+    /**
+     * Computes the E/Excess criterion measure for a prediction in a batch.
+     * @param predictions  the predictions.
+     * @param row          the index of the prediction.
+     * @return the Excess criterion measure for the prediction. Small values are preferable.
+     */
+    @Override
+    public double compute(IConformalClassifications predictions, int row)
     {
         return
             Math.max(0.0,
-                     prediction.getClassSet(_significanceLevel).size() - 1.0);
+                     predictions.getClassSetSize(row, _significanceLevel) - 1.0);
     }
 }
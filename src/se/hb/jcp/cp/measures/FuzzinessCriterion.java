@@ -17,6 +17,7 @@
 package se.hb.jcp.cp.measures;
 
 import se.hb.jcp.cp.ConformalClassification;
+import se.hb.jcp.cp.IConformalClassifications;
 
 /**
  * The F/Fuzziness criterion is a prior efficiency measure based on the
@@ -38,12 +39,24 @@ public class FuzzinessCriterion implements IPriorMeasure
      */
     @Override
     public double compute(ConformalClassification prediction)
+    {
+        return compute(prediction, 0);
+    }
+
+    /**
+     * Computes the F/Fuzziness criterion measure for a prediction in a batch.
+     * @param predictions  the predictions.
+     * @param row          the index of the prediction.
+     * @return the Fuzziness criterion measure for the prediction. Small values are preferable.
+     */
+    @Override
+    public double compute(IConformalClassifications predictions, int row)
     {
         double sum = 0.0;
-        for (int i = 0; i < prediction.getPValues().size(); i++) {
-            sum += prediction.getPValues().get(i);
+        for (int c = 0; c < predictions.getClassCount(); c++) {
+            sum += predictions.getPValue(row, c);
         }
-        return sum - prediction.getPointPredictionCredibility();
+        return sum - predictions.getPointPredictionCredibility(row);
     }
 
     /**
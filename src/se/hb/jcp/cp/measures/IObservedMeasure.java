@@ -17,6 +17,7 @@
 package se.hb.jcp.cp.measures;
 
 import se.hb.jcp.cp.ConformalClassification;
+import se.hb.jcp.cp.IConformalClassifications;
 
 /**
  * An observed measure depends on the prediction made and the true label.
@@ -35,4 +36,14 @@ public interface IObservedMeasure extends IMeasure
      * @return             the measure for the supplied prediction.
      */
     double compute(ConformalClassification prediction, double trueLabel);
+
+    /**
+     * Compute the measure for a prediction in a batch of predictions and
+     * the true label.
+     * @param predictions  the predictions, e.g. a <tt>PredictionBatch</tt>.
+     * @param row          the index of the prediction in the batch.
+     * @param trueLabel    the true label of the instance.
+     * @return             the measure for the selected prediction.
+     */
+    double compute(IConformalClassifications predictions, int row, double trueLabel);
 }
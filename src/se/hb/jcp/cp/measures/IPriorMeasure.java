@@ -17,6 +17,7 @@
 package se.hb.jcp.cp.measures;
 
 import se.hb.jcp.cp.ConformalClassification;
+import se.hb.jcp.cp.IConformalClassifications;
 
 /**
  * A prior measure depends only on the prediction made.
@@ -34,4 +35,12 @@ public interface IPriorMeasure extends IMeasure
      * @return             the measure for the supplied prediction.
      */
     double compute(ConformalClassification prediction);
+
+    /**
+     * Compute the measure for a prediction in a batch of predictions.
+     * @param predictions  the predictions, e.g. a <tt>PredictionBatch</tt>.
+     * @param row          the index of the prediction in the batch.
+     * @return             the measure for the selected prediction.
+     */
+    double compute(IConformalClassifications predictions, int row);
 }
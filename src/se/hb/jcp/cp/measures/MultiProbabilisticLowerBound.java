@@ -16,7 +16,8 @@
 //
 package se.hb.jcp.cp.measures;
 
-import se.hb.jcp.cp.ConformalMultiProbabilisticClassification;
+import se.hb.jcp.cp.ConformalMultiProbabilisticClassifier;
+import se.hb.jcp.cp.IConformalClassifications;
 
 /**
  * This prior measure returns the predicted lower bound probability.
@@ -31,9 +32,11 @@ public class MultiProbabilisticLowerBound
     extends AbstractPriorMultiProbabilisticMeasure
 {
     @Override
-    public double compute(ConformalMultiProbabilisticClassification prediction)
+    protected double compute(ConformalMultiProbabilisticClassifier source,
+                             IConformalClassifications predictions,
+                             int row)
     {
-        return prediction.getPointPredictionLowerBoundProbability();
+        return source.getPointPredictionLowerBoundProbability(predictions, row);
     }
 
     @Override
@@ -17,6 +17,7 @@
 package se.hb.jcp.cp.measures;
 
 import se.hb.jcp.cp.ConformalClassification;
+import se.hb.jcp.cp.IConformalClassifications;
 
 /**
  * The M/Multiple criterion is a prior efficiency measure based on the size of
@@ -47,8 +48,21 @@ public class MultipleCriterion
      */
     @Override
     public double compute(ConformalClassification prediction)
+    {
+        return compute(prediction, 0);
+    }
+
+    /**
+     * Computes the M/Multiple criterion measure for a prediction in a batch.
+     * @param predictions  the predictions.
+     * @param row          the index of the prediction.
+     * @return the Multiple criterion measure for the prediction. Small values are preferable.
+     */
+    @Override
+    public double compute(IConformalClassifications predictions, int row)
     {
         return
-            (prediction.getClassSet(_significanceLevel).size() > 1) ? 1.0 : 0.0;
+            (predictions.getClassSetSize(row, _significanceLevel) > 1)
+            ? 1.0 : 0.0;
     }
 }
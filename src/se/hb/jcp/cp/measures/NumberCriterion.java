@@ -17,6 +17,7 @@
 package se.hb.jcp.cp.measures;
 
 import se.hb.jcp.cp.ConformalClassification;
+import se.hb.jcp.cp.IConformalClassifications;
 
 /**
  * The N/Number/AvgC criterion is a prior efficiency measure based on the size
@@ -48,6 +49,18 @@ public class NumberCriterion
     @Override
     public double compute(ConformalClassification prediction)
     {
-        return prediction.getClassSet(_significanceLevel).size();
+        return compute(prediction, 0);
+    }
+
+    /**
+     * Computes the N/Number criterion measure for a prediction in a batch.
+     * @param predictions  the predictions.
+     * @param row          the index of the prediction.
+     * @return the Number criterion measure for the prediction. Small values are preferable.
+     */
+    @Override
+    public double compute(IConformalClassifications predictions, int row)
+    {
+        return predictions.getClassSetSize(row, _significanceLevel);
     }
 }
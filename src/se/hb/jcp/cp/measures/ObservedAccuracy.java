@@ -17,6 +17,7 @@
 package se.hb.jcp.cp.measures;
 
 import se.hb.jcp.cp.ConformalClassification;
+import se.hb.jcp.cp.IConformalClassifications;
 
 /**
  * The Observed Accuracy is the fraction of predictions that include the
@@ -48,7 +49,22 @@ public class ObservedAccuracy
     public double compute(ConformalClassification prediction,
                           double trueLabel)
     {
-        return prediction.getLabelSet(_significanceLevel).contains(trueLabel)
+        return compute(prediction, 0, trueLabel);
+    }
+
+    /**
+     * Computes the Observed Accuracy measure for a prediction in a batch and
+     * the true label.
+     * @param predictions  the predictions.
+     * @param row          the index of the prediction.
+     * @param trueLabel    the true label of the instance.
+     * @return the Observed Accuracy measure for the prediction. Large values are preferable.
+     */
+    @Override
+    public double compute(IConformalClassifications predictions, int row,
+                          double trueLabel)
+    {
+        return predictions.isInLabelSet(row, trueLabel, _significanceLevel)
                ? 1.0 : 0.0;
     }
 }
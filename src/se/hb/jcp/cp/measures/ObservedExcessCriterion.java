@@ -17,6 +17,7 @@
 package se.hb.jcp.cp.measures;
 
 import se.hb.jcp.cp.ConformalClassification;
+import se.hb.jcp.cp.IConformalClassifications;
 
 /**
  * The OE/Observed Excess criterion is an observed efficiency measure based on
@@ -51,8 +52,23 @@ public class ObservedExcessCriterion
     public double compute(ConformalClassification prediction,
                           double trueLabel)
     {
-        return prediction.getLabelSet(_significanceLevel).size() -
-               (prediction.getLabelSet(_significanceLevel).contains(trueLabel)
+        return compute(prediction, 0, trueLabel);
+    }
+
+    /**
+     * Computes the OE/Observed Excess criterion measure for a prediction in a batch and
+     * the true label.
+     * @param predictions  the predictions.
+     * @param row          the index of the prediction.
+     * @param trueLabel    the true label of the instance.
+     * @return the Observed Excess criterion measure for the prediction. Small values are preferable.
+     */
+    @Override
+    public double compute(IConformalClassifications predictions, int row,
+                          double trueLabel)
+    {
+        return predictions.getClassSetSize(row, _significanceLevel) -
+               (predictions.isInLabelSet(row, trueLabel, _significanceLevel)
                 ? 1.0 : 0.0);
     }
 }
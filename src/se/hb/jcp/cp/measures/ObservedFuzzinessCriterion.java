@@ -17,6 +17,7 @@
 package se.hb.jcp.cp.measures;
 
 import se.hb.jcp.cp.ConformalClassification;
+import se.hb.jcp.cp.IConformalClassifications;
 
 /**
  * The OF/Observed Fuzziness criterion is a prior efficiency measure based on
@@ -42,11 +43,26 @@ public class ObservedFuzzinessCriterion implements IObservedMeasure
     public double compute(ConformalClassification prediction,
                           double trueLabel)
     {
-        Double[] labels = prediction.getSource().getLabels();
+        return compute(prediction, 0, trueLabel);
+    }
+
+    /**
+     * Computes the OF/Observed Fuzziness criterion measure for a prediction in a batch and
+     * the true label.
+     * @param predictions  the predictions.
+     * @param row          the index of the prediction.
+     * @param trueLabel    the true label of the instance.
+     * @return the Observed Fuzziness criterion measure for the prediction. Small values are preferable.
+     */
+    @Override
+    public double compute(IConformalClassifications predictions, int row,
+                          double trueLabel)
+    {
+        int trueClass = predictions.getClassIndex(trueLabel);
         double sum = 0.0;
-        for (int i = 0; i < labels.length; i++) {
-            if (labels[i] != trueLabel) {
-                sum += prediction.getPValues().get(i);
+        for (int c = 0; c < predictions.getClassCount(); c++) {
+            if (c != trueClass) {
+                sum += predictions.getPValue(row, c);
             }
         }
         return sum;
@@ -17,6 +17,7 @@
 package se.hb.jcp.cp.measures;
 
 import se.hb.jcp.cp.ConformalClassification;
+import se.hb.jcp.cp.IConformalClassifications;
 
 /**
  * The OM/Observed Multiple criterion is an observed efficiency measure based on
@@ -50,10 +51,25 @@ public class ObservedMultipleCriterion
     @Override
     public double compute(ConformalClassification prediction,
                           double trueLabel)
+    {
+        return compute(prediction, 0, trueLabel);
+    }
+
+    /**
+     * Computes the OM/Observed Multiple criterion measure for a prediction in a batch and
+     * the true label.
+     * @param predictions  the predictions.
+     * @param row          the index of the prediction.
+     * @param trueLabel    the true label of the instance.
+     * @return the Observed Multiple criterion measure for the prediction. Small values are preferable.
+     */
+    @Override
+    public double compute(IConformalClassifications predictions, int row,
+                          double trueLabel)
     {
         int falseLabels =
-                prediction.getLabelSet(_significanceLevel).size() -
-                (prediction.getLabelSet(_significanceLevel).contains(trueLabel)
+                predictions.getClassSetSize(row, _significanceLevel) -
+                (predictions.isInLabelSet(row, trueLabel, _significanceLevel)
                  ? 1 : 0);
         return (falseLabels > 0) ? 1.0 : 0.0;
     }
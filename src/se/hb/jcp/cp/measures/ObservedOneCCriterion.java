@@ -17,6 +17,7 @@
 package se.hb.jcp.cp.measures;
 
 import se.hb.jcp.cp.ConformalClassification;
+import se.hb.jcp.cp.IConformalClassifications;
 
 /**
  * The Observed OneC criterion is the fraction of predictions that only have
@@ -47,10 +48,25 @@ public class ObservedOneCCriterion
     @Override
     public double compute(ConformalClassification prediction,
                           double trueLabel)
+    {
+        return compute(prediction, 0, trueLabel);
+    }
+
+    /**
+     * Computes the Observed OneC criterion measure for a prediction in a batch and
+     * the true label.
+     * @param predictions  the predictions.
+     * @param row          the index of the prediction.
+     * @param trueLabel    the true label of the instance.
+     * @return the Observed OneC measure for the prediction. Large values are preferable.
+     */
+    @Override
+    public double compute(IConformalClassifications predictions, int row,
+                          double trueLabel)
     {
         return
-            (prediction.getLabelSet(_significanceLevel).size() == 1 &&
-             prediction.getLabelSet(_significanceLevel).contains(trueLabel))
+            (predictions.getClassSetSize(row, _significanceLevel) == 1 &&
+             predictions.isInLabelSet(row, trueLabel, _significanceLevel))
             ? 1.0 : 0.0;
     }
 }
@@ -17,6 +17,7 @@
 package se.hb.jcp.cp.measures;
 
 import se.hb.jcp.cp.ConformalClassification;
+import se.hb.jcp.cp.IConformalClassifications;
 
 /**
  * The UO/Observed Unconfidence criterion is a prior efficiency measure based
@@ -42,14 +43,25 @@ public class ObservedUnconfidenceCriterion implements IObservedMeasure
     public double compute(ConformalClassification prediction,
                           double trueLabel)
     {
-        double largestPValue = prediction.getPointPredictionCredibility();
-        double secondLargestPValue =
-            1.0 - prediction.getPointPredictionConfidence();
-        double labelPointPrediction = prediction.getLabelPointPrediction();
-        if (labelPointPrediction == trueLabel) {
-            return secondLargestPValue;
+        return compute(prediction, 0, trueLabel);
+    }
+
+    /**
+     * Computes the OU/Observed Unconfidence criterion measure for a prediction in a batch and
+     * the true label.
+     * @param predictions  the predictions.
+     * @param row          the index of the prediction.
+     * @param trueLabel    the true label of the instance.
+     * @return the Observed Unconfidence criterion measure for the prediction. Small values are preferable.
+     */
+    @Override
+    public double compute(IConformalClassifications predictions, int row,
+                          double trueLabel)
+    {
+        if (predictions.getLabelPointPrediction(row) == trueLabel) {
+            return 1.0 - predictions.getPointPredictionConfidence(row);
         } else {
-            return largestPValue;
+            return predictions.getPointPredictionCredibility(row);
         }
     }
 
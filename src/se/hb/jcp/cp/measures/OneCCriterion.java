@@ -17,6 +17,7 @@
 package se.hb.jcp.cp.measures;
 
 import se.hb.jcp.cp.ConformalClassification;
+import se.hb.jcp.cp.IConformalClassifications;
 
 /**
  * The OneC is the fraction of predictions that only have one label in their
@@ -44,9 +45,21 @@ public class OneCCriterion
      */
     @Override
     public double compute(ConformalClassification prediction)
+    {
+        return compute(prediction, 0);
+    }
+
+    /**
+     * Computes the OneC criterion measure for a prediction in a batch.
+     * @param predictions  the predictions.
+     * @param row          the index of the prediction.
+     * @return the OneC criterion measure for the prediction. Large values are preferable.
+     */
+    @Override
+    public double compute(IConformalClassifications predictions, int row)
     {
         return
-            (prediction.getLabelSet(_significanceLevel).size() == 1)
+            (predictions.getClassSetSize(row, _significanceLevel) == 1)
             ? 1.0 : 0.0;
     }
 }
@@ -17,6 +17,7 @@
 package se.hb.jcp.cp.measures;
 
 import se.hb.jcp.cp.ConformalClassification;
+import se.hb.jcp.cp.IConformalClassifications;
 
 /**
  * The U/Unconfidence criterion is a prior efficiency measure based on the
@@ -39,7 +40,19 @@ public class UnconfidenceCriterion implements IPriorMeasure
     @Override
     public double compute(ConformalClassification prediction)
     {
-        return 1.0 - prediction.getPointPredictionConfidence();
+        return compute(prediction, 0);
+    }
+
+    /**
+     * Computes the U/Unconfidence criterion measure for a prediction in a batch.
+     * @param predictions  the predictions.
+     * @param row          the index of the prediction.
+     * @return the Unconfidence criterion measure for the prediction. Small values are preferable.
+     */
+    @Override
+    public double compute(IConformalClassifications predictions, int row)
+    {
+        return 1.0 - predictions.getPointPredictionConfidence(row);
     }
 
     /**
@@ -0,0 +1,202 @@
+// JCP - Java Conformal Prediction framework
+// Copyright (C) 2024  Anders Gidenstam
+//
+// This library is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+package se.hb.jcp.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import cern.colt.list.DoubleArrayList;
+import cern.colt.list.IntArrayList;
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+
+/**
+ * Compact binary encoding of sparse matrices in compressed sparse row (CSR)
+ * form.
+ *
+ * The encoding consists of the number of rows and columns, a flags byte
+ * and then, for each row, the number of non-zero elements as a varint,
+ * the column indices as zigzag varint deltas from the previous index and,
+ * last, the values as <tt>double</tt>s or, optionally, <tt>float</tt>s.
+ *
+ * @author anders.gidenstam(at)hb.se
+ */
+
+public class CompressedSparseRowEncoding
+{
+    private static final int FLAG_FLOAT_VALUES = 0x1;
+
+    /**
+     * Writes the matrix x to the output.
+     *
+     * @param out            the output.
+     * @param x              the matrix.
+     * @param floatValues    a boolean indicating whether the values should be stored in single precision.
+     * @throws IOException if an I/O error occurs.
+     */
+    public static void write(DataOutput     out,
+                             DoubleMatrix2D x,
+                             boolean        floatValues)
+        throws IOException
+    {
+        out.writeInt(x.rows());
+        out.writeInt(x.columns());
+        out.writeByte(floatValues ? FLAG_FLOAT_VALUES : 0);
+
+        IntArrayList indexList = new IntArrayList();
+        DoubleArrayList valueList = new DoubleArrayList();
+        for (int r = 0; r < x.rows(); r++) {
+            x.viewRow(r).getNonZeros(indexList, valueList);
+            int nnz = indexList.size();
+            writeVarint(out, nnz);
+            int previous = -1;
+            for (int i = 0; i < nnz; i++) {
+                int index = indexList.getQuick(i);
+                writeVarint(out, zigzag(index - previous));
+                previous = index;
+            }
+            for (int i = 0; i < nnz; i++) {
+                if (floatValues) {
+                    out.writeFloat((float)valueList.getQuick(i));
+                } else {
+                    out.writeDouble(valueList.getQuick(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a matrix from the input. The rows are stored directly in the
+     * native representation of the template where that is supported.
+     *
+     * @param in          the input.
+     * @param template    a <tt>DoubleMatrix1D</tt> of the desired representation; or null for the default representation.
+     * @return the matrix.
+     * @throws IOException if an I/O error occurs or the data is malformed.
+     */
+    public static DoubleMatrix2D read(DataInput      in,
+                                      DoubleMatrix1D template)
+        throws IOException
+    {
+        int rows = in.readInt();
+        int columns = in.readInt();
+        int flags = in.readByte();
+        if (rows < 0 || columns < 0 || (flags & ~FLAG_FLOAT_VALUES) != 0) {
+            throw new IOException("Malformed compressed sparse row matrix.");
+        }
+        boolean floatValues = (flags & FLAG_FLOAT_VALUES) != 0;
+
+        DoubleMatrix2D x;
+        if (template != null) {
+            x = template.like2D(rows, columns);
+        } else {
+            x = new cern.colt.matrix.impl.SparseDoubleMatrix2D(rows, columns);
+        }
+        for (int r = 0; r < rows; r++) {
+            int nnz = readVarint(in);
+            if (nnz < 0 || nnz > columns) {
+                throw new IOException("Malformed compressed sparse row " +
+                                      "matrix.");
+            }
+            int[]    indices = new int[nnz];
+            double[] values  = new double[nnz];
+            int previous = -1;
+            for (int i = 0; i < nnz; i++) {
+                previous += unzigzag(readVarint(in));
+                if (previous < 0 || previous >= columns) {
+                    throw new IOException("Malformed compressed sparse row " +
+                                          "matrix.");
+                }
+                indices[i] = previous;
+            }
+            for (int i = 0; i < nnz; i++) {
+                if (floatValues) {
+                    values[i] = in.readFloat();
+                } else {
+                    values[i] = in.readDouble();
+                }
+            }
+            setRow(x, r, indices, values);
+        }
+        return x;
+    }
+
+    /**
+     * Replaces one, initially empty, row of x. The row is stored directly
+     * in the native representation of x where that is supported.
+     *
+     * @param x          the matrix.
+     * @param row        the row to replace.
+     * @param indices    the column indices of the non-zero elements in increasing order.
+     * @param values     the values of the non-zero elements.
+     */
+    static void setRow(DoubleMatrix2D x, int row,
+                       int[] indices, double[] values)
+    {
+        if (x instanceof se.hb.jcp.bindings.jlibsvm.SparseDoubleMatrix2D) {
+            ((se.hb.jcp.bindings.jlibsvm.SparseDoubleMatrix2D)x).
+                setRow(row, indices, values);
+        } else if (x instanceof
+                   se.hb.jcp.bindings.jliblinear.SparseDoubleMatrix2D) {
+            ((se.hb.jcp.bindings.jliblinear.SparseDoubleMatrix2D)x).
+                setRow(row, indices, values);
+        } else if (x instanceof
+                   se.hb.jcp.bindings.libsvm.SparseDoubleMatrix2D) {
+            ((se.hb.jcp.bindings.libsvm.SparseDoubleMatrix2D)x).
+                setRow(row, indices, values);
+        } else {
+            for (int i = 0; i < indices.length; i++) {
+                x.setQuick(row, indices[i], values[i]);
+            }
+        }
+    }
+
+    private static int zigzag(int value)
+    {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(DataOutput out, int value)
+        throws IOException
+    {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(DataInput in)
+        throws IOException
+    {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint.");
+    }
+}
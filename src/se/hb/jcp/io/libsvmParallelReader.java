@@ -0,0 +1,207 @@
+// JCP - Java Conformal Prediction framework
+// Copyright (C) 2024  Anders Gidenstam
+//
+// This library is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+package se.hb.jcp.io;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+import cern.colt.matrix.DoubleMatrix1D;
+
+import se.hb.jcp.cp.DataSet;
+import se.hb.jcp.util.ParallelizedAction;
+
+/**
+ * Parallel data set reader for the libsvm sparse data format.
+ *
+ * Files are memory-mapped and split into newline-aligned chunks that are
+ * parsed concurrently, each into its own compressed sparse row segment.
+ * The segments are then stored in the original row order. The number of
+ * columns is found during the same pass. Other input streams are read
+ * sequentially as by <tt>libsvmReader</tt>.
+ *
+ * @author anders.gidenstam(at)hb.se
+ */
+
+public class libsvmParallelReader
+    extends libsvmReader
+{
+    // Smallest chunk worth parsing in a task of its own.
+    private static final long MIN_CHUNK_SIZE = 1L << 20;
+    // Largest chunk; a single mapping is limited to 2GB.
+    private static final long MAX_CHUNK_SIZE = 1L << 28;
+    private static final int  CHUNKS_PER_THREAD = 4;
+    // Size of the windows mapped when searching for chunk boundaries.
+    private static final int  SCAN_SIZE = 1 << 16;
+
+    @Override
+    public DataSet read(InputStream    source,
+                        DoubleMatrix1D template)
+        throws IOException
+    {
+        if (source instanceof FileInputStream) {
+            return read(((FileInputStream)source).getChannel(), template);
+        } else {
+            return super.read(source, template);
+        }
+    }
+
+    /**
+     * Reads a data set from the current position to the end of a file.
+     *
+     * @param channel     the file.
+     * @param template    a <tt>DoubleMatrix1D</tt> of the desired representation; or null for the default representation.
+     * @return the data set.
+     * @throws IOException if an I/O error occurs or the data is malformed.
+     */
+    public DataSet read(FileChannel    channel,
+                        DoubleMatrix1D template)
+        throws IOException
+    {
+        long start = channel.position();
+        long end = channel.size();
+        long[] boundaries = findChunkBoundaries(channel, start, end);
+        int chunks = boundaries.length - 1;
+
+        Segment[] segments = new Segment[chunks];
+        IOException[] errors = new IOException[chunks];
+        ParseChunkAction parse =
+            new ParseChunkAction(channel, boundaries, segments, errors,
+                                 0, chunks);
+        if (chunks == 1) {
+            parse.compute(0);
+        } else {
+            parse.start();
+        }
+        for (IOException e : errors) {
+            if (e != null) {
+                throw e;
+            }
+        }
+        channel.position(end);
+        return toDataSet(segments, template);
+    }
+
+    /**
+     * Splits [start, end) into chunks that begin at the start of a line.
+     *
+     * @return the chunk boundaries, from start to end.
+     */
+    private static long[] findChunkBoundaries(FileChannel channel,
+                                              long start, long end)
+        throws IOException
+    {
+        long size = end - start;
+        int parallelism = ParallelizedAction.getParallelism();
+        long chunkSize =
+            Math.max(size / ((long)CHUNKS_PER_THREAD * parallelism),
+                     MIN_CHUNK_SIZE);
+        chunkSize = Math.min(chunkSize, MAX_CHUNK_SIZE);
+
+        ArrayList<Long> boundaries = new ArrayList<Long>();
+        boundaries.add(start);
+        long position = start;
+        while (end - position > chunkSize) {
+            position = findLineStart(channel, position + chunkSize, end);
+            if (position >= end) {
+                break;
+            }
+            boundaries.add(position);
+        }
+        boundaries.add(end);
+
+        long[] result = new long[boundaries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = boundaries.get(i);
+            if (i > 0 && result[i] - result[i-1] > Integer.MAX_VALUE) {
+                throw new IOException("Too long line in input data file.");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the position after the first newline at or after position;
+     * or end if there is none.
+     */
+    private static long findLineStart(FileChannel channel,
+                                      long position, long end)
+        throws IOException
+    {
+        while (position < end) {
+            int length = (int)Math.min(SCAN_SIZE, end - position);
+            MappedByteBuffer window =
+                channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            for (int i = 0; i < length; i++) {
+                if (window.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += length;
+        }
+        return end;
+    }
+
+    private static class ParseChunkAction extends ParallelizedAction
+    {
+        private final FileChannel _channel;
+        private final long[] _boundaries;
+        private final Segment[] _segments;
+        private final IOException[] _errors;
+
+        public ParseChunkAction(FileChannel channel,
+                                long[] boundaries,
+                                Segment[] segments,
+                                IOException[] errors,
+                                int first, int last)
+        {
+            super(first, last);
+            _channel = channel;
+            _boundaries = boundaries;
+            _segments = segments;
+            _errors = errors;
+        }
+
+        @Override
+        protected void compute(int i)
+        {
+            try {
+                ByteBuffer chunk =
+                    _channel.map(FileChannel.MapMode.READ_ONLY,
+                                 _boundaries[i],
+                                 _boundaries[i+1] - _boundaries[i]);
+                Segment segment = new Segment();
+                segment.parse(chunk, null);
+                _segments[i] = segment;
+            } catch (IOException e) {
+                _errors[i] = e;
+            }
+        }
+
+        @Override
+        protected ParallelizedAction createSubtask(int first, int last)
+        {
+            return new ParseChunkAction(_channel, _boundaries,
+                                        _segments, _errors,
+                                        first, last);
+        }
+    }
+}
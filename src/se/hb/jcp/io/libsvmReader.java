@@ -1,5 +1,5 @@
 // JCP - Java Conformal Prediction framework
-// Copyright (C) 2014 - 2016, 2019  Anders Gidenstam
+// Copyright (C) 2014 - 2016, 2019, 2024  Anders Gidenstam
 //
 // This library is free software: you can redistribute it and/or modify
 // it under the terms of the GNU Lesser General Public License as published
@@ -16,12 +16,14 @@
 //
 package se.hb.jcp.io;
 
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.IOException;
-import java.util.StringTokenizer;
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
 
 import cern.colt.matrix.DoubleMatrix1D;
 import cern.colt.matrix.DoubleFactory2D;
@@ -31,92 +33,329 @@ import se.hb.jcp.cp.DataSet;
 /**
  * Data set reader for the libsvm sparse data format.
  *
+ * The input is parsed in a single pass directly from bytes into growable
+ * primitive buffers in compressed sparse row (CSR) form, which are then
+ * used to set up the rows of the target matrix in bulk.
+ *
  * @author anders.gidenstam(at)hb.se
  */
 
 public class libsvmReader
     extends DataSetReader
 {
+    private static final int BUFFER_SIZE = 1 << 16;
+
     @Override
     public DataSet read(InputStream    source,
                         DoubleMatrix1D template)
         throws IOException
     {
-        DataSet p;
-        // Read through the entire data set file and collect the information
-        // needed to instantiate the x and y matrices.
-        // FIXME: This is not very memory efficient.
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(source))) {
-            // Read through the entire data set file and collect the information
-            // needed to instantiate the x and y matrices.
-            // FIXME: This is not very memory efficient.
-            int rows = 0;
-            int columns = 0;
-            ArrayList<Double>   vy = new ArrayList<Double>();
-            ArrayList<int[]>    vxi = new ArrayList<int[]>();
-            ArrayList<double[]> vxv = new ArrayList<double[]>();
-            while(true) {
-                String line = br.readLine();
-                if(line == null) break;
-
-                StringTokenizer st = new StringTokenizer(line, " \t\n\r\f:");
-
-                vy.add(parseDouble(st.nextToken()));
-                int m = st.countTokens()/2;
-                int[]    xi = new int[m];
-                double[] xv = new double[m];
-                for (int j=0; j<m; j++) {
-                    xi[j] = parseInt(st.nextToken());
-                    xv[j] = parseDouble(st.nextToken());
+        Segment segment = new Segment();
+        try (ReadableByteChannel channel = Channels.newChannel(source)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            buffer.flip();
+            segment.parse(buffer, channel);
+        }
+        return toDataSet(new Segment[] { segment }, template);
+    }
+
+    /**
+     * Creates a data set from parsed segments. The rows of the segments are
+     * stored in order in the data set.
+     *
+     * @param segments    the segments.
+     * @param template    a <tt>DoubleMatrix1D</tt> of the desired representation; or null for the default representation.
+     * @return the data set.
+     */
+    static DataSet toDataSet(Segment[]      segments,
+                             DoubleMatrix1D template)
+    {
+        int rows = 0;
+        int columns = 0;
+        for (Segment segment : segments) {
+            rows += segment._rows;
+            columns = Math.max(columns, segment._columns);
+        }
+
+        DataSet p = new DataSet();
+        // Create and initialize y.
+        p.y = new double[rows];
+        int offset = 0;
+        for (Segment segment : segments) {
+            System.arraycopy(segment._labels, 0, p.y, offset, segment._rows);
+            offset += segment._rows;
+        }
+        // Create and initialize x.
+        if (template != null) {
+            p.x = template.like2D(rows, columns);
+        } else {
+            // Default to libsvm data storage.
+            //p.x = new se.hb.jcp.bindings.libsvm.SparseDoubleMatrix2D(rows, columns);
+            // Default to colt data storage.
+            p.x = DoubleFactory2D.sparse.make(rows, columns);
+        }
+        int r = 0;
+        for (int s = 0; s < segments.length; s++) {
+            Segment segment = segments[s];
+            for (int i = 0; i < segment._rows; i++, r++) {
+                int first = segment._rowStart[i];
+                int last  = segment._rowStart[i + 1];
+                if (segment._unsortedRows.get(i)) {
+                    // Set the elements one by one to get them in order.
+                    for (int a = first; a < last; a++) {
+                        p.x.setQuick(r, segment._indices[a],
+                                     segment._values[a]);
+                    }
+                } else {
+                    CompressedSparseRowEncoding.setRow
+                        (p.x, r,
+                         Arrays.copyOfRange(segment._indices, first, last),
+                         Arrays.copyOfRange(segment._values, first, last));
+                }
+            }
+            // Release the buffers of the segment as soon as possible.
+            segments[s] = null;
+        }
+        return p;
+    }
+
+    /**
+     * A sequence of parsed libsvm rows in compressed sparse row form. The
+     * column indices are zero based.
+     */
+    static class Segment
+    {
+        double[] _labels = new double[64];
+        int[]    _rowStart = new int[65];
+        int[]    _indices = new int[256];
+        double[] _values = new double[256];
+        int      _rows;
+        int      _nnz;
+        int      _columns;
+        BitSet   _unsortedRows = new BitSet();
+
+        // Parser state.
+        private ByteBuffer _buffer;
+        private ReadableByteChannel _channel;
+        private int _c;
+        private byte[] _token = new byte[32];
+        private int _tokenLength;
+
+        /**
+         * Parses libsvm rows from the buffer until the end of its content.
+         * If a channel is given the buffer is refilled from it until the
+         * channel reaches its end.
+         *
+         * @param buffer     the buffer, ready for reading.
+         * @param channel    the channel to refill the buffer from; or null.
+         * @throws IOException if an I/O error occurs or the data is malformed.
+         */
+        void parse(ByteBuffer buffer, ReadableByteChannel channel)
+            throws IOException
+        {
+            _buffer = buffer;
+            _channel = channel;
+            _c = read();
+            while (_c >= 0) {
+                skipSpace();
+                if (_c == '\n') {
+                    // Skip empty lines.
+                    _c = read();
+                    continue;
+                }
+                if (_c < 0) {
+                    break;
+                }
+                parseRow();
+            }
+            _buffer = null;
+            _channel = null;
+        }
+
+        private void parseRow()
+            throws IOException
+        {
+            if (_rows == _labels.length) {
+                _labels = Arrays.copyOf(_labels, 2 * _rows);
+                _rowStart = Arrays.copyOf(_rowStart, 2 * _rows + 1);
+            }
+            _labels[_rows] = parseDouble();
+            int previous = -1;
+            while (true) {
+                skipSpace();
+                if (_c == '\n' || _c < 0) {
+                    break;
+                }
+                int index = parseInt() - 1;
+                if (index < 0) {
+                    throw new IOException("Invalid attribute index in " +
+                                          "input data file.");
+                }
+                if (_c != ':') {
+                    throw new IOException("Malformed input data file.");
+                }
+                _c = read();
+                double value = parseDouble();
+                if (_nnz == _indices.length) {
+                    _indices = Arrays.copyOf(_indices, 2 * _nnz);
+                    _values = Arrays.copyOf(_values, 2 * _nnz);
                 }
-                if (m > 0) {
-                    columns = Math.max(columns, xi[m-1]);
+                _indices[_nnz] = index;
+                _values[_nnz] = value;
+                _nnz++;
+                if (index <= previous) {
+                    _unsortedRows.set(_rows);
                 }
-                vxi.add(xi);
-                vxv.add(xv);
-                rows++;
+                previous = index;
+                _columns = Math.max(_columns, index + 1);
             }
-            p = new DataSet();
-            // Create and initialize y.
-            p.y = new double[rows];
-            //p.y = DoubleFactory1D.dense.make(rows);
-            for (int r = 0; r < p.y.length; r++) {
-                p.y[r] = vy.get(r);
-                //p.y.set(r, vy.get(r));
+            _rows++;
+            _rowStart[_rows] = _nnz;
+        }
+
+        private int parseInt()
+            throws IOException
+        {
+            long value = 0;
+            int digits = 0;
+            while ('0' <= _c && _c <= '9') {
+                value = 10 * value + (_c - '0');
+                if (value > Integer.MAX_VALUE) {
+                    throw new IOException("Too large attribute index in " +
+                                          "input data file.");
+                }
+                digits++;
+                _c = read();
             }
-            // Create and initialize x.
-            if (template != null) {
-                p.x = template.like2D(rows, columns);
-            } else {
-                // Default to libsvm data storage.
-                //p.x = new se.hb.jcp.bindings.libsvm.SparseDoubleMatrix2D(rows, columns);
-                // Default to colt data storage.
-                p.x = DoubleFactory2D.sparse.make(rows, columns);
+            if (digits == 0) {
+                throw new IOException("Malformed input data file.");
             }
-            for (int r = 0; r < p.x.rows(); r++) {
-                int[]    xi = vxi.get(r);
-                double[] xv = vxv.get(r);
-                for (int a = 0; a < xi.length; a++) {
-                    p.x.set(r, xi[a] - 1, xv[a]);
+            return (int)value;
+        }
+
+        private double parseDouble()
+            throws IOException
+        {
+            // Collect the token.
+            _tokenLength = 0;
+            while (_c > ' ' && _c != ':') {
+                if (_tokenLength == _token.length) {
+                    _token = Arrays.copyOf(_token, 2 * _tokenLength);
                 }
+                _token[_tokenLength++] = (byte)_c;
+                _c = read();
+            }
+            double d = libsvmReader.parseDouble(_token, _tokenLength);
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                throw new IOException("NaN or Infinity in input data file.");
             }
+            return d;
         }
 
-        return p;
-    }
+        private void skipSpace()
+            throws IOException
+        {
+            while (_c == ' ' || _c == '\t' || _c == '\r' || _c == '\f') {
+                _c = read();
+            }
+        }
 
-    private static double parseDouble(String s)
-        throws IOException
-    {
-        double d = Double.parseDouble(s);
-        if (Double.isNaN(d) || Double.isInfinite(d)) {
-            throw new IOException("NaN or Infinity in input data file.");
+        private int read()
+            throws IOException
+        {
+            if (!_buffer.hasRemaining()) {
+                if (_channel == null) {
+                    return -1;
+                }
+                _buffer.clear();
+                int n;
+                do {
+                    n = _channel.read(_buffer);
+                } while (n == 0);
+                _buffer.flip();
+                if (n < 0) {
+                    return -1;
+                }
+            }
+            return _buffer.get() & 0xFF;
         }
-        return d;
     }
 
-    private static int parseInt(String s)
+    private static final double[] POWERS_OF_TEN = {
+        1e0,  1e1,  1e2,  1e3,  1e4,  1e5,  1e6,  1e7,  1e8,  1e9,  1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21,
+        1e22
+    };
+
+    /**
+     * Parses a decimal number. Plain numbers with at most 15 significant
+     * digits and a small exponent are converted exactly, and thus
+     * correctly rounded, as both the mantissa and the power of ten are
+     * exact doubles. Anything else is left to Double.parseDouble().
+     */
+    private static double parseDouble(byte[] token, int length)
+        throws IOException
     {
-        return Integer.parseInt(s);
+        int i = 0;
+        boolean negative = false;
+        if (i < length && (token[i] == '-' || token[i] == '+')) {
+            negative = token[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        for (; i < length && '0' <= token[i] && token[i] <= '9'; i++) {
+            mantissa = 10 * mantissa + (token[i] - '0');
+            digits++;
+            if (mantissa != 0) {
+                significantDigits++;
+            }
+        }
+        if (i < length && token[i] == '.') {
+            for (i++; i < length && '0' <= token[i] && token[i] <= '9'; i++) {
+                mantissa = 10 * mantissa + (token[i] - '0');
+                digits++;
+                exponent--;
+                if (mantissa != 0) {
+                    significantDigits++;
+                }
+            }
+        }
+        if (i < length && (token[i] == 'e' || token[i] == 'E') &&
+            digits > 0) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < length && (token[i] == '-' || token[i] == '+')) {
+                negativeExponent = token[i] == '-';
+                i++;
+            }
+            int e = 0;
+            int exponentDigits = 0;
+            for (; i < length && '0' <= token[i] && token[i] <= '9'; i++) {
+                if (e < 10000) {
+                    e = 10 * e + (token[i] - '0');
+                }
+                exponentDigits++;
+            }
+            if (exponentDigits == 0) {
+                i = length + 1;
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        if (i == length && digits > 0 && significantDigits <= 15 &&
+            -22 <= exponent && exponent <= 22) {
+            double d = (double)mantissa;
+            d = (exponent < 0) ? d / POWERS_OF_TEN[-exponent]
+                               : d * POWERS_OF_TEN[exponent];
+            return negative ? -d : d;
+        }
+        try {
+            return Double.parseDouble(new String(token, 0, length,
+                                                 StandardCharsets.ISO_8859_1));
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed number in input data file.");
+        }
     }
 }
@@ -104,6 +104,28 @@ public class BogusClassProbabilityClassifier
         return prediction;
     }
 
+    /**
+     * Predicts the target probabilities for the instances in the rows
+     * [first, last) of x.
+     *
+     * @param x                      the instances
+     * @param first                  the first row to predict
+     * @param last                   the row after the last row to predict
+     * @param probabilityEstimates   a <tt>double[]</tt> array for storing the predicted probabilities row by row in the order assumed by JCP.
+     */
+    @Override
+    public void predict(DoubleMatrix2D x, int first, int last,
+                        double[] probabilityEstimates)
+    {
+        double[] probability = new double[_classes.length];
+        for (int i = first; i < last; i++) {
+            predict(x.viewRow(i), probability);
+            System.arraycopy(probability, 0,
+                             probabilityEstimates, (i - first)*_classes.length,
+                             _classes.length);
+        }
+    }
+
     /**
      * Returns a value of the <tt>DoubleMatrix1D</tt> derived class that is
      * the native storage format for the classifier.
@@ -17,6 +17,7 @@
 package se.hb.jcp.ml;
 
 import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
 
 /**
  * Represents an instance of a specific machine learning classification
@@ -37,4 +38,16 @@ public interface IClassProbabilityClassifier
      */
     public double predict(DoubleMatrix1D instance,
                           double[] probabilityEstimates);
+
+    /**
+     * Predicts the target probabilities for the instances in the rows
+     * [first, last) of x.
+     *
+     * @param x                      the instances
+     * @param first                  the first row to predict
+     * @param last                   the row after the last row to predict
+     * @param probabilityEstimates   a <tt>double[]</tt> array of length (last - first) * k, where k is the number of target values, for storing the predicted probabilities row by row in the order assumed by JCP.
+     */
+    public void predict(DoubleMatrix2D x, int first, int last,
+                        double[] probabilityEstimates);
 }
@@ -54,4 +54,15 @@ public interface IRegressor
      * @return the predicted target of the instance.
      */
     public double predict(DoubleMatrix1D instance);
+
+    /**
+     * Predicts the targets for the instances in the rows [first, last) of x.
+     *
+     * @param x             the instances
+     * @param first         the first row to predict
+     * @param last          the row after the last row to predict
+     * @param predictions   a <tt>double[]</tt> array of length (last - first) for storing the predicted targets.
+     */
+    public void predict(DoubleMatrix2D x, int first, int last,
+                        double[] predictions);
 }
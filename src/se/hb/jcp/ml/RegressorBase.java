@@ -53,5 +53,16 @@ public abstract class RegressorBase
         return _attributeCount;
     }
 
+    @Override
+    public void predict(DoubleMatrix2D x, int first, int last,
+                        double[] predictions)
+    {
+        // Generic version. Subclasses with a native batch format should
+        // override this.
+        for (int i = first; i < last; i++) {
+            predictions[i - first] = predict(x.viewRow(i));
+        }
+    }
+
     protected abstract void internalFit(DoubleMatrix2D x, double[] y);
 }
@@ -18,59 +18,33 @@
 //
 package se.hb.jcp.nc;
 
-import cern.colt.matrix.DoubleMatrix1D;
 import cern.colt.matrix.DoubleMatrix2D;
 import cern.colt.matrix.impl.AbstractMatrix2D;
 import se.hb.jcp.ml.IRegressor;
 
 public class AbsoluteErrorNonconformityFunction
-    implements IRegressionNonconformityFunction,  java.io.Serializable
+    extends RegressorNonconformityFunctionBase
+    implements java.io.Serializable
 {
-    private IRegressor _regressor;
-    private boolean _isTrained = false;
-
     public AbsoluteErrorNonconformityFunction(IRegressor regressor)
     {
-        _regressor = regressor;
-    }
-
-    @Override
-    public void fit(DoubleMatrix2D x, double[] y)
-    {
-        _regressor.fit(x, y);
-        _isTrained = true;
-    }
-
-    @Override
-    public boolean isTrained()
-    {
-        return _isTrained;
-    }
-
-    @Override
-    public double calculateNonConformityScore(DoubleMatrix1D instance, double label)
-    {
-        double prediction = _regressor.predict(instance);
-        //System.out.println("  LABEL " + label + " Prediction " + prediction);
-        return Math.abs(label - prediction);
-    }
-
-    @Override
-    public double predict(DoubleMatrix1D instance)
-    {
-        return _regressor.predict(instance);
+        super(regressor);
     }
 
     @Override
-    public int getAttributeCount()
+    public IRegressionNonconformityFunction fitNew(DoubleMatrix2D x,
+                                                   double[] y)
     {
-        return _regressor.getAttributeCount();
+        AbsoluteErrorNonconformityFunction nc =
+            new AbsoluteErrorNonconformityFunction(_regressor.fitNew(x, y));
+        nc._isTrained = true;
+        return nc;
     }
 
     @Override
-    public DoubleMatrix1D nativeStorageTemplate()
+    double computeNCScore(double y, double prediction)
     {
-        return _regressor.nativeStorageTemplate();
+        return Math.abs(y - prediction);
     }
 
     @Override
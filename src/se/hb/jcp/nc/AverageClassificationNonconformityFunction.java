@@ -24,7 +24,8 @@ import java.util.Map;
 import java.util.TreeMap;
 
 public class AverageClassificationNonconformityFunction
-    implements IClassificationNonconformityFunction, java.io.Serializable
+    implements IIncrementalClassificationNonconformityFunction,
+               java.io.Serializable
 {
     int[] _class_count;
     int _n_classes;
@@ -32,6 +33,10 @@ public class AverageClassificationNonconformityFunction
     Map<Double, Integer> _class_index = new TreeMap<Double, Integer>();
     int _n_instances;
     int _attributeCount = -1;
+    // The indices of the training instances of each class and the size of
+    // the training set, for incremental updates of the training set scores.
+    private transient int[][] _class_members;
+    private transient int _fitted_instances;
 
     public AverageClassificationNonconformityFunction(double[] classes)
     {
@@ -51,6 +56,17 @@ public class AverageClassificationNonconformityFunction
             _class_count[_class_index.get(y_)]++;
         _n_instances = y.length;
         _attributeCount = x.size();
+
+        _class_members = new int[_n_classes][];
+        int[] members = new int[_n_classes];
+        for (int c = 0; c < _n_classes; c++) {
+            _class_members[c] = new int[_class_count[c]];
+        }
+        for (int i = 0; i < y.length; i++) {
+            int c = _class_index.get(y[i]);
+            _class_members[c][members[c]++] = i;
+        }
+        _fitted_instances = y.length;
     }
 
     
@@ -92,10 +108,7 @@ public class AverageClassificationNonconformityFunction
     public double[] calc_nc(DoubleMatrix2D x, double[] y)
     {
         double[] nc = new double[y.length];
-        for (int i = 0; i < nc.length; i++) {
-            nc[i] =
-                1 - (double)_class_count[_class_index.get(y[i])] / _n_instances;
-        }
+        calculateNonConformityScores(x, y, nc);
         return nc;
     }
 
@@ -122,6 +135,95 @@ public class AverageClassificationNonconformityFunction
         return nc;
     }
 
+    @Override
+    public void calculateNonConformityScores(DoubleMatrix1D x,
+                                             double[] ncScores)
+    {
+        int c = 0;
+        for (int i : _class_index.values()) {
+            ncScores[c++] = 1 - (double)_class_count[i] / _n_instances;
+        }
+    }
+
+    @Override
+    public void calculateNonConformityScores(DoubleMatrix2D x,
+                                             double[] y,
+                                             double[] ncScores)
+    {
+        for (int i = 0; i < y.length; i++) {
+            ncScores[i] = 1 - (double)_class_count[_class_index.get(y[i])] /
+                              _n_instances;
+        }
+    }
+
+    @Override
+    public void calculateNonConformityScores(DoubleMatrix2D x,
+                                             double[] ncScores)
+    {
+        // The scores do not depend on the instance.
+        double[] rowScores = new double[_n_classes];
+        calculateNonConformityScores((DoubleMatrix1D)null, rowScores);
+        for (int i = 0; i < x.rows(); i++) {
+            System.arraycopy(rowScores, 0,
+                             ncScores, i*_n_classes, _n_classes);
+        }
+    }
+
+    @Override
+    public void addExample(DoubleMatrix1D x, double y)
+    {
+        _class_count[_class_index.get(y)]++;
+        _n_instances++;
+    }
+
+    @Override
+    public void removeExample(DoubleMatrix1D x, double y)
+    {
+        _class_count[_class_index.get(y)]--;
+        _n_instances--;
+    }
+
+    @Override
+    public int updateNonConformityScores(DoubleMatrix2D x,
+                                         double[] y,
+                                         double[] ncScores,
+                                         int[] changed)
+    {
+        int last = y.length - 1;
+        if (_class_members == null || last == 0 ||
+            _fitted_instances != last || _n_instances != last + 1) {
+            // Not a single addition to the fitted training set.
+            calculateNonConformityScores(x, y, ncScores);
+            return -1;
+        }
+        // Normalizing by the fitted training set size instead of the
+        // current one keeps the order of the scores and leaves the scores
+        // of the other classes unchanged.
+        int c = _class_index.get(y[last]);
+        double score = 1 - (double)_class_count[c] / _fitted_instances;
+        int[] members = _class_members[c];
+        for (int k = 0; k < members.length; k++) {
+            ncScores[members[k]] = score;
+            changed[k] = members[k];
+        }
+        ncScores[last] = score;
+        return members.length;
+    }
+
+    @Override
+    public IIncrementalClassificationNonconformityFunction copy()
+    {
+        AverageClassificationNonconformityFunction nc =
+            new AverageClassificationNonconformityFunction(_classes);
+        System.arraycopy(_class_count, 0, nc._class_count, 0, _n_classes);
+        nc._n_instances = _n_instances;
+        nc._attributeCount = _attributeCount;
+        // The class members are never modified and can be shared.
+        nc._class_members = _class_members;
+        nc._fitted_instances = _fitted_instances;
+        return nc;
+    }
+
     @Override
     public se.hb.jcp.ml.IClassifier getClassifier()
     {
@@ -46,35 +46,63 @@ public abstract class ClassProbabilityNonconformityFunctionBase
         double label =
             ((IClassProbabilityClassifier)_model).predict(x, probability);
 
-        double nc = computeNCScore(x, y, probability);
+        double nc = computeNCScore(y, probability, 0);
         if (DEBUG) {
             System.err.println("  instance (" + x + ") target " + y +
                                ": " + nc);
         }
-        // FIXME: This safety check only works for 2 classes.
-        if (_classes.length == 2 && _class_index.get(label) != null &&
-            probability[_class_index.get(label)] <
-            probability[_classes.length - 1 - _class_index.get(label)]) {
-            System.err.println("Warning! Poor model prediction (" +
-                               label + ") - model label probability (" +
-                               probability[_class_index.get(label)] +
-                               ") match!");
-        }
+        checkPrediction(label, probability);
         return nc;
     }
 
+    @Override
+    public final void calculateNonConformityScores(DoubleMatrix1D x,
+                                                   double[] ncScores)
+    {
+        // One model prediction is enough for all labels.
+        double[] probability = new double[_n_classes];
+        double label =
+            ((IClassProbabilityClassifier)_model).predict(x, probability);
+
+        int c = 0;
+        for (double y : _class_index.keySet()) {
+            ncScores[c++] = computeNCScore(y, probability, 0);
+        }
+        checkPrediction(label, probability);
+    }
+
     /**
      * Step in the calculateNonConformityScore template method for computing
      * the non-conformity score of an instance based on its assumed label and
      * its class probabilities.
      *
-     * @param x            the attributes of the instance.
      * @param y            the assumed label of the instance.
      * @param probability  an double[] array with the instance's class probabilities.
+     * @param offset       the index in probability where the instance's class probabilities start.
      * @return  the non-conformity score of the instance.
      */
-    abstract double computeNCScore(DoubleMatrix1D x, double y,
-                                   double[] probability);
+    abstract double computeNCScore(double y,
+                                   double[] probability,
+                                   int offset);
+
+    /**
+     * Warns if the predicted label does not match the class probabilities.
+     *
+     * @param label        the label predicted by the model.
+     * @param probability  an double[] array with the instance's class probabilities.
+     */
+    private void checkPrediction(double label, double[] probability)
+    {
+        // FIXME: This safety check only works for 2 classes.
+        if (_classes.length == 2 && _class_index.get(label) != null &&
+            probability[_class_index.get(label)] <
+            probability[_classes.length - 1 - _class_index.get(label)]) {
+            System.err.println("Warning! Poor model prediction (" +
+                               label + ") - model label probability (" +
+                               probability[_class_index.get(label)] +
+                               ") match!");
+        }
+    }
 
     @Override
     CalcNCActionBase createNewCalcNCAction(DoubleMatrix2D x,
@@ -85,10 +113,16 @@ public abstract class ClassProbabilityNonconformityFunctionBase
         return new CalcNCAction(x, y, nc, first, last);
     }
 
-    class CalcNCAction extends CalcNCActionBase
+    @Override
+    CalcAllNCActionBase createNewCalcAllNCAction(DoubleMatrix2D x,
+                                                 double[] nc,
+                                                 int first, int last)
     {
-        double[] _probability;
+        return new CalcAllNCAction(x, nc, first, last);
+    }
 
+    class CalcNCAction extends CalcNCActionBase
+    {
         public CalcNCAction(DoubleMatrix2D x,
                             double[] y,
                             double[] nc,
@@ -98,26 +132,55 @@ public abstract class ClassProbabilityNonconformityFunctionBase
         }
 
         @Override
-        protected final void initialize(int first, int last)
+        protected final void compute(int i)
         {
-            _probability = new double[_n_classes];
+            compute(i, i + 1);
         }
 
         @Override
-        protected final void finalize(int first, int last)
+        protected final void compute(int first, int last)
+        {
+            // One batch prediction for the whole sub-interval.
+            double[] probability = new double[(last - first)*_n_classes];
+            ((IClassProbabilityClassifier)_model).predict(_x, first, last,
+                                                          probability);
+            for (int i = first; i < last; i++) {
+                _nc[i] = computeNCScore(_y[i], probability,
+                                        (i - first)*_n_classes);
+            }
+        }
+    }
+
+    class CalcAllNCAction extends CalcAllNCActionBase
+    {
+        public CalcAllNCAction(DoubleMatrix2D x,
+                               double[] nc,
+                               int first, int last)
         {
-            _probability = null;
+            super(x, nc, first, last);
         }
 
         @Override
         protected final void compute(int i)
         {
-            // Overriden with inlined computation to avoid reallocating the
-            // _probability array for each instance.
-            DoubleMatrix1D instance = _x.viewRow(i);
-            ((IClassProbabilityClassifier)_model).predict(instance,
-                                                          _probability);
-            _nc[i] = computeNCScore(instance, _y[i], _probability);
+            compute(i, i + 1);
+        }
+
+        @Override
+        protected final void compute(int first, int last)
+        {
+            // One batch prediction for the whole sub-interval.
+            double[] probability = new double[(last - first)*_n_classes];
+            ((IClassProbabilityClassifier)_model).predict(_x, first, last,
+                                                          probability);
+            for (int i = first; i < last; i++) {
+                int offset = (i - first)*_n_classes;
+                int c = 0;
+                for (double y : _class_index.keySet()) {
+                    _nc[i*_n_classes + c++] =
+                        computeNCScore(y, probability, offset);
+                }
+            }
         }
     }
 }
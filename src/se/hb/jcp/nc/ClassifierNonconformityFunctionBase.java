@@ -16,6 +16,7 @@
 //
 package se.hb.jcp.nc;
 
+import java.util.Arrays;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -23,6 +24,7 @@ import cern.colt.matrix.DoubleMatrix1D;
 import cern.colt.matrix.DoubleMatrix2D;
 
 import se.hb.jcp.ml.IClassifier;
+import se.hb.jcp.util.ExtendedDoubleMatrix2D;
 import se.hb.jcp.util.ParallelizedAction;
 
 /**
@@ -72,17 +74,10 @@ public abstract class ClassifierNonconformityFunctionBase
         fitNew(DoubleMatrix2D xtr, double[] ytr,
                DoubleMatrix1D xtest, double ytest)
     {
+        // The training instances are shared, not copied.
         int n = xtr.rows();
-        DoubleMatrix2D trainingX = xtr.like(n + 1, xtr.columns());
-        double[]       trainingY = new double[n + 1];
-        // FIXME: This way to copy the data is probably very inefficient.
-        //        Most of the underlying data-structures are row-oriented
-        //        and this should be used to share the row data.
-        // FIXED for: libsvm
-        for (int r = 0; r < n; r++) {
-            trainingX.viewRow(r).assign(xtr.viewRow(r));
-            trainingY[r] = ytr[r];
-        }
+        DoubleMatrix2D trainingX = new ExtendedDoubleMatrix2D(xtr, 1);
+        double[]       trainingY = Arrays.copyOf(ytr, n + 1);
         trainingX.viewRow(n).assign(xtest);
         trainingY[n] = ytest;
 
@@ -93,31 +88,69 @@ public abstract class ClassifierNonconformityFunctionBase
     public abstract double calculateNonConformityScore(DoubleMatrix1D x,
                                                        double y);
 
+    @Override
+    public void calculateNonConformityScores(DoubleMatrix1D x,
+                                             double[] ncScores)
+    {
+        // Generic version. Subclasses that can score all labels from one
+        // prediction should override this.
+        int c = 0;
+        for (double label : _class_index.keySet()) {
+            ncScores[c++] = calculateNonConformityScore(x, label);
+        }
+    }
+
     @Deprecated
     @Override
     public double[] calc_nc(DoubleMatrix2D x, double[] y)
     {
         double[] nc = new double[y.length];
+        calculateNonConformityScores(x, y, nc);
+        return nc;
+    }
 
+    @Override
+    public void calculateNonConformityScores(DoubleMatrix2D x,
+                                             double[] y,
+                                             double[] ncScores)
+    {
         if (DEBUG) {
-            System.err.println("fastCalc_nc()");
+            System.err.println("calculateNonConformityScores()");
         }
 
         if (!PARALLEL) {
-            for (int i = 0; i < nc.length; i++) {
+            for (int i = 0; i < y.length; i++) {
                 DoubleMatrix1D instance = x.viewRow(i);
-                nc[i] = calculateNonConformityScore(instance, y[i]);
+                ncScores[i] = calculateNonConformityScore(instance, y[i]);
 
                 if (DEBUG) {
                     System.err.println("  instance " + i + " target " + y[i] +
-                                       ": " + nc[i]);
+                                       ": " + ncScores[i]);
                 }
             }
         } else {
-            CalcNCActionBase all = createNewCalcNCAction(x, y, nc, 0, y.length);
+            CalcNCActionBase all =
+                createNewCalcNCAction(x, y, ncScores, 0, y.length);
+            all.start();
+        }
+    }
+
+    @Override
+    public void calculateNonConformityScores(DoubleMatrix2D x,
+                                             double[] ncScores)
+    {
+        if (!PARALLEL) {
+            double[] rowScores = new double[_n_classes];
+            for (int i = 0; i < x.rows(); i++) {
+                calculateNonConformityScores(x.viewRow(i), rowScores);
+                System.arraycopy(rowScores, 0,
+                                 ncScores, i*_n_classes, _n_classes);
+            }
+        } else {
+            CalcAllNCActionBase all =
+                createNewCalcAllNCAction(x, ncScores, 0, x.rows());
             all.start();
         }
-        return nc;
     }
 
     @Override
@@ -174,6 +207,14 @@ public abstract class ClassifierNonconformityFunctionBase
         return new CalcNCActionBase(x, y, nc, first, last);
     }
 
+    CalcAllNCActionBase createNewCalcAllNCAction(DoubleMatrix2D x,
+                                                 double[] nc,
+                                                 int first,
+                                                 int last)
+    {
+        return new CalcAllNCActionBase(x, nc, first, last);
+    }
+
     class CalcNCActionBase extends se.hb.jcp.util.ParallelizedAction
     {
         DoubleMatrix2D _x;
@@ -203,4 +244,45 @@ public abstract class ClassifierNonconformityFunctionBase
             return createNewCalcNCAction(_x, _y, _nc, first, last);
         }
     }
+
+    class CalcAllNCActionBase extends se.hb.jcp.util.ParallelizedAction
+    {
+        DoubleMatrix2D _x;
+        double[] _nc;
+        double[] _rowScores;
+
+        public CalcAllNCActionBase(DoubleMatrix2D x,
+                                   double[] nc,
+                                   int first, int last)
+        {
+            super(first, last);
+            _x = x;
+            _nc = nc;
+        }
+
+        @Override
+        protected void initialize(int first, int last)
+        {
+            _rowScores = new double[_n_classes];
+        }
+
+        @Override
+        protected void finalize(int first, int last)
+        {
+            _rowScores = null;
+        }
+
+        @Override
+        protected void compute(int i)
+        {
+            calculateNonConformityScores(_x.viewRow(i), _rowScores);
+            System.arraycopy(_rowScores, 0, _nc, i*_n_classes, _n_classes);
+        }
+
+        @Override
+        protected ParallelizedAction createSubtask(int first, int last)
+        {
+            return createNewCalcAllNCAction(_x, _nc, first, last);
+        }
+    }
 }
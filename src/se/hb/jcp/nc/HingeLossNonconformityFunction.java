@@ -16,7 +16,6 @@
 //
 package se.hb.jcp.nc;
 
-import cern.colt.matrix.DoubleMatrix1D;
 import cern.colt.matrix.DoubleMatrix2D;
 
 import se.hb.jcp.ml.IClassProbabilityClassifier;
@@ -53,9 +52,10 @@ public class HingeLossNonconformityFunction
     }
 
     @Override
-    double computeNCScore(DoubleMatrix1D x, double y,
-                          double[] probability)
+    double computeNCScore(double y,
+                          double[] probability,
+                          int offset)
     {
-        return 1.0 - probability[_class_index.get(y)];
+        return 1.0 - probability[offset + _class_index.get(y)];
     }
 }
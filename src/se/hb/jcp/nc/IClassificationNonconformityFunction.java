@@ -29,7 +29,7 @@ import se.hb.jcp.ml.IClassifierInformation;
  * Contract for JCP use:
  * 1. The non-conformity function must be serializable, both as untrained and
  *    as trained.
- * 2. The fitNew, calculateNonConformityScore and calc_nc methods of the
+ * 2. The fitNew, calculateNonConformityScore(s) and calc_nc methods of the
  *    non-conformity function must be reentrant.
  */
 public interface IClassificationNonconformityFunction
@@ -86,6 +86,40 @@ public interface IClassificationNonconformityFunction
      */
     public double calculateNonConformityScore(DoubleMatrix1D x, double y);
 
+    /**
+     * Computes the non-conformity scores for the instance x with each of the
+     * targets/classes/labels. The underlying model, if any, should only have
+     * to make one prediction for the instance.
+     *
+     * @param x          the instance.
+     * @param ncScores   a <tt>double[]</tt> array to store the non-conformity score for each target/class/label in the order given by getLabels().
+     */
+    public void calculateNonConformityScores(DoubleMatrix1D x,
+                                             double[] ncScores);
+
+    /**
+     * Computes the non-conformity scores for the instances in x with the
+     * targets y.
+     *
+     * @param x          the instances.
+     * @param y          the targets/classes/labels of the instances.
+     * @param ncScores   a <tt>double[]</tt> array of length x.rows() to store the non-conformity scores.
+     */
+    public void calculateNonConformityScores(DoubleMatrix2D x,
+                                             double[] y,
+                                             double[] ncScores);
+
+    /**
+     * Computes the non-conformity scores for the instances in x with each of
+     * the targets/classes/labels. The underlying model, if any, should only
+     * have to make one prediction for each instance.
+     *
+     * @param x          the instances.
+     * @param ncScores   a <tt>double[]</tt> array of length x.rows() * getLabels().length to store the non-conformity scores row by row, each row in the order given by getLabels().
+     */
+    public void calculateNonConformityScores(DoubleMatrix2D x,
+                                             double[] ncScores);
+
     /**
      * Returns the classifier used by this non-conformity function.
      *
@@ -0,0 +1,92 @@
+// JCP - Java Conformal Prediction framework
+// Copyright (C) 2024  Anders Gidenstam
+//
+// This library is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+package se.hb.jcp.nc;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+
+/**
+ * Represents a non-conformity function for conformal classification that
+ * can be updated in place when a single example is added to or removed
+ * from its training set, i.e., without retraining from scratch.
+ *
+ * Transductive conformal classifiers use this to avoid fitting a new
+ * non-conformity function to the whole (n+1)-sized training set for each
+ * test instance and label.
+ *
+ * Contract for JCP use, in addition to that of
+ * IClassificationNonconformityFunction:
+ * 1. The addExample, removeExample and updateNonConformityScores methods
+ *    modify or depend on the state of the non-conformity function and need
+ *    not be reentrant. Concurrent users should work on separate copies
+ *    obtained from copy().
+ */
+public interface IIncrementalClassificationNonconformityFunction
+    extends IClassificationNonconformityFunction
+{
+    /**
+     * Adds an example to the training set of this trained non-conformity
+     * function.
+     *
+     * @param x    the instance.
+     * @param y    the target/class/label of the instance.
+     */
+    public void addExample(DoubleMatrix1D x, double y);
+
+    /**
+     * Removes an example, previously added or part of the original
+     * training set, from the training set of this trained non-conformity
+     * function.
+     *
+     * @param x    the instance.
+     * @param y    the target/class/label of the instance.
+     */
+    public void removeExample(DoubleMatrix1D x, double y);
+
+    /**
+     * Updates the non-conformity scores of the instances in x after the
+     * most recent call to addExample(). The added example must be the last
+     * instance in x and y. Only the scores affected by the addition are
+     * recomputed; the indices of the instances whose scores changed are
+     * stored in changed.
+     *
+     * As conformal p-values only depend on the order of the scores, the
+     * updated scores only need to order the instances as the scores of the
+     * updated non-conformity function would, i.e. they may differ from them
+     * by a common strictly increasing transformation. This lets e.g. scores
+     * normalized by the training set size stay unchanged for unaffected
+     * instances.
+     *
+     * @param x          the instances, with the added instance last.
+     * @param y          the targets/classes/labels of the instances, with the label of the added instance last.
+     * @param ncScores   a <tt>double[]</tt> array of length x.rows() that on entry contains the non-conformity scores of the first x.rows() - 1 instances before the addition and on return contains the updated scores of all instances after it.
+     * @param changed    an <tt>int[]</tt> array of length at least x.rows() - 1 to store the indices of the instances, other than the added one, whose scores changed.
+     * @return the number of indices stored in changed, or -1 if the scores of all instances may have changed, in which case changed is left unspecified.
+     */
+    public int updateNonConformityScores(DoubleMatrix2D x,
+                                         double[] y,
+                                         double[] ncScores,
+                                         int[] changed);
+
+    /**
+     * Returns an independent copy of this non-conformity function,
+     * including its trained state.
+     *
+     * @return a copy of this non-conformity function.
+     */
+    public IIncrementalClassificationNonconformityFunction copy();
+}
@@ -24,9 +24,14 @@ import cern.colt.matrix.impl.AbstractMatrix2D;
 public interface IRegressionNonconformityFunction {
     public DoubleMatrix2D predict(AbstractMatrix2D x, double significance);
     void fit(DoubleMatrix2D x, double[] y);
+    IRegressionNonconformityFunction fitNew(DoubleMatrix2D x, double[] y);
     boolean isTrained();
     double calculateNonConformityScore(DoubleMatrix1D instance, double label);
+    void calculateNonConformityScores(DoubleMatrix2D x, double[] y, double[] ncScores);
     double predict(DoubleMatrix1D instance);
+    void predict(DoubleMatrix2D x, int first, int last, double[] predictions);
+    double predictInterval(DoubleMatrix1D instance, double criticalScore, double[] bounds);
+    void predictIntervals(DoubleMatrix2D x, int first, int last, double[] criticalScores, double[] intervals, int offset);
     int getAttributeCount();
     DoubleMatrix1D nativeStorageTemplate();
 }
@@ -0,0 +1,315 @@
+// JCP - Java Conformal Prediction framework
+// Copyright (C) 2024  Anders Gidenstam
+//
+// This library is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+package se.hb.jcp.nc;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.AbstractMatrix2D;
+
+import se.hb.jcp.ml.IRegressor;
+
+/**
+ * Normalized absolute error nonconformity function, see
+ * [Papadopoulos, Vovk and Gammerman, ICMLA 2008]. The absolute error of
+ * the regressor is scaled by an estimate of the difficulty of the instance,
+ *
+ *   score = |y - prediction| / (exp(mu(x)) + beta),
+ *
+ * where mu is a second regressor trained to predict the logarithm of the
+ * absolute error. Prediction intervals made with this nonconformity
+ * function are thus wider for difficult instances and narrower for easy
+ * ones.
+ *
+ * The error model must be trained on errors the regressor did not see in
+ * training. fit() therefore trains the regressor on all the training data
+ * and, concurrently, a probe regressor on one half of it followed by the
+ * error model, whose training targets are the errors of the probe on the
+ * other half.
+ *
+ * @author anders.gidenstam(at)hb.se
+ */
+public class NormalizedAbsoluteErrorNonconformityFunction
+    extends PairedRegressorNonconformityFunctionBase
+{
+    // The smallest error used for the error model, relative to the mean
+    // absolute error of the probe regressor.
+    private static final double ERROR_FLOOR = 1e-3;
+
+    private IRegressor _regressor;
+    private IRegressor _errorRegressor;
+    private double _beta;
+
+    /**
+     * Creates a normalized absolute error nonconformity function with
+     * beta = 0.
+     *
+     * @param regressor        the regressor predicting the label.
+     * @param errorRegressor   the regressor predicting the logarithm of the absolute error.
+     */
+    public NormalizedAbsoluteErrorNonconformityFunction
+        (IRegressor regressor, IRegressor errorRegressor)
+    {
+        this(regressor, errorRegressor, 0.0);
+    }
+
+    /**
+     * Creates a normalized absolute error nonconformity function.
+     * The regressors are used as prototypes and are not trained
+     * themselves; the same instance may be passed for both.
+     *
+     * @param regressor        the regressor predicting the label.
+     * @param errorRegressor   the regressor predicting the logarithm of the absolute error.
+     * @param beta             the sensitivity, a non-negative constant added to the difficulty estimate.
+     */
+    public NormalizedAbsoluteErrorNonconformityFunction
+        (IRegressor regressor, IRegressor errorRegressor, double beta)
+    {
+        if (!(beta >= 0.0)) {
+            throw new IllegalArgumentException
+                          ("The sensitivity beta must be non-negative.");
+        }
+        _regressor = regressor;
+        _errorRegressor = errorRegressor;
+        _beta = beta;
+    }
+
+    @Override
+    public void fit(DoubleMatrix2D x, double[] y)
+    {
+        if (y.length < 2) {
+            throw new IllegalArgumentException
+                          ("At least two training instances are needed.");
+        }
+        // Train the regressor concurrently with the probe and error model
+        // chain.
+        IRegressor[] trained = fitModels(x, y);
+        _regressor = trained[0];
+        _errorRegressor = trained[1];
+        _isTrained = true;
+    }
+
+    @Override
+    IRegressor fitModel(int model, DoubleMatrix2D x, double[] y)
+    {
+        if (model == 0) {
+            return _regressor.fitNew(x, y);
+        } else {
+            return fitErrorRegressor(x, y);
+        }
+    }
+
+    /**
+     * Trains a new error model: a probe regressor is trained on one half
+     * of the training data and the error model on the log absolute errors
+     * of the probe on the other half.
+     *
+     * @param x  the training instances.
+     * @param y  the training labels.
+     * @return the trained error model.
+     */
+    private IRegressor fitErrorRegressor(DoubleMatrix2D x, double[] y)
+    {
+        int n = y.length;
+        // Every other instance goes to the probe and the rest to the
+        // error model.
+        int[] probeRows = new int[(n + 1) / 2];
+        int[] errorRows = new int[n / 2];
+        for (int i = 0; i < n; i++) {
+            if (i % 2 == 0) {
+                probeRows[i / 2] = i;
+            } else {
+                errorRows[i / 2] = i;
+            }
+        }
+        DoubleMatrix2D xProbe = selectRows(x, probeRows);
+        DoubleMatrix2D xError = selectRows(x, errorRows);
+        double[] yError = selectElements(y, errorRows);
+        IRegressor probe =
+            _regressor.fitNew(xProbe, selectElements(y, probeRows));
+
+        // The targets of the error model are the log absolute errors of
+        // the probe on the held out instances.
+        double[] errors = new double[errorRows.length];
+        probe.predict(xError, 0, errors.length, errors);
+        double meanError = 0.0;
+        for (int i = 0; i < errors.length; i++) {
+            errors[i] = Math.abs(yError[i] - errors[i]);
+            meanError += errors[i];
+        }
+        meanError /= errors.length;
+        double floor = Math.max(ERROR_FLOOR * meanError, Double.MIN_NORMAL);
+        for (int i = 0; i < errors.length; i++) {
+            errors[i] = Math.log(errors[i] + floor);
+        }
+        return _errorRegressor.fitNew(xError, errors);
+    }
+
+    @Override
+    public IRegressionNonconformityFunction fitNew(DoubleMatrix2D x,
+                                                   double[] y)
+    {
+        NormalizedAbsoluteErrorNonconformityFunction nc =
+            new NormalizedAbsoluteErrorNonconformityFunction(_regressor,
+                                                             _errorRegressor,
+                                                             _beta);
+        nc.fit(x, y);
+        return nc;
+    }
+
+    @Override
+    public double calculateNonConformityScore(DoubleMatrix1D instance,
+                                              double label)
+    {
+        return Math.abs(label - _regressor.predict(instance)) /
+            difficulty(_errorRegressor.predict(instance));
+    }
+
+    @Override
+    void computeNCScores(DoubleMatrix2D x, double[] y, int first, int last,
+                         double[] ncScores)
+    {
+        double[] predictions = new double[last - first];
+        double[] logErrors = new double[last - first];
+        _regressor.predict(x, first, last, predictions);
+        _errorRegressor.predict(x, first, last, logErrors);
+        for (int i = first; i < last; i++) {
+            ncScores[i] = Math.abs(y[i] - predictions[i - first]) /
+                difficulty(logErrors[i - first]);
+        }
+    }
+
+    @Override
+    public double predict(DoubleMatrix1D instance)
+    {
+        return _regressor.predict(instance);
+    }
+
+    @Override
+    public void predict(DoubleMatrix2D x, int first, int last,
+                        double[] predictions)
+    {
+        _regressor.predict(x, first, last, predictions);
+    }
+
+    /**
+     * Predicts the label of an instance and the prediction interval that
+     * corresponds to a critical non-conformity score. The interval is the
+     * prediction plus/minus the critical score scaled by the difficulty
+     * of the instance.
+     *
+     * @param instance       the instance.
+     * @param criticalScore  the critical non-conformity score.
+     * @param bounds         a <tt>double[2]</tt> array to store the interval as {lower, upper}.
+     * @return the predicted label.
+     */
+    @Override
+    public double predictInterval(DoubleMatrix1D instance,
+                                  double criticalScore,
+                                  double[] bounds)
+    {
+        double prediction = _regressor.predict(instance);
+        double halfWidth =
+            halfWidth(criticalScore,
+                      difficulty(_errorRegressor.predict(instance)));
+        bounds[0] = prediction - halfWidth;
+        bounds[1] = prediction + halfWidth;
+        return prediction;
+    }
+
+    @Override
+    public void predictIntervals(DoubleMatrix2D x, int first, int last,
+                                 double[] criticalScores,
+                                 double[] intervals, int offset)
+    {
+        double[] predictions = new double[last - first];
+        double[] logErrors = new double[last - first];
+        _regressor.predict(x, first, last, predictions);
+        _errorRegressor.predict(x, first, last, logErrors);
+        int levels = criticalScores.length;
+        for (int i = 0; i < predictions.length; i++) {
+            double difficulty = difficulty(logErrors[i]);
+            int o = offset + i * levels * 2;
+            for (int l = 0; l < levels; l++) {
+                double halfWidth = halfWidth(criticalScores[l], difficulty);
+                intervals[o + 2*l]     = predictions[i] - halfWidth;
+                intervals[o + 2*l + 1] = predictions[i] + halfWidth;
+            }
+        }
+    }
+
+    @Override
+    public DoubleMatrix2D predict(AbstractMatrix2D x, double significance)
+    {
+        throw new UnsupportedOperationException("Not implemented.");
+    }
+
+    @Override
+    public int getAttributeCount()
+    {
+        return _regressor.getAttributeCount();
+    }
+
+    @Override
+    public DoubleMatrix1D nativeStorageTemplate()
+    {
+        return _regressor.nativeStorageTemplate();
+    }
+
+    /**
+     * Returns the sensitivity beta.
+     *
+     * @return the sensitivity.
+     */
+    public double getBeta()
+    {
+        return _beta;
+    }
+
+    private double difficulty(double logError)
+    {
+        return Math.exp(logError) + _beta;
+    }
+
+    private static double halfWidth(double criticalScore, double difficulty)
+    {
+        // An infinite critical score, i.e. too few calibration scores for
+        // the confidence level, gives an unbounded interval also where the
+        // difficulty estimate underflows to zero.
+        if (Double.isInfinite(criticalScore)) {
+            return criticalScore;
+        }
+        return criticalScore * difficulty;
+    }
+
+    private static DoubleMatrix2D selectRows(DoubleMatrix2D x, int[] rows)
+    {
+        DoubleMatrix2D result = x.like(rows.length, x.columns());
+        for (int r = 0; r < rows.length; r++) {
+            result.viewRow(r).assign(x.viewRow(rows[r]));
+        }
+        return result;
+    }
+
+    private static double[] selectElements(double[] y, int[] rows)
+    {
+        double[] result = new double[rows.length];
+        for (int r = 0; r < rows.length; r++) {
+            result[r] = y[rows[r]];
+        }
+        return result;
+    }
+}
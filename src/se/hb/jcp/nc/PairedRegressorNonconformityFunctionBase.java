@@ -0,0 +1,178 @@
+// JCP - Java Conformal Prediction framework
+// Copyright (C) 2024  Anders Gidenstam
+//
+// This library is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+package se.hb.jcp.nc;
+
+import cern.colt.matrix.DoubleMatrix2D;
+
+import se.hb.jcp.ml.IRegressor;
+import se.hb.jcp.util.ParallelizedAction;
+
+/**
+ * Base class for regression nonconformity functions based on two
+ * regressors, e.g. a label regressor and a difficulty regressor or a lower
+ * and an upper quantile regressor. The two models are trained concurrently
+ * and the non-conformity scores are calculated in parallel over blocks of
+ * instances.
+ *
+ * @author anders.gidenstam(at)hb.se
+ */
+abstract class PairedRegressorNonconformityFunctionBase
+    implements IRegressionNonconformityFunction, java.io.Serializable
+{
+    static final boolean PARALLEL = true;
+
+    boolean _isTrained = false;
+
+    @Override
+    public boolean isTrained()
+    {
+        return _isTrained;
+    }
+
+    @Override
+    public final void calculateNonConformityScores(DoubleMatrix2D x,
+                                                   double[] y,
+                                                   double[] ncScores)
+    {
+        CalcNCAction all = new CalcNCAction(x, y, ncScores, 0, y.length);
+        if (!PARALLEL) {
+            all.compute(0, y.length);
+        } else {
+            all.start();
+        }
+    }
+
+    /**
+     * Trains the two models concurrently.
+     *
+     * @param x  the training instances.
+     * @param y  the training labels.
+     * @return the two trained models, ordered as for fitModel().
+     */
+    IRegressor[] fitModels(DoubleMatrix2D x, double[] y)
+    {
+        IRegressor[] trained = new IRegressor[2];
+        FitAction fit = new FitAction(x, y, trained, 0, 2);
+        if (!PARALLEL) {
+            fit.compute(0);
+            fit.compute(1);
+        } else {
+            fit.start();
+        }
+        return trained;
+    }
+
+    /**
+     * Step in the fitModels template method for training one of the two
+     * models. The two steps run concurrently and must not modify this
+     * nonconformity function.
+     *
+     * @param model  the model to train, 0 or 1.
+     * @param x      the training instances.
+     * @param y      the training labels.
+     * @return the trained model.
+     */
+    abstract IRegressor fitModel(int model, DoubleMatrix2D x, double[] y);
+
+    /**
+     * Step in the calculateNonConformityScores template method for
+     * computing the non-conformity scores of the instances with index in
+     * [first, last), preferably with one batch prediction of each model.
+     *
+     * @param x         the instances.
+     * @param y         the labels of the instances.
+     * @param first     the index of the first instance.
+     * @param last      the index after the last instance.
+     * @param ncScores  the array to store the scores in, at the index of the instance.
+     */
+    abstract void computeNCScores(DoubleMatrix2D x, double[] y,
+                                  int first, int last,
+                                  double[] ncScores);
+
+    class FitAction extends ParallelizedAction
+    {
+        DoubleMatrix2D _x;
+        double[] _y;
+        IRegressor[] _trained;
+
+        public FitAction(DoubleMatrix2D x,
+                         double[] y,
+                         IRegressor[] trained,
+                         int first, int last)
+        {
+            super(first, last);
+            _x = x;
+            _y = y;
+            _trained = trained;
+        }
+
+        @Override
+        protected void compute(int i)
+        {
+            _trained[i] = fitModel(i, _x, _y);
+        }
+
+        @Override
+        protected boolean isNestedParallelismAllowed()
+        {
+            // Each task uses only a fraction of the available threads.
+            return true;
+        }
+
+        @Override
+        protected ParallelizedAction createSubtask(int first, int last)
+        {
+            return new FitAction(_x, _y, _trained, first, last);
+        }
+    }
+
+    class CalcNCAction extends ParallelizedAction
+    {
+        DoubleMatrix2D _x;
+        double[] _y;
+        double[] _nc;
+
+        public CalcNCAction(DoubleMatrix2D x,
+                            double[] y,
+                            double[] nc,
+                            int first, int last)
+        {
+            super(first, last);
+            _x = x;
+            _y = y;
+            _nc = nc;
+        }
+
+        @Override
+        protected void compute(int i)
+        {
+            compute(i, i + 1);
+        }
+
+        @Override
+        protected void compute(int first, int last)
+        {
+            computeNCScores(_x, _y, first, last, _nc);
+        }
+
+        @Override
+        protected ParallelizedAction createSubtask(int first, int last)
+        {
+            return new CalcNCAction(_x, _y, _nc, first, last);
+        }
+    }
+}
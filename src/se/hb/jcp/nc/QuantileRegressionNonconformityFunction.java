@@ -0,0 +1,233 @@
+// JCP - Java Conformal Prediction framework
+// Copyright (C) 2024  Anders Gidenstam
+//
+// This library is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+package se.hb.jcp.nc;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+import cern.colt.matrix.impl.AbstractMatrix2D;
+
+import se.hb.jcp.ml.IRegressor;
+
+/**
+ * Conformalized quantile regression (CQR) nonconformity function, see
+ * [Romano, Patterson and Candes, NeurIPS 2019]. Two regressors predict a
+ * lower and an upper quantile of the label and the non-conformity score
+ * of an instance is the largest violation of the predicted interval,
+ *
+ *   score = max(lower(x) - y, y - upper(x)).
+ *
+ * Used with an InductiveConformalRegressor the prediction interval for a
+ * critical score q is [lower(x) - q, upper(x) + q], i.e. the width of the
+ * intervals adapts to the instances. Note that q can be negative if the
+ * quantile regressors are conservative.
+ *
+ * The regressors should be trained with a quantile (pinball) loss for the
+ * desired quantiles, e.g. 0.05 and 0.95, but any regressors can be used.
+ *
+ * @author anders.gidenstam(at)hb.se
+ */
+public class QuantileRegressionNonconformityFunction
+    extends PairedRegressorNonconformityFunctionBase
+{
+    private IRegressor _lowerRegressor;
+    private IRegressor _upperRegressor;
+
+    /**
+     * Creates a quantile regression nonconformity function. The
+     * regressors are used as prototypes and are not trained themselves.
+     * The two regressors must be distinct instances as they are trained
+     * concurrently.
+     *
+     * @param lowerRegressor   the regressor predicting the lower quantile.
+     * @param upperRegressor   the regressor predicting the upper quantile.
+     */
+    public QuantileRegressionNonconformityFunction(IRegressor lowerRegressor,
+                                                   IRegressor upperRegressor)
+    {
+        if (lowerRegressor == upperRegressor) {
+            throw new IllegalArgumentException
+                          ("The quantile regressors must be distinct instances.");
+        }
+        _lowerRegressor = lowerRegressor;
+        _upperRegressor = upperRegressor;
+    }
+
+    @Override
+    public void fit(DoubleMatrix2D x, double[] y)
+    {
+        // Train the two quantile regressors concurrently.
+        IRegressor[] trained = fitModels(x, y);
+        _lowerRegressor = trained[0];
+        _upperRegressor = trained[1];
+        _isTrained = true;
+    }
+
+    @Override
+    public IRegressionNonconformityFunction fitNew(DoubleMatrix2D x,
+                                                   double[] y)
+    {
+        QuantileRegressionNonconformityFunction nc =
+            new QuantileRegressionNonconformityFunction(_lowerRegressor,
+                                                        _upperRegressor);
+        nc.fit(x, y);
+        return nc;
+    }
+
+    @Override
+    IRegressor fitModel(int model, DoubleMatrix2D x, double[] y)
+    {
+        if (model == 0) {
+            return _lowerRegressor.fitNew(x, y);
+        } else {
+            return _upperRegressor.fitNew(x, y);
+        }
+    }
+
+    @Override
+    public double calculateNonConformityScore(DoubleMatrix1D instance,
+                                              double label)
+    {
+        return computeNCScore(label,
+                              _lowerRegressor.predict(instance),
+                              _upperRegressor.predict(instance));
+    }
+
+    @Override
+    void computeNCScores(DoubleMatrix2D x, double[] y, int first, int last,
+                         double[] ncScores)
+    {
+        double[] lower = new double[last - first];
+        double[] upper = new double[last - first];
+        _lowerRegressor.predict(x, first, last, lower);
+        _upperRegressor.predict(x, first, last, upper);
+        for (int i = first; i < last; i++) {
+            ncScores[i] = computeNCScore(y[i],
+                                         lower[i - first], upper[i - first]);
+        }
+    }
+
+    /**
+     * Predicts the label of an instance as the midpoint of the predicted
+     * quantiles.
+     *
+     * @param instance  the instance.
+     * @return the predicted label.
+     */
+    @Override
+    public double predict(DoubleMatrix1D instance)
+    {
+        return 0.5 * (_lowerRegressor.predict(instance) +
+                      _upperRegressor.predict(instance));
+    }
+
+    @Override
+    public void predict(DoubleMatrix2D x, int first, int last,
+                        double[] predictions)
+    {
+        double[] upper = new double[last - first];
+        _lowerRegressor.predict(x, first, last, predictions);
+        _upperRegressor.predict(x, first, last, upper);
+        for (int i = 0; i < upper.length; i++) {
+            predictions[i] = 0.5 * (predictions[i] + upper[i]);
+        }
+    }
+
+    /**
+     * Predicts the label of an instance and the prediction interval that
+     * corresponds to a critical non-conformity score. The interval is the
+     * predicted quantile interval widened by the critical score.
+     *
+     * @param instance       the instance.
+     * @param criticalScore  the critical non-conformity score.
+     * @param bounds         a <tt>double[2]</tt> array to store the interval as {lower, upper}.
+     * @return the predicted label.
+     */
+    @Override
+    public double predictInterval(DoubleMatrix1D instance,
+                                  double criticalScore,
+                                  double[] bounds)
+    {
+        double lower = _lowerRegressor.predict(instance);
+        double upper = _upperRegressor.predict(instance);
+        bounds[0] = lower - criticalScore;
+        bounds[1] = upper + criticalScore;
+        return 0.5 * (lower + upper);
+    }
+
+    @Override
+    public void predictIntervals(DoubleMatrix2D x, int first, int last,
+                                 double[] criticalScores,
+                                 double[] intervals, int offset)
+    {
+        // One batch prediction of each quantile for the whole interval.
+        double[] lower = new double[last - first];
+        double[] upper = new double[last - first];
+        _lowerRegressor.predict(x, first, last, lower);
+        _upperRegressor.predict(x, first, last, upper);
+        int levels = criticalScores.length;
+        for (int i = 0; i < lower.length; i++) {
+            int o = offset + i * levels * 2;
+            for (int l = 0; l < levels; l++) {
+                intervals[o + 2*l]     = lower[i] - criticalScores[l];
+                intervals[o + 2*l + 1] = upper[i] + criticalScores[l];
+            }
+        }
+    }
+
+    @Override
+    public DoubleMatrix2D predict(AbstractMatrix2D x, double significance)
+    {
+        throw new UnsupportedOperationException("Not implemented.");
+    }
+
+    @Override
+    public int getAttributeCount()
+    {
+        return _lowerRegressor.getAttributeCount();
+    }
+
+    @Override
+    public DoubleMatrix1D nativeStorageTemplate()
+    {
+        return _lowerRegressor.nativeStorageTemplate();
+    }
+
+    /**
+     * Returns the regressor predicting the lower quantile.
+     *
+     * @return the lower quantile regressor.
+     */
+    public IRegressor getLowerRegressor()
+    {
+        return _lowerRegressor;
+    }
+
+    /**
+     * Returns the regressor predicting the upper quantile.
+     *
+     * @return the upper quantile regressor.
+     */
+    public IRegressor getUpperRegressor()
+    {
+        return _upperRegressor;
+    }
+
+    private static double computeNCScore(double y, double lower, double upper)
+    {
+        return Math.max(lower - y, y - upper);
+    }
+}
@@ -27,7 +27,8 @@ public final class RegressionNonconformityFunctionFactory {
     private static final RegressionNonconformityFunctionFactory _theInstance = new RegressionNonconformityFunctionFactory();
     private static final String[] _ncfNames = {
         "absolute error nonconformity function",
-        "squared error nonconformity function"
+        "squared error nonconformity function",
+        "normalized absolute error nonconformity function"
     };
 
     private RegressionNonconformityFunctionFactory() {
@@ -43,6 +44,9 @@ public final class RegressionNonconformityFunctionFactory {
             return new AbsoluteErrorNonconformityFunction(regressor);
         case 1:
             return new SquaredErrorNonconformityFunction(regressor);
+        case 2:
+            return new NormalizedAbsoluteErrorNonconformityFunction(regressor,
+                                                                    regressor);
         default:
             throw new UnsupportedOperationException("Unknown nonconformity function type.");
         }
@@ -0,0 +1,208 @@
+// JCP - Java Conformal Prediction framework
+// Copyright (C) 2024  Anders Gidenstam
+//
+// This library is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+package se.hb.jcp.nc;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+
+import se.hb.jcp.ml.IRegressor;
+import se.hb.jcp.util.ParallelizedAction;
+
+/**
+ * Base class for nonconformity functions based on the prediction error of
+ * a regressor.
+ *
+ * @author anders.gidenstam(at)hb.se
+ */
+public abstract class RegressorNonconformityFunctionBase
+    implements IRegressionNonconformityFunction, java.io.Serializable
+{
+    static final boolean PARALLEL = true;
+
+    IRegressor _regressor;
+    boolean _isTrained = false;
+
+    public RegressorNonconformityFunctionBase(IRegressor regressor)
+    {
+        _regressor = regressor;
+    }
+
+    @Override
+    public void fit(DoubleMatrix2D x, double[] y)
+    {
+        _regressor.fit(x, y);
+        _isTrained = true;
+    }
+
+    @Override
+    public boolean isTrained()
+    {
+        return _isTrained;
+    }
+
+    @Override
+    public final double calculateNonConformityScore(DoubleMatrix1D instance,
+                                                    double label)
+    {
+        return computeNCScore(label, _regressor.predict(instance));
+    }
+
+    @Override
+    public final void calculateNonConformityScores(DoubleMatrix2D x,
+                                                   double[] y,
+                                                   double[] ncScores)
+    {
+        if (!PARALLEL) {
+            _regressor.predict(x, 0, y.length, ncScores);
+            for (int i = 0; i < y.length; i++) {
+                ncScores[i] = computeNCScore(y[i], ncScores[i]);
+            }
+        } else {
+            CalcNCAction all = new CalcNCAction(x, y, ncScores, 0, y.length);
+            all.start();
+        }
+    }
+
+    @Override
+    public double predict(DoubleMatrix1D instance)
+    {
+        return _regressor.predict(instance);
+    }
+
+    @Override
+    public void predict(DoubleMatrix2D x, int first, int last,
+                        double[] predictions)
+    {
+        _regressor.predict(x, first, last, predictions);
+    }
+
+    /**
+     * Predicts the label of an instance and the prediction interval that
+     * corresponds to a critical non-conformity score. The interval is the
+     * prediction plus/minus the critical score.
+     *
+     * @param instance       the instance.
+     * @param criticalScore  the critical non-conformity score.
+     * @param bounds         a <tt>double[2]</tt> array to store the interval as {lower, upper}.
+     * @return the predicted label.
+     */
+    @Override
+    public double predictInterval(DoubleMatrix1D instance,
+                                  double criticalScore,
+                                  double[] bounds)
+    {
+        double prediction = _regressor.predict(instance);
+        bounds[0] = prediction - criticalScore;
+        bounds[1] = prediction + criticalScore;
+        return prediction;
+    }
+
+    /**
+     * Predicts the prediction intervals of the instances with index in
+     * [first, last) for several critical non-conformity scores with one
+     * batch prediction. The interval for instance i and critical score l
+     * is stored as {lower, upper} at index
+     * offset + ((i - first) * criticalScores.length + l) * 2.
+     *
+     * @param x               the instances.
+     * @param first           the index of the first instance.
+     * @param last            the index after the last instance.
+     * @param criticalScores  the critical non-conformity scores.
+     * @param intervals       a <tt>double[]</tt> array to store the intervals.
+     * @param offset          the index in intervals of the first interval.
+     */
+    @Override
+    public void predictIntervals(DoubleMatrix2D x, int first, int last,
+                                 double[] criticalScores,
+                                 double[] intervals, int offset)
+    {
+        double[] predictions = new double[last - first];
+        _regressor.predict(x, first, last, predictions);
+        int levels = criticalScores.length;
+        for (int i = 0; i < predictions.length; i++) {
+            int o = offset + i * levels * 2;
+            for (int l = 0; l < levels; l++) {
+                intervals[o + 2*l]     = predictions[i] - criticalScores[l];
+                intervals[o + 2*l + 1] = predictions[i] + criticalScores[l];
+            }
+        }
+    }
+
+    @Override
+    public int getAttributeCount()
+    {
+        return _regressor.getAttributeCount();
+    }
+
+    @Override
+    public DoubleMatrix1D nativeStorageTemplate()
+    {
+        return _regressor.nativeStorageTemplate();
+    }
+
+    /**
+     * Step in the calculateNonConformityScore template method for computing
+     * the non-conformity score of an instance based on its label and the
+     * predicted label.
+     *
+     * @param y           the label of the instance.
+     * @param prediction  the label predicted by the regressor.
+     * @return  the non-conformity score of the instance.
+     */
+    abstract double computeNCScore(double y, double prediction);
+
+    class CalcNCAction extends ParallelizedAction
+    {
+        DoubleMatrix2D _x;
+        double[] _y;
+        double[] _nc;
+
+        public CalcNCAction(DoubleMatrix2D x,
+                            double[] y,
+                            double[] nc,
+                            int first, int last)
+        {
+            super(first, last);
+            _x = x;
+            _y = y;
+            _nc = nc;
+        }
+
+        @Override
+        protected void compute(int i)
+        {
+            compute(i, i + 1);
+        }
+
+        @Override
+        protected void compute(int first, int last)
+        {
+            // One batch prediction for the whole sub-interval.
+            double[] predictions = new double[last - first];
+            _regressor.predict(_x, first, last, predictions);
+            for (int i = first; i < last; i++) {
+                _nc[i] = computeNCScore(_y[i], predictions[i - first]);
+            }
+        }
+
+        @Override
+        protected ParallelizedAction createSubtask(int first, int last)
+        {
+            return new CalcNCAction(_x, _y, _nc, first, last);
+        }
+    }
+}
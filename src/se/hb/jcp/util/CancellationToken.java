@@ -0,0 +1,94 @@
+// JCP - Java Conformal Prediction framework
+// Copyright (C) 2024  Anders Gidenstam
+//
+// This library is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+package se.hb.jcp.util;
+
+/**
+ * A <tt>CancellationToken</tt> tells long running parallel actions to stop,
+ * either on request or when a deadline has passed. The actions check the
+ * token between the indices they compute, so the computation already
+ * started for an index is always completed.
+ *
+ * @author anders.gidenstam(at)hb.se
+ */
+public class CancellationToken
+{
+    private volatile boolean _cancelled;
+    private final long _deadline;
+
+    /**
+     * Creates a cancellation token without a deadline.
+     */
+    public CancellationToken()
+    {
+        this(Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates a cancellation token with a deadline.
+     *
+     * @param deadline  the deadline as a time in milliseconds as given by <tt>System.currentTimeMillis()</tt>.
+     */
+    public CancellationToken(long deadline)
+    {
+        _deadline = deadline;
+    }
+
+    /**
+     * Creates a cancellation token with a deadline relative to the current
+     * time.
+     *
+     * @param timeout   the time until the deadline in milliseconds.
+     * @return a new <tt>CancellationToken</tt>.
+     */
+    public static CancellationToken withTimeout(long timeout)
+    {
+        return new CancellationToken(System.currentTimeMillis() + timeout);
+    }
+
+    /**
+     * Requests that the actions using this token stop.
+     */
+    public void cancel()
+    {
+        _cancelled = true;
+    }
+
+    /**
+     * Returns whether the actions using this token should stop, i.e.
+     * whether cancel() has been called or the deadline has passed.
+     *
+     * @return true if the actions should stop; false otherwise.
+     */
+    public boolean isCancelled()
+    {
+        if (!_cancelled && _deadline != Long.MAX_VALUE &&
+            System.currentTimeMillis() >= _deadline) {
+            _cancelled = true;
+        }
+        return _cancelled;
+    }
+
+    /**
+     * Returns the deadline of this token.
+     *
+     * @return the deadline in milliseconds as given by <tt>System.currentTimeMillis()</tt> or <tt>Long.MAX_VALUE</tt> if there is none.
+     */
+    public long getDeadline()
+    {
+        return _deadline;
+    }
+}
@@ -0,0 +1,188 @@
+// JCP - Java Conformal Prediction framework
+// Copyright (C) 2024  Anders Gidenstam
+//
+// This library is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+// The public interface is based on cern.colt.matrix.DoubleMatrix2D.
+package se.hb.jcp.util;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+
+/**
+ * A 2-d matrix consisting of the rows of an existing base matrix followed
+ * by a few extra rows of its own. The rows of the base matrix are shared,
+ * not copied, and are read-only through this matrix. The extra rows are
+ * stored in a matrix of the same dynamic type as the base matrix.
+ *
+ * This is intended for transductive training where a training set is
+ * extended with one test instance at a time.
+ *
+ * @author anders.gidenstam(at)hb.se
+ */
+public class ExtendedDoubleMatrix2D extends cern.colt.matrix.DoubleMatrix2D
+{
+    private final DoubleMatrix2D _base;
+    private final DoubleMatrix2D _extension;
+
+    /**
+     * Constructs a matrix with the rows of base followed by extraRows
+     * new rows. All entries of the new rows are initially <tt>0</tt>.
+     *
+     * @param base       the matrix whose rows are shared.
+     * @param extraRows  the number of extra rows.
+     */
+    public ExtendedDoubleMatrix2D(DoubleMatrix2D base, int extraRows)
+    {
+        this(base, base.like(extraRows, base.columns()));
+    }
+
+    /**
+     * Constructs a matrix with the rows of base followed by the rows of
+     * extension. The rows of both matrices are shared.
+     *
+     * @param base       the matrix whose rows come first.
+     * @param extension  the matrix whose rows come last.
+     */
+    public ExtendedDoubleMatrix2D(DoubleMatrix2D base,
+                                  DoubleMatrix2D extension)
+    {
+        if (base.columns() != extension.columns()) {
+            throw new IllegalArgumentException
+                          ("The matrices must have the same number of " +
+                           "columns.");
+        }
+        setUp(base.rows() + extension.rows(), base.columns());
+        _base = base;
+        _extension = extension;
+    }
+
+    /**
+     * Returns the matrix whose rows come first in this matrix.
+     *
+     * @return the base matrix.
+     */
+    public DoubleMatrix2D getBase()
+    {
+        return _base;
+    }
+
+    /**
+     * Returns the matrix holding the extra rows of this matrix.
+     *
+     * @return the matrix with the extra rows.
+     */
+    public DoubleMatrix2D getExtension()
+    {
+        return _extension;
+    }
+
+    /**
+     * Construct and returns a new empty matrix of the same dynamic type
+     * as the base matrix, having the specified number of rows and columns.
+     *
+     * @param rows the number of rows the matrix shall have.
+     * @param columns the number of columns the matrix shall have.
+     * @return  a new empty matrix of the same dynamic type.
+     */
+    public DoubleMatrix2D like(int rows, int columns)
+    {
+        return _base.like(rows, columns);
+    }
+
+    /**
+     * Construct and returns a new 1-d matrix of the type corresponding to
+     * the base matrix, entirelly independent of the receiver.
+     *
+     * @param  size the number of cells the matrix shall have.
+     * @return  a new matrix of the corresponding dynamic type.
+     */
+    public DoubleMatrix1D like1D(int size)
+    {
+        return _base.like1D(size);
+    }
+
+    /**
+     * Not supported.
+     */
+    protected DoubleMatrix1D like1D(int size, int zero, int stride)
+    {
+        throw new UnsupportedOperationException("Not implemented");
+    }
+
+    /**
+     * Returns the matrix cell value at coordinate <tt>[row,column]</tt>.
+     * Precondition (unchecked): <tt>0 &lt;= column &lt; columns() &amp;&amp;
+     * 0 &lt;= row &lt; rows()</tt>.
+     *
+     * @param row     the index of the row-coordinate.
+     * @param column  the index of the column-coordinate.
+     * @return the value at the specified coordinate.
+     */
+    public double getQuick(int row, int column)
+    {
+        if (row < _base.rows()) {
+            return _base.getQuick(row, column);
+        } else {
+            return _extension.getQuick(row - _base.rows(), column);
+        }
+    }
+
+    /**
+     * Sets the matrix cell at coordinate <tt>[row,column]</tt> to the
+     * specified value. Only the extra rows can be modified.
+     * Precondition (unchecked): <tt>0 &lt;= column &lt; columns() &amp;&amp;
+     * 0 &lt;= row &lt; rows()</tt>.
+     *
+     * @param row     the index of the row-coordinate.
+     * @param column  the index of the column-coordinate.
+     * @param value   the value to be filled into the specified cell.
+     * @throws UnsupportedOperationException if the row belongs to the base matrix.
+     */
+    public void setQuick(int row, int column, double value)
+    {
+        if (row < _base.rows()) {
+            throw new UnsupportedOperationException
+                          ("The rows of the base matrix are read-only.");
+        }
+        _extension.setQuick(row - _base.rows(), column, value);
+    }
+
+    /**
+     * Returns a view of the given row. Views of the rows of the base matrix
+     * must not be modified.
+     *
+     * @param row the row to fix.
+     * @return a view of the row.
+     * @throws IndexOutOfBoundsException if <tt>row &lt; 0 || row &gt;= rows()</tt>.
+     */
+    public DoubleMatrix1D viewRow(int row)
+    {
+        checkRow(row);
+        if (row < _base.rows()) {
+            return _base.viewRow(row);
+        } else {
+            return _extension.viewRow(row - _base.rows());
+        }
+    }
+
+    /**
+     * Not supported.
+     */
+    protected DoubleMatrix2D viewSelectionLike(int[] rowOffsets,
+                                               int[] columnOffsets)
+    {
+        throw new UnsupportedOperationException("Not implemented");
+    }
+}
@@ -0,0 +1,35 @@
+// JCP - Java Conformal Prediction framework
+// Copyright (C) 2024  Anders Gidenstam
+//
+// This library is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+package se.hb.jcp.util;
+
+/**
+ * Receives progress reports from a parallel action. The reports are made
+ * from the threads executing the action, so implementations must be
+ * thread-safe and should return quickly.
+ *
+ * @author anders.gidenstam(at)hb.se
+ */
+public interface IProgressListener
+{
+    /**
+     * Called each time a part of the action has been completed.
+     *
+     * @param completed   the number of indices completed so far.
+     * @param total       the total number of indices of the action.
+     */
+    public void progressed(int completed, int total);
+}
@@ -0,0 +1,197 @@
+// JCP - Java Conformal Prediction framework
+// Copyright (C) 2024  Anders Gidenstam
+//
+// This library is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+package se.hb.jcp.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A <tt>MicroBatchingFIFOExecutor</tt> collects submitted items into
+ * micro-batches, processes the batches in parallel and returns the batch
+ * results in the order the items were submitted. Processing a batch of
+ * items at once, e.g. with a matrix-level predict, avoids the per-item
+ * task hand-off cost of a <tt>FIFOParallelExecutor</tt> for cheap items.
+ *
+ * A batch is processed when it is full or when flush() is called, e.g.
+ * when the producer is about to wait for more input. The results of at
+ * most <tt>parallelism</tt> batches are in flight at any time; they are
+ * held in a fixed size ring buffer. FIFO order is guaranteed for a single
+ * producer and a single consumer.
+ *
+ * Any <tt>ExecutorService</tt> can process the batches, e.g. a cached
+ * thread pool or, on Java 21 and later, a virtual thread per task
+ * executor.
+ *
+ * @author anders.gidenstam(at)hb.se
+ * @param <E> the type of the submitted items.
+ * @param <R> the type of the result of processing a batch.
+ */
+public class MicroBatchingFIFOExecutor<E, R>
+{
+    /**
+     * Processes a batch of items.
+     *
+     * @param <E> the type of the items.
+     * @param <R> the type of the result.
+     */
+    public interface IBatchProcessor<E, R>
+    {
+        /**
+         * Processes a batch of items. Called concurrently for different
+         * batches.
+         *
+         * @param batch  the items in the order they were submitted.
+         * @return the result for the batch.
+         */
+        public R process(List<E> batch);
+    }
+
+    private final int _batchSize;
+    private final IBatchProcessor<E, R> _processor;
+    private final ExecutorService _threadPool;
+    private final BlockingQueue<Future<R>> _queue;
+    private List<E> _batch;
+
+    /**
+     * Creates a <tt>MicroBatchingFIFOExecutor</tt> with one batch in flight
+     * per available processor.
+     *
+     * @param batchSize        the maximum number of items in a batch.
+     * @param processor        the batch processor.
+     * @param executorService  the <tt>ExecutorService</tt> used to process the batches.
+     */
+    public MicroBatchingFIFOExecutor(int batchSize,
+                                     IBatchProcessor<E, R> processor,
+                                     ExecutorService executorService)
+    {
+        this(batchSize, Runtime.getRuntime().availableProcessors(),
+             processor, executorService);
+    }
+
+    /**
+     * Creates a <tt>MicroBatchingFIFOExecutor</tt>.
+     *
+     * @param batchSize        the maximum number of items in a batch.
+     * @param parallelism      the maximum number of batches in flight.
+     * @param processor        the batch processor.
+     * @param executorService  the <tt>ExecutorService</tt> used to process the batches.
+     */
+    public MicroBatchingFIFOExecutor(int batchSize,
+                                     int parallelism,
+                                     IBatchProcessor<E, R> processor,
+                                     ExecutorService executorService)
+    {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException
+                          ("The batch size must be positive.");
+        }
+        _batchSize = batchSize;
+        _processor = processor;
+        _threadPool = executorService;
+        _queue = new ArrayBlockingQueue<Future<R>>(parallelism);
+        _batch = new ArrayList<E>(batchSize);
+    }
+
+    /**
+     * Adds an item to the current batch and submits the batch for
+     * processing if it is full. Blocks if the maximum number of batches
+     * are in flight.
+     *
+     * @param item  the item.
+     * @throws java.lang.InterruptedException
+     */
+    public void submit(E item) throws InterruptedException
+    {
+        _batch.add(item);
+        if (_batch.size() >= _batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Submits the current batch for processing, even if it is not full.
+     * Blocks if the maximum number of batches are in flight.
+     *
+     * @throws java.lang.InterruptedException
+     */
+    public void flush() throws InterruptedException
+    {
+        if (_batch.isEmpty()) {
+            return;
+        }
+        final List<E> batch = _batch;
+        _batch = new ArrayList<E>(_batchSize);
+        Future<R> futureResult =
+            _threadPool.submit(new Callable<R>() {
+                    public R call()
+                    {
+                        return _processor.process(batch);
+                    }
+                });
+        _queue.put(futureResult);
+    }
+
+    /**
+     * Submits the current batch and marks the end of the items. The
+     * consumer will receive null after the last batch result.
+     *
+     * @throws java.lang.InterruptedException
+     */
+    public void finish() throws InterruptedException
+    {
+        flush();
+        FutureTask<R> end =
+            new FutureTask<R>(new Callable<R>() {
+                    public R call()
+                    {
+                        return null;
+                    }
+                });
+        end.run();
+        _queue.put(end);
+    }
+
+    /**
+     * Returns the next batch result, blocking to await its arrival or
+     * completion if needed.
+     *
+     * @return the next batch result or null after finish().
+     * @throws java.util.concurrent.ExecutionException
+     * @throws java.lang.InterruptedException
+     */
+    public R take() throws ExecutionException, InterruptedException
+    {
+        return _queue.take().get();
+    }
+
+    /**
+     * Returns the maximum number of items in a batch.
+     *
+     * @return the batch size.
+     */
+    public int getBatchSize()
+    {
+        return _batchSize;
+    }
+}
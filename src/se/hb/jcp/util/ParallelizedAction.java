@@ -17,23 +17,70 @@
 package se.hb.jcp.util;
 
 import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Base class for parallel actions over contiguous int intervals.
  *
+ * The interval is split lazily: a task only splits off more subtasks while
+ * its worker thread has few surplus queued tasks, i.e. while other workers
+ * may be idle. Cheap per-index work is thus run in a few large chunks and
+ * expensive per-index work is split down to single indices if there are
+ * threads to run them.
+ *
+ * The actions started by a thread run in the shared task pool unless the
+ * thread has selected another pool with setTaskPool(). The number of
+ * threads used by each action can be limited with setParallelismLimit().
+ *
+ * An action can be given a <tt>CancellationToken</tt>, e.g. with a
+ * deadline, and an <tt>IProgressListener</tt>. The token is checked between
+ * the compute(i) calls, so a cancelled action leaves some indices
+ * uncomputed; getCompletedCount() tells how many were computed.
+ *
+ * An action started from within the sequential part of another action,
+ * e.g. a non-conformity function computing scores for a transductive
+ * conformal classifier working over its test instances, is run
+ * sequentially in the calling thread unless the enclosing action allows
+ * nested parallelism. This avoids oversubscribing the task pool.
+ *
  * @author anders.gidenstam(at)hb.se
  */
 public abstract class ParallelizedAction
     extends RecursiveAction
 {
     private static final int MIN_WORK = 1;
-    private static final int MAX_DEPTH = 6;
-    private static final ForkJoinPool taskPool = new ForkJoinPool();
+    // Bounds the number of leaf tasks for large intervals of cheap work.
+    private static final int MAX_TASKS_PER_THREAD = 64;
+    // The bound on the number of leaf tasks when there is no parallelism
+    // limit.
+    private static final int MAX_LEAVES = 1 << 30;
+    // Splitting stops when the current worker has more queued tasks than
+    // this beyond what the idle workers can be expected to steal.
+    private static final int SURPLUS_QUEUED_TASKS = 3;
+    private static final ForkJoinPool sharedTaskPool = new ForkJoinPool();
+    // The action whose sequential part the current thread is executing.
+    private static final ThreadLocal<ParallelizedAction> currentAction =
+        new ThreadLocal<ParallelizedAction>();
+    // The task pool and parallelism limit selected by the current thread.
+    private static final ThreadLocal<ForkJoinPool> selectedTaskPool =
+        new ThreadLocal<ForkJoinPool>();
+    private static final ThreadLocal<Integer> selectedParallelismLimit =
+        new ThreadLocal<Integer>();
 
     private int _first;
     private int _last;
-    private int _depth;
+    // The maximum number of leaf tasks this task may be split into.
+    private int _maxLeaves;
+    private int _minWork;
+    private int _parallelismLimit;
+    // The next subtask forked by the same parent task.
+    private ParallelizedAction _nextForked;
+    // The cancellation and progress state shared by all the subtasks, if any.
+    private Control _control;
+    // Where compute(first, last) stopped if it was cancelled.
+    private int _stoppedAt;
 
     /**
      * Constructs a set of actions for the interval [first, last).
@@ -45,21 +92,183 @@ public abstract class ParallelizedAction
     {
         _first = first;
         _last  = last;
-        _depth = 0;
+        _maxLeaves = MAX_LEAVES;
+        _minWork = MIN_WORK;
     }
 
     /**
-     * Starts this set of actions.
+     * Starts this set of actions in the task pool selected by the current
+     * thread.
      */
     public void start()
     {
-        taskPool.invoke(this);
+        start(getTaskPool(), getParallelismLimit());
+    }
+
+    /**
+     * Starts this set of actions in the supplied task pool.
+     *
+     * @param pool   the task pool to use.
+     * @param parallelismLimit  the maximum number of threads to use or 0 for no limit.
+     */
+    public void start(ForkJoinPool pool, int parallelismLimit)
+    {
+        ParallelizedAction enclosing = currentAction.get();
+        if (enclosing == null) {
+            setLimits(pool, parallelismLimit);
+            pool.invoke(this);
+        } else if (enclosing.isNestedParallelismAllowed()) {
+            // A nested action inherits the limit of the enclosing action.
+            if (parallelismLimit == 0) {
+                parallelismLimit = enclosing._parallelismLimit;
+            }
+            setLimits(pool, parallelismLimit);
+            if (ForkJoinTask.getPool() == pool) {
+                // Fork the subtasks from the current worker thread.
+                invoke();
+            } else {
+                pool.invoke(this);
+            }
+        } else {
+            computeSequentially(_first, _last);
+        }
+    }
+
+    /**
+     * Sets a cancellation token for this set of actions. Must be called
+     * before start(). Nested actions are not affected by the token; they
+     * always complete.
+     *
+     * @param token   the cancellation token or null for none.
+     */
+    public void setCancellationToken(CancellationToken token)
+    {
+        getControl()._token = token;
+    }
+
+    /**
+     * Sets a progress listener for this set of actions. Must be called
+     * before start().
+     *
+     * @param listener   the progress listener or null for none.
+     */
+    public void setProgressListener(IProgressListener listener)
+    {
+        getControl()._listener = listener;
+    }
+
+    /**
+     * Returns the number of indices computed so far. Only counted if a
+     * cancellation token or a progress listener has been set.
+     *
+     * @return the number of indices computed.
+     */
+    public int getCompletedCount()
+    {
+        return (_control != null) ? _control._completed.get() : 0;
+    }
+
+    /**
+     * Returns whether this set of actions has been cancelled.
+     *
+     * @return true if the cancellation token has been cancelled or its deadline has passed; false otherwise.
+     */
+    protected boolean isStopRequested()
+    {
+        return _control != null && _control._token != null &&
+            _control._token.isCancelled();
+    }
+
+    /**
+     * Records that an overriding compute(first, last) returned early because
+     * the action was cancelled, after computing the indices [first, index).
+     * If it is not called the whole sub-interval is counted as computed.
+     *
+     * @param index   the first index in the sub-interval that was not computed.
+     */
+    protected void stoppedAt(int index)
+    {
+        _stoppedAt = index;
+    }
+
+    /**
+     * Selects the task pool for the actions started by the current thread.
+     * A server can use this to keep the actions of concurrent requests in
+     * separate pools.
+     *
+     * @param pool   the task pool to use or null for the shared task pool.
+     * @return the previously selected task pool or null.
+     */
+    public static ForkJoinPool setTaskPool(ForkJoinPool pool)
+    {
+        ForkJoinPool previous = selectedTaskPool.get();
+        selectedTaskPool.set(pool);
+        return previous;
+    }
+
+    /**
+     * Limits the number of threads used by each action started by the
+     * current thread.
+     *
+     * @param parallelismLimit  the maximum number of threads to use or 0 for no limit.
+     * @return the previous parallelism limit.
+     */
+    public static int setParallelismLimit(int parallelismLimit)
+    {
+        if (parallelismLimit < 0) {
+            throw new IllegalArgumentException
+                          ("The parallelism limit must be non-negative.");
+        }
+        int previous = getParallelismLimit();
+        selectedParallelismLimit.set(parallelismLimit);
+        return previous;
+    }
+
+    /**
+     * Returns the number of threads available for parallel actions started
+     * by the current thread.
+     *
+     * @return the parallelism level of the selected task pool, at most the parallelism limit.
+     */
+    public static int getParallelism()
+    {
+        int parallelism = getTaskPool().getParallelism();
+        int limit = getParallelismLimit();
+        return (limit > 0) ? Math.min(parallelism, limit) : parallelism;
+    }
+
+    private static ForkJoinPool getTaskPool()
+    {
+        ForkJoinPool pool = selectedTaskPool.get();
+        if (pool == null && ForkJoinTask.inForkJoinPool()) {
+            // Nested actions stay in the pool of the enclosing action.
+            pool = ForkJoinTask.getPool();
+        }
+        return (pool != null) ? pool : sharedTaskPool;
+    }
+
+    private static int getParallelismLimit()
+    {
+        Integer limit = selectedParallelismLimit.get();
+        return (limit != null) ? limit : 0;
+    }
+    /**
+     * Returns whether actions started from within the sequential part of
+     * this action may run in parallel. The default is false, i.e. such
+     * actions run sequentially in the calling thread. Override to return
+     * true for actions that do not occupy all threads on their own.
+     *
+     * @return true if nested actions may run in parallel; false otherwise.
+     */
+    protected boolean isNestedParallelismAllowed()
+    {
+        return false;
     }
 
     /**
      * Performs any needed intialization for the sub-interval once the split
      * threshold has been reached. E.g. allocating buffers that can be reused
-     * by the sequential compute(i) calls in this task.
+     * by the sequential compute calls in this task.
      *
      * @param first  the first index in the sub-interval
      * @param last   the index after the last index in the sub-interval
@@ -68,7 +277,7 @@ public abstract class ParallelizedAction
 
     /**
      * Performs any needed finalization for the sub-interval once all
-     * sequential compute(i) calls for it has been completed.
+     * sequential compute calls for it has been completed.
      *
      * @param first  the first index in the sub-interval
      * @param last   the index after the last index in the sub-interval
@@ -82,6 +291,27 @@ public abstract class ParallelizedAction
      */
     protected abstract void compute(int i);
 
+    /**
+     * The action to be performed for the sub-interval once the split
+     * threshold has been reached. The default calls compute(i) for each
+     * index in order until the action is cancelled. Override to process
+     * the whole sub-interval at once, e.g. to make one batch call to an
+     * underlying library.
+     *
+     * @param first  the first index in the sub-interval
+     * @param last   the index after the last index in the sub-interval
+     */
+    protected void compute(int first, int last)
+    {
+        for (int i = first; i < last; i++) {
+            if (isStopRequested()) {
+                stoppedAt(i);
+                return;
+            }
+            compute(i);
+        }
+    }
+
     /**
      * Creates a ParallelizedAction for the sub-interval.
      *
@@ -96,32 +326,133 @@ public abstract class ParallelizedAction
      *
      * @param first  the first index in the sub-interval
      * @param last   the index after the last index in the sub-interval
-     * @param depth  the current depth of task subdivision.
+     * @param maxLeaves  the maximum number of leaf tasks for the sub-interval.
      * @return a new subtask in the form of a <tt>ParallelizedAction</tt>.
      */
-    private ParallelizedAction createSubtask(int first, int last, int depth)
+    private ParallelizedAction createSubtask(int first, int last,
+                                             int maxLeaves)
     {
         ParallelizedAction a = createSubtask(first, last);
-        _depth = depth;
+        a._maxLeaves = maxLeaves;
+        a._minWork = _minWork;
+        a._parallelismLimit = _parallelismLimit;
+        a._control = _control;
         return a;
     }
 
+    /**
+     * Sets the maximum number of leaf tasks, which is exactly the
+     * parallelism limit if there is one, and the smallest sub-interval
+     * worth splitting for the task pool.
+     */
+    private void setLimits(ForkJoinPool pool, int parallelismLimit)
+    {
+        _parallelismLimit = parallelismLimit;
+        int parallelism = pool.getParallelism();
+        _maxLeaves = MAX_LEAVES;
+        if (parallelismLimit > 0) {
+            parallelism = Math.min(parallelism, parallelismLimit);
+            _maxLeaves = parallelismLimit;
+        }
+        _minWork = Math.max(MIN_WORK,
+                            (_last - _first) /
+                            (parallelism * MAX_TASKS_PER_THREAD));
+    }
+
     /**
      * Inherited from RecursiveAction. Do not overrride.
      */
     @Override
     protected final void compute()
     {
-        if ((_depth >= MAX_DEPTH) || (_last - _first <= MIN_WORK)) {
-            initialize(_first, _last);
-            for (int i = _first; i < _last; i++) {
-                compute(i);
+        // Split off the upper half of the leaf tasks, with a proportional
+        // part of the remaining interval, as long as other workers may need
+        // work and compute the rest in this task.
+        ParallelizedAction forked = null;
+        int last = _last;
+        int leaves = _maxLeaves;
+        boolean inPool = ForkJoinTask.inForkJoinPool();
+        while (inPool &&
+               leaves > 1 &&
+               last - _first > _minWork &&
+               getSurplusQueuedTaskCount() <= SURPLUS_QUEUED_TASKS) {
+            int forkedLeaves = leaves / 2;
+            int split = last - Math.max(1, (int)((long)(last - _first) *
+                                                 forkedLeaves / leaves));
+            ParallelizedAction subtask =
+                createSubtask(split, last, forkedLeaves);
+            subtask._nextForked = forked;
+            forked = subtask;
+            subtask.fork();
+            last = split;
+            leaves -= forkedLeaves;
+        }
+        computeSequentially(_first, last);
+        // Join the subtasks in the reverse order of forking.
+        while (forked != null) {
+            forked.join();
+            forked = forked._nextForked;
+        }
+    }
+
+    /**
+     * Performs the sub-interval [first, last) of this action in the
+     * current thread.
+     *
+     * @param first  the first index in the sub-interval
+     * @param last   the index after the last index in the sub-interval
+     */
+    private void computeSequentially(int first, int last)
+    {
+        // The current thread may be joining other tasks, so restore the
+        // enclosing action when done.
+        if (isStopRequested()) {
+            return;
+        }
+        ParallelizedAction enclosing = currentAction.get();
+        currentAction.set(this);
+        try {
+            _stoppedAt = last;
+            initialize(first, last);
+            compute(first, last);
+            finalize(first, last);
+        } finally {
+            currentAction.set(enclosing);
+        }
+        if (_control != null) {
+            _control.completed(_stoppedAt - first);
+        }
+    }
+
+    private Control getControl()
+    {
+        if (_control == null) {
+            _control = new Control(_last - _first);
+        }
+        return _control;
+    }
+
+    /**
+     * The cancellation and progress state of a set of actions.
+     */
+    private static class Control
+    {
+        CancellationToken _token;
+        IProgressListener _listener;
+        final AtomicInteger _completed = new AtomicInteger();
+        final int _total;
+
+        Control(int total)
+        {
+            _total = total;
+        }
+
+        void completed(int count)
+        {
+            int completed = _completed.addAndGet(count);
+            if (_listener != null) {
+                _listener.progressed(completed, _total);
             }
-            finalize(_first, _last);
-        } else {
-            int split = (_last - _first)/2;
-            invokeAll(createSubtask(_first, _first + split, _depth + 1),
-                      createSubtask(_first + split, _last, _depth + 1));
         }
     }
 }
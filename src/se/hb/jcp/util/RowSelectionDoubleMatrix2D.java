@@ -0,0 +1,190 @@
+// JCP - Java Conformal Prediction framework
+// Copyright (C) 2024  Anders Gidenstam
+//
+// This library is free software: you can redistribute it and/or modify
+// it under the terms of the GNU Lesser General Public License as published
+// by the Free Software Foundation, either version 3 of the License, or
+// (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+// GNU Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public License
+// along with this program.  If not, see <http://www.gnu.org/licenses/>.
+//
+// The public interface is based on cern.colt.matrix.DoubleMatrix2D.
+package se.hb.jcp.util;
+
+import cern.colt.matrix.DoubleMatrix1D;
+import cern.colt.matrix.DoubleMatrix2D;
+
+/**
+ * A 2-d matrix consisting of selected rows of an existing base matrix.
+ * The rows are shared, not copied, and row views are those of the base
+ * matrix, so the native row representation of e.g. the libsvm and
+ * liblinear matrices is kept. Unlike the Colt selection views this works
+ * for any base matrix that implements viewRow().
+ *
+ * This is intended for scoring or training on a part of a data set, such
+ * as a block of rows or the rows of a cross-validation fold, without
+ * copying it.
+ *
+ * @author anders.gidenstam(at)hb.se
+ */
+public class RowSelectionDoubleMatrix2D extends cern.colt.matrix.DoubleMatrix2D
+{
+    private final DoubleMatrix2D _base;
+    // The selected rows of the base matrix, or null for a range of rows
+    // starting at _firstRow.
+    private final int[] _rowIndices;
+    private final int _firstRow;
+
+    /**
+     * Constructs a matrix with the rows first to last - 1 of base.
+     *
+     * @param base   the matrix whose rows are shared.
+     * @param first  the index of the first row.
+     * @param last   the index after the last row.
+     */
+    public RowSelectionDoubleMatrix2D(DoubleMatrix2D base,
+                                      int first, int last)
+    {
+        if (first < 0 || last < first || last > base.rows()) {
+            throw new IllegalArgumentException
+                          ("The row range [" + first + ", " + last +
+                           ") is outside the base matrix.");
+        }
+        setUp(last - first, base.columns());
+        _base = base;
+        _rowIndices = null;
+        _firstRow = first;
+    }
+
+    /**
+     * Constructs a matrix with the given rows of base, in the given order.
+     *
+     * @param base        the matrix whose rows are shared.
+     * @param rowIndices  the indices of the selected rows of base. The array is shared, not copied.
+     */
+    public RowSelectionDoubleMatrix2D(DoubleMatrix2D base, int[] rowIndices)
+    {
+        for (int row : rowIndices) {
+            if (row < 0 || row >= base.rows()) {
+                throw new IllegalArgumentException
+                              ("The row " + row +
+                               " is outside the base matrix.");
+            }
+        }
+        setUp(rowIndices.length, base.columns());
+        _base = base;
+        _rowIndices = rowIndices;
+        _firstRow = 0;
+    }
+
+    /**
+     * Returns the matrix whose rows are selected by this matrix.
+     *
+     * @return the base matrix.
+     */
+    public DoubleMatrix2D getBase()
+    {
+        return _base;
+    }
+
+    /**
+     * Returns the index in the base matrix of a row of this matrix.
+     *
+     * @param row  the index of the row in this matrix.
+     * @return the index of the row in the base matrix.
+     */
+    public int getBaseRow(int row)
+    {
+        return _rowIndices != null ? _rowIndices[row] : _firstRow + row;
+    }
+
+    /**
+     * Construct and returns a new empty matrix of the same dynamic type
+     * as the base matrix, having the specified number of rows and columns.
+     *
+     * @param rows the number of rows the matrix shall have.
+     * @param columns the number of columns the matrix shall have.
+     * @return  a new empty matrix of the same dynamic type.
+     */
+    public DoubleMatrix2D like(int rows, int columns)
+    {
+        return _base.like(rows, columns);
+    }
+
+    /**
+     * Construct and returns a new 1-d matrix of the type corresponding to
+     * the base matrix, entirelly independent of the receiver.
+     *
+     * @param  size the number of cells the matrix shall have.
+     * @return  a new matrix of the corresponding dynamic type.
+     */
+    public DoubleMatrix1D like1D(int size)
+    {
+        return _base.like1D(size);
+    }
+
+    /**
+     * Not supported.
+     */
+    protected DoubleMatrix1D like1D(int size, int zero, int stride)
+    {
+        throw new UnsupportedOperationException("Not implemented");
+    }
+
+    /**
+     * Returns the matrix cell value at coordinate <tt>[row,column]</tt>.
+     * Precondition (unchecked): <tt>0 &lt;= column &lt; columns() &amp;&amp;
+     * 0 &lt;= row &lt; rows()</tt>.
+     *
+     * @param row     the index of the row-coordinate.
+     * @param column  the index of the column-coordinate.
+     * @return the value at the specified coordinate.
+     */
+    public double getQuick(int row, int column)
+    {
+        return _base.getQuick(getBaseRow(row), column);
+    }
+
+    /**
+     * Sets the matrix cell at coordinate <tt>[row,column]</tt> of the base
+     * matrix to the specified value.
+     * Precondition (unchecked): <tt>0 &lt;= column &lt; columns() &amp;&amp;
+     * 0 &lt;= row &lt; rows()</tt>.
+     *
+     * @param row     the index of the row-coordinate.
+     * @param column  the index of the column-coordinate.
+     * @param value   the value to be filled into the specified cell.
+     */
+    public void setQuick(int row, int column, double value)
+    {
+        _base.setQuick(getBaseRow(row), column, value);
+    }
+
+    /**
+     * Returns a view of the given row of the base matrix.
+     *
+     * @param row the row to fix.
+     * @return a view of the row.
+     * @throws IndexOutOfBoundsException if <tt>row &lt; 0 || row &gt;= rows()</tt>.
+     */
+    public DoubleMatrix1D viewRow(int row)
+    {
+        checkRow(row);
+        return _base.viewRow(getBaseRow(row));
+    }
+
+    /**
+     * Not supported.
+     */
+    protected DoubleMatrix2D viewSelectionLike(int[] rowOffsets,
+                                               int[] columnOffsets)
+    {
+        throw new UnsupportedOperationException("Not implemented");
+    }
+}